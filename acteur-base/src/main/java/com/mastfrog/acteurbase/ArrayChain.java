@@ -91,7 +91,7 @@ public class ArrayChain<T, C extends ArrayChain<T, C>> implements Chain<T, C> {
     }
 
     @SuppressWarnings("unchecked")
-    public final C add(Class<? extends T> type) {
+    public final synchronized C add(Class<? extends T> type) {
         Checks.notNull("type", type);
         if (!this.type.isAssignableFrom(type)) {
             throw new ConfigurationError(type.getName() + " is not a " + this.type.getName());
@@ -126,7 +126,7 @@ public class ArrayChain<T, C extends ArrayChain<T, C>> implements Chain<T, C> {
     }
 
     @SuppressWarnings("unchecked")
-    public final C insert(T obj) {
+    public final synchronized C insert(T obj) {
         Checks.notNull("obj", obj);
         if (!validElement(obj)) {
             throw new ConfigurationError("Not an instance of " + this.type.getName() + ": " + obj);
@@ -137,7 +137,7 @@ public class ArrayChain<T, C extends ArrayChain<T, C>> implements Chain<T, C> {
     }
 
     @SuppressWarnings("unchecked")
-    public final C add(T obj) {
+    public final synchronized C add(T obj) {
         Checks.notNull("obj", obj);
         if (!validElement(obj)) {
             throw new ConfigurationError("Not an instance of " + this.type.getName() + ": " + obj);
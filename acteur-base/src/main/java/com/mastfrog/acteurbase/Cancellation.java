@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteurbase;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An AtomicBoolean which can be passed as the <code>cancelled</code> argument
+ * to {@link ChainsRunner} or {@link ChainRunner}, and which can notify
+ * listeners when it is cancelled via <code>cancel()</code>, so that a chain
+ * which is parked in a {@link Deferral} can release what it is holding
+ * immediately, rather than when (or if) it is eventually resumed.
+ * <p>
+ * Setting the value directly with <code>set(true)</code> still cancels
+ * execution, but does not notify listeners.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+public final class Cancellation extends AtomicBoolean {
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Cancel, notifying any listeners if this call changed the state.
+     *
+     * @return true if this call cancelled it
+     */
+    public boolean cancel() {
+        if (compareAndSet(false, true)) {
+            for (Runnable r : listeners) {
+                // Removal decides who runs a listener added concurrently
+                if (listeners.remove(r)) {
+                    r.run();
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add a listener to be run on cancellation; if already cancelled, it is
+     * run immediately.
+     *
+     * @param listener A listener
+     * @return The listener
+     */
+    public Runnable onCancel(Runnable listener) {
+        listeners.add(listener);
+        if (get() && listeners.remove(listener)) {
+            listener.run();
+        }
+        return listener;
+    }
+
+    /**
+     * Remove a listener which is no longer needed.
+     *
+     * @param listener The listener
+     */
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+}
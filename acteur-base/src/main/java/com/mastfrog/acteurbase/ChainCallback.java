@@ -81,6 +81,28 @@ public interface ChainCallback<A extends AbstractActeur<T, R, S>, S extends Acte
      */
     void onAfterRunOne(P chain, A acteur);
 
+    /**
+     * Called when an acteur has deferred the chain, after the acteur has
+     * exited and before any DeferredCode is run.
+     *
+     * @param chain The chain
+     * @since 2.5.0
+     */
+    default void onDeferred(P chain) {
+        // do nothing
+    }
+
+    /**
+     * Called when a deferred chain is resumed, on the thread which resumed
+     * it.
+     *
+     * @param chain The chain
+     * @since 2.5.0
+     */
+    default void onResumed(P chain) {
+        // do nothing
+    }
+
     /**
      * Called if an exception is thrown during processing. Execution of the
      * chain is aborted if this is called.
@@ -29,12 +29,15 @@ import com.mastfrog.acteurbase.Deferral.Resumer;
 import com.mastfrog.giulius.scope.ReentrantScope;
 import com.mastfrog.util.preconditions.Checks;
 import com.mastfrog.util.preconditions.Exceptions;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.inject.Inject;
 import com.mastfrog.util.thread.QuietAutoCloseable;
@@ -48,6 +51,9 @@ import com.mastfrog.util.thread.QuietAutoCloseable;
  * framework, it is best to write specific, parameterized subclasses of this,
  * AbstractActeur, State and StateCallback, so that it is clear what someone is
  * supposed to pass.
+ * <p>
+ * A chain may contain {@link ConcurrentActeurs} elements, whose members are
+ * run in parallel, with the chain continuing once all of them have completed.
  *
  * @author Tim Boudreau
  */
@@ -79,11 +85,83 @@ public final class ChainRunner {
      * @param chain The chain
      * @param onDone The callback
      * @param cancelled Set this to true if execution should be silently
-     * cancelled
+     * cancelled; if it is a {@link Cancellation}, a chain parked in a
+     * deferral releases what it holds as soon as it is cancelled
      */
     public <A extends AbstractActeur<T, R, S>, S extends ActeurState<T, R>, P extends Chain<? extends A, ?>, T, R extends T>
             void submit(P chain, ChainCallback<A, S, P, T, R> onDone, AtomicBoolean cancelled) {
-        ActeurInvoker<A, S, P, T, R> cc = new ActeurInvoker<>(svc, scope, chain, onDone, cancelled);
+        submit(chain, onDone, cancelled, svc);
+    }
+
+    /**
+     * Run one {@link Chain} of {@link AbstractActeur}s on a specific executor,
+     * rather than the one this runner was created with - for example, to
+     * isolate some chains in a bounded pool of their own.
+     *
+     * @param <A> The AbstractActeur subtype
+     * @param <S> The State subtype
+     * @param <P> The Chain subtype
+     * @param <T> The public type the AbstractActeur subtype is parameterized on
+     * @param <R> The implementation type the AbstractActeur subtype is
+     * parameterized on
+     * @param chain The chain
+     * @param onDone The callback
+     * @param cancelled Set this to true if execution should be silently
+     * cancelled
+     * @param svc The executor all work for this chain should be run on
+     * @throws RejectedExecutionException if the executor rejects the initial
+     * work; if it rejects subsequent work, the callback's
+     * <code>onFailure()</code> is called with the exception
+     * @since 2.5.0
+     */
+    public <A extends AbstractActeur<T, R, S>, S extends ActeurState<T, R>, P extends Chain<? extends A, ?>, T, R extends T>
+            void submit(P chain, ChainCallback<A, S, P, T, R> onDone, AtomicBoolean cancelled, ExecutorService svc) {
+        Checks.notNull("svc", svc);
+        start(new ActeurInvoker<>(svc, null, 0, scope, chain, onDone, cancelled), chain);
+    }
+
+    /**
+     * Run one {@link Chain} of {@link AbstractActeur}s, starting on the
+     * executor this runner was created with, and moving the rest of the chain
+     * to another executor once a number of its leading acteurs have accepted
+     * the work - for example, so that a chain whose first few acteurs decide
+     * whether it is interested in a request at all only occupies a bounded
+     * pool once they have.
+     * <p>
+     * The move happens at most once per run: once on the handoff executor,
+     * subsequent acteurs are run on the same thread rather than each being
+     * queued in it again; a chain resumed after a deferral is resubmitted to
+     * it.
+     *
+     * @param <A> The AbstractActeur subtype
+     * @param <S> The State subtype
+     * @param <P> The Chain subtype
+     * @param <T> The public type the AbstractActeur subtype is parameterized on
+     * @param <R> The implementation type the AbstractActeur subtype is
+     * parameterized on
+     * @param chain The chain
+     * @param onDone The callback
+     * @param cancelled Set this to true if execution should be silently
+     * cancelled
+     * @param handoff The executor the remainder of the chain should be run on
+     * @param handoffAfter The number of acteurs which must accept the work
+     * (neither rejecting it nor finishing it) before the chain moves to the
+     * handoff executor; if zero or less, the whole chain is run on it
+     * @throws RejectedExecutionException if the handoff executor is used from
+     * the start and rejects the initial work; if it rejects subsequent work,
+     * the callback's <code>onFailure()</code> is called with the exception
+     * @since 2.5.0
+     */
+    public <A extends AbstractActeur<T, R, S>, S extends ActeurState<T, R>, P extends Chain<? extends A, ?>, T, R extends T>
+            void submit(P chain, ChainCallback<A, S, P, T, R> onDone, AtomicBoolean cancelled, ExecutorService handoff, int handoffAfter) {
+        Checks.notNull("handoff", handoff);
+        start(handoffAfter <= 0
+                ? new ActeurInvoker<>(handoff, handoff, 0, scope, chain, onDone, cancelled)
+                : new ActeurInvoker<>(svc, handoff, handoffAfter, scope, chain, onDone, cancelled), chain);
+    }
+
+    private <A extends AbstractActeur<T, R, S>, S extends ActeurState<T, R>, P extends Chain<? extends A, ?>, T, R extends T>
+            void start(ActeurInvoker<A, S, P, T, R> cc, P chain) {
         // Enter the scope, with the Chain (so it can be dynamically added to)
         // and the deferral, which can be used to pause the chain
         try (QuietAutoCloseable ac = scope.enter(chain, cc.deferral)) {
@@ -100,14 +178,20 @@ public final class ChainRunner {
             } else {
 //                 Wrap the callable so whenn it is invoked, we will be in the
 //                 scope with the same contents as before
-                svc.submit(scope.wrap(cc));
+                cc.svc.submit(scope.wrap(cc));
             }
         }
     }
 
     private static class ActeurInvoker<A extends AbstractActeur<T, R, S>, S extends ActeurState<T, R>, P extends Chain<? extends A, ?>, T, R extends T> implements Callable<Void>, Resumer {
 
-        private final ExecutorService svc;
+        // Replaced at most once, by the handoff executor, after which
+        // subsequent steps run on whichever of its threads picked up the
+        // chain
+        private volatile ExecutorService svc;
+        private final ExecutorService handoff;
+        private final int handoffAfter;
+        private int accepted;
 
         private final ReentrantScope scope;
         private final Iterator<? extends A> iter;
@@ -120,9 +204,20 @@ public final class ChainRunner {
         private final P chain;
         private final AtomicBoolean cancelled;
         private final AtomicReference<DeferredCode> deferredCode = new AtomicReference<>();
+        // Set while DeferredCode is running, so a resume() from within it
+        // (e.g. a CompletionStage which was already complete) can continue on
+        // this thread rather than paying for another executor submission
+        private volatile Thread runningDeferredCode;
+        private boolean resumedInDeferredCode;
+        private int syncDepth;
+        private static final int MAX_SYNC_RESUME_DEPTH = 16;
+        // Registered while deferred, if cancellation can notify us
+        private volatile Runnable releaseOnCancel;
 
-        public ActeurInvoker(ExecutorService svc, ReentrantScope scope, P chain, ChainCallback<A, S, P, T, R> onDone, AtomicBoolean cancelled) {
+        public ActeurInvoker(ExecutorService svc, ExecutorService handoff, int handoffAfter, ReentrantScope scope, P chain, ChainCallback<A, S, P, T, R> onDone, AtomicBoolean cancelled) {
             this.svc = svc;
+            this.handoff = handoff;
+            this.handoffAfter = handoffAfter;
             this.scope = scope;
             this.iter = chain.iterator();
             this.chain = chain;
@@ -205,6 +300,14 @@ public final class ChainRunner {
                     // Instantiate the next acteur, most likely causing its
                     // constructor to set its state
                     a2 = iter.next();
+                    if (a2 instanceof ConcurrentActeurs<?>) {
+                        onDone.onAfterRunOne(chain, a2);
+                        // Capture the continuation in the chain's scope now,
+                        // before the members enter their own deferrals
+                        next = scope.wrap(this);
+                        new ConcurrentRun((ConcurrentActeurs<?>) a2).start();
+                        return null;
+                    }
                     // Get the state, which may compute the state if it is lazy
                     newState = a2.getState();
                     onDone.onAfterRunOne(chain, a2, newState);
@@ -242,20 +345,46 @@ public final class ChainRunner {
                 }
                 // See if we're done
                 if (!newState.isFinished()) {
+                    boolean handingOff = false;
+                    if (handoff != null && svc != handoff && ++accepted == handoffAfter) {
+                        svc = handoff;
+                        handingOff = true;
+                    }
                     // If no more Acteurs, tell the callback we give up
                     if (!iter.hasNext()) {
                         onDone.onNoResponse();
                     } else if (deferred.get()) {
                         Deferral.DeferredCode code = deferredCode.getAndSet(null);
                         next = scope.wrap(this);
+                        park();
+                        onDone.onDeferred(chain);
                         if (code != null) {
-                            code.run(this);
+                            runningDeferredCode = Thread.currentThread();
+                            try {
+                                code.run(this);
+                            } finally {
+                                runningDeferredCode = null;
+                            }
+                            if (resumedInDeferredCode) {
+                                resumedInDeferredCode = false;
+                                if (handingOff) {
+                                    execute(next);
+                                } else {
+                                    continueSynchronously();
+                                }
+                            }
                         }
                     } else if (!cancelled.get()) {
                         if (allSync) {
                             this.call();
+                        } else if (svc == handoff && !handingOff) {
+                            // Already running on the executor we were handed
+                            // off to - carry on here rather than queueing each
+                            // step in it again
+                            next = scope.wrap(this);
+                            continueSynchronously();
                         } else {
-                            svc.submit(scope.wrap(this));
+                            execute(scope.wrap(this));
                         }
                     }
                 } else {
@@ -272,16 +401,301 @@ public final class ChainRunner {
             }
         }
 
+        private void park() {
+            if (cancelled instanceof Cancellation) {
+                releaseOnCancel = ((Cancellation) cancelled).onCancel(this::release);
+            }
+        }
+
+        private void unpark() {
+            Runnable release = releaseOnCancel;
+            if (release != null) {
+                releaseOnCancel = null;
+                ((Cancellation) cancelled).removeListener(release);
+            }
+        }
+
+        /**
+         * Cancelled while deferred - whatever we were waiting on may never
+         * resume us, so drop the scope contents and responses now rather than
+         * holding them until it does.
+         */
+        private void release() {
+            releaseOnCancel = null;
+            next = null;
+            synchronized (this) {
+                state = new Object[0];
+                responses.clear();
+            }
+        }
+
+        private void continueSynchronously() throws Exception {
+            Callable<?> next = this.next;
+            if (next == null || cancelled.get()) {
+                return;
+            }
+            // Bound the recursion if a long run of acteurs each resume
+            // synchronously
+            if (syncDepth >= MAX_SYNC_RESUME_DEPTH) {
+                execute(next);
+                return;
+            }
+            syncDepth++;
+            try {
+                next.call();
+            } finally {
+                syncDepth--;
+            }
+        }
+
+        private void continueAfterGroup() {
+            if (cancelled.get()) {
+                return;
+            }
+            if (!iter.hasNext()) {
+                onDone.onNoResponse();
+            } else {
+                execute(next);
+            }
+        }
+
+        /**
+         * Submit work to the executor, failing the chain rather than silently
+         * losing it if a bounded executor rejects it.
+         */
+        private void execute(Callable<?> work) {
+            try {
+                svc.submit(work);
+            } catch (RejectedExecutionException ex) {
+                onDone.onFailure(ex);
+            }
+        }
+
+        /**
+         * Runs the members of a ConcurrentActeurs group in parallel, and
+         * merges their results back into the chain.
+         */
+        private final class ConcurrentRun {
+
+            private final ConcurrentActeurs<?> group;
+            private final Object[][] contexts;
+            private final Object[] memberResponses;
+            private final AtomicInteger remaining;
+            private final AtomicBoolean concluded = new AtomicBoolean();
+            private final List<R> responsesThusFar;
+
+            ConcurrentRun(ConcurrentActeurs<?> group) {
+                this.group = group;
+                int size = group.size();
+                contexts = new Object[size][];
+                memberResponses = new Object[size];
+                remaining = new AtomicInteger(size);
+                synchronized (ActeurInvoker.this) {
+                    responsesThusFar = new ArrayList<>(responses);
+                }
+            }
+
+            void start() {
+                if (contexts.length == 0) {
+                    concluded.set(true);
+                    continueAfterGroup();
+                    return;
+                }
+                for (int i = 0; i < contexts.length; i++) {
+                    try {
+                        svc.submit(scope.wrap(new Member(i)));
+                    } catch (RejectedExecutionException ex) {
+                        failed(ex);
+                        return;
+                    }
+                }
+            }
+
+            void failed(Throwable t) {
+                if (concluded.compareAndSet(false, true)) {
+                    onDone.onFailure(t);
+                }
+            }
+
+            @SuppressWarnings("unchecked")
+            void memberDone(int index, S state, Object[] resumedWith) {
+                if (concluded.get()) {
+                    return;
+                }
+                Object[] ctx = state.context();
+                if (resumedWith != null && resumedWith.length > 0) {
+                    if (ctx == null || ctx.length == 0) {
+                        ctx = resumedWith;
+                    } else {
+                        Object[] nue = new Object[ctx.length + resumedWith.length];
+                        System.arraycopy(ctx, 0, nue, 0, ctx.length);
+                        System.arraycopy(resumedWith, 0, nue, ctx.length, resumedWith.length);
+                        ctx = nue;
+                    }
+                }
+                if (ctx != null && ctx.length > 0) {
+                    Throwable failure = group.failureIn(ctx);
+                    if (failure != null) {
+                        failed(failure);
+                        return;
+                    }
+                }
+                if (state.isRejected()) {
+                    if (concluded.compareAndSet(false, true)) {
+                        addToContext(state);
+                        onDone.onRejected(state);
+                    }
+                    return;
+                }
+                contexts[index] = ctx;
+                memberResponses[index] = state.response();
+                if (state.isFinished()) {
+                    // This member responded - no need to wait for the others
+                    if (concluded.compareAndSet(false, true)) {
+                        merge();
+                        try (QuietAutoCloseable cl = scope.enter(ActeurInvoker.this.state)) {
+                            onDone.onDone(state, responses);
+                        }
+                    }
+                    return;
+                }
+                if (remaining.decrementAndGet() == 0 && concluded.compareAndSet(false, true)) {
+                    merge();
+                    continueAfterGroup();
+                }
+            }
+
+            @SuppressWarnings("unchecked")
+            private void merge() {
+                synchronized (ActeurInvoker.this) {
+                    for (int i = 0; i < contexts.length; i++) {
+                        addToContext(contexts[i]);
+                        if (memberResponses[i] != null) {
+                            responses.add((R) memberResponses[i]);
+                        }
+                    }
+                }
+            }
+
+            private final class Member implements Callable<Void>, Deferral, Resumer {
+
+                private final int index;
+                private final AtomicBoolean memberDeferred = new AtomicBoolean();
+                // Never cleared by resume(), so call() still waits on pending
+                // if the member was resumed before its constructor exited
+                private final AtomicBoolean everDeferred = new AtomicBoolean();
+                // Counts down construction and resumption, so a member which
+                // is resumed before its constructor has exited is not
+                // completed without its state
+                private final AtomicInteger pending = new AtomicInteger(2);
+                private volatile DeferredCode code;
+                private volatile S memberState;
+                private volatile Object[] resumedWith;
+
+                Member(int index) {
+                    this.index = index;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public Void call() throws Exception {
+                    if (concluded.get() || cancelled.get()) {
+                        return null;
+                    }
+                    // Shadow the chain's Deferral with our own
+                    try (QuietAutoCloseable cl = scope.enter(this)) {
+                        onDone.onBeforeRunOne(chain);
+                        onDone.onBeforeRunOne(chain, responsesThusFar);
+                        A acteur = (A) group.create(index);
+                        S st = acteur.getState();
+                        onDone.onAfterRunOne(chain, acteur, st);
+                        memberState = st;
+                        if (everDeferred.get()) {
+                            DeferredCode c = code;
+                            code = null;
+                            if (c != null) {
+                                c.run(this);
+                            }
+                            if (pending.decrementAndGet() == 0) {
+                                memberDone(index, st, resumedWith);
+                            }
+                        } else {
+                            memberDone(index, st, null);
+                        }
+                    } catch (Exception | Error e) {
+                        Throwable t = e;
+                        if (e instanceof ProvisionException && e.getCause() != null) {
+                            t = e.getCause();
+                        }
+                        failed(t);
+                    }
+                    return null;
+                }
+
+                @Override
+                public Resumer defer() {
+                    // Only one deferral per member - pending counts one resume
+                    if (!everDeferred.compareAndSet(false, true)) {
+                        throw new IllegalStateException("Already deferred");
+                    }
+                    memberDeferred.set(true);
+                    return this;
+                }
+
+                @Override
+                public Resumer defer(DeferredCode code) {
+                    if (!everDeferred.compareAndSet(false, true)) {
+                        throw new IllegalStateException("Already deferred");
+                    }
+                    this.code = code;
+                    memberDeferred.set(true);
+                    return this;
+                }
+
+                @Override
+                public void resume(Object... addToContext) {
+                    if (cancelled.get() || concluded.get()) {
+                        return;
+                    }
+                    if (memberDeferred.compareAndSet(true, false)) {
+                        resumedWith = addToContext == null ? new Object[0] : addToContext;
+                        if (pending.decrementAndGet() == 0) {
+                            try {
+                                memberDone(index, memberState, resumedWith);
+                            } catch (Exception | Error e) {
+                                failed(e);
+                            }
+                        }
+                    } else {
+                        throw new IllegalStateException("Not deferred");
+                    }
+                }
+
+                @Override
+                public String toString() {
+                    return "Member " + index + " of " + group;
+                }
+            }
+        }
+
         @Override
         public void resume(Object... addToContext) {
             if (cancelled.get()) {
                 return;
             }
             if (deferred.compareAndSet(true, false)) {
+                unpark();
+                onDone.onResumed(chain);
                 addToContext(addToContext);
+                if (runningDeferredCode == Thread.currentThread()) {
+                    // We are still inside call() on this thread - it will
+                    // pick up where we left off once the DeferredCode exits
+                    resumedInDeferredCode = true;
+                    return;
+                }
                 Callable<?> next = this.next;
                 if (next != null) {
-                    svc.submit(next);
+                    execute(next);
                 }
             } else {
                 Exception ise = new IllegalStateException("Not deferred");
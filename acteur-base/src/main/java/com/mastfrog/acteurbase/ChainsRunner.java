@@ -28,6 +28,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -40,6 +41,7 @@ public class ChainsRunner {
     private final ExecutorService svc;
     private final ReentrantScope scope;
     private final ChainRunner chainRunner;
+    private final Handoff handoff;
 
     /**
      * Create a ChainsRunner
@@ -50,9 +52,28 @@ public class ChainsRunner {
      * @param chainRunner A runner which will run individual chains
      */
     public ChainsRunner(ExecutorService svc, ReentrantScope scope, ChainRunner chainRunner) {
+        this(svc, scope, chainRunner, null);
+    }
+
+    /**
+     * Create a ChainsRunner which may move some chains onto executors other
+     * than the default one part way through running them.
+     *
+     * @param svc The ExecutorService which will provide threads to run the work
+     * @param scope The scope types AbstractActeurs pass between them will be
+     * bound in
+     * @param chainRunner A runner which will run individual chains
+     * @param handoff Decides which executor, if any, each chain should move
+     * to, and when; if the executor rejects the chain, the callback's
+     * <code>onFailure()</code> is passed the RejectedExecutionException
+     * @since 2.5.0
+     */
+    public ChainsRunner(ExecutorService svc, ReentrantScope scope, ChainRunner chainRunner,
+            Handoff handoff) {
         this.svc = svc;
         this.scope = scope;
         this.chainRunner = chainRunner;
+        this.handoff = handoff;
     }
 
     /**
@@ -80,7 +101,8 @@ public class ChainsRunner {
      * @param onDone The callback to be notified when the work has completed, or
      * the chains have all been completed without success, or on failure
      * @param cancelled An atomic boolean which will be checked - if true, the
-     * work will be aborted.
+     * work will be aborted. Pass a {@link Cancellation} to have parked chains
+     * release their state immediately on cancellation.
      * @param initialContext Any objects which should be available for injection
      * into the {@link AbstractActeur}s in the chain.
      */
@@ -89,6 +111,39 @@ public class ChainsRunner {
         svc.submit(scope.wrap(new OneChainRun<>(svc, onDone, chains.iterator(), cancelled), initialContext));
     }
 
+    /**
+     * Moves chains which should not occupy the default executor onto another
+     * one, once the acteurs which decide whether the chain wants the work at
+     * all have accepted it.
+     *
+     * @since 2.5.0
+     */
+    public interface Handoff {
+
+        /**
+         * Get the executor the chain should move to.
+         *
+         * @param chain A chain about to be run
+         * @return An executor, or null if the chain should be run entirely on
+         * the default one
+         */
+        ExecutorService executorFor(Chain<?, ?> chain);
+
+        /**
+         * Get the number of leading acteurs in the chain which should be run
+         * on the default executor, and must all accept the work, before the
+         * chain moves to the one returned by <code>executorFor()</code>.
+         * Only called if that returned non-null.
+         *
+         * @param chain A chain about to be run
+         * @return A number of acteurs; if zero, the whole chain is run on the
+         * other executor
+         */
+        default int handoffAfter(Chain<?, ?> chain) {
+            return 0;
+        }
+    }
+
     class OneChainRun<A extends AbstractActeur<T, R, S>, S extends ActeurState<T, R>, P extends Chain<? extends A,?>, T, R extends T> implements ChainCallback<A, S, P, T, R>, Callable<Void> {
 
         private final ExecutorService svc;
@@ -125,8 +180,15 @@ public class ChainsRunner {
                     this.onDone.onNoResponse();
                 } else {
                     P c = iter.next();
-                    chainRunner.submit(c, this, cancelled);
+                    ExecutorService exe = handoff == null ? null : handoff.executorFor(c);
+                    if (exe == null) {
+                        chainRunner.submit(c, this, cancelled);
+                    } else {
+                        chainRunner.submit(c, this, cancelled, exe, handoff.handoffAfter(c));
+                    }
                 }
+            } catch (RejectedExecutionException e) {
+                this.onDone.onFailure(e);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -162,5 +224,20 @@ public class ChainsRunner {
         public void onAfterRunOne(P chain, A a) {
             onDone.onAfterRunOne(chain, a);
         }
+
+        @Override
+        public void onAfterRunOne(P chain, A a, ActeurState state) {
+            onDone.onAfterRunOne(chain, a, state);
+        }
+
+        @Override
+        public void onDeferred(P chain) {
+            onDone.onDeferred(chain);
+        }
+
+        @Override
+        public void onResumed(P chain) {
+            onDone.onResumed(chain);
+        }
     }
 }
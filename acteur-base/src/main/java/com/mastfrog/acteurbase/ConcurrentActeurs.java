@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteurbase;
+
+/**
+ * A chain element which is not itself run, but which groups several
+ * independent acteurs that {@link ChainRunner} runs concurrently, continuing
+ * the chain once all of them have completed. The context objects each member
+ * contributes are merged (in the order members are listed) and are available
+ * to acteurs after the group; if any member rejects the request, finishes the
+ * chain or fails, the remaining members' results are discarded and the chain
+ * ends there.
+ * <p>
+ * Members are constructed on different threads, in the scope the chain was in
+ * when the group was reached, so they should not depend on one another's
+ * context contributions. Each member gets its own {@link Deferral}, so members
+ * may pause for asynchronous work independently; the group completes when the
+ * last of them has been resumed.
+ *
+ * @param <A> The acteur type
+ * @author Tim Boudreau
+ */
+public interface ConcurrentActeurs<A extends AbstractActeur<?, ?, ?>> {
+
+    /**
+     * The number of acteurs in this group.
+     *
+     * @return The size
+     */
+    int size();
+
+    /**
+     * Create the acteur at the passed index; called on the thread which will
+     * run it, in request scope.
+     *
+     * @param index The index
+     * @return An acteur
+     * @throws Exception If something goes wrong
+     */
+    A create(int index) throws Exception;
+
+    /**
+     * Determine if the objects a member contributed - including any it was
+     * resumed with if it deferred - indicate that it failed, in which case
+     * the group is aborted with that failure.
+     *
+     * @param context The objects the member added to the context, followed
+     * by those passed to <code>Resumer.resume()</code>
+     * @return A throwable or null
+     */
+    default Throwable failureIn(Object[] context) {
+        return null;
+    }
+}
@@ -61,6 +61,11 @@ public interface Deferral {
      * to complete and call resume() before the acteur constructor defer was
      * called from completes running.  Using deferredCode guarantees that the
      * code is run after the method defer was called from exits.
+     * <p>
+     * If the code calls <code>resume()</code> synchronously on the thread it
+     * was invoked on (for example, because some CompletionStage it waits on
+     * was already complete), the chain continues on that thread as soon as
+     * the code exits, rather than being resubmitted to the executor.
      */
     public interface DeferredCode {
         void run(Resumer resume) throws Exception;
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteurbase;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors which run each task on a new virtual thread, on JVMs
+ * which support them (JDK 21 and up), without requiring this library to be
+ * compiled against one. Passing such an executor to a {@link ChainRunner}
+ * means each step of a chain runs on a virtual thread, so acteurs which do
+ * blocking I/O do not tie up a platform thread while they wait. Scope
+ * contents are carried across by <code>ReentrantScope.wrap()</code> exactly
+ * as they are for platform threads.
+ * <p>
+ * Note that blocking while holding a monitor (in a <code>synchronized</code>
+ * block, as some JDBC drivers do) pins the carrier thread on JDKs before 24,
+ * which can still exhaust the carrier pool.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newExecutor = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newExecutor = java.util.concurrent.Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException | SecurityException ex) {
+            // Not JDK 21 or better
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newExecutor;
+    }
+
+    private VirtualThreads() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Determine if the running JVM supports virtual threads.
+     *
+     * @return true if they are supported
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create an executor which runs each task in a new virtual thread, named
+     * with the passed prefix followed by a counter.
+     *
+     * @param namePrefix The thread name prefix
+     * @return An executor
+     * @throws UnsupportedOperationException if the JVM does not support
+     * virtual threads
+     */
+    public static ExecutorService newExecutor(String namePrefix) {
+        if (OF_VIRTUAL == null) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or later; running "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+            ThreadFactory factory = (ThreadFactory) FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (ReflectiveOperationException ex) {
+            throw new UnsupportedOperationException("Could not create virtual thread executor", ex);
+        }
+    }
+}
@@ -42,10 +42,14 @@ import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
@@ -117,6 +121,157 @@ public class ChainRunnerTest {
         callback.throwIfError().assertNoResponse();
     }
 
+    @Test(timeout = 10000)
+    public void testConcurrentGroup() throws Exception, Throwable {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ChainRunner cr = new ChainRunner(svc, scope);
+        NamedChain groupChain = new NamedChain("Group", deps, AbstractActeur.class)
+                .add(FirstA.class).add(new Group(deps, ShortA.class, DeferredDoubleA.class)).add(JoinA.class);
+        NamedChain rejectingGroupChain = new NamedChain("RejectingGroup", deps, AbstractActeur.class)
+                .add(FirstA.class).add(new Group(deps, DeferredDoubleA.class, Rejecter.class)).add(JoinA.class);
+        NamedChain failingGroupChain = new NamedChain("FailingGroup", deps, AbstractActeur.class)
+                .add(FirstA.class).add(new Group(deps, ShortA.class, ErrorA.class)).add(JoinA.class);
+        TestCallback joined = new TestCallback();
+        TestCallback rejected = new TestCallback();
+        TestCallback failed = new TestCallback();
+        try (AutoCloseable cl = scope.enter()) {
+            cr.submit(groupChain, joined, cancelled);
+            cr.submit(rejectingGroupChain, rejected, cancelled);
+            cr.submit(failingGroupChain, failed, cancelled);
+        }
+        joined.throwIfError().assertGotResponse().assertActeurClass(JoinA.class).assertNotRejected();
+        assertEquals(1, joined.responses.size());
+        assertEquals("5 2.5", joined.responses.get(0).message());
+        rejected.throwIfError().assertRejected();
+        failed.assertException(SpecialError.class);
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentMemberResumedInConstructor() throws Exception, Throwable {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ChainRunner cr = new ChainRunner(svc, scope);
+        NamedChain groupChain = new NamedChain("EarlyResume", deps, AbstractActeur.class)
+                .add(FirstA.class).add(new Group(deps, ShortA.class, ResumedInConstructorA.class)).add(JoinA.class);
+        TestCallback joined = new TestCallback();
+        try (AutoCloseable cl = scope.enter()) {
+            cr.submit(groupChain, joined, cancelled);
+        }
+        joined.throwIfError().assertGotResponse().assertActeurClass(JoinA.class).assertNotRejected();
+        assertEquals("5 3.5", joined.responses.get(0).message());
+    }
+
+    @Test(timeout = 10000)
+    public void testHandoff() throws Exception, Throwable {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ThreadPoolExecutor handoff = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> new Thread(r, "handoff"));
+        try {
+            ChainRunner cr = new ChainRunner(svc, scope);
+            NamedChain accepted = new NamedChain("Accepted", deps, AbstractActeur.class)
+                    .add(FirstA.class).add(BeforeHandoffA.class).add(AfterHandoffA.class).add(AfterHandoffA.class)
+                    .add(EndA.class);
+            NamedChain rejected = new NamedChain("Rejected", deps, AbstractActeur.class)
+                    .add(FirstA.class).add(Rejecter.class).add(AfterHandoffA.class).add(EndA.class);
+            TestCallback acceptedResults = new TestCallback();
+            TestCallback rejectedResults = new TestCallback();
+            try (AutoCloseable cl = scope.enter()) {
+                cr.submit(rejected, rejectedResults, cancelled, handoff, 2);
+            }
+            rejectedResults.throwIfError().assertRejected();
+            assertEquals("Rejected chain should never reach the handoff executor", 0, handoff.getTaskCount());
+            try (AutoCloseable cl = scope.enter()) {
+                cr.submit(accepted, acceptedResults, cancelled, handoff, 2);
+            }
+            acceptedResults.throwIfError().assertGotResponse().assertNotRejected();
+            // The chain enters the handoff executor once, not once per step
+            assertEquals(1, handoff.getTaskCount());
+        } finally {
+            handoff.shutdownNow();
+        }
+    }
+
+    static class BeforeHandoffA extends A2 {
+
+        BeforeHandoffA() {
+            assertFalse("handoff".equals(Thread.currentThread().getName()));
+            setState(new ActeurState<Response, ResponseImpl>(new StringBuilder("before")));
+        }
+    }
+
+    static class AfterHandoffA extends A2 {
+
+        @Inject
+        AfterHandoffA(StringBuilder sb) {
+            assertEquals("handoff", Thread.currentThread().getName());
+            setState(new ActeurState<Response, ResponseImpl>(sb.append(" after")));
+        }
+    }
+
+    static class Group extends A2 implements ConcurrentActeurs<A2> {
+
+        private final Dependencies deps;
+        private final Class<?>[] types;
+
+        Group(Dependencies deps, Class<?>... types) {
+            this.deps = deps;
+            this.types = types;
+        }
+
+        @Override
+        public int size() {
+            return types.length;
+        }
+
+        @Override
+        public A2 create(int index) {
+            return (A2) deps.getInstance(types[index]);
+        }
+    }
+
+    static class ShortA extends A2 {
+
+        @Inject
+        ShortA(String msg) {
+            assertEquals("hello", msg);
+            setState(new ActeurState<Response, ResponseImpl>((short) 5));
+        }
+    }
+
+    static class DeferredDoubleA extends A2 {
+
+        @Inject
+        DeferredDoubleA(String msg, Timer timer, Deferral defer) {
+            assertEquals("hello", msg);
+            setState(new ActeurState<Response, ResponseImpl>(false));
+            defer.defer(resumer -> {
+                timer.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        resumer.resume(2.5D);
+                    }
+                }, 200);
+            });
+        }
+    }
+
+    static class ResumedInConstructorA extends A2 {
+
+        @Inject
+        ResumedInConstructorA(String msg, Deferral defer) {
+            setState(new ActeurState<Response, ResponseImpl>(false));
+            // Resumed before getState() is called on this acteur
+            defer.defer().resume(3.5D);
+        }
+    }
+
+    static class JoinA extends A2 {
+
+        @Inject
+        JoinA(Short s, Double d) {
+            reply(HttpResponseStatus.OK, s + " " + d);
+        }
+    }
+
     static class NamedChain extends ArrayChain<AbstractActeur<Response, ResponseImpl, ActeurState<Response, ResponseImpl>>, NamedChain> {
 
         private final String name;
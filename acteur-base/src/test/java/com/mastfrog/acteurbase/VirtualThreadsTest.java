@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteurbase;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.mastfrog.acteurbase.impl.A2;
+import com.mastfrog.acteurbase.impl.Response;
+import com.mastfrog.acteurbase.impl.ResponseImpl;
+import com.mastfrog.giulius.Dependencies;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.giulius.scope.ReentrantScope;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs chains of blocking acteurs on virtual threads. For the throughput
+ * comparison with a fixed pool, see BlockingChainsBenchmark in
+ * acteur-benchmarks.
+ *
+ * @author Tim Boudreau
+ */
+public class VirtualThreadsTest {
+
+    private static final int BLOCK_MILLIS = 10;
+    ReentrantScope scope;
+    Dependencies deps;
+
+    @Test(timeout = 20000)
+    public void testScopeContentsCarriedToVirtualThreads() throws Throwable {
+        Assume.assumeTrue("Virtual threads not supported", VirtualThreads.isSupported());
+        ExecutorService svc = VirtualThreads.newExecutor("vt-");
+        deps.getInstance(ShutdownHookRegistry.class).add(svc);
+        Results results = run(svc, 100);
+        results.rethrow();
+        assertEquals(100, results.responses.size());
+        for (String msg : results.responses) {
+            assertEquals("hello vt-", msg);
+        }
+    }
+
+    private Results run(ExecutorService svc, int count) throws InterruptedException {
+        ChainRunner runner = new ChainRunner(svc, scope);
+        Results results = new Results(count);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        try (AutoCloseable cl = scope.enter()) {
+            for (int i = 0; i < count; i++) {
+                ChainRunnerTest.NamedChain chain = new ChainRunnerTest.NamedChain("Blocking " + i, deps, AbstractActeur.class)
+                        .add(FirstA.class).add(BlockingA.class).add(BlockingA.class).add(BlockingA.class).add(ReplyA.class);
+                runner.submit(chain, results, cancelled);
+            }
+        } catch (Exception ex) {
+            results.onFailure(ex);
+        }
+        assertTrue("Timed out", results.latch.await(count * BLOCK_MILLIS * 4L + 10000, TimeUnit.MILLISECONDS));
+        return results;
+    }
+
+    @Before
+    public void before() {
+        scope = new ReentrantScope();
+        deps = new Dependencies(new M());
+    }
+
+    @After
+    public void after() {
+        deps.shutdown();
+    }
+
+    class M extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            scope.bindTypes(binder(), Deferral.class, Chain.class, String.class, Integer.class);
+            bind(ReentrantScope.class).toInstance(scope);
+        }
+    }
+
+    static class FirstA extends A2 {
+
+        FirstA() {
+            setState(new ActeurState<Response, ResponseImpl>("hello"));
+        }
+    }
+
+    static class BlockingA extends A2 {
+
+        @Inject
+        BlockingA(String msg) throws InterruptedException {
+            assertEquals("hello", msg);
+            Thread.sleep(BLOCK_MILLIS);
+            next();
+        }
+    }
+
+    static class ReplyA extends A2 {
+
+        @Inject
+        ReplyA(String msg) {
+            String name = Thread.currentThread().getName();
+            reply(HttpResponseStatus.OK, msg + " " + (name.startsWith("vt-") ? "vt-" : name));
+        }
+    }
+
+    static final class Results implements ChainCallback<AbstractActeur<Response, ResponseImpl, ActeurState<Response, ResponseImpl>>, ActeurState<Response, ResponseImpl>, ArrayChain<AbstractActeur<Response, ResponseImpl, ActeurState<Response, ResponseImpl>>, ?>, Response, ResponseImpl> {
+
+        final CountDownLatch latch;
+        final ConcurrentLinkedQueue<String> responses = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        Results(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        void rethrow() throws Throwable {
+            Throwable t = failures.peek();
+            if (t != null) {
+                throw t;
+            }
+        }
+
+        @Override
+        public void onDone(ActeurState<Response, ResponseImpl> state, List<ResponseImpl> responses) {
+            for (ResponseImpl r : responses) {
+                if (r.message() != null) {
+                    this.responses.add(r.message().toString());
+                }
+            }
+            latch.countDown();
+        }
+
+        @Override
+        public void onRejected(ActeurState<Response, ResponseImpl> state) {
+            failures.add(new AssertionError("Rejected: " + state));
+            latch.countDown();
+        }
+
+        @Override
+        public void onNoResponse() {
+            failures.add(new AssertionError("No response"));
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(Throwable ex) {
+            failures.add(ex);
+            latch.countDown();
+        }
+
+        @Override
+        public void onBeforeRunOne(ArrayChain<AbstractActeur<Response, ResponseImpl, ActeurState<Response, ResponseImpl>>, ?> chain) {
+            // do nothing
+        }
+
+        @Override
+        public void onAfterRunOne(ArrayChain<AbstractActeur<Response, ResponseImpl, ActeurState<Response, ResponseImpl>>, ?> chain, AbstractActeur<Response, ResponseImpl, ActeurState<Response, ResponseImpl>> acteur) {
+            // do nothing
+        }
+    }
+}
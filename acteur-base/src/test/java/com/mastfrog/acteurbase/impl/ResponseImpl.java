@@ -89,6 +89,10 @@ public class ResponseImpl implements Response {
 
     private Object message;
 
+    public Object message() {
+        return message;
+    }
+
     @Override
     public void setMessage(Object message) {
         modified = true;
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.google.common.net.MediaType;
+import com.mastfrog.acteur.headers.HeaderValueType;
+import com.mastfrog.acteur.headers.Headers;
+import com.mastfrog.acteur.util.CacheControl;
+import com.mastfrog.acteur.util.CacheControlTypes;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpResponse;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converting a {@link ResponseImpl} with a typical set of headers into a
+ * Netty response - the header encoding every request pays for. The body is
+ * a ByteBuf, so no marshaller (and no request scope) is involved.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseEncodingBenchmark {
+
+    private static final HeaderValueType<CharSequence> X_REQUEST_ID = Headers.header("X-Request-Id");
+    private static final HeaderValueType<?>[] VARY = new HeaderValueType<?>[]{Headers.ACCEPT_ENCODING};
+    private byte[] body;
+    private ZonedDateTime lastModified;
+    private CacheControl cacheControl;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        body = "{\"hello\":\"world\"}".getBytes(UTF_8);
+        lastModified = ZonedDateTime.of(2018, 3, 1, 12, 0, 0, 0, ZoneId.of("GMT"));
+        cacheControl = new CacheControl(CacheControlTypes.Public, CacheControlTypes.must_revalidate);
+    }
+
+    @Benchmark
+    public HttpResponse fewHeaders() throws Exception {
+        ResponseImpl resp = new ResponseImpl();
+        resp.status(OK);
+        resp.add(Headers.CONTENT_TYPE, MediaType.JSON_UTF_8);
+        resp.content(Unpooled.wrappedBuffer(body));
+        return resp.toResponse(null, UTF_8);
+    }
+
+    @Benchmark
+    public HttpResponse typicalHeaders() throws Exception {
+        ResponseImpl resp = new ResponseImpl();
+        resp.status(OK);
+        resp.add(Headers.CONTENT_TYPE, MediaType.JSON_UTF_8);
+        resp.add(Headers.LAST_MODIFIED, lastModified);
+        resp.add(Headers.ETAG, "abcdef0123456789");
+        resp.add(Headers.CACHE_CONTROL, cacheControl);
+        resp.add(Headers.VARY, VARY);
+        resp.add(X_REQUEST_ID, "a1b2c3:42");
+        resp.content(Unpooled.wrappedBuffer(body));
+        return resp.toResponse(null, UTF_8);
+    }
+
+    @Benchmark
+    public HttpResponse noBody() throws Exception {
+        ResponseImpl resp = new ResponseImpl();
+        resp.status(OK);
+        resp.add(Headers.CACHE_CONTROL, cacheControl);
+        return resp.toResponse(null, UTF_8);
+    }
+}
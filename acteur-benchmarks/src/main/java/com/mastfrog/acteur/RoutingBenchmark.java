@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.google.inject.util.Providers;
+import com.mastfrog.acteur.headers.Method;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import static io.netty.util.CharsetUtil.UTF_8;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching requests against {@link PagePathAndMethodFilter} with hundreds of
+ * routes, a mix of exact paths and regular expressions, as an application
+ * with a large API would have. <code>match()</code> results are cached per
+ * method and path, so the cached benchmark cycles through a fixed set of
+ * requests, while the <code>listFor()</code> ones exercise the uncached
+ * lookup done for every request.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    @Param({"100", "500"})
+    public int routes;
+
+    private PagePathAndMethodFilter filter;
+    private HttpRequest[] hits;
+    private HttpRequest[] misses;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        filter = new PagePathAndMethodFilter();
+        PathPatterns pp = new PathPatterns();
+        for (int i = 0; i < routes; i++) {
+            if (i % 3 == 0) {
+                filter.add(new RegexPage(pp, "^api\\/v" + (i % 7) + "\\/things" + i + "\\/\\d+$"));
+            } else {
+                filter.add(new ExactPage("api/v" + (i % 7) + "/resource" + i));
+            }
+        }
+        hits = new HttpRequest[64];
+        misses = new HttpRequest[64];
+        for (int i = 0; i < hits.length; i++) {
+            int route = (i * 37) % routes;
+            String uri = route % 3 == 0
+                    ? "/api/v" + (route % 7) + "/things" + route + "/" + (i * 1013)
+                    : "/api/v" + (route % 7) + "/resource" + route + "?page=" + i;
+            hits[i] = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+            misses[i] = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/api/v9/nothing" + i);
+        }
+    }
+
+    private int next() {
+        return cursor = (cursor + 1) & 63;
+    }
+
+    @Benchmark
+    public boolean matchCached() {
+        return filter.match(hits[next()]);
+    }
+
+    @Benchmark
+    public List<Object> listForHit() {
+        return filter.listFor(hits[next()]);
+    }
+
+    @Benchmark
+    public List<Object> listForMiss() {
+        return filter.listFor(misses[next()]);
+    }
+
+    static final class ExactPage extends Page {
+
+        ExactPage(String path) {
+            add(new ActeurFactory.MatchMethods(Providers.of(null), true, UTF_8, Method.GET));
+            add(new ActeurFactory.ExactMatchPath(Providers.of(null), path, false));
+        }
+    }
+
+    static final class RegexPage extends Page {
+
+        RegexPage(PathPatterns pp, String regex) {
+            add(new ActeurFactory.MatchMethods(Providers.of(null), true, UTF_8, Method.GET));
+            add(new ActeurFactory.MatchPath(Providers.of(null), pp, false, regex));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the benchmarks jar. Runs the benchmarks (accepting the
+ * usual JMH command-line arguments, e.g. a regular expression to run a
+ * subset) with the GC profiler enabled, writes the results as JSON, and
+ * compares them with a baseline results file, reporting any benchmark whose
+ * time or allocation per operation got worse by more than a threshold.
+ * <p>
+ * System properties:
+ * <ul>
+ * <li><code>acteur.benchmarks.baseline</code> - the baseline file, default
+ * <code>baseline.json</code>; if it does not exist, nothing is compared, and
+ * <code>acteur.benchmarks.update</code> creates it</li>
+ * <li><code>acteur.benchmarks.results</code> - where to write results,
+ * default <code>target/jmh-result.json</code></li>
+ * <li><code>acteur.benchmarks.threshold</code> - the fraction by which a
+ * score may regress before it is reported, default 0.1</li>
+ * <li><code>acteur.benchmarks.fail</code> - exit with a non-zero status if
+ * anything regressed</li>
+ * <li><code>acteur.benchmarks.update</code> - replace the baseline with the
+ * new results, so the change shows up in review</li>
+ * </ul>
+ *
+ * @author Tim Boudreau
+ */
+public final class Benchmarks {
+
+    static final String GC_ALLOC_NORM = "gc.alloc.rate.norm";
+
+    private Benchmarks() {
+        throw new AssertionError();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path baseline = Paths.get(System.getProperty("acteur.benchmarks.baseline", "baseline.json"));
+        Path results = Paths.get(System.getProperty("acteur.benchmarks.results", "target/jmh-result.json"));
+        double threshold = Double.parseDouble(System.getProperty("acteur.benchmarks.threshold", "0.1"));
+        if (results.getParent() != null) {
+            Files.createDirectories(results.getParent());
+        }
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(results.toString())
+                .build()).run();
+
+        int regressions = 0;
+        if (Files.exists(baseline)) {
+            regressions = compare(read(baseline), read(results), threshold);
+        } else {
+            System.out.println("No baseline at " + baseline + " to compare with");
+        }
+        if (Boolean.getBoolean("acteur.benchmarks.update")) {
+            Files.copy(results, baseline, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Updated baseline " + baseline);
+        }
+        if (regressions > 0 && Boolean.getBoolean("acteur.benchmarks.fail")) {
+            System.exit(1);
+        }
+    }
+
+    static int compare(Map<String, Score> baseline, Map<String, Score> current, double threshold) {
+        int regressions = 0;
+        for (Map.Entry<String, Score> e : current.entrySet()) {
+            Score old = baseline.get(e.getKey());
+            if (old == null) {
+                System.out.println("NEW         " + e.getKey() + " " + e.getValue());
+                continue;
+            }
+            Score now = e.getValue();
+            boolean slower = regressed(old.score, now.score, threshold, now.higherIsBetter);
+            boolean moreGarbage = regressed(old.allocated, now.allocated, threshold, false);
+            if (slower || moreGarbage) {
+                regressions++;
+                System.out.println("REGRESSION  " + e.getKey() + " " + old + " -> " + now);
+            } else {
+                System.out.println("ok          " + e.getKey() + " " + old + " -> " + now);
+            }
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.println("NOT RUN     " + key);
+            }
+        }
+        System.out.println(regressions + " regressions of more than " + Math.round(threshold * 100) + "%");
+        return regressions;
+    }
+
+    static boolean regressed(double old, double now, double threshold, boolean higherIsBetter) {
+        if (old <= 0 || now < 0) {
+            // no data, or an allocation-free benchmark whose baseline was zero
+            return !higherIsBetter && old == 0 && now > 64;
+        }
+        double change = (now - old) / old;
+        return higherIsBetter ? change < -threshold : change > threshold;
+    }
+
+    static Map<String, Score> read(Path file) throws IOException {
+        Map<String, Score> result = new TreeMap<>();
+        JsonNode root = new ObjectMapper().readTree(file.toFile());
+        for (JsonNode run : root) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+            JsonNode params = run.path("params");
+            if (params.isObject()) {
+                // the params object's field order is the order they were declared in
+                for (Iterator<Map.Entry<String, JsonNode>> it = params.fields(); it.hasNext();) {
+                    Map.Entry<String, JsonNode> p = it.next();
+                    key.append(key.indexOf(":") < 0 ? ':' : ',').append(p.getKey()).append('=').append(p.getValue().asText());
+                }
+            }
+            JsonNode primary = run.path("primaryMetric");
+            String mode = run.path("mode").asText();
+            double allocated = -1;
+            for (Iterator<Map.Entry<String, JsonNode>> it = run.path("secondaryMetrics").fields(); it.hasNext();) {
+                Map.Entry<String, JsonNode> m = it.next();
+                if (m.getKey().endsWith(GC_ALLOC_NORM)) {
+                    allocated = m.getValue().path("score").asDouble(-1);
+                }
+            }
+            result.put(key.toString(), new Score(primary.path("score").asDouble(-1),
+                    primary.path("scoreUnit").asText(), allocated, "thrpt".equals(mode)));
+        }
+        return result;
+    }
+
+    static final class Score {
+
+        final double score;
+        final String unit;
+        final double allocated;
+        final boolean higherIsBetter;
+
+        Score(double score, String unit, double allocated, boolean higherIsBetter) {
+            this.score = score;
+            this.unit = unit;
+            this.allocated = allocated;
+            this.higherIsBetter = higherIsBetter;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f %s", score, unit)
+                    + (allocated >= 0 ? String.format(" %.1f B/op", allocated) : "");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.pubsub;
+
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Exercises {@link ChannelRegistry} under heavy subscription churn: several
+ * threads subscribe and unsubscribe random channels to and from random ids,
+ * while others iterate the subscribers of an id as a publish would.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelRegistryBenchmark {
+
+    @Param({"1000"})
+    public int channelCount;
+
+    @Param({"20"})
+    public int idCount;
+
+    private Hooks hooks;
+    private ChannelRegistry<String> registry;
+    private Channel[] channels;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        hooks = new Hooks();
+        registry = new ChannelRegistry<>(hooks);
+        channels = new Channel[channelCount];
+        ids = new String[idCount];
+        for (int i = 0; i < idCount; i++) {
+            ids[i] = "id-" + i;
+        }
+        for (int i = 0; i < channelCount; i++) {
+            channels[i] = new EmbeddedChannel();
+            // Start with each channel subscribed to one id, so publishing
+            // always has something to iterate
+            registry.register(ids[i % idCount], channels[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        hooks.close();
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public boolean subscribeAndUnsubscribe() throws Exception {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        Channel channel = channels[rnd.nextInt(channels.length)];
+        String id = ids[rnd.nextInt(ids.length)];
+        boolean added = registry.register(id, channel).get();
+        if (added) {
+            registry.unsubscribe(id, channel).get();
+        }
+        return added;
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public int iterateForPublish() {
+        int count = 0;
+        for (Channel ch : registry.channels(ids[ThreadLocalRandom.current().nextInt(ids.length)])) {
+            if (ch.isOpen()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static final class Hooks extends ShutdownHookRegistry {
+
+        void close() {
+            runShutdownHooks();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.server;
+
+import com.google.common.net.MediaType;
+import com.mastfrog.acteur.headers.Headers;
+import com.mastfrog.settings.SettingsBuilder;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.cookie.Cookie;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Creating an {@link EventImpl} for an inbound request and parsing its URL
+ * parameters and the typed headers applications commonly ask for.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventParsingBenchmark {
+
+    private PathFactory paths;
+    private HttpRequest request;
+    private final SocketAddress address = InetSocketAddress.createUnresolved("example.com", 80);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        paths = new DefaultPathFactory(new SettingsBuilder().build());
+        request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                "/api/v1/users/1234/posts?limit=20&offset=40&sort=desc&q=hello%20world");
+        HttpHeaders hdrs = request.headers();
+        hdrs.add("Host", "example.com");
+        hdrs.add("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) Gecko/20100101 Firefox/60.0");
+        hdrs.add("Accept", "application/json, text/plain, */*");
+        hdrs.add("Accept-Encoding", "gzip, deflate, br");
+        hdrs.add("Content-Type", "application/json; charset=UTF-8");
+        hdrs.add("If-Modified-Since", "Thu, 01 Mar 2018 12:00:00 GMT");
+        hdrs.add("If-None-Match", "\"abcdef0123456789\"");
+        hdrs.add("Cookie", "session=0123456789abcdef; theme=dark; lang=en");
+    }
+
+    private EventImpl event() {
+        return new EventImpl(request, address, null, paths, null, false);
+    }
+
+    @Benchmark
+    public Object createEvent() {
+        return event().path();
+    }
+
+    @Benchmark
+    public Map<String, String> urlParameters() {
+        return event().urlParametersAsMap();
+    }
+
+    @Benchmark
+    public void typedHeaders(Blackhole bh) {
+        EventImpl evt = event();
+        MediaType contentType = evt.header(Headers.CONTENT_TYPE);
+        ZonedDateTime ifModifiedSince = evt.header(Headers.IF_MODIFIED_SINCE);
+        CharSequence ifNoneMatch = evt.header(Headers.IF_NONE_MATCH);
+        Cookie[] cookies = evt.header(Headers.COOKIE_B);
+        bh.consume(contentType);
+        bh.consume(ifModifiedSince);
+        bh.consume(ifNoneMatch);
+        bh.consume(cookies);
+    }
+
+    @Benchmark
+    public String stringHeader() {
+        return event().header("Accept-Encoding");
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteurbase;
+
+import com.google.inject.AbstractModule;
+import com.mastfrog.giulius.Dependencies;
+import com.mastfrog.giulius.scope.ReentrantScope;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.inject.Inject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs a batch of chains of acteurs which each block for a few milliseconds,
+ * as acteurs doing JDBC or file I/O would, through {@link ChainRunner} on
+ * either a fixed pool of twice as many threads as cores, or on virtual
+ * threads. The <code>virtual</code> case requires JDK 21 and fails its setup
+ * on older JVMs.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockingChainsBenchmark {
+
+    static final int BLOCK_MILLIS = 10;
+
+    @Param({"fixed", "virtual"})
+    public String executor;
+
+    @Param({"1000"})
+    public int chains;
+
+    private ReentrantScope scope;
+    private Dependencies deps;
+    private ExecutorService svc;
+    private ChainRunner runner;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if ("virtual".equals(executor)) {
+            svc = VirtualThreads.newExecutor("vt-");
+        } else {
+            svc = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+        }
+        scope = new ReentrantScope();
+        deps = new Dependencies(new AbstractModule() {
+            @Override
+            protected void configure() {
+                scope.bindTypes(binder(), Deferral.class, Chain.class, String.class);
+            }
+        });
+        runner = new ChainRunner(svc, scope);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        svc.shutdownNow();
+        deps.shutdown();
+    }
+
+    @Benchmark
+    public int runBlockingChains() throws Exception {
+        Batch batch = new Batch(chains);
+        try (AutoCloseable cl = scope.enter()) {
+            for (int i = 0; i < chains; i++) {
+                BenchChain chain = new BenchChain(deps).add(FirstActeur.class)
+                        .add(BlockingActeur.class).add(BlockingActeur.class).add(BlockingActeur.class)
+                        .add(ReplyActeur.class);
+                runner.submit(chain, batch, cancelled);
+            }
+        }
+        if (!batch.latch.await(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Timed out with " + batch.latch.getCount() + " chains pending");
+        }
+        Throwable failure = batch.failure.get();
+        if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+        return chains;
+    }
+
+    static final class BenchResponse {
+
+        Object message;
+    }
+
+    static final class BenchState extends ActeurState<BenchResponse, BenchResponse> {
+
+        BenchState(Object... context) {
+            super(context);
+        }
+    }
+
+    static class BenchActeur extends AbstractActeur<BenchResponse, BenchResponse, BenchState> {
+
+        private static final ActeurResponseFactory<BenchResponse, BenchResponse> RESPONSES
+                = new ActeurResponseFactory<BenchResponse, BenchResponse>() {
+            @Override
+            protected BenchResponse create() {
+                return new BenchResponse();
+            }
+
+            @Override
+            protected boolean isFinished(BenchResponse obj) {
+                return obj != null && obj.message != null;
+            }
+
+            @Override
+            protected boolean isModified(BenchResponse obj) {
+                return obj != null && obj.message != null;
+            }
+        };
+
+        BenchActeur() {
+            super(RESPONSES);
+        }
+    }
+
+    static final class FirstActeur extends BenchActeur {
+
+        FirstActeur() {
+            setState(new BenchState("hello"));
+        }
+    }
+
+    static final class BlockingActeur extends BenchActeur {
+
+        @Inject
+        BlockingActeur(String msg) throws InterruptedException {
+            Thread.sleep(BLOCK_MILLIS);
+            setState(new BenchState());
+        }
+    }
+
+    static final class ReplyActeur extends BenchActeur {
+
+        @Inject
+        ReplyActeur(String msg) {
+            response().message = msg;
+            setState(new BenchState(msg));
+        }
+    }
+
+    static final class BenchChain extends ArrayChain<BenchActeur, BenchChain> {
+
+        BenchChain(Dependencies deps) {
+            super(deps, BenchActeur.class);
+        }
+    }
+
+    static final class Batch implements ChainCallback<BenchActeur, BenchState, BenchChain, BenchResponse, BenchResponse> {
+
+        final CountDownLatch latch;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Batch(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onDone(BenchState state, List<BenchResponse> responses) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onRejected(BenchState state) {
+            onFailure(new IllegalStateException("Rejected"));
+        }
+
+        @Override
+        public void onNoResponse() {
+            onFailure(new IllegalStateException("No response"));
+        }
+
+        @Override
+        public void onBeforeRunOne(BenchChain chain) {
+            // do nothing
+        }
+
+        @Override
+        public void onAfterRunOne(BenchChain chain, BenchActeur acteur) {
+            // do nothing
+        }
+
+        @Override
+        public void onFailure(Throwable ex) {
+            failure.compareAndSet(null, ex);
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteurbase;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.AbstractModule;
+import com.mastfrog.giulius.Dependencies;
+import com.mastfrog.giulius.scope.ReentrantScope;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.inject.Inject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs a chain of N acteurs through {@link ChainRunner}, each of which gets
+ * an object injected from the scope and passes control to the next, with a
+ * same-thread executor so what is measured is instantiation, injection and
+ * scope handling rather than thread hand-offs.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainRunnerBenchmark {
+
+    @Param({"1", "5", "20"})
+    public int acteurs;
+
+    private ReentrantScope scope;
+    private Dependencies deps;
+    private ChainRunner runner;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        scope = new ReentrantScope();
+        deps = new Dependencies(new AbstractModule() {
+            @Override
+            protected void configure() {
+                scope.bindTypes(binder(), Deferral.class, Chain.class, String.class);
+            }
+        });
+        ExecutorService svc = MoreExecutors.newDirectExecutorService();
+        runner = new ChainRunner(svc, scope);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deps.shutdown();
+    }
+
+    @Benchmark
+    public Object runChain() throws Exception {
+        BenchChain chain = new BenchChain(deps).add(FirstActeur.class);
+        for (int i = 1; i < acteurs - 1; i++) {
+            chain.add(PassActeur.class);
+        }
+        if (acteurs > 1) {
+            chain.add(ReplyActeur.class);
+        }
+        Result result = new Result();
+        try (AutoCloseable cl = scope.enter()) {
+            runner.submit(chain, result, cancelled);
+        }
+        if (result.failure != null) {
+            throw new IllegalStateException(result.failure);
+        }
+        return result.response;
+    }
+
+    static final class BenchResponse {
+
+        Object message;
+    }
+
+    static final class BenchState extends ActeurState<BenchResponse, BenchResponse> {
+
+        BenchState(Object... context) {
+            super(context);
+        }
+    }
+
+    static class BenchActeur extends AbstractActeur<BenchResponse, BenchResponse, BenchState> {
+
+        private static final ActeurResponseFactory<BenchResponse, BenchResponse> RESPONSES
+                = new ActeurResponseFactory<BenchResponse, BenchResponse>() {
+            @Override
+            protected BenchResponse create() {
+                return new BenchResponse();
+            }
+
+            @Override
+            protected boolean isFinished(BenchResponse obj) {
+                return obj != null && obj.message != null;
+            }
+
+            @Override
+            protected boolean isModified(BenchResponse obj) {
+                return obj != null && obj.message != null;
+            }
+        };
+
+        BenchActeur() {
+            super(RESPONSES);
+        }
+    }
+
+    static final class FirstActeur extends BenchActeur {
+
+        FirstActeur() {
+            setState(new BenchState("hello"));
+        }
+    }
+
+    static final class PassActeur extends BenchActeur {
+
+        @Inject
+        PassActeur(String msg) {
+            setState(new BenchState());
+        }
+    }
+
+    static final class ReplyActeur extends BenchActeur {
+
+        @Inject
+        ReplyActeur(String msg) {
+            response().message = msg;
+            setState(new BenchState(msg));
+        }
+    }
+
+    static final class BenchChain extends ArrayChain<BenchActeur, BenchChain> {
+
+        BenchChain(Dependencies deps) {
+            super(deps, BenchActeur.class);
+        }
+    }
+
+    static final class Result implements ChainCallback<BenchActeur, BenchState, BenchChain, BenchResponse, BenchResponse> {
+
+        Object response;
+        Throwable failure;
+
+        @Override
+        public void onDone(BenchState state, List<BenchResponse> responses) {
+            response = responses.isEmpty() ? state : responses.get(responses.size() - 1).message;
+        }
+
+        @Override
+        public void onRejected(BenchState state) {
+            failure = new IllegalStateException("Rejected");
+        }
+
+        @Override
+        public void onNoResponse() {
+            response = this;
+        }
+
+        @Override
+        public void onBeforeRunOne(BenchChain chain) {
+            // do nothing
+        }
+
+        @Override
+        public void onAfterRunOne(BenchChain chain, BenchActeur acteur) {
+            // do nothing
+        }
+
+        @Override
+        public void onFailure(Throwable ex) {
+            failure = ex;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.marshallers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mastfrog.marshallers.netty.NettyContentMarshallers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing common response payload types through the default
+ * {@link NettyContentMarshallers}, which finds a marshaller by walking its
+ * registered types in order - so types registered late (plain objects
+ * serialized as JSON) pay for every <code>isInstance()</code> check before
+ * them.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarshallingBenchmark {
+
+    private NettyContentMarshallers marshallers;
+    private ByteBuf buf;
+    private byte[] bytes;
+    private String string;
+    private Map<String, Object> map;
+    private List<Object> list;
+    private Thing thing;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        marshallers = NettyContentMarshallers.getDefault(new ObjectMapper());
+        buf = Unpooled.buffer(4096);
+        bytes = "Hello world, this is a byte array".getBytes(UTF_8);
+        string = "Hello world, this is a string";
+        map = new LinkedHashMap<>();
+        map.put("name", "Joe");
+        map.put("age", 42);
+        map.put("tags", Arrays.asList("a", "b", "c"));
+        list = Arrays.asList("one", 2, 3.0D, true);
+        thing = new Thing("Joe", 42);
+    }
+
+    private ByteBuf buf() {
+        buf.clear();
+        return buf;
+    }
+
+    @Benchmark
+    public ByteBuf writeBytes() throws Exception {
+        ByteBuf b = buf();
+        marshallers.write(bytes, b);
+        return b;
+    }
+
+    @Benchmark
+    public ByteBuf writeString() throws Exception {
+        ByteBuf b = buf();
+        marshallers.write(string, b, UTF_8);
+        return b;
+    }
+
+    @Benchmark
+    public ByteBuf writeMap() throws Exception {
+        ByteBuf b = buf();
+        marshallers.write(map, b);
+        return b;
+    }
+
+    @Benchmark
+    public ByteBuf writeList() throws Exception {
+        ByteBuf b = buf();
+        marshallers.write(list, b);
+        return b;
+    }
+
+    @Benchmark
+    public ByteBuf writeObject() throws Exception {
+        ByteBuf b = buf();
+        marshallers.write(thing, b);
+        return b;
+    }
+
+    public static final class Thing {
+
+        public final String name;
+        public final int age;
+
+        Thing(String name, int age) {
+            this.name = name;
+            this.age = age;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted when the HTTP compressor finishes compressing a response body.
+ * Bodies may be compressed in several chunks, so the time spent compressing
+ * is a field rather than the event's duration.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Name("com.mastfrog.acteur.Compression")
+@Label("Response Compression")
+@Description("A response body compressed by the HTTP compressor")
+@Category("Acteur")
+@Enabled(false)
+@StackTrace(false)
+final class CompressionEvent extends Event {
+
+    @Label("Encoding")
+    String encoding;
+
+    @Label("Uncompressed Size")
+    @DataAmount
+    long uncompressedBytes;
+
+    @Label("Compressed Size")
+    @DataAmount
+    long compressedBytes;
+
+    @Label("Compression Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long compressionTime;
+}
@@ -0,0 +1,47 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.jfr;
+
+import com.google.inject.AbstractModule;
+import com.mastfrog.acteur.debug.CompositeProbe;
+import com.mastfrog.acteur.debug.Probe;
+
+/**
+ * Adds {@link JfrProbe} to the application's {@link Probe} via
+ * {@link CompositeProbe}, so request lifecycle events are emitted to Java
+ * Flight Recorder whenever a recording enables them. Can be combined with
+ * <code>MetricsModule</code> or any other module which adds probes that way.
+ * Add {@link JfrRecordingPage} to the application to take recordings over
+ * HTTP.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+public final class JfrModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        CompositeProbe.add(binder(), JfrProbe.class);
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.jfr;
+
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.Event;
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.debug.Probe;
+import com.mastfrog.acteur.util.RequestID;
+import com.mastfrog.acteurbase.ActeurState;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Singleton;
+import jdk.jfr.EventType;
+
+/**
+ * Probe which emits JFR events for requests, pages, acteurs, deferrals,
+ * response writes and response compression. All of the events are disabled
+ * by default; when no recording enables them, each probe method does nothing
+ * but check that, and no per-request state is kept. Installed by
+ * {@link JfrModule}.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public class JfrProbe implements Probe {
+
+    private static final EventType REQUEST = EventType.getEventType(RequestEvent.class);
+    private static final EventType PAGE = EventType.getEventType(PageEvent.class);
+    private static final EventType ACTEUR = EventType.getEventType(ActeurEvent.class);
+    private static final EventType DEFERRAL = EventType.getEventType(DeferralEvent.class);
+    private static final EventType WRITE = EventType.getEventType(ResponseWriteEvent.class);
+    private static final EventType COMPRESSION = EventType.getEventType(CompressionEvent.class);
+    private static final long ABANDONED_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int SWEEP_INTERVAL = 4096;
+    private final Map<RequestID, RequestState> inFlight = new ConcurrentHashMap<>();
+
+    private static boolean anyRequestEventEnabled() {
+        return REQUEST.isEnabled() || PAGE.isEnabled() || ACTEUR.isEnabled()
+                || DEFERRAL.isEnabled() || WRITE.isEnabled();
+    }
+
+    @Override
+    public void onBeforeProcessRequest(RequestID id, Event<?> req) {
+        if ((id.index % SWEEP_INTERVAL) == 0 && !inFlight.isEmpty()) {
+            sweep();
+        }
+        if (!anyRequestEventEnabled()) {
+            return;
+        }
+        RequestState state = new RequestState(id.stringValue());
+        if (REQUEST.isEnabled()) {
+            RequestEvent evt = new RequestEvent();
+            evt.requestId = state.id;
+            if (req instanceof HttpEvent) {
+                HttpEvent http = (HttpEvent) req;
+                evt.method = http.method().name();
+                evt.uri = http.request().uri();
+            }
+            evt.begin();
+            state.request = evt;
+        }
+        inFlight.put(id, state);
+    }
+
+    @Override
+    public void onBeforeRunPage(RequestID id, Event<?> evt, Page page) {
+        RequestState state = inFlight.get(id);
+        if (state == null) {
+            return;
+        }
+        state.endPage();
+        state.pageType = page == null ? null : page.getClass();
+        if (PAGE.isEnabled()) {
+            PageEvent pe = new PageEvent();
+            pe.requestId = state.id;
+            pe.page = state.pageType;
+            pe.begin();
+            state.page = pe;
+        }
+    }
+
+    @Override
+    public void onBeforeRunActeur(RequestID id, Event<?> evt, Page page) {
+        RequestState state = inFlight.get(id);
+        if (state != null && ACTEUR.isEnabled()) {
+            ActeurEvent ae = new ActeurEvent();
+            ae.requestId = state.id;
+            ae.page = page == null ? null : page.getClass();
+            ae.begin();
+            state.acteur = ae;
+        }
+    }
+
+    @Override
+    public void onActeurWasRun(RequestID id, Event<?> evt, Page page, Acteur acteur, ActeurState result) {
+        RequestState state = inFlight.get(id);
+        if (state == null) {
+            return;
+        }
+        Class<?> type = acteur == null ? null : acteur.getClass();
+        state.lastActeur = type;
+        ActeurEvent ae = state.acteur;
+        if (ae != null) {
+            state.acteur = null;
+            ae.acteur = type;
+            ae.commit();
+        }
+    }
+
+    @Override
+    public void onDeferred(RequestID id, Event<?> evt) {
+        RequestState state = inFlight.get(id);
+        if (state != null && DEFERRAL.isEnabled()) {
+            DeferralEvent de = new DeferralEvent();
+            de.requestId = state.id;
+            de.acteur = state.lastActeur;
+            de.begin();
+            state.deferral = de;
+        }
+    }
+
+    @Override
+    public void onResumed(RequestID id, Event<?> evt) {
+        RequestState state = inFlight.get(id);
+        if (state != null) {
+            DeferralEvent de = state.deferral;
+            if (de != null) {
+                state.deferral = null;
+                de.commit();
+            }
+        }
+    }
+
+    @Override
+    public void onBeforeSendResponse(RequestID id, Event<?> event, Acteur acteur, HttpResponseStatus status, boolean hasListener, Object message) {
+        RequestState state = inFlight.get(id);
+        if (state == null) {
+            return;
+        }
+        int code = status == null ? 0 : status.code();
+        state.finishRequest(code);
+        if (WRITE.isEnabled() && event instanceof HttpEvent) {
+            ResponseWriteEvent we = new ResponseWriteEvent();
+            we.requestId = state.id;
+            we.status = code;
+            we.begin();
+            state.write = we;
+        } else {
+            inFlight.remove(id);
+        }
+    }
+
+    @Override
+    public void onResponseSent(RequestID id, Event<?> event, Page page, HttpResponseStatus status, long contentLength) {
+        RequestState state = inFlight.get(id);
+        if (state != null) {
+            ResponseWriteEvent we = state.write;
+            if (we != null) {
+                we.contentLength = contentLength;
+            }
+        }
+    }
+
+    @Override
+    public void onResponseBodyWritten(RequestID id, Event<?> event, boolean success) {
+        RequestState state = inFlight.remove(id);
+        if (state != null) {
+            ResponseWriteEvent we = state.write;
+            if (we != null) {
+                state.write = null;
+                we.completed = success;
+                we.commit();
+            }
+        }
+    }
+
+    @Override
+    public void onFallthrough(RequestID id, Event<?> evt) {
+        RequestState state = inFlight.remove(id);
+        if (state != null) {
+            state.pageType = null;
+            state.finishRequest(HttpResponseStatus.NOT_FOUND.code());
+        }
+    }
+
+    @Override
+    public boolean isCompressionObserved() {
+        return COMPRESSION.isEnabled();
+    }
+
+    @Override
+    public void onResponseCompressed(String encoding, long uncompressedBytes, long compressedBytes, long nanos) {
+        if (COMPRESSION.isEnabled()) {
+            CompressionEvent ce = new CompressionEvent();
+            ce.encoding = encoding;
+            ce.uncompressedBytes = uncompressedBytes;
+            ce.compressedBytes = compressedBytes;
+            ce.compressionTime = nanos;
+            ce.commit();
+        }
+    }
+
+    private void sweep() {
+        // Requests on connections which closed before any response was
+        // attempted, and sub-requests, never reach onResponseBodyWritten()
+        long now = System.nanoTime();
+        for (Iterator<RequestState> it = inFlight.values().iterator(); it.hasNext();) {
+            if (now - it.next().created > ABANDONED_NANOS) {
+                it.remove();
+            }
+        }
+    }
+
+    private static final class RequestState {
+
+        final String id;
+        final long created = System.nanoTime();
+        volatile RequestEvent request;
+        volatile PageEvent page;
+        volatile Class<?> pageType;
+        volatile ActeurEvent acteur;
+        volatile Class<?> lastActeur;
+        volatile DeferralEvent deferral;
+        volatile ResponseWriteEvent write;
+
+        RequestState(String id) {
+            this.id = id;
+        }
+
+        void endPage() {
+            PageEvent pe = page;
+            if (pe != null) {
+                page = null;
+                pe.commit();
+            }
+        }
+
+        void finishRequest(int status) {
+            endPage();
+            RequestEvent re = request;
+            if (re != null) {
+                request = null;
+                re.page = pageType;
+                re.status = status;
+                re.commit();
+            }
+        }
+    }
+}
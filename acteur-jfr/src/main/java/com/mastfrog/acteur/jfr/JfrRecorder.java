@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.jfr;
+
+import static com.mastfrog.acteur.server.ServerModule.DELAY_EXECUTOR;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+
+/**
+ * Runs time-bounded flight recordings which include acteur's own events,
+ * one at a time, and hands back the resulting <code>.jfr</code> file.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public final class JfrRecorder {
+
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends Event>[] EVENTS = new Class[]{RequestEvent.class,
+        PageEvent.class, ActeurEvent.class, DeferralEvent.class, ResponseWriteEvent.class,
+        CompressionEvent.class};
+    private final ScheduledExecutorService delay;
+    private final AtomicReference<Active> active = new AtomicReference<>();
+
+    @Inject
+    JfrRecorder(@Named(DELAY_EXECUTOR) ScheduledExecutorService delay, ShutdownHookRegistry reg) {
+        this.delay = delay;
+        reg.add((Runnable) this::stop);
+    }
+
+    /**
+     * Determine if a recording is currently running.
+     *
+     * @return true if one is
+     */
+    public boolean isRecording() {
+        return active.get() != null;
+    }
+
+    /**
+     * Start a recording using one of the JDK's named configurations
+     * (<code>default</code> or <code>profile</code>), with acteur's events
+     * enabled, which stops after the passed duration or when
+     * {@link #stop()} is called.
+     *
+     * @param duration How long to record for
+     * @param configuration The name of a JFR configuration
+     * @return A future which is completed with a temporary file containing
+     * the recording, which the caller is responsible for deleting; if the
+     * future is cancelled, the recording is stopped and discarded
+     * @throws AlreadyRecordingException if a recording is already running
+     * @throws IOException if the configuration cannot be read
+     * @throws ParseException if the configuration cannot be parsed
+     */
+    public CompletableFuture<Path> record(Duration duration, String configuration) throws IOException, ParseException {
+        Recording recording = new Recording(Configuration.getConfiguration(configuration));
+        recording.setName("acteur-" + System.currentTimeMillis());
+        recording.setToDisk(true);
+        for (Class<? extends Event> type : EVENTS) {
+            recording.enable(type);
+        }
+        Active a = new Active(recording);
+        if (!active.compareAndSet(null, a)) {
+            recording.close();
+            throw new AlreadyRecordingException();
+        }
+        try {
+            recording.start();
+        } catch (RuntimeException | Error e) {
+            active.compareAndSet(a, null);
+            recording.close();
+            throw e;
+        }
+        a.timeout = delay.schedule(() -> finish(a), duration.toMillis(), TimeUnit.MILLISECONDS);
+        a.future.whenComplete((file, thrown) -> {
+            if (a.future.isCancelled()) {
+                a.timeout.cancel(false);
+                finish(a);
+            }
+        });
+        return a.future;
+    }
+
+    /**
+     * Stop the running recording early, completing the future returned by
+     * {@link #record(Duration, String)} with what was recorded so far.
+     *
+     * @return true if a recording was running
+     */
+    public boolean stop() {
+        Active a = active.get();
+        if (a == null) {
+            return false;
+        }
+        ScheduledFuture<?> timeout = a.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        return finish(a);
+    }
+
+    private boolean finish(Active a) {
+        if (!active.compareAndSet(a, null)) {
+            return false;
+        }
+        Path file = null;
+        try (Recording recording = a.recording) {
+            recording.stop();
+            if (a.future.isDone()) {
+                // Cancelled - nobody wants it
+                return true;
+            }
+            file = Files.createTempFile("acteur-", ".jfr");
+            recording.dump(file);
+            if (a.future.complete(file)) {
+                file = null;
+            }
+        } catch (Exception | Error e) {
+            a.future.completeExceptionally(e);
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ex) {
+                    a.future.completeExceptionally(ex);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static final class Active {
+
+        final Recording recording;
+        final CompletableFuture<Path> future = new CompletableFuture<>();
+        volatile ScheduledFuture<?> timeout;
+
+        Active(Recording recording) {
+            this.recording = recording;
+        }
+    }
+
+    /**
+     * Thrown by {@link JfrRecorder#record(Duration, String)} if a recording
+     * is already running.
+     */
+    public static final class AlreadyRecordingException extends IllegalStateException {
+
+        AlreadyRecordingException() {
+            super("A recording is already running");
+        }
+    }
+}
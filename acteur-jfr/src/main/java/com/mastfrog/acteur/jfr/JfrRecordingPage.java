@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.jfr;
+
+import com.google.common.net.MediaType;
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.ActeurFactory;
+import com.mastfrog.acteur.Closables;
+import com.mastfrog.acteur.DeferredComputationResult;
+import com.mastfrog.acteur.Event;
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.ResponseWriter;
+import com.mastfrog.acteur.errors.Err;
+import com.mastfrog.acteur.errors.ResponseException;
+import com.mastfrog.acteur.headers.Headers;
+import static com.mastfrog.acteur.headers.Method.DELETE;
+import static com.mastfrog.acteur.headers.Method.GET;
+import com.mastfrog.acteur.preconditions.Authenticated;
+import com.mastfrog.acteur.preconditions.Description;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.acteur.util.CacheControl;
+import com.mastfrog.acteur.util.CacheControlTypes;
+import com.mastfrog.acteurbase.Deferral.Resumer;
+import com.mastfrog.settings.Settings;
+import io.netty.buffer.ByteBuf;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.CONFLICT;
+import static io.netty.handler.codec.http.HttpResponseStatus.GONE;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.inject.Inject;
+
+/**
+ * Takes a flight recording with acteur's JFR events enabled and returns the
+ * <code>.jfr</code> file, streamed from disk in chunks. <code>GET</code> records for
+ * <code>?seconds=</code> (default 30, capped by the setting
+ * <code>jfr.max.seconds</code>) using the JDK configuration named by
+ * <code>?config=</code> (<code>default</code> or <code>profile</code>);
+ * <code>DELETE</code> stops a running recording early, so the pending
+ * <code>GET</code> returns what was recorded so far. Requires
+ * authentication, so an <code>Authenticator</code> must be bound. Not
+ * installed by default - add it with <code>add(JfrRecordingPage.class)</code>
+ * alongside {@link JfrModule}.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Authenticated
+@Description(category = "Info", value = "Take a time-bounded flight recording")
+@Methods({GET, DELETE})
+public final class JfrRecordingPage extends Page {
+
+    /**
+     * Settings key for the regular expression the recording page's path
+     * should match.
+     */
+    public static final String SETTINGS_KEY_JFR_PATH = "jfr.path";
+    /**
+     * Default path for the recording page.
+     */
+    public static final String DEFAULT_JFR_PATH = "^_jfr$";
+    /**
+     * Settings key for the longest recording, in seconds, that may be
+     * requested.
+     */
+    public static final String SETTINGS_KEY_JFR_MAX_SECONDS = "jfr.max.seconds";
+    /**
+     * Default maximum recording length.
+     */
+    public static final int DEFAULT_JFR_MAX_SECONDS = 300;
+    static final int DEFAULT_SECONDS = 30;
+    static final MediaType JFR = MediaType.OCTET_STREAM;
+    static final int CHUNK_SIZE = 65536;
+
+    @Inject
+    JfrRecordingPage(ActeurFactory af, Settings settings) {
+        add(af.matchPath(settings.getString(SETTINGS_KEY_JFR_PATH, DEFAULT_JFR_PATH)));
+        add(RecordingActeur.class);
+        add(SendRecordingActeur.class);
+    }
+
+    static final class RecordingActeur extends Acteur {
+
+        @Inject
+        RecordingActeur(HttpEvent evt, JfrRecorder recorder, Settings settings, Closables clos) throws Exception {
+            if (evt.method().is(DELETE)) {
+                if (recorder.stop()) {
+                    ok("Recording stopped");
+                } else {
+                    reply(GONE, "No recording is running");
+                }
+                return;
+            }
+            int max = settings.getInt(SETTINGS_KEY_JFR_MAX_SECONDS, DEFAULT_JFR_MAX_SECONDS);
+            int seconds;
+            try {
+                seconds = evt.urlParameter("seconds") == null ? DEFAULT_SECONDS
+                        : Integer.parseInt(evt.urlParameter("seconds"));
+            } catch (NumberFormatException e) {
+                reply(BAD_REQUEST, "Bad seconds: " + evt.urlParameter("seconds"));
+                return;
+            }
+            if (seconds <= 0 || seconds > max) {
+                reply(BAD_REQUEST, "seconds must be between 1 and " + max);
+                return;
+            }
+            String config = evt.urlParameter("config") == null ? "default" : evt.urlParameter("config");
+            if (!"default".equals(config) && !"profile".equals(config)) {
+                reply(BAD_REQUEST, "config must be 'default' or 'profile'");
+                return;
+            }
+            CompletableFuture<Path> recording;
+            try {
+                recording = recorder.record(Duration.ofSeconds(seconds), config);
+            } catch (JfrRecorder.AlreadyRecordingException e) {
+                reply(CONFLICT, e.getMessage());
+                return;
+            }
+            // Cancels the recording if the connection is closed before it
+            // finishes
+            clos.add(recording);
+            then((Resumer r) -> {
+                recording.whenComplete((file, thrown) -> {
+                    r.resume(thrown == null ? DeferredComputationResult.of(file)
+                            : DeferredComputationResult.thrown(thrown));
+                });
+            });
+        }
+    }
+
+    static final class SendRecordingActeur extends Acteur {
+
+        @Inject
+        SendRecordingActeur(DeferredComputationResult res, Closables clos) throws Throwable {
+            if (res.thrown != null) {
+                if (res.thrown instanceof ResponseException) {
+                    throw res.thrown;
+                }
+                reply(Err.of(res.thrown));
+                return;
+            }
+            RecordingWriter writer = new RecordingWriter(res.as(Path.class));
+            // Ensures the file is deleted if the connection is closed mid-send
+            clos.add(writer);
+            add(Headers.CONTENT_TYPE, JFR);
+            add(Headers.CACHE_CONTROL, new CacheControl(CacheControlTypes.no_cache, CacheControlTypes.no_store));
+            add(Headers.CONTENT_DISPOSITION, "attachment; filename=\"acteur-"
+                    + System.currentTimeMillis() + ".jfr\"");
+            response().chunked(true);
+            ok();
+            response().contentWriter(writer);
+        }
+    }
+
+    static final class RecordingWriter extends ResponseWriter implements AutoCloseable {
+
+        private final Path file;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private FileChannel channel;
+
+        RecordingWriter(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public Status write(Event<?> evt, Output out, int iteration) throws Exception {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            ByteBuf buf = out.channel().alloc().ioBuffer(CHUNK_SIZE);
+            int read;
+            try {
+                read = buf.writeBytes(channel, CHUNK_SIZE);
+            } catch (IOException | RuntimeException e) {
+                buf.release();
+                close();
+                throw e;
+            }
+            if (read <= 0) {
+                buf.release();
+                close();
+                return Status.DONE;
+            }
+            out.write(buf);
+            return Status.NOT_DONE;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
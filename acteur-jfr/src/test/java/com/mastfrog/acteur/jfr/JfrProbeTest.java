@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.jfr;
+
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.util.RequestID;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import java.nio.file.Files;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class JfrProbeTest {
+
+    @Test
+    public void testNothingIsKeptWhenDisabled() {
+        JfrProbe probe = new JfrProbe();
+        RequestID id = new RequestID.Factory().next();
+        probe.onBeforeProcessRequest(id, null);
+        probe.onBeforeRunPage(id, null, null);
+        probe.onBeforeRunActeur(id, null, null);
+        probe.onActeurWasRun(id, null, null, null, null);
+        probe.onBeforeSendResponse(id, null, null, OK, false, null);
+        probe.onResponseSent(id, null, null, OK, 0);
+        probe.onResponseBodyWritten(id, null, true);
+        assertFalse(probe.isCompressionObserved());
+    }
+
+    @Test
+    public void testResponseWriteSpansBody() throws Exception {
+        JfrProbe probe = new JfrProbe();
+        HttpEvent evt = (HttpEvent) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{HttpEvent.class}, (proxy, method, args) -> null);
+        Path file = Files.createTempFile("JfrProbeTest", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable(ResponseWriteEvent.class);
+                recording.start();
+                RequestID id = new RequestID.Factory().next();
+                probe.onBeforeProcessRequest(id, evt);
+                probe.onBeforeSendResponse(id, evt, null, OK, false, null);
+                probe.onResponseSent(id, evt, null, OK, 10);
+                Thread.sleep(20);
+                probe.onResponseBodyWritten(id, evt, false);
+                recording.stop();
+                recording.dump(file);
+            }
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(events.toString(), 1, events.size());
+            RecordedEvent write = events.get(0);
+            assertEquals(10L, write.getLong("contentLength"));
+            assertFalse(write.getBoolean("completed"));
+            assertTrue(write.getDuration().toString(), write.getDuration().toMillis() >= 20);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testEventsAreRecorded() throws Exception {
+        JfrProbe probe = new JfrProbe();
+        RequestID.Factory ids = new RequestID.Factory();
+        Path file = Files.createTempFile("JfrProbeTest", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable(RequestEvent.class);
+                recording.enable(PageEvent.class);
+                recording.enable(ActeurEvent.class);
+                recording.enable(DeferralEvent.class);
+                recording.enable(CompressionEvent.class);
+                recording.start();
+                assertTrue(probe.isCompressionObserved());
+                for (int i = 0; i < 3; i++) {
+                    RequestID id = ids.next();
+                    probe.onBeforeProcessRequest(id, null);
+                    probe.onBeforeRunPage(id, null, null);
+                    probe.onBeforeRunActeur(id, null, null);
+                    probe.onActeurWasRun(id, null, null, null, null);
+                    probe.onBeforeRunActeur(id, null, null);
+                    probe.onDeferred(id, null);
+                    Thread.sleep(2);
+                    probe.onResumed(id, null);
+                    probe.onActeurWasRun(id, null, null, null, null);
+                    probe.onBeforeSendResponse(id, null, null, OK, false, null);
+                    probe.onResponseCompressed("gzip", 1000, 100, 5000);
+                }
+                RequestID fallthrough = ids.next();
+                probe.onBeforeProcessRequest(fallthrough, null);
+                probe.onFallthrough(fallthrough, null);
+                recording.stop();
+                recording.dump(file);
+            }
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            Map<String, Integer> counts = new HashMap<>();
+            for (RecordedEvent e : events) {
+                counts.merge(e.getEventType().getName(), 1, Integer::sum);
+                if ("com.mastfrog.acteur.Compression".equals(e.getEventType().getName())) {
+                    assertEquals("gzip", e.getString("encoding"));
+                    assertEquals(1000L, e.getLong("uncompressedBytes"));
+                    assertEquals(100L, e.getLong("compressedBytes"));
+                }
+            }
+            assertEquals(counts.toString(), Integer.valueOf(4), counts.get("com.mastfrog.acteur.Request"));
+            assertEquals(counts.toString(), Integer.valueOf(3), counts.get("com.mastfrog.acteur.Page"));
+            assertEquals(counts.toString(), Integer.valueOf(6), counts.get("com.mastfrog.acteur.Acteur"));
+            assertEquals(counts.toString(), Integer.valueOf(3), counts.get("com.mastfrog.acteur.Deferral"));
+            assertEquals(counts.toString(), Integer.valueOf(3), counts.get("com.mastfrog.acteur.Compression"));
+            assertTrue(events.stream().filter(e -> "com.mastfrog.acteur.Request".equals(e.getEventType().getName()))
+                    .anyMatch(e -> e.getInt("status") == 404));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.loadtest;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop HTTP load: requests are scheduled at a fixed rate regardless of
+ * how quickly responses arrive, and sent over a pool of keep-alive
+ * connections which grows on demand up to a limit. A request which comes due
+ * while every connection is busy waits for one, and that wait counts toward
+ * its latency, as it would for a real client.
+ *
+ * @author Tim Boudreau
+ */
+final class HttpLoad {
+
+    private final EventLoopGroup group;
+    private final InetSocketAddress address;
+    private final int maxConnections;
+    private final HttpMethod method;
+    private final String uri;
+    private final byte[] body;
+    private final String contentType;
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private Bootstrap bootstrap;
+    private LoadResult result;
+    private volatile long recordFrom;
+
+    HttpLoad(EventLoopGroup group, InetSocketAddress address, int maxConnections, HttpMethod method,
+            String uri, byte[] body, String contentType) {
+        this.group = group;
+        this.address = address;
+        this.maxConnections = maxConnections;
+        this.method = method;
+        this.uri = uri;
+        this.body = body;
+        this.contentType = contentType;
+    }
+
+    LoadResult run(String name, int rate, Duration warmup, Duration duration) throws InterruptedException {
+        result = new LoadResult(name, rate);
+        bootstrap = new Bootstrap().group(group).channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpClientCodec(), new HttpObjectAggregator(1024 * 1024),
+                                new Connection(ch));
+                    }
+                });
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        recordFrom = start + warmup.toNanos();
+        long end = recordFrom + duration.toNanos();
+        for (long i = 0;; i++) {
+            long intended = start + i * interval;
+            if (intended >= end) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            inFlight.incrementAndGet();
+            pending.add(new Pending(intended));
+            dispatch();
+        }
+        // Give what was sent a chance to finish
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (inFlight.get() > pending.size() && System.nanoTime() < drainUntil) {
+            Thread.sleep(10);
+        }
+        long now = System.nanoTime();
+        for (Pending p; (p = pending.poll()) != null;) {
+            if (p.intended >= recordFrom) {
+                result.unsent(p.intended, now);
+            }
+        }
+        // Requests still awaiting a response are the slowest of all, so
+        // leaving them out would flatter the tail
+        for (Connection c : connections) {
+            Pending p = c.current.getAndSet(null);
+            if (p != null && p.intended >= recordFrom) {
+                result.incomplete(p.intended, now);
+            }
+        }
+        result.finished(end - recordFrom);
+        for (Connection c : connections) {
+            c.channel.close();
+        }
+        idle.clear();
+        return result;
+    }
+
+    private void dispatch() {
+        while (!pending.isEmpty()) {
+            Connection conn = idle.poll();
+            if (conn == null) {
+                if (open.incrementAndGet() <= maxConnections) {
+                    connect();
+                } else {
+                    open.decrementAndGet();
+                }
+                return;
+            }
+            Pending p = pending.poll();
+            if (p == null) {
+                idle.add(conn);
+                return;
+            }
+            conn.send(p);
+        }
+    }
+
+    private void connect() {
+        bootstrap.connect(address).addListener((ChannelFuture f) -> {
+            if (!f.isSuccess()) {
+                open.decrementAndGet();
+                Pending p = pending.poll();
+                if (p != null) {
+                    fail(p);
+                }
+            }
+        });
+    }
+
+    private void fail(Pending p) {
+        inFlight.decrementAndGet();
+        if (p.intended >= recordFrom) {
+            result.error();
+        }
+    }
+
+    private FullHttpRequest request() {
+        FullHttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, uri,
+                body == null ? Unpooled.EMPTY_BUFFER : Unpooled.wrappedBuffer(body));
+        req.headers().set(HttpHeaderNames.HOST, address.getHostString() + ":" + address.getPort());
+        req.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        if (body != null) {
+            HttpUtil.setContentLength(req, body.length);
+            req.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        }
+        return req;
+    }
+
+    private static final class Pending {
+
+        final long intended;
+        long sent;
+
+        Pending(long intended) {
+            this.intended = intended;
+        }
+    }
+
+    private final class Connection extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+        private final Channel channel;
+        private final AtomicReference<Pending> current = new AtomicReference<>();
+
+        Connection(Channel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            super.channelActive(ctx);
+            connections.add(this);
+            idle.add(this);
+            dispatch();
+        }
+
+        void send(Pending p) {
+            p.sent = System.nanoTime();
+            current.set(p);
+            channel.writeAndFlush(request()).addListener((ChannelFuture f) -> {
+                if (!f.isSuccess()) {
+                    channel.close();
+                }
+            });
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+            long now = System.nanoTime();
+            Pending p = current.getAndSet(null);
+            if (p != null) {
+                inFlight.decrementAndGet();
+                if (p.intended >= recordFrom) {
+                    if (msg.status().code() < 400) {
+                        result.success(p.intended, p.sent, now);
+                    } else {
+                        result.error();
+                    }
+                }
+            }
+            if (HttpUtil.isKeepAlive(msg)) {
+                idle.add(this);
+                dispatch();
+            } else {
+                channel.close();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            connections.remove(this);
+            idle.remove(this);
+            open.decrementAndGet();
+            Pending p = current.getAndSet(null);
+            if (p != null) {
+                fail(p);
+            }
+            super.channelInactive(ctx);
+            dispatch();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.loadtest;
+
+import com.mastfrog.acteur.metrics.Histogram;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and latencies collected while one scenario runs. Latency is
+ * measured from the time a request was <i>scheduled</i> to be sent, not when
+ * it actually was, so time spent waiting behind a slow response is included
+ * - correcting for coordinated omission. Where it differs, the time from the
+ * actual send is kept separately as service time.
+ *
+ * @author Tim Boudreau
+ */
+final class LoadResult {
+
+    final String scenario;
+    final Histogram latency = new Histogram();
+    final Histogram serviceTime = new Histogram();
+    final LongAdder completed = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder unsent = new LongAdder();
+    final LongAdder incomplete = new LongAdder();
+    private final long targetRate;
+    private long elapsedNanos;
+
+    LoadResult(String scenario, long targetRate) {
+        this.scenario = scenario;
+        this.targetRate = targetRate;
+    }
+
+    void success(long intendedNanos, long sentNanos, long now) {
+        latency.record(now - intendedNanos);
+        serviceTime.record(now - sentNanos);
+        completed.increment();
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    void unsent(long intendedNanos, long now) {
+        // Still counted in the latency distribution, as at least this late
+        latency.record(now - intendedNanos);
+        unsent.increment();
+    }
+
+    void incomplete(long intendedNanos, long now) {
+        // Sent, but no response by the end of the drain - also at least this
+        // late
+        latency.record(now - intendedNanos);
+        incomplete.increment();
+    }
+
+    void finished(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    double throughput() {
+        return elapsedNanos == 0 ? 0 : completed.sum() / (elapsedNanos / 1000000000D);
+    }
+
+    static String header() {
+        return String.format("%-10s %9s %10s %9s %8s %8s %10s %10s %10s %10s %10s %12s",
+                "scenario", "target/s", "achieved/s", "completed", "errors", "unsent", "incomplete",
+                "p50", "p99", "p99.9", "max", "svc p99");
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString() {
+        Histogram.Snapshot lat = latency.snapshot();
+        Histogram.Snapshot svc = serviceTime.snapshot();
+        return String.format("%-10s %9d %10.1f %9d %8d %8d %10d %10s %10s %10s %10s %12s",
+                scenario, targetRate, throughput(), completed.sum(), errors.sum(), unsent.sum(), incomplete.sum(),
+                millis(lat.valueAt(0.5)), millis(lat.valueAt(0.99)), millis(lat.valueAt(0.999)),
+                millis(lat.max()), millis(svc.valueAt(0.99)));
+    }
+}
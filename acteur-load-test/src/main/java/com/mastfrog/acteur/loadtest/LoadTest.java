@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.loadtest;
+
+import com.mastfrog.acteur.resources.ResourcesPage;
+import com.mastfrog.acteur.util.Server;
+import com.mastfrog.acteur.util.ServerControl;
+import com.mastfrog.giulius.Dependencies;
+import com.mastfrog.settings.SettingsBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.http.HttpMethod;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Boots {@link LoadTestApp} on loopback and runs each scenario against it in
+ * turn at a fixed request rate, then prints throughput and latency
+ * percentiles. Runs headless, with nothing outside this JVM. Arguments, all
+ * optional:
+ * <pre>
+ * --scenarios static,echo,deferred,sse,websocket
+ * --rate 2000            requests per second, per scenario
+ * --duration 30          seconds measured, per scenario
+ * --warmup 5             seconds run before measuring
+ * --connections 64       maximum HTTP connections
+ * --sse-clients 100      open event streams
+ * --sse-interval 10      milliseconds between published events
+ * --ws-connections 16    websocket connections
+ * --client-threads 2     client event loop threads
+ * </pre> Any other <code>--key value</code> pair is passed to the server as a
+ * setting, e.g. <code>--workerThreads 8</code>.
+ *
+ * @author Tim Boudreau
+ */
+public final class LoadTest {
+
+    private static final byte[] ECHO_BODY = ("{\"name\":\"load test\",\"count\":42,\"tags\":[\"a\",\"b\",\"c\"],"
+            + "\"nested\":{\"enabled\":true,\"ratio\":0.5}}").getBytes(UTF_8);
+
+    private LoadTest() {
+        throw new AssertionError();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parse(args);
+        List<String> scenarios = Arrays.asList(remove(opts, "scenarios", "static,echo,deferred,sse,websocket").split(","));
+        int rate = Integer.parseInt(remove(opts, "rate", "2000"));
+        Duration duration = Duration.ofSeconds(Long.parseLong(remove(opts, "duration", "30")));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(remove(opts, "warmup", "5")));
+        int connections = Integer.parseInt(remove(opts, "connections", "64"));
+        int sseClients = Integer.parseInt(remove(opts, "sse-clients", "100"));
+        long sseInterval = Long.parseLong(remove(opts, "sse-interval", "10"));
+        int wsConnections = Integer.parseInt(remove(opts, "ws-connections", "16"));
+        int clientThreads = Integer.parseInt(remove(opts, "client-threads", "2"));
+
+        int port = freePort();
+        SettingsBuilder sb = new SettingsBuilder()
+                .add(ResourcesPage.SETTINGS_KEY_STATIC_RESOURCES_BASE_URL_PATH, "static/(.*)")
+                .add(LoadTestApp.SETTINGS_KEY_SSE_INTERVAL_MILLIS, Long.toString(sseInterval));
+        for (Map.Entry<String, String> e : opts.entrySet()) {
+            sb.add(e.getKey(), e.getValue());
+        }
+        Dependencies deps = new Dependencies(sb.build(), new LoadTestApp.LoadTestModule());
+        EventLoopGroup group = new NioEventLoopGroup(clientThreads);
+        try {
+            ServerControl ctrl = deps.getInstance(Server.class).start(port);
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            System.out.println("Server on " + address + "; " + rate + " req/s for " + duration.getSeconds()
+                    + "s after " + warmup.getSeconds() + "s warmup, per scenario");
+            List<LoadResult> results = new ArrayList<>();
+            for (String scenario : scenarios) {
+                LoadResult result;
+                switch (scenario.trim()) {
+                    case "static":
+                        result = new HttpLoad(group, address, connections, HttpMethod.GET, "/static/index.html", null, null)
+                                .run("static", rate, warmup, duration);
+                        break;
+                    case "echo":
+                        result = new HttpLoad(group, address, connections, HttpMethod.POST, "/echo", ECHO_BODY, "application/json")
+                                .run("echo", rate, warmup, duration);
+                        break;
+                    case "deferred":
+                        result = new HttpLoad(group, address, connections, HttpMethod.GET, "/deferred", null, null)
+                                .run("deferred", rate, warmup, duration);
+                        break;
+                    case "sse":
+                        result = new SseLoad(group, address, sseClients).run(1000 / Math.max(1, sseInterval), warmup, duration);
+                        break;
+                    case "websocket":
+                        result = new WebSocketLoad(group, address, wsConnections).run(rate, warmup, duration);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown scenario " + scenario);
+                }
+                System.out.println(result.scenario + " done");
+                results.add(result);
+            }
+            System.out.println();
+            System.out.println(LoadResult.header());
+            for (LoadResult r : results) {
+                System.out.println(r);
+            }
+            ctrl.shutdown(true);
+        } finally {
+            group.shutdownGracefully();
+            deps.shutdown();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            return s.getLocalPort();
+        }
+    }
+
+    private static String remove(Map<String, String> opts, String key, String defaultValue) {
+        String result = opts.remove(key);
+        return result == null ? defaultValue : result;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i == args.length - 1) {
+                throw new IllegalArgumentException("Expected --name value pairs: " + Arrays.toString(args));
+            }
+            result.put(args[i].substring(2), args[++i]);
+        }
+        return result;
+    }
+}
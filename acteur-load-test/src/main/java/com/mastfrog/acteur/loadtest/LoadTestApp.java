@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.loadtest;
+
+import com.google.inject.AbstractModule;
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.Application;
+import com.mastfrog.acteur.Event;
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.RequestLogger;
+import static com.mastfrog.acteur.headers.Method.GET;
+import static com.mastfrog.acteur.headers.Method.POST;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.acteur.preconditions.Path;
+import com.mastfrog.acteur.resources.ClasspathResourceInfo;
+import com.mastfrog.acteur.resources.ClasspathResources;
+import com.mastfrog.acteur.resources.Resource;
+import com.mastfrog.acteur.resources.ResourcesPage;
+import com.mastfrog.acteur.resources.StaticResources;
+import static com.mastfrog.acteur.server.ServerModule.DELAY_EXECUTOR;
+import com.mastfrog.acteur.server.ServerModule;
+import com.mastfrog.acteur.sse.ActeurServerSentEventsModule;
+import com.mastfrog.acteur.sse.EventSink;
+import com.mastfrog.acteur.sse.SseActeur;
+import com.mastfrog.acteur.util.RequestID;
+import com.mastfrog.acteur.websocket.WebSocketUpgradeActeur;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.giulius.scope.ReentrantScope;
+import com.mastfrog.settings.Settings;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+/**
+ * The application the load test runs against, with one page for each kind
+ * of work acteur applications commonly do: static resources, a JSON echo, a
+ * deferred (asynchronous) response, a server-sent event stream and a
+ * websocket echo. The event stream publishes the server's
+ * <code>System.nanoTime()</code> at a fixed interval, so a client in the
+ * same JVM can compute delivery latency.
+ *
+ * @author Tim Boudreau
+ */
+@SuppressWarnings("deprecation")
+@com.mastfrog.acteur.ImplicitBindings(Resource.class)
+public final class LoadTestApp extends Application {
+
+    /**
+     * How long the deferred page waits before responding, in milliseconds.
+     */
+    public static final String SETTINGS_KEY_DEFERRED_MILLIS = "loadtest.deferred.millis";
+    /**
+     * How often a server-sent event is published, in milliseconds.
+     */
+    public static final String SETTINGS_KEY_SSE_INTERVAL_MILLIS = "loadtest.sse.interval.millis";
+    static final String[] STATIC_FILES = {"index.html", "app.js"};
+
+    @Inject
+    LoadTestApp(Provider<EventSink> events, @Named(DELAY_EXECUTOR) ScheduledExecutorService delay,
+            Settings settings, ShutdownHookRegistry reg) {
+        add(EchoPage.class);
+        add(DeferredPage.class);
+        add(SsePage.class);
+        add(WebSocketPage.class);
+        add(ResourcesPage.class);
+        long interval = settings.getLong(SETTINGS_KEY_SSE_INTERVAL_MILLIS, 10);
+        ScheduledFuture<?> publisher = delay.scheduleAtFixedRate(()
+                -> events.get().publish(Long.toString(System.nanoTime())),
+                interval, interval, TimeUnit.MILLISECONDS);
+        reg.add((Runnable) () -> publisher.cancel(false));
+    }
+
+    @Path("/echo")
+    @Methods(POST)
+    static final class EchoPage extends Page {
+
+        EchoPage() {
+            add(EchoActeur.class);
+        }
+    }
+
+    static final class EchoActeur extends Acteur {
+
+        @Inject
+        EchoActeur(HttpEvent evt) throws Exception {
+            ok(evt.jsonContent(Map.class));
+        }
+    }
+
+    @Path("/deferred")
+    @Methods(GET)
+    static final class DeferredPage extends Page {
+
+        DeferredPage() {
+            add(DeferredActeur.class);
+        }
+    }
+
+    static final class DeferredActeur extends Acteur {
+
+        @Inject
+        DeferredActeur(@Named(DELAY_EXECUTOR) ScheduledExecutorService delay, Settings settings) {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            delay.schedule(() -> result.complete("done"),
+                    settings.getLong(SETTINGS_KEY_DEFERRED_MILLIS, 1), TimeUnit.MILLISECONDS);
+            then(result);
+        }
+    }
+
+    @Path("/sse")
+    @Methods(GET)
+    static final class SsePage extends Page {
+
+        SsePage() {
+            add(SseActeur.class);
+        }
+    }
+
+    @Path("/ws")
+    @Methods(GET)
+    static final class WebSocketPage extends Page {
+
+        WebSocketPage() {
+            add(WebSocketUpgradeActeur.class);
+            add(WebSocketEchoActeur.class);
+        }
+    }
+
+    static final class WebSocketEchoActeur extends Acteur {
+
+        @Inject
+        WebSocketEchoActeur(WebSocketFrame frame) {
+            if (frame instanceof TextWebSocketFrame) {
+                ok(new TextWebSocketFrame(((TextWebSocketFrame) frame).text()));
+            } else {
+                ok();
+            }
+        }
+    }
+
+    static final class QuietRequestLogger implements RequestLogger {
+
+        @Override
+        public void onBeforeEvent(RequestID rid, Event<?> event) {
+            // do nothing
+        }
+
+        @Override
+        public void onRespond(RequestID rid, Event<?> event, HttpResponseStatus status) {
+            // do nothing
+        }
+    }
+
+    /**
+     * Binds the application, static resources served from the classpath and
+     * server-sent events, with request logging turned off.
+     */
+    public static final class LoadTestModule extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            ReentrantScope scope = new ReentrantScope();
+            install(new ServerModule<>(scope, LoadTestApp.class));
+            install(new ActeurServerSentEventsModule(scope));
+            bind(StaticResources.class).to(ClasspathResources.class);
+            bind(ClasspathResourceInfo.class).toInstance(new ClasspathResourceInfo(LoadTestApp.class, STATIC_FILES));
+            bind(RequestLogger.class).to(QuietRequestLogger.class);
+        }
+    }
+}
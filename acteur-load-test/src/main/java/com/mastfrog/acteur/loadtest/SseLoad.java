@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.loadtest;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds a number of server-sent event streams open and measures how long
+ * each event takes to arrive, using the server's timestamp in the event
+ * data. Only meaningful when the server runs in the same JVM, since it
+ * compares <code>System.nanoTime()</code> values.
+ *
+ * @author Tim Boudreau
+ */
+final class SseLoad {
+
+    private final EventLoopGroup group;
+    private final InetSocketAddress address;
+    private final int clients;
+    private LoadResult result;
+    private volatile long recordFrom;
+
+    SseLoad(EventLoopGroup group, InetSocketAddress address, int clients) {
+        this.group = group;
+        this.address = address;
+        this.clients = clients;
+    }
+
+    LoadResult run(long eventsPerSecond, Duration warmup, Duration duration) throws InterruptedException {
+        result = new LoadResult("sse", eventsPerSecond * clients);
+        recordFrom = Long.MAX_VALUE;
+        Bootstrap bootstrap = new Bootstrap().group(group).channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpClientCodec(), new Stream());
+                    }
+                });
+        List<Channel> channels = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            Channel ch = bootstrap.connect(address).sync().channel();
+            FullHttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/sse");
+            req.headers().set(HttpHeaderNames.HOST, address.getHostString() + ":" + address.getPort());
+            req.headers().set(HttpHeaderNames.ACCEPT, "text/event-stream");
+            ch.writeAndFlush(req);
+            channels.add(ch);
+        }
+        long start = System.nanoTime();
+        recordFrom = start + warmup.toNanos();
+        Thread.sleep(warmup.plus(duration).toMillis());
+        result.finished(System.nanoTime() - recordFrom);
+        recordFrom = Long.MAX_VALUE;
+        for (Channel ch : channels) {
+            ch.close();
+        }
+        return result;
+    }
+
+    private final class Stream extends SimpleChannelInboundHandler<HttpObject> {
+
+        private final StringBuilder partial = new StringBuilder();
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+            long now = System.nanoTime();
+            if (msg instanceof HttpResponse && ((HttpResponse) msg).status().code() >= 400) {
+                result.error();
+                ctx.close();
+                return;
+            }
+            if (!(msg instanceof HttpContent)) {
+                return;
+            }
+            partial.append(((HttpContent) msg).content().toString(UTF_8));
+            int start = 0;
+            for (int nl; (nl = partial.indexOf("\n", start)) >= 0; start = nl + 1) {
+                if (isData(partial, start)) {
+                    String data = partial.substring(start + 5, nl).trim();
+                    try {
+                        long published = Long.parseLong(data);
+                        if (published >= recordFrom) {
+                            result.success(published, published, now);
+                        }
+                    } catch (NumberFormatException e) {
+                        result.error();
+                    }
+                }
+            }
+            partial.delete(0, start);
+        }
+
+        private boolean isData(StringBuilder sb, int start) {
+            return sb.length() >= start + 5 && sb.charAt(start) == 'd' && sb.charAt(start + 1) == 'a'
+                    && sb.charAt(start + 2) == 't' && sb.charAt(start + 3) == 'a' && sb.charAt(start + 4) == ':';
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            result.error();
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.loadtest;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop websocket load: text frames carrying the time they were
+ * scheduled to be sent are written round-robin across a number of
+ * connections at a fixed rate, and the echoed frames' latency is measured
+ * from that time.
+ *
+ * @author Tim Boudreau
+ */
+final class WebSocketLoad {
+
+    private final EventLoopGroup group;
+    private final InetSocketAddress address;
+    private final int connections;
+    private LoadResult result;
+    private volatile long recordFrom;
+
+    WebSocketLoad(EventLoopGroup group, InetSocketAddress address, int connections) {
+        this.group = group;
+        this.address = address;
+        this.connections = connections;
+    }
+
+    LoadResult run(int rate, Duration warmup, Duration duration) throws Exception {
+        result = new LoadResult("websocket", rate);
+        recordFrom = Long.MAX_VALUE;
+        URI uri = new URI("ws://" + address.getHostString() + ":" + address.getPort() + "/ws");
+        List<Echo> echoes = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            Echo echo = new Echo(WebSocketClientHandshakerFactory.newHandshaker(uri,
+                    WebSocketVersion.V13, null, false, new DefaultHttpHeaders()));
+            new Bootstrap().group(group).channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new HttpClientCodec(), new HttpObjectAggregator(65536), echo);
+                        }
+                    }).connect(address).sync();
+            echo.handshake.await(10, TimeUnit.SECONDS);
+            if (!echo.handshake.isSuccess()) {
+                throw new IllegalStateException("Websocket handshake failed", echo.handshake.cause());
+            }
+            echoes.add(echo);
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        recordFrom = start + warmup.toNanos();
+        long end = recordFrom + duration.toNanos();
+        for (long i = 0;; i++) {
+            long intended = start + i * interval;
+            if (intended >= end) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Channel ch = echoes.get((int) (i % connections)).channel;
+            ch.writeAndFlush(new TextWebSocketFrame(Long.toString(intended)));
+        }
+        Thread.sleep(1000);
+        result.finished(end - recordFrom);
+        for (Echo echo : echoes) {
+            echo.channel.writeAndFlush(new CloseWebSocketFrame());
+            echo.channel.close();
+        }
+        return result;
+    }
+
+    private final class Echo extends SimpleChannelInboundHandler<Object> {
+
+        private final WebSocketClientHandshaker handshaker;
+        private ChannelPromise handshake;
+        private Channel channel;
+
+        Echo(WebSocketClientHandshaker handshaker) {
+            this.handshaker = handshaker;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            handshake = ctx.newPromise();
+            channel = ctx.channel();
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            handshaker.handshake(ctx.channel());
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+            long now = System.nanoTime();
+            if (!handshaker.isHandshakeComplete()) {
+                try {
+                    handshaker.finishHandshake(ctx.channel(), (FullHttpResponse) msg);
+                    handshake.setSuccess();
+                } catch (RuntimeException e) {
+                    handshake.setFailure(e);
+                }
+                return;
+            }
+            if (msg instanceof TextWebSocketFrame) {
+                try {
+                    long intended = Long.parseLong(((TextWebSocketFrame) msg).text());
+                    if (intended >= recordFrom) {
+                        result.success(intended, intended, now);
+                    }
+                } catch (NumberFormatException e) {
+                    result.error();
+                }
+            } else if (msg instanceof CloseWebSocketFrame) {
+                ctx.close();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (!handshake.isDone()) {
+                handshake.setFailure(cause);
+            }
+            result.error();
+            ctx.close();
+        }
+    }
+}
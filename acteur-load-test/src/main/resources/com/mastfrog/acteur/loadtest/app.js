@@ -0,0 +1,13 @@
+(function () {
+    'use strict';
+    window.addEventListener('load', function () {
+        var out = document.getElementById('events');
+        var count = 0;
+        var source = new EventSource('/sse');
+        source.onmessage = function (e) {
+            if (++count % 100 === 0) {
+                out.textContent = count + ' events, last ' + e.data;
+            }
+        };
+    });
+})();
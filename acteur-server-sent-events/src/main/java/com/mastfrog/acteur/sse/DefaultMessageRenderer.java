@@ -25,7 +25,11 @@ package com.mastfrog.acteur.sse;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mastfrog.acteur.spi.ApplicationControl;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 import java.io.IOException;
+import java.io.OutputStream;
 import javax.inject.Inject;
 
 /**
@@ -57,4 +61,14 @@ final class DefaultMessageRenderer implements MessageRenderer {
         }
     }
 
+    @Override
+    public void render(Object msg, ByteBuf into) throws IOException {
+        if (msg instanceof String) {
+            ByteBufUtil.writeUtf8(into, (String) msg);
+        } else {
+            // ByteBufOutputStream is also a DataOutput; pick the stream overload
+            codec.writeValue((OutputStream) new ByteBufOutputStream(into), msg);
+        }
+    }
+
 }
@@ -23,31 +23,47 @@
  */
 package com.mastfrog.acteur.sse;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import com.mastfrog.acteur.server.ServerModule;
 import com.mastfrog.acteur.spi.ApplicationControl;
 import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.settings.Settings;
 import com.mastfrog.util.preconditions.Checks;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.util.CharsetUtil;
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import javax.inject.Inject;
 
 /**
@@ -57,6 +73,24 @@ import javax.inject.Inject;
  * user or per session EventSinks, write an Acteur that looks up (in a cache or
  * similar) the right EventSink, and include that in its state. Then use the
  * next one.
+ * <p>
+ * Each event is rendered once, on a background thread; subscribers are
+ * sharded by the event loop their channel belongs to, and each shard writes
+ * to its own subscribers in a task run on that event loop, so the cost of
+ * writing to many subscribers is spread across all of the loops. Events
+ * published in a burst are handed to each loop together and written with a
+ * single flush per channel.
+ * <p>
+ * A subscriber whose channel stops being writable has further events held in
+ * a bounded backlog, which is written out when the channel becomes writable
+ * again; what happens when the backlog fills is determined by the
+ * {@link SlowSubscriberPolicy} set in settings.
+ * <p>
+ * Recently sent events are retained, up to a count and size limit, so that a
+ * client which reconnects with a <code>Last-Event-ID</code> header (which
+ * SseActeur passes along) is first sent the events it missed. History for a
+ * channel name is dropped once it has had no subscribers for a while, and
+ * the history for all names together is capped.
  *
  * @author Tim Boudreau
  */
@@ -66,36 +100,169 @@ public class EventSink {
     private final LinkedBlockingQueue<Message> messages = new LinkedBlockingQueue<>();
     private final AtomicLong count = new AtomicLong();
     private final MessageRenderer ren;
-    private final Set<Channel> channels = Sets.newConcurrentHashSet();
-    private final Map<EventChannelName, List<Channel>> channelsForName = Maps.newConcurrentMap();
+    private final Set<Channel> channels = ConcurrentHashMap.newKeySet();
+    private final Map<EventChannelName, NameEntry> channelsForName = new ConcurrentHashMap<>();
+    private final Map<EventLoop, Shard> shards = new ConcurrentHashMap<>();
     private volatile boolean shutdown;
     private volatile Thread thread;
     private final ByteBufAllocator alloc;
     private final ApplicationControl ctrl;
     private final Runner runner = new Runner();
     private final Shutdown shutdownRun = new Shutdown();
+    private final int maxPending;
+    private final SlowSubscriberPolicy policy;
+    private final WriteBufferWaterMark writeBufferWaterMark;
+    private final LongAdder totalDropped = new LongAdder();
+    private final ReplayBuffer replay;
+
+    /**
+     * Settings key for the maximum number of events which may wait for a
+     * subscriber whose channel is not writable.
+     */
+    public static final String SETTINGS_KEY_SSE_MAX_PENDING = "sse.subscriber.max.pending";
+    /**
+     * Default maximum backlog per subscriber.
+     */
+    public static final int DEFAULT_SSE_MAX_PENDING = 1024;
+    /**
+     * Settings key for the {@link SlowSubscriberPolicy} to apply when a
+     * subscriber's backlog is full - one of <code>drop-oldest</code>,
+     * <code>coalesce</code> or <code>disconnect</code>.
+     */
+    public static final String SETTINGS_KEY_SSE_SLOW_SUBSCRIBER_POLICY = "sse.slow.subscriber.policy";
+    /**
+     * Settings key for the outbound buffer size in bytes above which an SSE
+     * channel stops being writable and events start to be held back. If
+     * unset, the channel's existing watermarks are used.
+     */
+    public static final String SETTINGS_KEY_SSE_WRITE_BUFFER_HIGH_BYTES = "sse.write.buffer.high.bytes";
+    /**
+     * Settings key for the outbound buffer size in bytes below which a
+     * backlogged SSE channel becomes writable again. Defaults to half the
+     * high watermark.
+     */
+    public static final String SETTINGS_KEY_SSE_WRITE_BUFFER_LOW_BYTES = "sse.write.buffer.low.bytes";
+    /**
+     * Settings key for the number of recent events retained per channel name
+     * (and for unnamed events) so that clients reconnecting with a
+     * <code>Last-Event-ID</code> header can be sent what they missed. Set to
+     * 0 to disable replay.
+     */
+    public static final String SETTINGS_KEY_SSE_REPLAY_MAX_EVENTS = "sse.replay.max.events";
+    /**
+     * Default number of events retained for replay.
+     */
+    public static final int DEFAULT_SSE_REPLAY_MAX_EVENTS = 256;
+    /**
+     * Settings key for the maximum bytes of encoded events retained per
+     * channel name for replay.
+     */
+    public static final String SETTINGS_KEY_SSE_REPLAY_MAX_BYTES = "sse.replay.max.bytes";
+    /**
+     * Default maximum bytes retained for replay, per channel name.
+     */
+    public static final long DEFAULT_SSE_REPLAY_MAX_BYTES = 1024 * 1024;
+    /**
+     * Settings key for how long events for a channel name are retained for
+     * replay after its last subscriber disconnects.
+     */
+    public static final String SETTINGS_KEY_SSE_REPLAY_IDLE_MILLIS = "sse.replay.idle.millis";
+    /**
+     * Default time events for a name without subscribers are retained.
+     */
+    public static final long DEFAULT_SSE_REPLAY_IDLE_MILLIS = 60000;
+    /**
+     * Settings key for the maximum bytes of encoded events retained for
+     * replay across all channel names together.
+     */
+    public static final String SETTINGS_KEY_SSE_REPLAY_MAX_TOTAL_BYTES = "sse.replay.max.total.bytes";
+    /**
+     * Default maximum bytes retained for replay across all names.
+     */
+    public static final long DEFAULT_SSE_REPLAY_MAX_TOTAL_BYTES = 64 * 1024 * 1024;
 
     /**
      * Normally you will just ask for an instance to be injected into your
      * constructor.
      *
      * @param ren A message renderer
-     * @param svc The executor service that messages are dequeued on and sent to
-     * all open registered channels
+     * @param svc The executor service that messages are dequeued and rendered
+     * on before being handed to the event loops of registered channels
      * @param alloc An allocator for byte buffers, bound by the framework
      * @param ctrl Used to handle any exceptions
      * @param reg Shutdown hook registry that allows this sink to mark itself as
      * shut down, cease sending messages and clean up after itself
      */
-    @Inject
     protected EventSink(MessageRenderer ren, @Named(ServerModule.BACKGROUND_THREAD_POOL_NAME) ExecutorService svc, ByteBufAllocator alloc, ApplicationControl ctrl, ShutdownHookRegistry reg) {
+        this(ren, svc, alloc, ctrl, reg, DEFAULT_SSE_MAX_PENDING, SlowSubscriberPolicy.DROP_OLDEST, null,
+                new ReplayBuffer(DEFAULT_SSE_REPLAY_MAX_EVENTS, DEFAULT_SSE_REPLAY_MAX_BYTES));
+    }
+
+    /**
+     * Create an event sink which reads its slow subscriber handling from
+     * settings.
+     *
+     * @param ren A message renderer
+     * @param svc The executor service that messages are dequeued and rendered
+     * on before being handed to the event loops of registered channels
+     * @param alloc An allocator for byte buffers, bound by the framework
+     * @param ctrl Used to handle any exceptions
+     * @param reg Shutdown hook registry that allows this sink to mark itself as
+     * shut down, cease sending messages and clean up after itself
+     * @param settings Settings
+     * @since 2.5.0
+     */
+    @Inject
+    protected EventSink(MessageRenderer ren, @Named(ServerModule.BACKGROUND_THREAD_POOL_NAME) ExecutorService svc, ByteBufAllocator alloc, ApplicationControl ctrl, ShutdownHookRegistry reg, Settings settings) {
+        this(ren, svc, alloc, ctrl, reg, settings.getInt(SETTINGS_KEY_SSE_MAX_PENDING, DEFAULT_SSE_MAX_PENDING),
+                SlowSubscriberPolicy.parse(settings.getString(SETTINGS_KEY_SSE_SLOW_SUBSCRIBER_POLICY)),
+                waterMark(settings), new ReplayBuffer(settings.getInt(SETTINGS_KEY_SSE_REPLAY_MAX_EVENTS, DEFAULT_SSE_REPLAY_MAX_EVENTS),
+                        settings.getLong(SETTINGS_KEY_SSE_REPLAY_MAX_BYTES, DEFAULT_SSE_REPLAY_MAX_BYTES),
+                        settings.getLong(SETTINGS_KEY_SSE_REPLAY_MAX_TOTAL_BYTES, DEFAULT_SSE_REPLAY_MAX_TOTAL_BYTES),
+                        settings.getLong(SETTINGS_KEY_SSE_REPLAY_IDLE_MILLIS, DEFAULT_SSE_REPLAY_IDLE_MILLIS),
+                        System::currentTimeMillis));
+    }
+
+    private EventSink(MessageRenderer ren, ExecutorService svc, ByteBufAllocator alloc, ApplicationControl ctrl, ShutdownHookRegistry reg, int maxPending, SlowSubscriberPolicy policy, WriteBufferWaterMark writeBufferWaterMark, ReplayBuffer replay) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException(SETTINGS_KEY_SSE_MAX_PENDING + " must be > 0 but was " + maxPending);
+        }
         this.ren = ren;
         this.alloc = alloc;
         this.ctrl = ctrl;
+        this.maxPending = maxPending;
+        this.policy = policy;
+        this.writeBufferWaterMark = writeBufferWaterMark;
+        this.replay = replay;
         reg.add(shutdownRun);
         svc.submit(runner);
     }
 
+    private static WriteBufferWaterMark waterMark(Settings settings) {
+        Integer high = settings.getInt(SETTINGS_KEY_SSE_WRITE_BUFFER_HIGH_BYTES);
+        if (high == null) {
+            return null;
+        }
+        int low = settings.getInt(SETTINGS_KEY_SSE_WRITE_BUFFER_LOW_BYTES, high / 2);
+        return new WriteBufferWaterMark(low, high);
+    }
+
+    /**
+     * Find the instance of a channel name which subscribers were registered
+     * with, which tracks event ids for that name.
+     *
+     * @param name A name or null
+     * @return The registered instance, or null if there are no subscribers
+     * for that name (or the name was null)
+     */
+    private EventChannelName canonicalName(EventChannelName name) {
+        if (name == null) {
+            return null;
+        }
+        NameEntry entry = channelsForName.get(name);
+        return entry == null ? null : entry.name;
+    }
+
     /**
      * Publish an event
      *
@@ -107,15 +274,17 @@ public class EventSink {
      * @return this
      */
     public EventSink publish(EventChannelName name, String eventType, Object message) {
-        if (shutdown || channels.isEmpty()) {
+        if (shutdown || (channels.isEmpty() && !replay.isEnabled())) {
             return this;
         }
-        // make sure we use the first instance we were passed
-        for (EventChannelName n : channelsForName.keySet()) {
-            if (name.equals(n)) {
-                name = n;
-                break;
+        if (name != null) {
+            // make sure we use the first instance we were passed
+            EventChannelName canonical = canonicalName(name);
+            if (canonical == null && !replay.isTracking(name)) {
+                // No subscribers, and no history kept for it
+                return this;
             }
+            name = canonical == null ? name : canonical;
         }
 //        long id = name == null ? count.getAndIncrement() : name.nextId();
         Message msg = new Message(name, eventType, count.getAndIncrement(), message);
@@ -157,15 +326,16 @@ public class EventSink {
      */
     public EventSink publish(EventChannelName name, Object message) {
         Checks.notNull("message", message);
-        if (shutdown || channels.isEmpty()) {
+        if (shutdown || (channels.isEmpty() && !replay.isEnabled())) {
             return this;
         }
-        // make sure we use the first instance we were passed
-        for (EventChannelName n : channelsForName.keySet()) {
-            if (name.equals(n)) {
-                name = n;
-                break;
+        if (name != null) {
+            // make sure we use the first instance we were passed
+            EventChannelName canonical = canonicalName(name);
+            if (canonical == null && !replay.isTracking(name)) {
+                return this;
             }
+            name = canonical == null ? name : canonical;
         }
         long id = name == null ? count.getAndIncrement() : name.nextId();
         Message msg = new Message(name, id, message);
@@ -180,29 +350,137 @@ public class EventSink {
      * @return this
      */
     public EventSink register(Channel channel) {
+        return register(channel, null);
+    }
+
+    /**
+     * Register a channel which will receive events from this event sink,
+     * first sending it any retained events which were sent after the passed
+     * event id.
+     *
+     * @param channel A channel
+     * @param lastEventId The value of the client's <code>Last-Event-ID</code>
+     * header, or null
+     * @return this
+     * @since 2.5.0
+     */
+    public EventSink register(Channel channel, String lastEventId) {
         if (!shutdown && channel.isOpen()) {
-            channels.add(channel);
-            channel.closeFuture().addListener(remover);
+            if (channels.add(channel)) {
+                channel.closeFuture().addListener(remover);
+                shard(channel).add(null, true, channel, lastEventId);
+            }
         }
         return this;
     }
 
-    public synchronized EventSink register(EventChannelName name, Channel channel) {
+    /**
+     * Register a channel which will receive events published to the passed
+     * name, as well as events published to no name.
+     *
+     * @param name The name
+     * @param channel A channel
+     * @return this
+     */
+    public EventSink register(EventChannelName name, Channel channel) {
+        return register(name, channel, null);
+    }
+
+    /**
+     * Register a channel which will receive events published to the passed
+     * name, as well as events published to no name, first sending it any
+     * retained events for either which were sent after the passed event id.
+     *
+     * @param name The name
+     * @param channel A channel
+     * @param lastEventId The value of the client's <code>Last-Event-ID</code>
+     * header, or null
+     * @return this
+     * @since 2.5.0
+     */
+    public synchronized EventSink register(EventChannelName name, Channel channel, String lastEventId) {
         if (!shutdown && channel.isOpen()) {
-            channels.add(channel);
-            List<Channel> chlls = channelsForName.get(name);
-            if (chlls == null) {
-                chlls = Lists.newCopyOnWriteArrayList(Arrays.asList(channel));
-                channelsForName.put(name, chlls);
-            } else {
-                chlls.add(channel);
+            boolean[] added = new boolean[1];
+            // Under the name's lock, so the entry cannot be emptied and
+            // removed (and its replay history marked idle) concurrently
+            NameEntry entry = channelsForName.compute(name, (nm, existing) -> {
+                NameEntry result = existing == null ? new NameEntry(nm) : existing;
+                added[0] = result.channels.add(channel);
+                replay.track(result.name);
+                return result;
+            });
+            boolean named = added[0];
+            if (named) {
+                channel.closeFuture().addListener(new RemoveListener(entry.name));
+            }
+            boolean unnamed = channels.add(channel);
+            if (unnamed) {
+                channel.closeFuture().addListener(remover);
+            }
+            if (named || unnamed) {
+                // One task, so no event can be written between joining the
+                // named and unnamed sets, or between replay and going live
+                shard(channel).add(named ? entry.name : null, unnamed, channel, lastEventId);
             }
-            channel.closeFuture().addListener(new RemoveListener(name));
-            register(channel);
         }
         return this;
     }
 
+    private Shard shard(Channel channel) {
+        return shards.computeIfAbsent(channel.eventLoop(), Shard::new);
+    }
+
+    /**
+     * Get the number of rendered events waiting to be written by each event
+     * loop which has subscribers.
+     *
+     * @return An array of queue depths, one per event loop
+     */
+    public int[] shardQueueDepths() {
+        List<Shard> all = new ArrayList<>(shards.values());
+        int[] result = new int[all.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = all.get(i).depth.get();
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of published events waiting to be rendered.
+     *
+     * @return The number of events
+     */
+    public int queueDepth() {
+        return messages.size();
+    }
+
+    /**
+     * Get a snapshot of the backlog and dropped event count of each
+     * subscriber. May be called from any thread; values are read without
+     * waiting for the event loops and may be slightly stale.
+     *
+     * @return A list of stats, one per subscribed channel
+     * @since 2.5.0
+     */
+    public List<SubscriberStats> subscriberStats() {
+        List<SubscriberStats> result = new ArrayList<>();
+        for (Shard shard : shards.values()) {
+            shard.stats(result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the total number of events which were dropped or coalesced away
+     * for slow subscribers since this sink was created.
+     *
+     * @return The number of dropped events
+     * @since 2.5.0
+     */
+    public long droppedCount() {
+        return totalDropped.sum();
+    }
+
     private final RemoveListener remover = new RemoveListener();
 
     private final class RemoveListener implements ChannelFutureListener {
@@ -219,37 +497,480 @@ public class EventSink {
 
         @Override
         public void operationComplete(ChannelFuture f) throws Exception {
+            Channel channel = f.channel();
             if (name != null) {
-                List<Channel> chlls = channelsForName.get(name);
-                if (chlls != null) {
-                    chlls.remove(f.channel());
-                    if (chlls.isEmpty()) {
-                        channelsForName.remove(name);
+                channelsForName.computeIfPresent(name, (nm, entry) -> {
+                    entry.channels.remove(channel);
+                    if (entry.channels.isEmpty()) {
+                        replay.idle(entry.name);
+                        return null;
                     }
-                }
+                    return entry;
+                });
+            } else {
+                channels.remove(channel);
+            }
+            Shard shard = shards.get(channel.eventLoop());
+            if (shard != null) {
+                shard.remove(name, channel);
             }
-            channels.remove(f.channel());
         }
     }
 
     public void clear() {
         channels.clear();
+        channelsForName.clear();
         messages.clear();
+        for (Shard shard : shards.values()) {
+            shard.clear();
+        }
+        replay.clear();
+    }
+
+    private static final byte[] EVENT_PREFIX = "\nevent: ".getBytes(CharsetUtil.US_ASCII);
+    private static final byte[] ID_PREFIX = "\nid: ".getBytes(CharsetUtil.US_ASCII);
+    private static final byte[] DATA_PREFIX = "\ndata: ".getBytes(CharsetUtil.US_ASCII);
+
+    private ByteBuf toByteBuf(Message msg) throws IOException {
+        ByteBuf payload = alloc.buffer();
+        try {
+            ren.render(msg.message, payload);
+            ByteBuf out = alloc.ioBuffer(payload.readableBytes() + 64);
+            try {
+                if (msg.eventType != null) {
+                    out.writeBytes(EVENT_PREFIX);
+                    ByteBufUtil.writeUtf8(out, msg.eventType);
+                }
+                out.writeBytes(ID_PREFIX);
+                ByteBufUtil.writeAscii(out, msg.eventId());
+                writeData(payload, out);
+                return out.writeByte('\n').writeByte('\n');
+            } catch (RuntimeException ex) {
+                out.release();
+                throw ex;
+            }
+        } finally {
+            payload.release();
+        }
+    }
+
+    /**
+     * Copy a rendered payload as <code>data:</code> lines, one per line of
+     * the payload, straight from the bytes - a multi-byte UTF-8 character
+     * never contains a newline byte, so no decoding is needed.
+     */
+    static void writeData(ByteBuf payload, ByteBuf out) {
+        int start = payload.readerIndex();
+        int end = payload.writerIndex();
+        for (;;) {
+            int newline = payload.indexOf(start, end, (byte) '\n');
+            int lineEnd = newline < 0 ? end : newline;
+            int length = lineEnd - start;
+            if (length > 0 && payload.getByte(lineEnd - 1) == '\r') {
+                length--;
+            }
+            out.writeBytes(DATA_PREFIX).writeBytes(payload, start, length);
+            if (newline < 0) {
+                break;
+            }
+            start = newline + 1;
+        }
+    }
+
+    private static final class NameEntry {
+
+        final EventChannelName name;
+        final Set<Channel> channels = ConcurrentHashMap.newKeySet();
+
+        NameEntry(EventChannelName name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Subscribers whose channels belong to one event loop. The subscriber
+     * sets are only touched from that loop; rendered events are handed over
+     * through a queue, and a drain task is scheduled when the queue goes
+     * from empty to non-empty.
+     */
+    private final class Shard implements Runnable {
+
+        private final EventLoop loop;
+        // Concurrent only so that stats can be read from other threads
+        private final Map<Channel, Subscriber> subscribers = new ConcurrentHashMap<>();
+        private final Set<Subscriber> all = new LinkedHashSet<>();
+        private final Map<EventChannelName, Set<Subscriber>> named = new HashMap<>();
+        private final Queue<Outbound> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final List<Subscriber> unflushed = new ArrayList<>();
+
+        Shard(EventLoop loop) {
+            this.loop = loop;
+        }
+
+        void add(EventChannelName name, boolean unnamed, Channel channel, String lastEventId) {
+            // Always deferred, so subscriber sets are never modified while
+            // they are being iterated
+            loop.execute(() -> {
+                if (!channel.isOpen()) {
+                    return;
+                }
+                Subscriber sub = subscribers.get(channel);
+                if (sub == null) {
+                    SseCompression.Reservation compression = channel.attr(SseCompression.RESERVATION_KEY).get();
+                    sub = new Subscriber(channel, compression == null ? null : compression.newEncoder());
+                    subscribers.put(channel, sub);
+                    if (writeBufferWaterMark != null) {
+                        channel.config().setWriteBufferWaterMark(writeBufferWaterMark);
+                    }
+                    channel.pipeline().addFirst(new WritabilityHandler(sub));
+                }
+                if (unnamed) {
+                    all.add(sub);
+                }
+                if (name != null) {
+                    named.computeIfAbsent(name, nm -> new LinkedHashSet<>()).add(sub);
+                }
+                if (lastEventId != null) {
+                    replay(sub, name, lastEventId);
+                }
+            });
+        }
+
+        private void replay(Subscriber sub, EventChannelName name, String lastEventId) {
+            // Anything rendered before this point is either in the snapshot
+            // or was already drained to this loop before the subscriber
+            // joined; anything still queued is skipped if it was replayed
+            long through = -1;
+            try {
+                for (ReplayBuffer.Entry e : replay.since(name, lastEventId)) {
+                    try {
+                        deliver(sub, new Outbound(null, e.eventType, e.seq, e.buf));
+                        through = e.seq;
+                    } finally {
+                        e.buf.release();
+                    }
+                }
+            } finally {
+                sub.replayedThrough = through;
+                flushAll();
+            }
+        }
+
+        void remove(EventChannelName name, Channel channel) {
+            loop.execute(() -> {
+                Subscriber sub = subscribers.get(channel);
+                if (sub == null) {
+                    return;
+                }
+                if (name == null) {
+                    all.remove(sub);
+                } else {
+                    Set<Subscriber> set = named.get(name);
+                    if (set != null && set.remove(sub) && set.isEmpty()) {
+                        named.remove(name);
+                    }
+                }
+                if (!all.contains(sub) && !isNamed(sub)) {
+                    subscribers.remove(channel);
+                    sub.discard();
+                }
+            });
+        }
+
+        private boolean isNamed(Subscriber sub) {
+            for (Set<Subscriber> set : named.values()) {
+                if (set.contains(sub)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void clear() {
+            loop.execute(() -> {
+                for (Subscriber sub : subscribers.values()) {
+                    sub.discard();
+                }
+                subscribers.clear();
+                all.clear();
+                named.clear();
+                drain(false);
+            });
+        }
+
+        void stats(List<SubscriberStats> into) {
+            // The map is safe to iterate from any thread; the per-subscriber
+            // values are volatile, written on the loop, and may be stale
+            for (Subscriber sub : subscribers.values()) {
+                into.add(sub.stats());
+            }
+        }
+
+        void enqueue(List<Outbound> batch) {
+            // All of a batch is queued before the drain task is scheduled,
+            // so it is usually written with one flush per channel
+            for (Outbound out : batch) {
+                pending.offer(new Outbound(out.target, out.eventType, out.seq, out.buf.retainedDuplicate()));
+            }
+            depth.addAndGet(batch.size());
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    loop.execute(this);
+                } catch (RejectedExecutionException ex) {
+                    // Event loop shutting down
+                    scheduled.set(false);
+                    drain(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            scheduled.set(false);
+            drain(!shutdown);
+        }
+
+        private void drain(boolean write) {
+            Outbound out;
+            try {
+                while ((out = pending.poll()) != null) {
+                    depth.decrementAndGet();
+                    try {
+                        if (write) {
+                            write(out);
+                        }
+                    } finally {
+                        out.buf.release();
+                    }
+                }
+            } finally {
+                flushAll();
+            }
+        }
+
+        private void deliver(Subscriber sub, Outbound out) {
+            if (sub.offer(out) && !sub.unflushed) {
+                sub.unflushed = true;
+                unflushed.add(sub);
+            }
+        }
+
+        private void flushAll() {
+            for (Subscriber sub : unflushed) {
+                sub.unflushed = false;
+                if (sub.channel.isOpen()) {
+                    sub.flush();
+                }
+            }
+            unflushed.clear();
+        }
+
+        private void write(Outbound out) {
+            Collection<Subscriber> targets = out.target == null ? all : named.get(out.target);
+            if (targets == null) {
+                return;
+            }
+            for (Subscriber sub : targets) {
+                if (sub.channel.isOpen()) {
+                    try {
+                        deliver(sub, out);
+                    } catch (Exception e) {
+                        ctrl.internalOnError(e);
+                        sub.channel.close();
+                    }
+                }
+            }
+        }
     }
 
-    private ByteBuf toByteBuf(Message msg) {
-        StringBuilder builder = new StringBuilder();
-        if (msg.eventType != null) {
-            builder.append("\nevent: ").append(msg.eventType);
+    /**
+     * Per-channel delivery state, confined to the channel's event loop.
+     * Events are written straight through while the channel is writable;
+     * otherwise they wait in a bounded backlog, subject to the slow
+     * subscriber policy, until the channel's writability changes.
+     */
+    private final class Subscriber {
+
+        private final Channel channel;
+        private final ArrayDeque<Pending> backlog = new ArrayDeque<>();
+        private volatile int backlogSize;
+        private volatile long dropped;
+        private volatile long oldestQueuedAt;
+        private long replayedThrough = -1;
+        private boolean unflushed;
+        private final SseCompression.Encoder encoder;
+        private final List<ByteBuf> compressed;
+
+        Subscriber(Channel channel, SseCompression.Encoder encoder) {
+            this.channel = channel;
+            this.encoder = encoder;
+            this.compressed = encoder == null ? null : new ArrayList<>(2);
+        }
+
+        private void write(ByteBuf buf) {
+            if (encoder == null) {
+                channel.write(new DefaultHttpContent(buf));
+            } else {
+                // Compressed as one block when flushed
+                encoder.add(buf);
+            }
+        }
+
+        void flush() {
+            if (encoder != null) {
+                encoder.drain(compressed);
+                for (ByteBuf buf : compressed) {
+                    channel.write(new DefaultHttpContent(buf));
+                }
+                compressed.clear();
+            }
+            channel.flush();
+        }
+
+        /**
+         * Write or hold back an event.
+         *
+         * @param out The event
+         * @return true if it was written and the channel needs a flush
+         */
+        boolean offer(Outbound out) {
+            if (out.seq <= replayedThrough) {
+                return false;
+            }
+            if (backlog.isEmpty() && channel.isWritable()) {
+                write(out.buf.retainedDuplicate());
+                return true;
+            }
+            if (policy == SlowSubscriberPolicy.COALESCE && replace(out)) {
+                return false;
+            }
+            if (backlog.size() >= maxPending) {
+                if (policy == SlowSubscriberPolicy.DISCONNECT) {
+                    dropped(1);
+                    channel.close();
+                    return false;
+                }
+                backlog.poll().buf.release();
+                dropped(1);
+            }
+            backlog.offer(new Pending(out.eventType, out.buf.retainedDuplicate()));
+            updated();
+            return false;
+        }
+
+        private boolean replace(Outbound out) {
+            for (Iterator<Pending> it = backlog.iterator(); it.hasNext();) {
+                Pending p = it.next();
+                if (Objects.equals(p.eventType, out.eventType)) {
+                    it.remove();
+                    p.buf.release();
+                    backlog.offer(new Pending(out.eventType, out.buf.retainedDuplicate()));
+                    dropped(1);
+                    updated();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void writable() {
+            if (backlog.isEmpty()) {
+                return;
+            }
+            boolean wrote = false;
+            while (channel.isWritable() && !backlog.isEmpty()) {
+                write(backlog.poll().buf);
+                // When compressing, the backlog (bounded by maxPending) all
+                // goes into one block, since uncompressed bytes don't count
+                // against the channel's watermarks
+                wrote = true;
+            }
+            if (wrote) {
+                flush();
+            }
+            updated();
+        }
+
+        void discard() {
+            Pending p;
+            while ((p = backlog.poll()) != null) {
+                p.buf.release();
+            }
+            if (encoder != null) {
+                encoder.close();
+            }
+            updated();
+        }
+
+        private void dropped(int count) {
+            dropped += count;
+            totalDropped.add(count);
+        }
+
+        private void updated() {
+            backlogSize = backlog.size();
+            Pending oldest = backlog.peek();
+            oldestQueuedAt = oldest == null ? 0 : oldest.queuedAt;
+        }
+
+        SubscriberStats stats() {
+            long oldest = oldestQueuedAt;
+            return new SubscriberStats(String.valueOf(channel.remoteAddress()), backlogSize, dropped,
+                    oldest == 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest));
+        }
+    }
+
+    private final class WritabilityHandler extends ChannelInboundHandlerAdapter {
+
+        private final Subscriber subscriber;
+
+        WritabilityHandler(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            if (ctx.channel().isWritable()) {
+                subscriber.writable();
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+    }
+
+    private static final class Pending {
+
+        final String eventType;
+        final ByteBuf buf;
+        final long queuedAt = System.currentTimeMillis();
+
+        Pending(String eventType, ByteBuf buf) {
+            this.eventType = eventType;
+            this.buf = buf;
+        }
+    }
+
+    private static final class Outbound {
+
+        final EventChannelName target;
+        final String eventType;
+        final long seq;
+        final ByteBuf buf;
+
+        Outbound(EventChannelName target, String eventType, long seq, ByteBuf buf) {
+            this.target = target;
+            this.eventType = eventType;
+            this.seq = seq;
+            this.buf = buf;
         }
-        String stringMessage = ren.toString(msg.message).replace("\n", "\ndata: "); //XXX support multiline
-        builder.append("\nid: ").append(msg.id).append("-").append(msg.timestamp)
-                .append("\ndata: ").append(stringMessage).append('\n').append('\n');
-        return alloc.ioBuffer(builder.length()).writeBytes(builder.toString().getBytes(CharsetUtil.UTF_8));
     }
 
     private class Runner implements Runnable {
 
+        // Order in which events were rendered; only touched on this thread
+        private long sequence;
+
         @Override
         public void run() {
             synchronized (EventSink.class) {
@@ -264,58 +985,44 @@ public class EventSink {
                         }
                         msgs.add(messages.take());
                         messages.drainTo(msgs);
-                        if (channels.isEmpty() && channelsForName.isEmpty()) {
+                        if (channels.isEmpty() && !replay.isEnabled()) {
                             msgs.clear();
                             continue;
                         }
-                        for (Message msg : msgs) {
-                            EventChannelName target = msg.channelName;
-                            ByteBuf buf = toByteBuf(msg);
-                            if (target == null) {
-                                for (Iterator<Channel> channelIterator = channels.iterator(); channelIterator.hasNext();) {
-                                    if (shutdown) {
-                                        return;
-                                    }
-                                    Channel channel = channelIterator.next();
-                                    if (!channel.isOpen()) {
-                                        channelIterator.remove();
-                                    } else {
-                                        try {
-                                            ByteBuf toWrite = buf.duplicate().retain();
-                                            channel.writeAndFlush(new DefaultHttpContent(toWrite));
-                                        } catch (Exception e) {
-                                            ctrl.internalOnError(e);
-                                            channelIterator.remove();
-                                        }
-                                    }
+                        List<Outbound> batch = new ArrayList<>(msgs.size());
+                        try {
+                            for (Message msg : msgs) {
+                                if (shutdown) {
+                                    return;
                                 }
-                            } else {
-                                List<Channel> targetChannels = channelsForName.get(target);
-                                if (targetChannels != null) {
-                                    for (Iterator<Channel> channelIterator = targetChannels.iterator(); channelIterator.hasNext();) {
-                                        if (shutdown) {
-                                            return;
-                                        }
-                                        Channel channel = channelIterator.next();
-                                        if (!channel.isOpen()) {
-                                            channelIterator.remove();
-                                        } else {
-                                            try {
-                                                ByteBuf toWrite = buf.duplicate().retain();
-                                                channel.writeAndFlush(new DefaultHttpContent(toWrite));
-                                            } catch (Exception e) {
-                                                ctrl.internalOnError(e);
-                                                channelIterator.remove();
-                                            }
-                                        }
-                                    }
+                                ByteBuf buf;
+                                try {
+                                    buf = toByteBuf(msg);
+                                } catch (IOException ex) {
+                                    ctrl.internalOnError(ex);
+                                    continue;
                                 }
+                                long seq = sequence++;
+                                batch.add(new Outbound(msg.channelName, msg.eventType, seq, buf));
+                                replay.add(msg.channelName, seq, msg.eventId(), msg.eventType, buf);
+                            }
+                            // Rendered once; each shard gets its own
+                            // references to the whole batch and duplicates
+                            // them per channel
+                            for (Shard shard : shards.values()) {
+                                shard.enqueue(batch);
+                            }
+                        } finally {
+                            for (Outbound out : batch) {
+                                out.buf.release();
                             }
-                            buf.release();
                         }
                         msgs.clear();
                     } catch (InterruptedException ex) {
                         return;
+                    } catch (Exception e) {
+                        ctrl.internalOnError(e);
+                        msgs.clear();
                     }
                 }
             } finally {
@@ -326,6 +1033,7 @@ public class EventSink {
                     }
                 } finally {
                     channels.clear();
+                    replay.clear();
                     synchronized (EventSink.this) {
                         thread = null;
                     }
@@ -376,5 +1084,9 @@ public class EventSink {
             this.id = id;
             this.message = message;
         }
+
+        String eventId() {
+            return id + "-" + timestamp;
+        }
     }
 }
@@ -25,6 +25,9 @@
 package com.mastfrog.acteur.sse;
 
 import com.google.inject.ImplementedBy;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import java.io.IOException;
 
 /**
  * Renders a message into a server-sent event. The default implementation
@@ -43,4 +46,25 @@ public interface MessageRenderer {
      * @return A string representation
      */
     String toString(Object msg);
+
+    /**
+     * Write the UTF-8 bytes of a message's payload into a buffer. The
+     * payload may contain newlines; splitting it into <code>data:</code>
+     * lines is done by the caller. The default implementation writes the
+     * result of <code>toString()</code>; override it to encode without
+     * creating an intermediate string.
+     *
+     * @param msg The message
+     * @param into The buffer to write to
+     * @throws IOException If encoding fails, in which case the event is not
+     * sent
+     * @since 2.5.0
+     */
+    default void render(Object msg, ByteBuf into) throws IOException {
+        String result = toString(msg);
+        if (result == null) {
+            throw new IOException("Could not render " + msg);
+        }
+        ByteBufUtil.writeUtf8(into, result);
+    }
 }
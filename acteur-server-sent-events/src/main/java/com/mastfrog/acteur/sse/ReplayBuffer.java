@@ -0,0 +1,310 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.sse;
+
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Retains recently sent, already encoded events so that a client which
+ * reconnects with a <code>Last-Event-ID</code> header can be sent what it
+ * missed. There is one ring for events published to no channel name, and one
+ * for each channel name which has subscribers; each is bounded both by event
+ * count and by bytes, and holds the same (usually direct) buffers that were
+ * written to subscribers.
+ * <p>
+ * When the last subscriber to a name goes away, its ring is kept for an idle
+ * period, so a client reconnecting shortly afterwards can still catch up, and
+ * then dropped - names may be per-user or per-session, so rings cannot be
+ * kept forever. The bytes held by all rings together are also capped; when
+ * over the cap, idle rings are dropped first, and then the oldest entry of
+ * each ring in turn is evicted.
+ *
+ * @author Tim Boudreau
+ */
+final class ReplayBuffer {
+
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+    private final int maxEvents;
+    private final long maxBytes;
+    private final long maxTotalBytes;
+    private final long idleMillis;
+    private final LongSupplier clock;
+    private final Ring unnamed;
+    private final Map<EventChannelName, Ring> named = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private volatile long lastSweep;
+
+    ReplayBuffer(int maxEvents, long maxBytes) {
+        this(maxEvents, maxBytes, EventSink.DEFAULT_SSE_REPLAY_MAX_TOTAL_BYTES,
+                EventSink.DEFAULT_SSE_REPLAY_IDLE_MILLIS, System::currentTimeMillis);
+    }
+
+    ReplayBuffer(int maxEvents, long maxBytes, long maxTotalBytes, long idleMillis, LongSupplier clock) {
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.idleMillis = idleMillis;
+        this.clock = clock;
+        this.unnamed = maxEvents > 0 ? new Ring() : null;
+    }
+
+    boolean isEnabled() {
+        return unnamed != null;
+    }
+
+    /**
+     * Start or resume retaining history for a channel name which has a
+     * subscriber.
+     *
+     * @param name A name
+     */
+    void track(EventChannelName name) {
+        if (unnamed != null && name != null) {
+            named.compute(name, (nm, ring) -> {
+                if (ring == null) {
+                    ring = new Ring();
+                }
+                ring.idleSince = 0;
+                return ring;
+            });
+        }
+    }
+
+    /**
+     * Note that a channel name no longer has subscribers; its history is
+     * dropped if nobody subscribes again within the idle period.
+     *
+     * @param name A name
+     */
+    void idle(EventChannelName name) {
+        if (name != null) {
+            named.computeIfPresent(name, (nm, ring) -> {
+                ring.idleSince = Math.max(1, clock.getAsLong());
+                return ring;
+            });
+        }
+    }
+
+    /**
+     * Determine if events for this name should be rendered even if nobody is
+     * currently subscribed, because they are being retained.
+     *
+     * @param name A name or null
+     * @return true if history is kept for it
+     */
+    boolean isTracking(EventChannelName name) {
+        if (unnamed == null) {
+            return false;
+        }
+        if (name == null) {
+            return true;
+        }
+        Ring ring = named.get(name);
+        return ring != null && !ring.isExpired(clock.getAsLong());
+    }
+
+    int trackedNames() {
+        return named.size();
+    }
+
+    long totalBytes() {
+        return totalBytes.get();
+    }
+
+    void add(EventChannelName name, long seq, String id, String eventType, ByteBuf buf) {
+        Ring ring = name == null ? unnamed : named.get(name);
+        if (ring != null) {
+            ring.add(new Entry(seq, id, eventType, buf.retainedDuplicate()));
+        }
+        long now = clock.getAsLong();
+        if (now - lastSweep >= SWEEP_INTERVAL_MILLIS) {
+            lastSweep = now;
+            sweep(now, false);
+        }
+        if (totalBytes.get() > maxTotalBytes) {
+            trim(now);
+        }
+    }
+
+    private void sweep(long now, boolean allIdle) {
+        for (EventChannelName name : named.keySet()) {
+            named.computeIfPresent(name, (nm, ring) -> {
+                if (ring.isExpired(now) || (allIdle && ring.idleSince != 0)) {
+                    ring.clear(true);
+                    return null;
+                }
+                return ring;
+            });
+        }
+    }
+
+    private void trim(long now) {
+        // Idle names first - nobody may ever ask for them
+        sweep(now, true);
+        List<Ring> rings = new ArrayList<>(named.values());
+        rings.add(unnamed);
+        boolean evicted = true;
+        while (evicted && totalBytes.get() > maxTotalBytes) {
+            evicted = false;
+            for (Ring ring : rings) {
+                if (totalBytes.get() <= maxTotalBytes) {
+                    break;
+                }
+                evicted |= ring.evictOldest();
+            }
+        }
+    }
+
+    /**
+     * Get retained duplicates of the events a subscriber to the passed name
+     * (which also receives unnamed events) has not seen, in the order they
+     * were sent. If the last event id is no longer (or never was) in the
+     * buffer, everything retained is returned, since the client has
+     * evidently missed at least that much.
+     *
+     * @param name The name the subscriber is registering for, or null
+     * @param lastEventId The client's last event id
+     * @return A list of entries, whose buffers the caller must release
+     */
+    List<Entry> since(EventChannelName name, String lastEventId) {
+        List<Entry> result = new ArrayList<>();
+        if (unnamed == null) {
+            return result;
+        }
+        Ring ring = name == null ? null : named.get(name);
+        long after = unnamed.seqOf(lastEventId);
+        if (after < 0 && ring != null) {
+            after = ring.seqOf(lastEventId);
+        }
+        unnamed.collect(after, result);
+        if (ring != null) {
+            ring.collect(after, result);
+            result.sort((a, b) -> Long.compare(a.seq, b.seq));
+        }
+        return result;
+    }
+
+    void clear() {
+        if (unnamed != null) {
+            unnamed.clear(false);
+        }
+        for (Ring ring : named.values()) {
+            ring.clear(true);
+        }
+        named.clear();
+    }
+
+    final class Ring {
+
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private long bytes;
+        // Set once dropped, so an add racing with removal is not retained
+        private boolean closed;
+        // When the last subscriber left, or 0 if subscribed
+        volatile long idleSince;
+
+        boolean isExpired(long now) {
+            long idle = idleSince;
+            return idle != 0 && now - idle >= idleMillis;
+        }
+
+        synchronized void add(Entry entry) {
+            if (closed) {
+                entry.buf.release();
+                return;
+            }
+            entries.offer(entry);
+            bytes += entry.buf.readableBytes();
+            totalBytes.addAndGet(entry.buf.readableBytes());
+            while (entries.size() > maxEvents || (bytes > maxBytes && entries.size() > 1)) {
+                evict();
+            }
+        }
+
+        private void evict() {
+            Entry old = entries.poll();
+            bytes -= old.buf.readableBytes();
+            totalBytes.addAndGet(-old.buf.readableBytes());
+            old.buf.release();
+        }
+
+        synchronized boolean evictOldest() {
+            if (entries.isEmpty()) {
+                return false;
+            }
+            evict();
+            return true;
+        }
+
+        synchronized long seqOf(String id) {
+            // Most reconnecting clients are only a little behind, so search
+            // from the newest end
+            for (Iterator<Entry> it = entries.descendingIterator(); it.hasNext();) {
+                Entry e = it.next();
+                if (e.id.equals(id)) {
+                    return e.seq;
+                }
+            }
+            return -1;
+        }
+
+        synchronized void collect(long after, List<Entry> into) {
+            for (Entry e : entries) {
+                if (e.seq > after) {
+                    into.add(new Entry(e.seq, e.id, e.eventType, e.buf.retainedDuplicate()));
+                }
+            }
+        }
+
+        synchronized void clear(boolean close) {
+            closed |= close;
+            while (!entries.isEmpty()) {
+                evict();
+            }
+        }
+    }
+
+    static final class Entry {
+
+        final long seq;
+        final String id;
+        final String eventType;
+        final ByteBuf buf;
+
+        Entry(long seq, String id, String eventType, ByteBuf buf) {
+            this.seq = seq;
+            this.id = id;
+            this.eventType = eventType;
+            this.buf = buf;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.sse;
+
+import com.mastfrog.util.preconditions.ConfigurationError;
+import java.util.Locale;
+
+/**
+ * What an EventSink does with events for a subscriber which is not keeping
+ * up - one whose channel is not writable because its outbound buffer is over
+ * the high watermark, and which has events waiting.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+public enum SlowSubscriberPolicy {
+    /**
+     * Once the subscriber's backlog is full, discard the oldest waiting
+     * event to make room for each new one.
+     */
+    DROP_OLDEST,
+    /**
+     * While the subscriber is backlogged, a new event replaces any waiting
+     * event of the same event type, so only the latest value of each type is
+     * delivered; if the backlog is full anyway, the oldest event is dropped.
+     */
+    COALESCE,
+    /**
+     * Close the subscriber's connection once its backlog is full; clients
+     * are expected to reconnect.
+     */
+    DISCONNECT;
+
+    static SlowSubscriberPolicy parse(String value) {
+        if (value == null) {
+            return DROP_OLDEST;
+        }
+        String name = value.trim().toUpperCase(Locale.ROOT).replace('-', '_').replace('.', '_');
+        for (SlowSubscriberPolicy policy : values()) {
+            if (policy.name().equals(name)) {
+                return policy;
+            }
+        }
+        StringBuilder valid = new StringBuilder();
+        for (SlowSubscriberPolicy policy : values()) {
+            if (valid.length() > 0) {
+                valid.append(", ");
+            }
+            valid.append(policy.name().toLowerCase(Locale.ROOT).replace('_', '-'));
+        }
+        throw new ConfigurationError("Unknown value for " + EventSink.SETTINGS_KEY_SSE_SLOW_SUBSCRIBER_POLICY
+                + " '" + value + "'; valid values are " + valid);
+    }
+}
@@ -27,9 +27,13 @@ package com.mastfrog.acteur.sse;
 import com.google.common.net.MediaType;
 import com.google.inject.Provider;
 import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.headers.HeaderValueType;
 import com.mastfrog.acteur.headers.Headers;
+import com.mastfrog.acteur.server.ServerModule;
 import com.mastfrog.acteur.util.CacheControl;
 import com.mastfrog.acteur.util.Connection;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
@@ -51,20 +55,73 @@ import javax.inject.Inject;
  * <li>Subclass this and used &#064;Named to look up a specific EventSource 
  * (make sure to bind it in Scopes.SINGLETON)</li>
  * </ul>
+ * A client reconnecting with a <code>Last-Event-ID</code> header is first sent
+ * any events it missed which the EventSink still retains. If enabled in
+ * settings (see {@link SseCompression}), the stream is compressed with gzip or
+ * deflate when the client accepts it.
  *
  * @author Tim Boudreau
  */
 public final class SseActeur extends Acteur {
 
     private static final MediaType TYPE = MediaType.parse("text/event-stream; charset=UTF-8");
+    private static final String LAST_EVENT_ID = "Last-Event-ID";
 
-    @Inject
+    /**
+     * Create an SseActeur which neither replays events a reconnecting client
+     * missed nor compresses the stream.
+     *
+     * @param sink The event sink
+     * @param name The name of the sub-channel, if any
+     */
     public SseActeur(EventSink sink, Provider<EventChannelName> name) {
+        this(sink, name, null, null, null);
+    }
+
+    /**
+     * Create an SseActeur whose stream is never compressed.
+     *
+     * @param sink The event sink
+     * @param name The name of the sub-channel, if any
+     * @param evt The request
+     * @since 2.5.0
+     */
+    public SseActeur(EventSink sink, Provider<EventChannelName> name, HttpEvent evt) {
+        this(sink, name, evt.header(LAST_EVENT_ID), null, null);
+    }
+
+    /**
+     * Create an SseActeur which compresses the stream if the passed
+     * SseCompression allows it.
+     *
+     * @param sink The event sink
+     * @param name The name of the sub-channel, if any
+     * @param evt The request
+     * @param compression Compression settings
+     * @since 2.5.0
+     */
+    @Inject
+    public SseActeur(EventSink sink, Provider<EventChannelName> name, HttpEvent evt, SseCompression compression) {
+        this(sink, name, evt.header(LAST_EVENT_ID),
+                compression.reserve(evt.header(Headers.ACCEPT_ENCODING)), evt.channel());
+    }
+
+    private SseActeur(EventSink sink, Provider<EventChannelName> name, String lastEventId,
+            SseCompression.Reservation reservation, Channel channel) {
         add(Headers.CONTENT_TYPE, TYPE);
         add(Headers.CACHE_CONTROL, CacheControl.PRIVATE_NO_CACHE_NO_STORE);
         add(Headers.CONNECTION, Connection.keep_alive);
+        if (reservation != null) {
+            // The event stream is the rest of the connection, so the
+            // reservation is released when the channel closes
+            reservation.attach(channel);
+            add(Headers.CONTENT_ENCODING, reservation.contentEncoding());
+            add(Headers.VARY, new HeaderValueType<?>[]{Headers.ACCEPT_ENCODING});
+            // Bypass the server's own compressor - EventSink compresses
+            add(ServerModule.X_INTERNAL_COMPRESS_HEADER, "true");
+        }
         setState(new RespondWith(OK));
-        setResponseBodyWriter(new L(sink, name.get()));
+        setResponseBodyWriter(new L(sink, name.get(), lastEventId));
         setChunked(true);
     }
 
@@ -72,20 +129,23 @@ public final class SseActeur extends Acteur {
 
         private final EventSink sink;
         private final EventChannelName name;
+        private final String lastEventId;
 
-        public L(EventSink sink, EventChannelName name) {
+        public L(EventSink sink, EventChannelName name, String lastEventId) {
             this.sink = sink;
             this.name = name;
+            this.lastEventId = lastEventId;
         }
 
         @Override
         public void operationComplete(ChannelFuture future) throws Exception {
             // At this point we know the headers have been sent, so it is
-            // safe to start sending events
+            // safe to start sending events, beginning with any the client
+            // missed since it last connected
             if (name == null) {
-                sink.register(future.channel());
+                sink.register(future.channel(), lastEventId);
             } else {
-                sink.register(name, future.channel());
+                sink.register(name, future.channel(), lastEventId);
             }
         }
     }
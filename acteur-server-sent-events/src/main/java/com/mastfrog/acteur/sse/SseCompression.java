@@ -0,0 +1,293 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.sse;
+
+import com.google.inject.Singleton;
+import com.mastfrog.settings.Settings;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.util.AttributeKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+
+/**
+ * Optional compression of event streams. The server's HTTP compressor works
+ * per chunk and is bypassed for event streams compressed this way; instead
+ * each subscriber gets its own deflater, which is fed a whole batch of events
+ * and sync-flushed once per batch, so events are delivered promptly while
+ * still sharing a compression window. Since a deflater lives as long as the
+ * connection, the total memory they may use is capped; connections over the
+ * cap are simply served uncompressed.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public final class SseCompression {
+
+    /**
+     * Settings key for enabling compression of event streams for clients
+     * which send an <code>Accept-Encoding</code> header that allows gzip or
+     * deflate. Off by default.
+     */
+    public static final String SETTINGS_KEY_SSE_COMPRESSION = "sse.compression";
+    /**
+     * Settings key for the deflate level, 1 to 9, used for event streams.
+     */
+    public static final String SETTINGS_KEY_SSE_COMPRESSION_LEVEL = "sse.compression.level";
+    /**
+     * Default compression level.
+     */
+    public static final int DEFAULT_SSE_COMPRESSION_LEVEL = 6;
+    /**
+     * Settings key for the total bytes of (native) deflater state which may
+     * be held by open event streams.
+     */
+    public static final String SETTINGS_KEY_SSE_COMPRESSION_MAX_MEMORY = "sse.compression.max.memory";
+    /**
+     * Default total deflater memory - enough for a little over 100
+     * compressed streams.
+     */
+    public static final long DEFAULT_SSE_COMPRESSION_MAX_MEMORY = 32 * 1024 * 1024;
+    /**
+     * Approximate native memory used by a deflater with zlib's default 15
+     * window bits and memory level 8: 2^17 bytes of window plus 2^17 of hash
+     * and pending buffers, plus a little bookkeeping.
+     */
+    static final long DEFLATER_MEMORY_ESTIMATE = 268 * 1024;
+
+    /**
+     * Never compresses; used by code which constructs an SseActeur without
+     * one.
+     */
+    static final SseCompression DISABLED = new SseCompression(false, DEFAULT_SSE_COMPRESSION_LEVEL, 0);
+
+    static final AttributeKey<Reservation> RESERVATION_KEY
+            = AttributeKey.newInstance(SseCompression.class.getSimpleName());
+
+    private final boolean enabled;
+    private final int level;
+    private final long maxMemory;
+    private final AtomicLong reserved = new AtomicLong();
+
+    @Inject
+    SseCompression(Settings settings) {
+        this(settings.getBoolean(SETTINGS_KEY_SSE_COMPRESSION, false),
+                settings.getInt(SETTINGS_KEY_SSE_COMPRESSION_LEVEL, DEFAULT_SSE_COMPRESSION_LEVEL),
+                settings.getLong(SETTINGS_KEY_SSE_COMPRESSION_MAX_MEMORY, DEFAULT_SSE_COMPRESSION_MAX_MEMORY));
+    }
+
+    SseCompression(boolean enabled, int level, long maxMemory) {
+        if (level < 1 || level > 9) {
+            throw new IllegalArgumentException(SETTINGS_KEY_SSE_COMPRESSION_LEVEL
+                    + " must be between 1 and 9 but was " + level);
+        }
+        this.enabled = enabled;
+        this.level = level;
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Get the bytes of deflater memory currently reserved by open streams.
+     *
+     * @return A byte count
+     */
+    public long reservedMemory() {
+        return reserved.get();
+    }
+
+    /**
+     * Choose an encoding for a new event stream and reserve deflater memory
+     * for it.
+     *
+     * @param acceptEncoding The request's Accept-Encoding header, or null
+     * @return A reservation, or null if the stream should not be compressed
+     */
+    Reservation reserve(CharSequence acceptEncoding) {
+        if (!enabled || acceptEncoding == null) {
+            return null;
+        }
+        ZlibWrapper wrapper = negotiate(acceptEncoding);
+        if (wrapper == null) {
+            return null;
+        }
+        for (;;) {
+            long current = reserved.get();
+            if (current + DEFLATER_MEMORY_ESTIMATE > maxMemory) {
+                return null;
+            }
+            if (reserved.compareAndSet(current, current + DEFLATER_MEMORY_ESTIMATE)) {
+                return new Reservation(wrapper);
+            }
+        }
+    }
+
+    /**
+     * Pick gzip if acceptable, otherwise deflate, otherwise nothing; encodings
+     * with a quality of zero are not acceptable, and <code>*</code> only
+     * accepts encodings not otherwise listed.
+     */
+    static ZlibWrapper negotiate(CharSequence acceptEncoding) {
+        boolean gzip = false;
+        boolean deflate = false;
+        boolean any = false;
+        boolean gzipRefused = false;
+        boolean deflateRefused = false;
+        for (String part : acceptEncoding.toString().split(",")) {
+            String[] params = part.split(";");
+            String name = params[0].trim();
+            boolean acceptable = true;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException ex) {
+                        acceptable = false;
+                    }
+                }
+            }
+            if ("gzip".equalsIgnoreCase(name)) {
+                gzip |= acceptable;
+                gzipRefused |= !acceptable;
+            } else if ("deflate".equalsIgnoreCase(name)) {
+                deflate |= acceptable;
+                deflateRefused |= !acceptable;
+            } else if ("*".equals(name)) {
+                any |= acceptable;
+            }
+        }
+        if (gzip || (any && !gzipRefused)) {
+            return ZlibWrapper.GZIP;
+        } else if (deflate || (any && !deflateRefused)) {
+            return ZlibWrapper.ZLIB;
+        }
+        return null;
+    }
+
+    /**
+     * Deflater memory reserved for one event stream, released when the
+     * stream's channel closes.
+     */
+    final class Reservation {
+
+        private final ZlibWrapper wrapper;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Reservation(ZlibWrapper wrapper) {
+            this.wrapper = wrapper;
+        }
+
+        String contentEncoding() {
+            return wrapper == ZlibWrapper.GZIP ? "gzip" : "deflate";
+        }
+
+        /**
+         * Attach this reservation to the channel the stream is written to,
+         * so the EventSink will compress what it writes there.
+         *
+         * @param channel The channel
+         */
+        void attach(Channel channel) {
+            channel.attr(RESERVATION_KEY).set(this);
+            channel.closeFuture().addListener(f -> release());
+        }
+
+        Encoder newEncoder() {
+            return new Encoder(ZlibCodecFactory.newZlibEncoder(wrapper, level));
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                reserved.addAndGet(-DEFLATER_MEMORY_ESTIMATE);
+            }
+        }
+    }
+
+    /**
+     * One subscriber's deflater. Only used from the subscriber's event loop.
+     */
+    static final class Encoder {
+
+        private final EmbeddedChannel zlib;
+        private final List<ByteBuf> batch = new ArrayList<>();
+        private boolean closed;
+
+        Encoder(ChannelHandler zlibEncoder) {
+            zlib = new EmbeddedChannel(zlibEncoder);
+        }
+
+        void add(ByteBuf buf) {
+            if (closed) {
+                buf.release();
+            } else {
+                batch.add(buf);
+            }
+        }
+
+        /**
+         * Compress everything added since the last call, ending with a sync
+         * flush so the client can decode all of it.
+         *
+         * @param into Receives the compressed buffers
+         */
+        void drain(List<ByteBuf> into) {
+            if (batch.isEmpty() || closed) {
+                return;
+            }
+            CompositeByteBuf all = zlib.alloc().compositeBuffer(batch.size());
+            all.addComponents(true, batch);
+            batch.clear();
+            zlib.writeOutbound(all);
+            ByteBuf out;
+            while ((out = zlib.readOutbound()) != null) {
+                if (out.isReadable()) {
+                    into.add(out);
+                } else {
+                    out.release();
+                }
+            }
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                for (ByteBuf buf : batch) {
+                    buf.release();
+                }
+                batch.clear();
+                // Ends the deflater, freeing its native memory
+                zlib.finishAndReleaseAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.sse;
+
+/**
+ * A snapshot of the state of one subscriber to an EventSink.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+public final class SubscriberStats {
+
+    private final String address;
+    private final int pending;
+    private final long dropped;
+    private final long lagMillis;
+
+    SubscriberStats(String address, int pending, long dropped, long lagMillis) {
+        this.address = address;
+        this.pending = pending;
+        this.dropped = dropped;
+        this.lagMillis = lagMillis;
+    }
+
+    /**
+     * The remote address of the subscriber's connection.
+     *
+     * @return The address
+     */
+    public String address() {
+        return address;
+    }
+
+    /**
+     * The number of events waiting for the subscriber's channel to become
+     * writable.
+     *
+     * @return The number of events
+     */
+    public int pending() {
+        return pending;
+    }
+
+    /**
+     * The number of events which were discarded or coalesced rather than
+     * delivered to this subscriber.
+     *
+     * @return The number of events
+     */
+    public long dropped() {
+        return dropped;
+    }
+
+    /**
+     * How long the oldest waiting event has been waiting, or zero if the
+     * subscriber is keeping up.
+     *
+     * @return The lag in milliseconds
+     */
+    public long lagMillis() {
+        return lagMillis;
+    }
+
+    @Override
+    public String toString() {
+        return address + " pending " + pending + " dropped " + dropped + " lag " + lagMillis + "ms";
+    }
+}
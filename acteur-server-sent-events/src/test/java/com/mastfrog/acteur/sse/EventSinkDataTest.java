@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.sse;
+
+import com.mastfrog.util.preconditions.ConfigurationError;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class EventSinkDataTest {
+
+    @Test
+    public void testMultilineData() {
+        assertEquals("\ndata: hello", frame("hello"));
+        assertEquals("\ndata: a\ndata: b\ndata: ", frame("a\nb\n"));
+        assertEquals("\ndata: a\ndata: b", frame("a\r\nb"));
+        assertEquals("\ndata: ", frame(""));
+        assertEquals("\ndata: été\ndata: 日本", frame("été\n日本"));
+    }
+
+    @Test
+    public void testParseSlowSubscriberPolicy() {
+        assertEquals(SlowSubscriberPolicy.DROP_OLDEST, SlowSubscriberPolicy.parse(null));
+        assertEquals(SlowSubscriberPolicy.COALESCE, SlowSubscriberPolicy.parse(" Coalesce "));
+        assertEquals(SlowSubscriberPolicy.DISCONNECT, SlowSubscriberPolicy.parse("disconnect"));
+        try {
+            SlowSubscriberPolicy.parse("ignore");
+            fail("Should not have parsed");
+        } catch (ConfigurationError e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(EventSink.SETTINGS_KEY_SSE_SLOW_SUBSCRIBER_POLICY));
+            assertTrue(e.getMessage(), e.getMessage().contains("coalesce"));
+        }
+    }
+
+    private static String frame(String payload) {
+        ByteBuf in = Unpooled.copiedBuffer(payload, CharsetUtil.UTF_8);
+        ByteBuf out = Unpooled.buffer();
+        try {
+            EventSink.writeData(in, out);
+            return out.toString(CharsetUtil.UTF_8);
+        } finally {
+            in.release();
+            out.release();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.sse;
+
+import com.mastfrog.acteur.DispatchedResponse;
+import com.mastfrog.acteur.Event;
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.spi.ApplicationControl;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.settings.SettingsBuilder;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.util.CharsetUtil;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs an EventSink against local channels, so subscribers can be made
+ * unwritable and their event loops controlled.
+ *
+ * @author Tim Boudreau
+ */
+public class EventSinkTest {
+
+    private DefaultEventLoopGroup group;
+    private ExecutorService svc;
+    private Hooks hooks;
+    private Ctrl ctrl;
+    private LocalAddress address;
+    private Channel server;
+    private final BlockingQueue<Channel> accepted = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        group = new DefaultEventLoopGroup(2);
+        svc = Executors.newCachedThreadPool();
+        hooks = new Hooks();
+        ctrl = new Ctrl();
+        address = new LocalAddress("sse-" + UUID.randomUUID());
+        server = new ServerBootstrap().group(group).channel(LocalServerChannel.class)
+                .childHandler(new ChannelInitializer<LocalChannel>() {
+                    @Override
+                    protected void initChannel(LocalChannel ch) throws Exception {
+                        accepted.offer(ch);
+                    }
+                }).bind(address).sync().channel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        hooks.close();
+        server.close().sync();
+        svc.shutdownNow();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        if (ctrl.thrown != null) {
+            throw new AssertionError(ctrl.thrown);
+        }
+    }
+
+    private EventSink sink(Object... settings) throws Exception {
+        SettingsBuilder sb = new SettingsBuilder();
+        for (int i = 0; i < settings.length; i += 2) {
+            sb.add((String) settings[i], settings[i + 1].toString());
+        }
+        return new EventSink(msg -> msg.toString(), svc, ByteBufAllocator.DEFAULT, ctrl, hooks, sb.build());
+    }
+
+    /**
+     * Connect a client, returning the server side channel (the one an
+     * EventSink writes to) and the client's collector.
+     */
+    private Client connect() throws Exception {
+        Client client = new Client();
+        new Bootstrap().group(group).channel(LocalChannel.class).handler(client)
+                .connect(address).sync();
+        client.serverSide = accepted.poll(10, TimeUnit.SECONDS);
+        return client;
+    }
+
+    private static void setWritable(Channel channel, boolean writable) {
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, writable);
+    }
+
+    private static SubscriberStats awaitStats(EventSink sink, int pending, long dropped) throws InterruptedException {
+        awaitTrue("Never saw " + pending + " pending, " + dropped + " dropped in " + sink.subscriberStats(), () -> {
+            List<SubscriberStats> stats = sink.subscriberStats();
+            return stats.size() == 1 && stats.get(0).pending() == pending && stats.get(0).dropped() == dropped;
+        });
+        return sink.subscriberStats().get(0);
+    }
+
+    static void awaitTrue(String msg, BooleanSupplier test) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if (test.getAsBoolean()) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail(msg);
+    }
+
+    @Test(timeout = 20000)
+    public void testDropOldest() throws Throwable {
+        EventSink sink = sink(EventSink.SETTINGS_KEY_SSE_MAX_PENDING, 2,
+                EventSink.SETTINGS_KEY_SSE_SLOW_SUBSCRIBER_POLICY, "drop-oldest");
+        Client client = connect();
+        sink.register(client.serverSide);
+        awaitStats(sink, 0, 0);
+        setWritable(client.serverSide, false);
+        for (String s : new String[]{"a", "b", "c", "d"}) {
+            sink.publish(s);
+        }
+        SubscriberStats stats = awaitStats(sink, 2, 2);
+        assertTrue(stats.toString(), stats.lagMillis() >= 0);
+        assertEquals(2L, sink.droppedCount());
+        assertTrue(client.data().isEmpty());
+
+        setWritable(client.serverSide, true);
+        client.awaitData(2);
+        assertEquals(Arrays.asList("c", "d"), client.data());
+        awaitStats(sink, 0, 2);
+
+        sink.publish("e");
+        client.awaitData(3);
+        assertEquals(Arrays.asList("c", "d", "e"), client.data());
+    }
+
+    @Test(timeout = 20000)
+    public void testCoalesce() throws Throwable {
+        EventSink sink = sink(EventSink.SETTINGS_KEY_SSE_MAX_PENDING, 2,
+                EventSink.SETTINGS_KEY_SSE_SLOW_SUBSCRIBER_POLICY, "coalesce");
+        Client client = connect();
+        sink.register(client.serverSide);
+        awaitStats(sink, 0, 0);
+        setWritable(client.serverSide, false);
+        sink.publish("x", "x1");
+        sink.publish("y", "y1");
+        sink.publish("x", "x2");
+        sink.publish("x", "x3");
+        // Each later x replaces the waiting one, at the back of the queue
+        awaitStats(sink, 2, 2);
+        // A new type with the backlog full drops the oldest
+        sink.publish("z", "z1");
+        awaitStats(sink, 2, 3);
+
+        setWritable(client.serverSide, true);
+        client.awaitData(2);
+        assertEquals(Arrays.asList("x3", "z1"), client.data());
+        assertEquals(Arrays.asList("x", "z"), client.eventTypes());
+    }
+
+    @Test(timeout = 20000)
+    public void testDisconnect() throws Throwable {
+        EventSink sink = sink(EventSink.SETTINGS_KEY_SSE_MAX_PENDING, 2,
+                EventSink.SETTINGS_KEY_SSE_SLOW_SUBSCRIBER_POLICY, "disconnect");
+        Client client = connect();
+        sink.register(client.serverSide);
+        awaitStats(sink, 0, 0);
+        setWritable(client.serverSide, false);
+        sink.publish("a");
+        sink.publish("b");
+        awaitStats(sink, 2, 0);
+        sink.publish("c");
+        assertTrue("Not disconnected", client.serverSide.closeFuture().await(10, TimeUnit.SECONDS));
+        assertEquals(1L, sink.droppedCount());
+        awaitTrue("Subscriber not removed", () -> sink.subscriberStats().isEmpty());
+        assertTrue(client.data().isEmpty());
+    }
+
+    @Test(timeout = 20000)
+    public void testEachSubscriberGetsEachEventOnceInOrder() throws Throwable {
+        EventSink sink = sink();
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            clients.add(connect());
+            // Skip an event loop, so accepted channels alternate between the
+            // two rather than all landing on the one after the client's
+            group.next();
+        }
+        EventChannelName name = new EventChannelName("a");
+        List<Client> named = clients.subList(0, 2);
+        List<Client> unnamed = clients.subList(2, 4);
+        assertEquals(2, loops(named).size());
+        assertEquals(2, loops(unnamed).size());
+        for (Client c : named) {
+            sink.register(name, c.serverSide);
+        }
+        for (Client c : unnamed) {
+            sink.register(c.serverSide);
+        }
+        awaitTrue("Not all registered: " + sink.subscriberStats(), () -> sink.subscriberStats().size() == 4);
+
+        List<String> expectNamed = new ArrayList<>();
+        List<String> expectUnnamed = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            sink.publish("u" + i);
+            sink.publish(name, "a" + i);
+            sink.publish(new EventChannelName("nobody"), "n" + i);
+            expectNamed.add("u" + i);
+            expectNamed.add("a" + i);
+            expectUnnamed.add("u" + i);
+        }
+        // Anything duplicated or misdirected would arrive before this
+        sink.publish("end");
+        expectNamed.add("end");
+        expectUnnamed.add("end");
+        for (Client c : named) {
+            awaitTrue("No end in " + c.data(), () -> c.data().contains("end"));
+            assertEquals(expectNamed, c.data());
+        }
+        for (Client c : unnamed) {
+            awaitTrue("No end in " + c.data(), () -> c.data().contains("end"));
+            assertEquals(expectUnnamed, c.data());
+        }
+        assertEquals(0L, sink.droppedCount());
+    }
+
+    private static Set<EventLoop> loops(List<Client> clients) {
+        Set<EventLoop> result = new HashSet<>();
+        for (Client c : clients) {
+            result.add(c.serverSide.eventLoop());
+        }
+        return result;
+    }
+
+    static final class Client extends SimpleChannelInboundHandler<HttpContent> {
+
+        private final StringBuilder text = new StringBuilder();
+        volatile Channel serverSide;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpContent msg) throws Exception {
+            synchronized (this) {
+                text.append(msg.content().toString(CharsetUtil.UTF_8));
+            }
+        }
+
+        List<String> data() {
+            return lines("data: ");
+        }
+
+        List<String> eventTypes() {
+            return lines("event: ");
+        }
+
+        synchronized List<String> lines(String prefix) {
+            List<String> result = new ArrayList<>();
+            for (String line : text.toString().split("\n")) {
+                if (line.startsWith(prefix)) {
+                    result.add(line.substring(prefix.length()));
+                }
+            }
+            return result;
+        }
+
+        void awaitData(int count) throws InterruptedException {
+            awaitTrue("Expected " + count + " events but got " + data(), () -> data().size() >= count);
+        }
+    }
+
+    static final class Ctrl implements ApplicationControl {
+
+        volatile Throwable thrown;
+
+        @Override
+        public void enableDefaultCorsHandling() {
+            // do nothing
+        }
+
+        @Override
+        public CountDownLatch onEvent(Event<?> event, Channel channel) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void internalOnError(Throwable err) {
+            thrown = err;
+            err.printStackTrace();
+        }
+
+        @Override
+        public CompletableFuture<DispatchedResponse> dispatch(HttpEvent event) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    static final class Hooks extends ShutdownHookRegistry implements AutoCloseable {
+
+        @Override
+        public void close() {
+            runShutdownHooks();
+        }
+    }
+}
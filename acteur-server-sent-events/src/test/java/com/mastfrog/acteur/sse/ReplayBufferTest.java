@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.sse;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ReplayBufferTest {
+
+    private final List<ByteBuf> bufs = new ArrayList<>();
+
+    @Test
+    public void testReplayAfterLastEventId() {
+        ReplayBuffer buf = new ReplayBuffer(4, 1024);
+        EventChannelName foo = new EventChannelName("foo");
+        buf.track(foo);
+        add(buf, null, 0);
+        add(buf, foo, 1);
+        add(buf, null, 2);
+        add(buf, foo, 3);
+        add(buf, new EventChannelName("untracked"), 4);
+
+        assertEquals("[2, 3]", ids(buf.since(foo, "1-x")));
+        assertEquals("[2]", ids(buf.since(null, "1-x")));
+        // Unknown id - everything retained is replayed
+        assertEquals("[0, 1, 2, 3]", ids(buf.since(foo, "99-x")));
+        assertEquals("[]", ids(buf.since(foo, "3-x")));
+        for (ByteBuf b : bufs.subList(0, 4)) {
+            assertEquals(2, b.refCnt());
+        }
+        // Nobody ever subscribed to that name, so it was not retained
+        assertEquals(1, bufs.get(4).refCnt());
+        buf.clear();
+        for (ByteBuf b : bufs) {
+            assertEquals(1, b.refCnt());
+        }
+    }
+
+    @Test
+    public void testBoundedByCountAndBytes() {
+        ReplayBuffer buf = new ReplayBuffer(3, 1024);
+        for (int i = 0; i < 5; i++) {
+            add(buf, null, i);
+        }
+        assertEquals("[2, 3, 4]", ids(buf.since(null, "nothing")));
+        assertEquals(1, bufs.get(0).refCnt());
+        assertEquals(1, bufs.get(1).refCnt());
+
+        bufs.clear();
+        buf = new ReplayBuffer(100, 10);
+        for (int i = 0; i < 5; i++) {
+            add(buf, null, i);
+        }
+        // each event is 3 bytes
+        assertEquals("[2, 3, 4]", ids(buf.since(null, "nothing")));
+        assertFalse(new ReplayBuffer(0, 10).isEnabled());
+        assertTrue(buf.isEnabled());
+    }
+
+    @Test
+    public void testIdleNamesAreDropped() {
+        AtomicLong clock = new AtomicLong(10000);
+        ReplayBuffer buf = new ReplayBuffer(10, 1024, Long.MAX_VALUE, 5000, clock::get);
+        EventChannelName foo = new EventChannelName("foo");
+        EventChannelName bar = new EventChannelName("bar");
+        buf.track(foo);
+        buf.track(bar);
+        add(buf, foo, 0);
+        add(buf, bar, 1);
+        assertEquals(2, buf.trackedNames());
+
+        buf.idle(foo);
+        buf.idle(bar);
+        clock.addAndGet(4000);
+        assertTrue("Still within the idle period", buf.isTracking(foo));
+        // Resubscribing before it expires keeps the history
+        buf.track(bar);
+        clock.addAndGet(2000);
+        assertFalse(buf.isTracking(foo));
+        assertTrue(buf.isTracking(bar));
+        assertEquals(2, bufs.get(0).refCnt());
+
+        // The next add sweeps expired names
+        add(buf, bar, 2);
+        assertEquals(1, buf.trackedNames());
+        assertEquals(1, bufs.get(0).refCnt());
+        assertEquals("[1, 2]", ids(buf.since(bar, "nothing")));
+        // A dropped name starts over
+        buf.track(foo);
+        assertEquals("[]", ids(buf.since(foo, "nothing")));
+        buf.clear();
+        assertEquals(0L, buf.totalBytes());
+    }
+
+    @Test
+    public void testTotalBytesCapped() {
+        AtomicLong clock = new AtomicLong(10000);
+        // each event is 3 bytes; each ring could hold 10 of them
+        ReplayBuffer buf = new ReplayBuffer(10, 1024, 12, 60000, clock::get);
+        EventChannelName foo = new EventChannelName("foo");
+        EventChannelName bar = new EventChannelName("bar");
+        buf.track(foo);
+        buf.track(bar);
+        add(buf, bar, 0);
+        add(buf, bar, 1);
+        buf.idle(bar);
+        add(buf, foo, 2);
+        add(buf, foo, 3);
+        assertEquals(12L, buf.totalBytes());
+        assertEquals(2, buf.trackedNames());
+        // Over the cap - the idle name goes first
+        add(buf, foo, 4);
+        assertEquals(9L, buf.totalBytes());
+        assertEquals(1, buf.trackedNames());
+        assertEquals(1, bufs.get(0).refCnt());
+        assertEquals(1, bufs.get(1).refCnt());
+
+        add(buf, null, 5);
+        add(buf, foo, 6);
+        // Then the oldest entry of each ring in turn
+        assertEquals(12L, buf.totalBytes());
+        assertEquals(1, bufs.get(2).refCnt());
+        assertEquals("[3, 4, 5, 6]", ids(buf.since(foo, "nothing")));
+        buf.clear();
+        for (ByteBuf b : bufs) {
+            assertEquals(1, b.refCnt());
+        }
+    }
+
+    private void add(ReplayBuffer buf, EventChannelName name, int seq) {
+        ByteBuf b = Unpooled.copiedBuffer("e" + seq + "\n", CharsetUtil.UTF_8);
+        bufs.add(b);
+        buf.add(name, seq, seq + "-x", null, b);
+    }
+
+    private static String ids(List<ReplayBuffer.Entry> entries) {
+        List<Long> result = new ArrayList<>();
+        for (ReplayBuffer.Entry e : entries) {
+            result.add(e.seq);
+            e.buf.release();
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.sse;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.util.CharsetUtil;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class SseCompressionTest {
+
+    @Test
+    public void testNegotiate() {
+        assertEquals(ZlibWrapper.GZIP, SseCompression.negotiate("gzip, deflate, br"));
+        assertEquals(ZlibWrapper.ZLIB, SseCompression.negotiate("deflate"));
+        assertEquals(ZlibWrapper.ZLIB, SseCompression.negotiate("gzip;q=0, deflate;q=0.5"));
+        assertEquals(ZlibWrapper.GZIP, SseCompression.negotiate("*"));
+        assertNull(SseCompression.negotiate("identity"));
+        assertNull(SseCompression.negotiate("br, gzip;q=0"));
+        assertEquals(ZlibWrapper.ZLIB, SseCompression.negotiate("gzip;q=0, *"));
+        assertEquals(ZlibWrapper.ZLIB, SseCompression.negotiate("*, gzip;q=0"));
+        assertNull(SseCompression.negotiate("gzip;q=0, deflate;q=0, *"));
+        assertNull(SseCompression.negotiate("*;q=0"));
+    }
+
+    @Test
+    public void testMemoryCap() {
+        SseCompression comp = new SseCompression(true, 6, SseCompression.DEFLATER_MEMORY_ESTIMATE * 2);
+        SseCompression.Reservation a = comp.reserve("gzip");
+        SseCompression.Reservation b = comp.reserve("gzip");
+        assertNotNull(a);
+        assertNotNull(b);
+        assertNull("Over the cap", comp.reserve("gzip"));
+        a.release();
+        a.release();
+        assertEquals(SseCompression.DEFLATER_MEMORY_ESTIMATE, comp.reservedMemory());
+        assertNotNull(comp.reserve("deflate"));
+        assertNull(new SseCompression(false, 6, Long.MAX_VALUE).reserve("gzip"));
+    }
+
+    @Test
+    public void testEachBatchIsDecodable() throws IOException {
+        SseCompression comp = new SseCompression(true, 6, Long.MAX_VALUE);
+        SseCompression.Encoder enc = comp.reserve("gzip").newEncoder();
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        StringBuilder expected = new StringBuilder();
+        try {
+            for (int batch = 0; batch < 3; batch++) {
+                for (int i = 0; i < 5; i++) {
+                    String event = "\nid: " + batch + "-" + i + "\ndata: {\"value\":" + i + "}\n\n";
+                    expected.append(event);
+                    enc.add(Unpooled.copiedBuffer(event, CharsetUtil.UTF_8));
+                }
+                List<ByteBuf> out = new ArrayList<>();
+                enc.drain(out);
+                assertFalse(out.isEmpty());
+                for (ByteBuf buf : out) {
+                    buf.readBytes(wire, buf.readableBytes());
+                    buf.release();
+                }
+                // Everything written so far must be decodable without
+                // waiting for the stream to end
+                assertEquals(expected.toString(), inflateAvailable(wire.toByteArray(), expected.length()));
+            }
+        } finally {
+            enc.close();
+        }
+    }
+
+    private static String inflateAvailable(byte[] bytes, int length) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] result = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int count = in.read(result, read, length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            return new String(result, 0, read, CharsetUtil.UTF_8);
+        }
+    }
+}
@@ -55,7 +55,7 @@ import org.junit.runner.RunWith;
 public class SseTest {
 
     @Test(timeout = 90000)
-    public void test(TestHarness harn) throws Throwable {
+    public void test(TestHarness harn, EventSink sink) throws Throwable {
         long when = System.currentTimeMillis();
         System.err.flush();
         harn.get("/foo").setTimeout(Duration.ofSeconds(60)).go().assertStatus(NOT_FOUND);
@@ -118,5 +118,15 @@ public class SseTest {
             }
             last = val;
         }
+        int[] depths = sink.shardQueueDepths();
+        assertTrue("No event loop shards", depths.length > 0);
+        for (int depth : depths) {
+            assertTrue(depth >= 0);
+        }
+        // The test client keeps up, so nothing should have been dropped
+        assertEquals(0L, sink.droppedCount());
+        for (SubscriberStats stats : sink.subscriberStats()) {
+            assertEquals(stats.toString(), 0L, stats.dropped());
+        }
     }
 }
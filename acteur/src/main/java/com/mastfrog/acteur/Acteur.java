@@ -137,6 +137,9 @@ import com.mastfrog.util.thread.QuietAutoCloseable;
  * instance of <code>CompletableFuture</code> whose contents will be marshalled
  * into the response once you call <code>complete()</code> or
  * <code>completeExceptionally()</code>.</li>
+ * <li>Subclass {@link AsyncActeur} and return a <code>CompletionStage</code>
+ * from its <code>compute()</code> method; its result will be available for
+ * injection into subsequent acteurs in the chain.</li>
  * </ul>
  *
  * With any of these newer methods, you should not call <code>next()</code> -
@@ -392,9 +395,7 @@ public abstract class Acteur extends AbstractActeur<Response, ResponseImpl, Stat
      */
     @SuppressWarnings("unchecked")
     protected final <T> Acteur continueAfter(ThrowingConsumer<EnhCompletableFuture<T>> c) {
-        Dependencies deps = Page.get().getApplication().getDependencies();
-        Chain chain = deps.getInstance(Chain.class);
-        chain.insert(CheckThrownActeur.class);
+        insertCheckThrown(Page.get());
 
         EnhCompletableFuture<T> fut = new EnhCompletableFuture<>();
         logErrors(fut);
@@ -441,9 +442,7 @@ public abstract class Acteur extends AbstractActeur<Response, ResponseImpl, Stat
         if (stages.length == 0) {
             throw new IllegalArgumentException("Stages may not be an empty array");
         }
-        Dependencies deps = Page.get().getApplication().getDependencies();
-        Chain chain = deps.getInstance(Chain.class);
-        chain.insert(CheckThrownActeur.class);
+        insertCheckThrown(Page.get());
         List<Object> l = new CopyOnWriteArrayList<>();
         AtomicBoolean alreadyResumed = new AtomicBoolean();
         AtomicInteger count = new AtomicInteger();
@@ -585,6 +584,8 @@ public abstract class Acteur extends AbstractActeur<Response, ResponseImpl, Stat
     protected final <T> Acteur then(CompletionStage<T> c, HttpResponseStatus successStatus) {
         logErrors(c);
         Dependencies deps = Page.get().getApplication().getDependencies();
+        // Cancelled if the request is abandoned or its deadline expires
+        deps.getInstance(Closables.class).add(c);
         Chain chain = deps.getInstance(Chain.class);
         chain.add(DeferredComputationResultActeur.class);
         return then((Resumer r) -> {
@@ -594,6 +595,22 @@ public abstract class Acteur extends AbstractActeur<Response, ResponseImpl, Stat
         });
     }
 
+    /**
+     * Insert a CheckThrownActeur to fail the request if the deferred
+     * computation the calling acteur is about to start fails. Not done for
+     * members of a group added with <code>Page.addConcurrently()</code>, which
+     * run in parallel and must not modify the chain - the group checks each
+     * member's result for a failure itself when it merges them.
+     */
+    @SuppressWarnings("unchecked")
+    static void insertCheckThrown(Page page) {
+        if (ConcurrentActeurGroup.isCreatingMember()) {
+            return;
+        }
+        Chain chain = page.getApplication().getDependencies().getInstance(Chain.class);
+        chain.insert(CheckThrownActeur.class);
+    }
+
     static final class CheckThrownActeur extends Acteur {
 
         @Inject
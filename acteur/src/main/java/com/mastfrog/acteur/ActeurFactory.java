@@ -166,7 +166,7 @@ public class ActeurFactory {
         }
     }
 
-    private static class MatchMethod extends Acteur {
+    static class MatchMethod extends Acteur {
 
         private final Provider<HttpEvent> deps;
         private final boolean notSupp;
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.mastfrog.acteur.debug.Probe;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_ADAPTIVE_POOL_INTERVAL_MILLIS;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_ADAPTIVE_POOL_MAX;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_ADAPTIVE_POOL_MAX_CPU_PERCENT;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_ADAPTIVE_POOL_MIN;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_ADAPTIVE_POOL_TARGET_WAIT_MILLIS;
+import com.mastfrog.settings.Settings;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread pool for running acteur chains which resizes itself within bounds:
+ * it grows while tasks wait longer than a target time for a thread and the
+ * CPU has headroom, and shrinks when most threads sit idle and nothing is
+ * waiting. Both directions require the condition to persist over several
+ * evaluations, so a single burst does not make it oscillate.
+ *
+ * @author Tim Boudreau
+ */
+final class AdaptivePool extends ThreadPoolExecutor {
+
+    static final String NAME = "adaptive";
+    // Consecutive evaluations a condition must hold for before resizing
+    static final int GROW_AFTER = 2;
+    static final int SHRINK_AFTER = 5;
+    private static final Logger LOG = Logger.getLogger(AdaptivePool.class.getName());
+    private final Probe probe;
+    private final int min;
+    private final int max;
+    private final long targetWaitNanos;
+    private final double maxCpu;
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final ScheduledFuture<?> evaluation;
+    private int growStreak;
+    private int shrinkStreak;
+
+    AdaptivePool(Settings settings, Probe probe, ScheduledExecutorService scheduler) {
+        this(probe, Math.max(1, settings.getInt(SETTINGS_KEY_ADAPTIVE_POOL_MIN, Runtime.getRuntime().availableProcessors())),
+                settings.getInt(SETTINGS_KEY_ADAPTIVE_POOL_MAX, Runtime.getRuntime().availableProcessors() * 16),
+                settings.getLong(SETTINGS_KEY_ADAPTIVE_POOL_TARGET_WAIT_MILLIS, 10),
+                settings.getInt(SETTINGS_KEY_ADAPTIVE_POOL_MAX_CPU_PERCENT, 90), scheduler,
+                Math.max(10, settings.getLong(SETTINGS_KEY_ADAPTIVE_POOL_INTERVAL_MILLIS, 1000)));
+    }
+
+    AdaptivePool(Probe probe, int min, int max, long targetWaitMillis, int maxCpuPercent,
+            ScheduledExecutorService scheduler, long intervalMillis) {
+        super(min, min, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new DefaultThreadFactory("acteur-" + NAME, true));
+        this.probe = probe;
+        this.min = min;
+        this.max = Math.max(min, max);
+        this.targetWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, targetWaitMillis));
+        this.maxCpu = maxCpuPercent / 100D;
+        evaluation = scheduler == null ? null
+                : scheduler.scheduleWithFixedDelay(this::evaluate, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new Waiting(command));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        if (r instanceof Waiting) {
+            waitNanos.add(System.nanoTime() - ((Waiting) r).queuedAt);
+            started.increment();
+        }
+    }
+
+    @Override
+    protected void terminated() {
+        if (evaluation != null) {
+            evaluation.cancel(false);
+        }
+    }
+
+    private void evaluate() {
+        try {
+            evaluate(cpuLoad());
+        } catch (Exception | Error e) {
+            probe.onInfo("Adaptive pool evaluation failed: {0}", e);
+            LOG.log(Level.WARNING, "Adaptive pool evaluation failed", e);
+        }
+    }
+
+    private void log(String msg, Object... args) {
+        probe.onInfo(msg, args);
+        LOG.log(Level.INFO, msg, args);
+    }
+
+    /**
+     * Look at the average time tasks waited for a thread since the last
+     * evaluation, and resize if warranted.
+     *
+     * @param cpu The system CPU load from 0 to 1, or negative if unknown
+     * @return The new core pool size
+     */
+    synchronized int evaluate(double cpu) {
+        long count = started.sumThenReset();
+        long waited = waitNanos.sumThenReset();
+        long avgWait = count == 0 ? 0 : waited / count;
+        int size = getCorePoolSize();
+        int queued = getQueue().size();
+        boolean cpuAvailable = cpu < maxCpu;
+        if ((avgWait > targetWaitNanos || queued > size) && cpuAvailable && size < max) {
+            shrinkStreak = 0;
+            if (++growStreak >= GROW_AFTER) {
+                growStreak = 0;
+                int newSize = Math.min(max, size + Math.max(1, size / 4));
+                log("Growing {0} pool from {1} to {2} threads: average wait {3}ms, {4} queued, cpu {5}",
+                        NAME, size, newSize, TimeUnit.NANOSECONDS.toMillis(avgWait), queued, cpuString(cpu));
+                resize(size, newSize);
+                return newSize;
+            }
+        } else if (avgWait < targetWaitNanos / 4 && queued == 0 && getActiveCount() < size / 2 && size > min) {
+            growStreak = 0;
+            if (++shrinkStreak >= SHRINK_AFTER) {
+                shrinkStreak = 0;
+                int newSize = Math.max(min, size - Math.max(1, size / 8));
+                log("Shrinking {0} pool from {1} to {2} threads: {3} active, cpu {4}",
+                        NAME, size, newSize, getActiveCount(), cpuString(cpu));
+                resize(size, newSize);
+                return newSize;
+            }
+        } else {
+            if (growStreak > 0 && !cpuAvailable) {
+                log("Not growing {0} pool past {1} threads: cpu {2}", NAME, size, cpuString(cpu));
+            }
+            growStreak = 0;
+            shrinkStreak = 0;
+        }
+        return size;
+    }
+
+    private void resize(int oldSize, int newSize) {
+        // The core size may never exceed the maximum, so order matters
+        if (newSize > oldSize) {
+            setMaximumPoolSize(newSize);
+            setCorePoolSize(newSize);
+        } else {
+            setCorePoolSize(newSize);
+            setMaximumPoolSize(newSize);
+        }
+    }
+
+    private static String cpuString(double cpu) {
+        return cpu < 0 ? "unknown" : Math.round(cpu * 100) + "%";
+    }
+
+    @SuppressWarnings("deprecation")
+    private double cpuLoad() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getSystemCpuLoad();
+        }
+        double load = os.getSystemLoadAverage();
+        return load < 0 ? load : load / os.getAvailableProcessors();
+    }
+
+    @Override
+    public String toString() {
+        return "Pool(" + NAME + " " + getActiveCount() + "/" + getCorePoolSize()
+                + " (" + min + "-" + max + ") queued " + getQueue().size() + ")";
+    }
+
+    static final class Waiting implements Runnable {
+
+        final long queuedAt = System.nanoTime();
+        private final Runnable delegate;
+
+        Waiting(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            delegate.run();
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
@@ -69,6 +69,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import com.mastfrog.graal.annotation.Expose;
 import io.netty.handler.codec.http.DefaultHttpResponse;
@@ -208,6 +209,11 @@ public class Application implements Iterable<Page> {
             return Application.this.onEvent(event, channel);
         }
 
+        @Override
+        public CompletableFuture<DispatchedResponse> dispatch(HttpEvent event) {
+            return Application.this.dispatch(event);
+        }
+
         @Override
         @SuppressWarnings("ThrowableResultIgnored")
         public void internalOnError(Throwable err) {
@@ -480,6 +486,21 @@ public class Application implements Iterable<Page> {
         }
     }
 
+    private CompletableFuture<DispatchedResponse> dispatch(HttpEvent event) {
+        assert scope != null : "Scope is null - Application members not injected?";
+        final RequestID id = ids.next();
+        probe.onBeforeProcessRequest(id, event);
+        try (QuietAutoCloseable cl = scope.enter(event, id)) {
+            onBeforeEvent(id, event);
+            return runner.dispatch(id, event, event.channel(), defaultContextObjects);
+        } catch (Exception e) {
+            internalOnError(e);
+            CompletableFuture<DispatchedResponse> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+    }
+
     @SuppressWarnings({"unchecked", "ThrowableInstanceNotThrown", "ThrowableInstanceNeverThrown"})
     Dependencies getDependencies() {
         if (deps == null) {
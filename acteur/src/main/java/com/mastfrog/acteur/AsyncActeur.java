@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.mastfrog.acteurbase.Deferral.Resumer;
+import com.mastfrog.util.collections.ArrayUtils;
+import com.mastfrog.util.preconditions.Exceptions;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An Acteur whose work is asynchronous: rather than setting its state in its
+ * constructor, it implements <code>compute()</code> to return a
+ * CompletionStage. The chain is paused until the stage completes; its result
+ * is then available for injection into subsequent acteurs. If it completes
+ * exceptionally, the usual handling for thrown exceptions (including any
+ * registered ExceptionEvaluators) generates the response.
+ * <p>
+ * If the stage is already complete when <code>compute()</code> returns, the
+ * chain simply continues, without being deferred at all. If it completes later
+ * but synchronously while the chain is being paused, the chain continues on
+ * the current thread; otherwise it is resumed on the executor the chain runs
+ * in, so code completing the stage (possibly on an event loop thread) is never
+ * made to run subsequent acteurs.
+ * <p>
+ * The constructor should only store injected objects - <code>compute()</code>
+ * is called by the framework once the acteur has been constructed, with the
+ * same objects in scope.
+ *
+ * @param <T> The type the completion stage produces
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+public abstract class AsyncActeur<T> extends Acteur {
+
+    private boolean started;
+
+    /**
+     * Begin the asynchronous work.
+     *
+     * @return A completion stage, or null if there is no work to do and the
+     * chain should simply continue
+     * @throws Exception If something goes wrong
+     */
+    protected abstract CompletionStage<T> compute() throws Exception;
+
+    /**
+     * Convert the result of the completion stage into the objects which should
+     * be available for injection into subsequent acteurs. The default
+     * implementation simply includes the result if it is non-null.
+     *
+     * @param result The result
+     * @return An array of objects
+     */
+    protected Object[] toContext(T result) {
+        return result == null ? new Object[0] : new Object[]{result};
+    }
+
+    @Override
+    protected final com.mastfrog.acteur.State getState() {
+        if (!started) {
+            started = true;
+            try {
+                start();
+            } catch (Exception ex) {
+                Exceptions.chuck(ex);
+            }
+        }
+        return super.getState();
+    }
+
+    private void start() throws Exception {
+        CompletionStage<T> stage = compute();
+        if (stage == null) {
+            next();
+            return;
+        }
+        Page page = Page.get();
+        CompletableFuture<T> fut = completedFuture(stage);
+        if (fut != null) {
+            // No need to defer anything - just continue, with exceptional
+            // completion handled exactly as it would be if the stage
+            // completed later
+            T result;
+            try {
+                result = fut.join();
+            } catch (CompletionException | CancellationException ex) {
+                insertCheckThrown(page);
+                next(DeferredComputationResult.thrown(unwrap(ex)));
+                return;
+            }
+            next(toContext(result));
+            return;
+        }
+        page.application.control().logErrors(stage);
+        // Cancelled if the request is abandoned or its deadline expires
+        page.getApplication().getDependencies().getInstance(Closables.class).add(stage);
+        insertCheckThrown(page);
+        then((Resumer res) -> {
+            stage.whenComplete((T t, Throwable thrown) -> {
+                if (thrown != null) {
+                    res.resume(DeferredComputationResult.thrown(unwrap(thrown)));
+                } else {
+                    res.resume(ArrayUtils.concatenate(toContext(t),
+                            new Object[]{DeferredComputationResult.empty()}));
+                }
+            });
+        });
+    }
+
+    private static <T> CompletableFuture<T> completedFuture(CompletionStage<T> stage) {
+        if (stage instanceof CompletableFuture<?>) {
+            CompletableFuture<T> result = (CompletableFuture<T>) stage;
+            return result.isDone() ? result : null;
+        }
+        return null;
+    }
+
+    private static Throwable unwrap(Throwable thrown) {
+        if (thrown instanceof CompletionException && thrown.getCause() != null) {
+            return thrown.getCause();
+        }
+        return thrown;
+    }
+}
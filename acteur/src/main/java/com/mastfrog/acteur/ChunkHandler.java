@@ -23,6 +23,7 @@
  */
 package com.mastfrog.acteur;
 
+import com.mastfrog.acteur.server.EventLoopWatchdog;
 import com.mastfrog.acteurbase.Deferral.Resumer;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -31,6 +32,7 @@ import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.LastHttpContent;
+import javax.inject.Inject;
 
 /**
  * Subclasses of this can be used from the &#064;Early annotation to provide an
@@ -43,6 +45,12 @@ public abstract class ChunkHandler extends SimpleChannelInboundHandler<Object> {
     private boolean resumed;
     private Resumer resumer;
     private Object[] context = new Object[0];
+    private EventLoopWatchdog.Attribution attribution;
+
+    @Inject
+    void setWatchdog(EventLoopWatchdog watchdog) {
+        attribution = watchdog.attribution(null, this);
+    }
 
     public synchronized void setResumer(Resumer resumer) {
         this.resumer = resumer;
@@ -62,6 +70,12 @@ public abstract class ChunkHandler extends SimpleChannelInboundHandler<Object> {
 
     @Override
     protected final void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try (EventLoopWatchdog.Scope scope = attribution == null ? null : attribution.enter()) {
+            onMessage(ctx, msg);
+        }
+    }
+
+    private void onMessage(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (msg instanceof HttpContent) {
             HttpContent content = (HttpContent) msg;
             HttpHeaders headers = content instanceof LastHttpContent ? ((LastHttpContent) content).trailingHeaders() : null;
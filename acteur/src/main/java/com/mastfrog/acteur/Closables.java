@@ -155,7 +155,13 @@ public final class Closables {
 
     void close() throws Exception {
         closed = true;
+        // Remove as we go, so closing again (e.g. on request deadline expiry,
+        // and then when the response is flushed) only closes things added
+        // since the last time
         for (AutoCloseable ac : closeables) {
+            if (!closeables.remove(ac)) {
+                continue;
+            }
             try {
                 ac.close();
             } catch (Exception e1) {
@@ -163,6 +169,9 @@ public final class Closables {
             }
         }
         for (Timer t : timers) {
+            if (!timers.remove(t)) {
+                continue;
+            }
             try {
                 t.cancel();
             } catch (Exception e2) {
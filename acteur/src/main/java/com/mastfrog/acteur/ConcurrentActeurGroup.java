@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.mastfrog.acteurbase.ConcurrentActeurs;
+import java.util.Arrays;
+
+/**
+ * Chain element created by <code>Page.addConcurrently()</code>, whose members
+ * are run in parallel by the ChainRunner.
+ *
+ * @author Tim Boudreau
+ */
+final class ConcurrentActeurGroup extends Acteur implements ConcurrentActeurs<Acteur> {
+
+    // Set while a member is being constructed, so it does not insert a
+    // CheckThrownActeur into the chain - failureIn() covers that
+    private static final ThreadLocal<Boolean> CREATING_MEMBER = new ThreadLocal<>();
+    private final Class<? extends Acteur>[] types;
+
+    ConcurrentActeurGroup(Class<? extends Acteur>[] types) {
+        this.types = types;
+    }
+
+    @Override
+    public int size() {
+        return types.length;
+    }
+
+    @Override
+    public Acteur create(int index) {
+        Boolean old = CREATING_MEMBER.get();
+        CREATING_MEMBER.set(true);
+        try {
+            return Page.get().getApplication().getDependencies().getInstance(types[index]);
+        } finally {
+            if (old == null) {
+                CREATING_MEMBER.remove();
+            } else {
+                CREATING_MEMBER.set(old);
+            }
+        }
+    }
+
+    static boolean isCreatingMember() {
+        return Boolean.TRUE.equals(CREATING_MEMBER.get());
+    }
+
+    @Override
+    public Throwable failureIn(Object[] context) {
+        // A member which is an AsyncActeur or used continueAfter() and
+        // failed contributes a DeferredComputationResult holding the failure,
+        // either when resumed or synchronously if its future had already
+        // failed
+        for (Object o : context) {
+            if (o instanceof DeferredComputationResult && ((DeferredComputationResult) o).thrown != null) {
+                return ((DeferredComputationResult) o).thrown;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected com.mastfrog.acteur.State getState() {
+        throw new IllegalStateException("Should be run by the ChainRunner, not invoked directly");
+    }
+
+    @Override
+    public String toString() {
+        return "Concurrently" + Arrays.toString(types);
+    }
+}
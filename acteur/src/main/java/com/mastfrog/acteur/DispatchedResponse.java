@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.mastfrog.acteur.headers.HeaderValueType;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of dispatching a request in-process via
+ * <code>ApplicationControl.dispatch()</code> - the merged response the
+ * acteurs of the page which handled it produced, before anything was encoded.
+ * <p>
+ * Responses whose body is written by a <code>ResponseWriter</code> or
+ * <code>ChannelFutureListener</code> cannot be captured without a socket to
+ * write to; for those, <code>isStreamed()</code> returns true and the message
+ * is whatever (if anything) was set with <code>content()</code>.
+ *
+ * @author Tim Boudreau
+ */
+public final class DispatchedResponse {
+
+    private final ResponseImpl response;
+
+    DispatchedResponse(ResponseImpl response) {
+        this.response = response;
+    }
+
+    /**
+     * Get the response status.
+     *
+     * @return The status
+     */
+    public HttpResponseStatus status() {
+        return response.getResponseCode();
+    }
+
+    /**
+     * Get the unencoded message object the response was given, if any.
+     *
+     * @return The message or null
+     */
+    public Object message() {
+        return response.getMessage();
+    }
+
+    /**
+     * Get the value of a header set by the acteurs which handled the request.
+     *
+     * @param <T> The header's value type
+     * @param header The header
+     * @return The value, or null
+     */
+    public <T> T header(HeaderValueType<T> header) {
+        return response.get(header);
+    }
+
+    /**
+     * Get all headers which were set on the response, in the order they were
+     * first added. A header which was set more than once, such as
+     * <code>Set-Cookie</code>, maps to all of its values.
+     *
+     * @return A map of header names to values
+     */
+    public Map<CharSequence, List<CharSequence>> headers() {
+        Map<CharSequence, List<CharSequence>> result = new LinkedHashMap<>();
+        response.visitHeaders((name, value) -> {
+            result.computeIfAbsent(name.toString(), ignored -> new ArrayList<>(1)).add(value);
+        });
+        for (Map.Entry<CharSequence, List<CharSequence>> e : result.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Determine if the response body would have been written by a
+     * <code>ResponseWriter</code> or listener, and so is not available.
+     *
+     * @return true if the body is streamed
+     */
+    public boolean isStreamed() {
+        return response.hasListener();
+    }
+
+    @Override
+    public String toString() {
+        return "DispatchedResponse(" + status() + " " + response + ")";
+    }
+}
@@ -191,6 +191,45 @@ public abstract class Page {
     private static final Set<Class<?>> FAILED = Sets.newIdentityHashSet();
 
     protected final void add(Class<? extends Acteur> action) {
+        checkActeurType(action);
+        acteurs.add(action);
+    }
+
+    /**
+     * Add a group of independent acteurs which will be run concurrently; the
+     * next acteur added after them will run once all of them have completed,
+     * and can be injected with the objects any of them contributed. If any of
+     * them rejects the request, responds or fails, the remainder are ignored.
+     * <p>
+     * Since they run in parallel, none of the passed acteurs can depend on
+     * objects provided by another member of the group, and they should not
+     * modify the chain. Each may defer (for example, by being an
+     * {@link AsyncActeur} or using <code>continueAfter()</code>)
+     * independently of the others; for members, those do not insert anything
+     * into the chain to check for failure - instead, if the computation a
+     * member waited on fails, the group fails with that exception once the
+     * member completes, exactly as if it had thrown. Members should not use
+     * <code>then(CompletionStage)</code>, which appends an acteur to the end
+     * of the chain.
+     *
+     * @param actions Two or more acteur types
+     * @since 2.5.0
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    protected final void addConcurrently(Class<? extends Acteur>... actions) {
+        notNull("actions", actions);
+        for (Class<? extends Acteur> action : actions) {
+            checkActeurType(action);
+        }
+        if (actions.length == 1) {
+            acteurs.add(actions[0]);
+        } else if (actions.length > 1) {
+            acteurs.add(new ConcurrentActeurGroup(actions.clone()));
+        }
+    }
+
+    private static void checkActeurType(Class<? extends Acteur> action) {
         if (!CHECKED.contains(notNull("acteur", action))) {
             CHECKED.add(action);
             if ((action.getModifiers() & Modifier.ABSTRACT) != 0) {
@@ -214,7 +253,6 @@ public abstract class Page {
             throw new IllegalArgumentException("Not a usable acteur class - " + action 
                     + " see previous error");
         }
-        acteurs.add(action);
     }
 
     final Application getApplication() {
@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.mastfrog.acteur.debug.Probe;
+import com.mastfrog.acteur.preconditions.Pool;
+import static com.mastfrog.acteur.server.ServerModule.DEFAULT_POOL_QUEUE;
+import static com.mastfrog.acteur.server.ServerModule.DEFAULT_POOL_THREADS;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_POOLS;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_POOL_PREFIX;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.settings.Settings;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named, bounded thread pools which pages can be isolated in, either with the
+ * &#064;Pool annotation or in settings.
+ *
+ * @author Tim Boudreau
+ */
+final class PagePools {
+
+    private static final String NONE = "";
+    private final Settings settings;
+    private final Probe probe;
+    private final ExecutorService shared;
+    private final ShutdownHookRegistry reg;
+    private final Map<String, String> poolForPageName = new HashMap<>();
+    private final Map<String, BoundedPool> pools = new ConcurrentHashMap<>();
+    private final ClassValue<String> poolNames = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            Pool anno = type.getAnnotation(Pool.class);
+            if (anno != null) {
+                return anno.value();
+            }
+            String result = poolForPageName.get(type.getName());
+            if (result == null) {
+                result = poolForPageName.get(type.getSimpleName());
+            }
+            return result == null ? NONE : result;
+        }
+    };
+
+    PagePools(Settings settings, Probe probe, ExecutorService shared, ShutdownHookRegistry reg) {
+        this.settings = settings;
+        this.probe = probe;
+        this.shared = shared;
+        this.reg = reg;
+        String names = settings.getString(SETTINGS_KEY_POOLS);
+        if (names != null) {
+            for (String name : names.split(",")) {
+                name = name.trim();
+                String pages = settings.getString(SETTINGS_KEY_POOL_PREFIX + name + ".pages");
+                if (!name.isEmpty() && pages != null) {
+                    for (String page : pages.split(",")) {
+                        poolForPageName.put(page.trim(), name);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the executor a page's chain should run on.
+     *
+     * @param page A page
+     * @return An executor, or null if the page uses the shared one
+     */
+    ExecutorService executorFor(Page page) {
+        String name = poolNames.get(page.getClass());
+        if (NONE.equals(name)) {
+            return null;
+        }
+        return pools.computeIfAbsent(name, this::createPool);
+    }
+
+    /**
+     * Get the number of acteurs at the head of a page's chain which only
+     * decide whether the page wants the request at all, by matching its path
+     * or method; those are run on the shared executor, and the chain moves to
+     * the page's pool after them.
+     *
+     * @param acteurs The acteurs or acteur types of a page, in order
+     * @return The index just past the last leading matcher, or 0 if there are
+     * none
+     */
+    static int matchingActeurCount(List<?> acteurs) {
+        int result = 0;
+        int index = 0;
+        for (Object o : acteurs) {
+            index++;
+            if (o instanceof ActeurFactory.MatchPath || o instanceof ActeurFactory.ExactMatchPath
+                    || o instanceof ActeurFactory.MatchMethods || o instanceof ActeurFactory.MatchMethod) {
+                result = index;
+            } else if (o != CORSResource.CorsHeaders.class) {
+                // Default CORS handling sits between annotation acteurs and
+                // ones the page added itself, which may also be matchers
+                break;
+            }
+        }
+        return result;
+    }
+
+    private BoundedPool createPool(String name) {
+        String prefix = SETTINGS_KEY_POOL_PREFIX + name;
+        int threads = Math.max(1, settings.getInt(prefix + ".threads", DEFAULT_POOL_THREADS));
+        int queue = Math.max(1, settings.getInt(prefix + ".queue", DEFAULT_POOL_QUEUE));
+        boolean runShared = "shared".equals(settings.getString(prefix + ".rejection", "reject"));
+        BoundedPool result = new BoundedPool(name, threads, queue, runShared);
+        reg.add(result);
+        return result;
+    }
+
+    /**
+     * A fixed-size pool with a bounded queue, which reports queue depth and
+     * how long tasks waited to the Probe.
+     */
+    final class BoundedPool extends ThreadPoolExecutor {
+
+        private final String name;
+
+        BoundedPool(String name, int threads, int queue, boolean runShared) {
+            super(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue),
+                    new DefaultThreadFactory("pool-" + name, true));
+            this.name = name;
+            allowCoreThreadTimeOut(true);
+            setRejectedExecutionHandler(new Rejection(runShared));
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new QueuedTask<>(callable);
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+            return new QueuedTask<>(runnable, value);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(command);
+            // If the queue was full, the task was either rejected, in which
+            // case we don't get here, or handed to the shared executor
+            if (!(command instanceof QueuedTask<?>) || !((QueuedTask<?>) command).spilled) {
+                probe.onPoolTaskQueued(name, getQueue().size());
+            }
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            if (r instanceof QueuedTask<?>) {
+                probe.onPoolTaskStarted(name, System.nanoTime() - ((QueuedTask<?>) r).queuedAt,
+                        getQueue().size());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Pool(" + name + " " + getActiveCount() + "/" + getMaximumPoolSize()
+                    + " queued " + getQueue().size() + ")";
+        }
+
+        final class Rejection implements RejectedExecutionHandler {
+
+            private final boolean runShared;
+
+            Rejection(boolean runShared) {
+                this.runShared = runShared;
+            }
+
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                probe.onPoolTaskRejected(name, executor.getQueue().size());
+                if (runShared && !executor.isShutdown()) {
+                    if (r instanceof QueuedTask<?>) {
+                        ((QueuedTask<?>) r).spilled = true;
+                    }
+                    probe.onPoolTaskSpilled(name);
+                    shared.execute(r);
+                } else {
+                    throw new RejectedExecutionException(BoundedPool.this.toString() + " is full");
+                }
+            }
+        }
+    }
+
+    static final class QueuedTask<T> extends FutureTask<T> {
+
+        final long queuedAt = System.nanoTime();
+        // Set if the pool was full and the task was run on the shared executor
+        volatile boolean spilled;
+
+        QueuedTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        QueuedTask(Runnable runnable, T result) {
+            super(runnable, result);
+        }
+    }
+}
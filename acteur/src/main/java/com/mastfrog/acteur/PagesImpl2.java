@@ -29,6 +29,8 @@ import com.google.inject.name.Named;
 import com.mastfrog.acteur.errors.ResponseException;
 import com.mastfrog.acteur.headers.HeaderValueType;
 import com.mastfrog.acteur.headers.Headers;
+import com.mastfrog.acteur.server.EventLoopWatchdog;
+import com.mastfrog.acteur.server.ReadBackpressure;
 import com.mastfrog.acteur.server.ServerModule;
 import static com.mastfrog.acteur.server.ServerModule.DELAY_EXECUTOR;
 import static com.mastfrog.acteur.server.ServerModule.X_INTERNAL_COMPRESS_HEADER;
@@ -36,11 +38,17 @@ import com.mastfrog.acteur.util.CacheControl;
 import com.mastfrog.acteur.util.RequestID;
 import com.mastfrog.acteurbase.ActeurState;
 import com.mastfrog.acteurbase.ArrayChain;
+import com.mastfrog.acteurbase.Cancellation;
 import com.mastfrog.acteurbase.Chain;
 import com.mastfrog.acteurbase.ChainCallback;
 import com.mastfrog.acteurbase.ChainRunner;
 import com.mastfrog.acteurbase.ChainsRunner;
+import com.mastfrog.acteurbase.VirtualThreads;
+import com.mastfrog.acteur.debug.Probe;
+import com.mastfrog.acteur.debug.RequestTimeline;
+import com.mastfrog.acteur.debug.Timelines;
 import com.mastfrog.giulius.Dependencies;
+import com.mastfrog.giulius.ShutdownHookRegistry;
 import com.mastfrog.giulius.DeploymentMode;
 import com.mastfrog.giulius.scope.ReentrantScope;
 import com.mastfrog.settings.Settings;
@@ -61,6 +69,7 @@ import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
@@ -76,13 +85,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.inject.Inject;
 import org.netbeans.validation.api.InvalidInputException;
 import com.mastfrog.util.thread.QuietAutoCloseable;
@@ -107,19 +120,109 @@ class PagesImpl2 {
 
     private final boolean httpCompressorEnabled;
 
+    private final long defaultDeadlineMillis;
+
+    private final String deadlineHeader;
+
+    private static final Logger LOG = Logger.getLogger(PagesImpl2.class.getName());
     static final HeaderValueType<CharSequence> X_BODY_GENERATOR = Headers.header(new AsciiString("X-Body-Generator"));
 
+    private final PagePools pools;
+
+    private final Timelines timelines;
+
+    private final EventLoopWatchdog watchdog;
+
+    private final ReadBackpressure backpressure;
+
+    static final AsciiString SERVER_TIMING = AsciiString.of("Server-Timing");
+
     @Inject
     PagesImpl2(Application application, Settings settings, @Named(DELAY_EXECUTOR) ScheduledExecutorService scheduler,
-            DeploymentMode mode, ReentrantScope scope, @Named(ServerModule.BACKGROUND_THREAD_POOL_NAME) ExecutorService exe) {
+            DeploymentMode mode, ReentrantScope scope, @Named(ServerModule.BACKGROUND_THREAD_POOL_NAME) ExecutorService exe,
+            Probe probe, ShutdownHookRegistry reg, Timelines timelines, EventLoopWatchdog watchdog,
+            ReadBackpressure backpressure) {
         this.application = application;
+        this.timelines = timelines;
+        this.watchdog = watchdog;
+        this.backpressure = backpressure;
         this.scheduler = scheduler;
         disableFilterPathsAndMethods = settings.getBoolean("disable.filter", false);
         renderStackTraces = settings.getBoolean(ServerModule.SETTINGS_KEY_RENDER_STACK_TRACES, !mode.isProduction());
         debug = settings.getBoolean("acteur.debug", false);
         httpCompressorEnabled = settings.getBoolean(ServerModule.HTTP_COMPRESSION, true);
+        defaultDeadlineMillis = settings.getLong(ServerModule.SETTINGS_KEY_REQUEST_DEADLINE_MILLIS, 0);
+        deadlineHeader = settings.getString(ServerModule.SETTINGS_KEY_REQUEST_DEADLINE_HEADER);
+        exe = chainExecutor(settings, exe, probe, reg, scheduler);
+        if (backpressure.isEnabled()) {
+            backpressure.setMonitoredExecutor(exe);
+        }
         ChainRunner chr = new ChainRunner(exe, scope);
-        ch = new ChainsRunner(exe, scope, chr);
+        pools = new PagePools(settings, probe, exe, reg);
+        ch = new ChainsRunner(exe, scope, chr, new PageHandoff());
+    }
+
+    private static ExecutorService chainExecutor(Settings settings, ExecutorService background, Probe probe,
+            ShutdownHookRegistry reg, ScheduledExecutorService scheduler) {
+        return chainExecutor(settings, background, probe, reg, scheduler,
+                VirtualThreads.isSupported() ? () -> VirtualThreads.newExecutor("acteur-") : null);
+    }
+
+    /**
+     * Choose the executor chains run on.
+     *
+     * @param virtualThreads Creates a virtual thread executor, or null if the
+     * JVM does not support them
+     */
+    static ExecutorService chainExecutor(Settings settings, ExecutorService background, Probe probe,
+            ShutdownHookRegistry reg, ScheduledExecutorService scheduler, Supplier<ExecutorService> virtualThreads) {
+        boolean adaptive = settings.getBoolean(ServerModule.SETTINGS_KEY_ADAPTIVE_POOL, false);
+        if (settings.getBoolean(ServerModule.SETTINGS_KEY_VIRTUAL_THREADS, false)) {
+            if (virtualThreads != null) {
+                if (adaptive) {
+                    String msg = "{0} is ignored because {1} is set; chains run on virtual threads";
+                    Object[] args = {ServerModule.SETTINGS_KEY_ADAPTIVE_POOL, ServerModule.SETTINGS_KEY_VIRTUAL_THREADS};
+                    probe.onInfo(msg, args);
+                    LOG.log(Level.WARNING, msg, args);
+                }
+                ExecutorService result = virtualThreads.get();
+                reg.add(result);
+                return result;
+            }
+            String msg = "{0} is set but virtual threads are not supported on Java {1}; using the {2} pool";
+            Object[] args = {ServerModule.SETTINGS_KEY_VIRTUAL_THREADS, System.getProperty("java.version"),
+                adaptive ? "adaptive" : "background"};
+            probe.onInfo(msg, args);
+            LOG.log(Level.WARNING, msg, args);
+        }
+        if (adaptive) {
+            AdaptivePool result = new AdaptivePool(settings, probe, scheduler);
+            reg.add(result);
+            return result;
+        }
+        return background;
+    }
+
+    /**
+     * Moves the chain of a page isolated in a pool into that pool, once the
+     * acteurs which match the request's path and method have accepted it, so
+     * requests for other pages never touch, or are refused by, the pool.
+     */
+    private final class PageHandoff implements ChainsRunner.Handoff {
+
+        @Override
+        public ExecutorService executorFor(Chain<?, ?> chain) {
+            if (chain instanceof PageChain) {
+                Page page = ((PageChain) chain).page;
+                return page == null ? null : pools.executorFor(page);
+            }
+            return null;
+        }
+
+        @Override
+        public int handoffAfter(Chain<?, ?> chain) {
+            return ((PageChain) chain).matchingActeurCount();
+        }
     }
 
     /**
@@ -183,10 +286,14 @@ class PagesImpl2 {
     }
 
     public CountDownLatch onEvent(RequestID id, Event<?> event, Channel channel, Object[] defaultContext) {
-        CountDownLatch latch = new CountDownLatch(1);
+        // Counts the request as in-flight until the latch is released, if
+        // backpressure is enabled
+        CountDownLatch latch = backpressure.admit(channel);
 
         Iterable<PageChain> pagesIterable;
         Closables clos = null;
+        Cancellation cancelled = new Cancellation();
+        CB callback;
         if (event.request() instanceof WebSocketFrame) {
             Attribute<Supplier<? extends Chain<? extends Acteur, ?>>> s = channel.attr(WebSocketUpgradeActeur.CHAIN_KEY);
             Supplier<? extends Chain<? extends Acteur, ?>> chainSupplier = s.get();
@@ -203,34 +310,77 @@ class PagesImpl2 {
             pageChain.page = channel.attr(WebSocketUpgradeActeur.PAGE_KEY).get();
             application.probe.onBeforeRunPage(id, event, pageChain.page);
             pagesIterable = Collections.singleton(pageChain);
+            callback = new CB(id, event, latch, channel, clos);
         } else {
             clos = new Closables(channel, application.control());
-            ChainToPageConverter chainConverter = new ChainToPageConverter(id, event, clos);
-            boolean early = event instanceof HttpEvent && ((HttpEvent) event).isPreContent();
-            Iterator<Page> pageIterator = disableFilterPathsAndMethods
-                    ? (early ? application.earlyPagesIterator() : application.iterator())
-                    : early ? application.earlyPagesIterator((HttpEvent) event) : application.iterator((HttpEvent) event);
-            if (defaultContext != null && defaultContext.length > 0) {
-                pageIterator = new ScopeWrapIterator<>(application.getRequestScope(), pageIterator, defaultContext);
-            }
-            pagesIterable = CollectionUtils.toIterable(CollectionUtils.convertedIterator(chainConverter, pageIterator));
+            callback = new CB(id, event, latch, channel, clos);
+            pagesIterable = pages(id, event, clos, defaultContext,
+                    callback.deadline = deadline((HttpEvent) event, cancelled, callback));
         }
 
-        CB callback = new CB(id, event, latch, channel, clos);
-        CancelOnChannelClose closer = new CancelOnChannelClose();
-        channel.closeFuture().addListener(closer);
-        ch.submit(pagesIterable, callback, closer.cancelled, id, event, clos);
+        channel.closeFuture().addListener(new CancelOnChannelClose(cancelled));
+        ch.submit(pagesIterable, callback, cancelled, id, event, clos);
 
         return latch;
     }
 
+    private RequestDeadline deadline(HttpEvent event, Cancellation cancelled, CB callback) {
+        long requested = deadlineHeader == null ? -1 : RequestDeadline.parse(event.header(deadlineHeader));
+        return new RequestDeadline(defaultDeadlineMillis, requested, scheduler, cancelled, callback::onDeadline);
+    }
+
+    private Iterable<PageChain> pages(RequestID id, Event<?> event, Closables clos, Object[] defaultContext, RequestDeadline deadline) {
+        ChainToPageConverter chainConverter = new ChainToPageConverter(id, event, clos, deadline);
+        boolean early = event instanceof HttpEvent && ((HttpEvent) event).isPreContent();
+        Iterator<Page> pageIterator = disableFilterPathsAndMethods
+                ? (early ? application.earlyPagesIterator() : application.iterator())
+                : early ? application.earlyPagesIterator((HttpEvent) event) : application.iterator((HttpEvent) event);
+        if (defaultContext != null && defaultContext.length > 0) {
+            pageIterator = new ScopeWrapIterator<>(application.getRequestScope(), pageIterator, defaultContext);
+        }
+        return CollectionUtils.toIterable(CollectionUtils.convertedIterator(chainConverter, pageIterator));
+    }
+
+    /**
+     * Run an event through the same chains as onEvent(), but collect the
+     * resulting response rather than encoding it and writing it to the
+     * channel.
+     */
+    CompletableFuture<DispatchedResponse> dispatch(RequestID id, HttpEvent event, Channel channel, Object[] defaultContext) {
+        CompletableFuture<DispatchedResponse> result = new CompletableFuture<>();
+        Closables clos = new Closables(channel, application.control());
+        Cancellation cancelled = new Cancellation();
+        CancelOnChannelClose closer = new CancelOnChannelClose(cancelled);
+        ChannelFutureListener canceller = f -> result.cancel(false);
+        channel.closeFuture().addListeners(closer, canceller);
+        DispatchCB callback = new DispatchCB(id, event, channel, clos, result);
+        RequestDeadline deadline = callback.deadline = deadline(event, cancelled, callback);
+        result.whenComplete((ignored, thrown) -> {
+            deadline.done();
+            // The channel may be a long-lived keep-alive connection belonging
+            // to some other request - don't leave listeners attached to it
+            channel.closeFuture().removeListeners(closer, canceller);
+            try {
+                clos.forceClose();
+            } catch (Exception ex) {
+                application.internalOnError(ex);
+            }
+        });
+        ch.submit(pages(id, event, clos, defaultContext, deadline), callback, cancelled, id, event, clos);
+        return result;
+    }
+
     static class CancelOnChannelClose implements ChannelFutureListener {
 
-        final AtomicBoolean cancelled = new AtomicBoolean();
+        private final Cancellation cancelled;
+
+        CancelOnChannelClose(Cancellation cancelled) {
+            this.cancelled = cancelled;
+        }
 
         @Override
         public void operationComplete(ChannelFuture f) throws Exception {
-            cancelled.set(true);
+            cancelled.cancel();
         }
     }
 
@@ -242,6 +392,10 @@ class PagesImpl2 {
         private final Channel channel;
         private final RequestID id;
         private final Closables closables;
+        private final AtomicBoolean responded = new AtomicBoolean();
+        RequestDeadline deadline;
+        final RequestTimeline timeline;
+        private PageChain lastChain;
 
         CB(RequestID id, Event<?> event, CountDownLatch latch, Channel channel, Closables closeables) {
             this.event = event;
@@ -249,6 +403,17 @@ class PagesImpl2 {
             this.channel = channel;
             this.id = id;
             this.closables = closeables;
+            this.timeline = timelines.start(id, event);
+        }
+
+        void record(RequestTimeline.Kind kind, Object subject) {
+            if (timeline != null) {
+                timeline.record(kind, subject);
+            }
+        }
+
+        void finishTimeline(int status) {
+            timelines.finish(timeline, status);
         }
 
         @Override
@@ -256,6 +421,14 @@ class PagesImpl2 {
             if (chain.page != null) {
                 Page.set(chain.page);
             }
+            if (timeline != null) {
+                if (chain != lastChain) {
+                    lastChain = chain;
+                    timeline.record(RequestTimeline.Kind.PAGE_STARTED, chain.page == null ? null : chain.page.getClass());
+                }
+                timeline.record(RequestTimeline.Kind.ACTEUR_STARTED, null);
+            }
+            application.probe.onBeforeRunActeur(id, event, chain.page);
         }
 
         @Override
@@ -265,21 +438,57 @@ class PagesImpl2 {
 
         @Override
         public void onAfterRunOne(PageChain chain, Acteur acteur) {
+            onAfterRunOne(chain, acteur, null);
+        }
+
+        @Override
+        public void onAfterRunOne(PageChain chain, Acteur acteur, ActeurState state) {
+            record(RequestTimeline.Kind.ACTEUR_FINISHED, acteur == null ? null : acteur.getClass());
             Page p = Page.get();
             if (p == chain.page) {
                 Page.clear();
             }
-            application.probe.onActeurWasRun(id, event, p, acteur, null);
+            // Called exactly once per acteur, so the probe can time them
+            application.probe.onActeurWasRun(id, event, p, acteur, state);
         }
 
-        @Override
-        public void onAfterRunOne(PageChain chain, Acteur acteur, ActeurState state) {
-            application.probe.onActeurWasRun(id, event, Page.get(), acteur, state);
-            onAfterRunOne(chain, acteur);
+        /**
+         * Claim the right to respond - the chain completing and the deadline
+         * expiring can race, and only the first may send anything.
+         */
+        private boolean claim() {
+            if (responded.compareAndSet(false, true)) {
+                if (deadline != null) {
+                    deadline.done();
+                }
+                return true;
+            }
+            return false;
+        }
+
+        void onDeadline(boolean started) {
+            if (!claim()) {
+                return;
+            }
+            // Close early, so anything the chain is waiting on is cancelled
+            try {
+                closables.forceClose();
+            } catch (Exception ex) {
+                application.internalOnError(ex);
+            }
+            // If no page had got to it, the request was stuck in the queue
+            HttpResponseStatus status = started ? HttpResponseStatus.GATEWAY_TIMEOUT
+                    : HttpResponseStatus.SERVICE_UNAVAILABLE;
+            application.probe.onInfo("Deadline expired for {0}: {1}", id, status);
+            uncaughtException(Thread.currentThread(), new ResponseException(status, "Deadline exceeded"));
+            latch.countDown();
         }
 
         @Override
         public void onDone(com.mastfrog.acteur.State state, List<ResponseImpl> responses) {
+            if (!claim()) {
+                return;
+            }
             ResponseImpl finalR = new ResponseImpl();
             // Coalesce the responses generated by individual acteurs
             for (ResponseImpl r : responses) {
@@ -296,12 +505,39 @@ class PagesImpl2 {
 
         @Override
         public void onNoResponse() {
+            if (claim()) {
+                notFound();
+            }
+        }
+
+        @Override
+        public void onDeferred(PageChain chain) {
+            record(RequestTimeline.Kind.DEFERRED, null);
+            application.probe.onDeferred(id, event);
+        }
+
+        @Override
+        public void onResumed(PageChain chain) {
+            record(RequestTimeline.Kind.RESUMED, null);
+            application.probe.onResumed(id, event);
+        }
+
+        void notFound() {
             application.send404(id, event, channel);
+            finishTimeline(HttpResponseStatus.NOT_FOUND.code());
             latch.countDown();
         }
 
         @Override
         public void onFailure(Throwable ex) {
+            if (!claim()) {
+                // Most likely a consequence of cancellation
+                return;
+            }
+            if (ex instanceof RejectedExecutionException) {
+                // The page's pool is saturated
+                ex = new ResponseException(HttpResponseStatus.SERVICE_UNAVAILABLE, "Too busy");
+            }
             uncaughtException(Thread.currentThread(), ex);
             latch.countDown();
         }
@@ -310,6 +546,7 @@ class PagesImpl2 {
         @SuppressWarnings("deprecation")
         public void receive(final Acteur acteur, final com.mastfrog.acteur.State state, final ResponseImpl response) {
             application.probe.onBeforeSendResponse(id, event, acteur, response.status, response.hasListener(), response.message());
+            record(RequestTimeline.Kind.RESPONSE_READY, acteur == null ? null : acteur.getClass());
             boolean isWebSocketResponse = event.request() instanceof WebSocketFrame && !(acteur instanceof WebSocketUpgradeActeur)
                     && response.isModified();
             if (isWebSocketResponse) {
@@ -319,7 +556,7 @@ class PagesImpl2 {
             } else if (response.isModified() && response.status != null) {
                 handleHttpResponse(response, state, acteur);
             } else {
-                onNoResponse();
+                notFound();
             }
         }
 
@@ -328,6 +565,7 @@ class PagesImpl2 {
             try (QuietAutoCloseable clos = Page.set(application.getDependencies().getInstance(Page.class))) {
                 // Abort if the client disconnected
                 if (!channel.isOpen()) {
+                    finishTimeline(0);
                     latch.countDown();
                     return;
                 }
@@ -340,9 +578,13 @@ class PagesImpl2 {
                 if (debug && response.hasListener()) {
                     httpResponse.headers().add(X_BODY_GENERATOR.name(), response.listenerString());
                 }
+                if (timeline != null && timelines.isServerTimingEnabled()) {
+                    httpResponse.headers().add(SERVER_TIMING, timeline.serverTiming(timelines.isServerTimingDescribed()));
+                }
 
                 // Abort if the client disconnected
                 if (!channel.isOpen()) {
+                    finishTimeline(0);
                     latch.countDown();
                     return;
                 }
@@ -408,6 +650,7 @@ class PagesImpl2 {
                     throw thrwbl;
                 }
                 application.probe.onThrown(id, event, thrwbl);
+                record(RequestTimeline.Kind.FAILED, thrwbl.getClass());
                 // Certain things we just bail out on
                 if (thrwbl instanceof ThreadDeath || thrwbl instanceof OutOfMemoryError) {
                     Exceptions.chuck(thrwbl);
@@ -438,38 +681,47 @@ class PagesImpl2 {
                     thrwbl.addSuppressed(ex);
                 }
                 application.probe.onThrown(id, event, thrwbl);
-                try {
-                    if (channel.isOpen()) {
-                        HttpResponse resp;
-                        if (application.failureResponses != null) {
-                            resp = application.failureResponses.createFallbackResponse(ex);
+                onErrorRenderingFailed(thrwbl, ex);
+            }
+        }
+
+        /**
+         * Called when the ErrorActeur could not be used to render a response
+         * for a failure, to send something minimal.
+         */
+        void onErrorRenderingFailed(Throwable thrwbl, Throwable ex) {
+            finishTimeline(HttpResponseStatus.INTERNAL_SERVER_ERROR.code());
+            try {
+                if (channel.isOpen()) {
+                    HttpResponse resp;
+                    if (application.failureResponses != null) {
+                        resp = application.failureResponses.createFallbackResponse(ex);
+                    } else {
+                        ByteBuf buf;
+                        if (renderStackTraces) {
+                            buf = channel.alloc().ioBuffer();
+                            try (PrintStream ps = new PrintStream(new ByteBufOutputStream(buf))) {
+                                thrwbl.printStackTrace(ps);
+                            }
                         } else {
-                            ByteBuf buf;
-                            if (renderStackTraces) {
-                                buf = channel.alloc().ioBuffer();
-                                try (PrintStream ps = new PrintStream(new ByteBufOutputStream(buf))) {
-                                    thrwbl.printStackTrace(ps);
-                                }
-                            } else {
-                                String msg = ex.getMessage();
-                                if (msg == null) {
-                                    msg = ex.getClass().getSimpleName();
-                                }
-                                byte[] bytes = msg.getBytes(UTF_8);
-                                buf = Unpooled.wrappedBuffer(bytes);
+                            String msg = ex.getMessage();
+                            if (msg == null) {
+                                msg = ex.getClass().getSimpleName();
                             }
-                            resp = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.INTERNAL_SERVER_ERROR, buf);
-                            Headers.write(Headers.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8, resp);
-                            Headers.write(Headers.CONTENT_LENGTH, (long) buf.writerIndex(), resp);
-                            Headers.write(Headers.CONTENT_LANGUAGE, Locale.ENGLISH, resp);
-                            Headers.write(Headers.CACHE_CONTROL, CacheControl.PRIVATE_NO_CACHE_NO_STORE, resp);
-                            Headers.write(Headers.DATE, ZonedDateTime.now(), resp);
+                            byte[] bytes = msg.getBytes(UTF_8);
+                            buf = Unpooled.wrappedBuffer(bytes);
                         }
-                        channel.writeAndFlush(resp).addListener(ChannelFutureListener.CLOSE);
+                        resp = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.INTERNAL_SERVER_ERROR, buf);
+                        Headers.write(Headers.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8, resp);
+                        Headers.write(Headers.CONTENT_LENGTH, (long) buf.writerIndex(), resp);
+                        Headers.write(Headers.CONTENT_LANGUAGE, Locale.ENGLISH, resp);
+                        Headers.write(Headers.CACHE_CONTROL, CacheControl.PRIVATE_NO_CACHE_NO_STORE, resp);
+                        Headers.write(Headers.DATE, ZonedDateTime.now(), resp);
                     }
-                } finally {
-                    application.internalOnError(ex);
+                    channel.writeAndFlush(resp).addListener(ChannelFutureListener.CLOSE);
                 }
+            } finally {
+                application.internalOnError(ex);
             }
         }
 
@@ -509,9 +761,26 @@ class PagesImpl2 {
                 }
 
                 fut.addListener(application.errorLoggingListener);
+                if (timeline != null) {
+                    fut.addListener(f -> timeline.record(RequestTimeline.Kind.HEADERS_FLUSHED, null));
+                }
 
                 final Page pg = state.getLockedPage();
+                application.probe.onResponseSent(id, event, pg, resp.status(), contentLength(resp));
+                if (watchdog.isEnabled()) {
+                    response.attributeTo(watchdog, pg);
+                }
                 ChannelFuture bodyFuture = response.sendMessage(event, fut, resp, response.hasListener());
+                // For responses streamed by a listener, this is the first
+                // chunk rather than the last
+                bodyFuture.addListener(f -> application.probe.onResponseBodyWritten(id, event, f.isSuccess()));
+                if (timeline != null) {
+                    int status = resp.status().code();
+                    bodyFuture.addListener(f -> {
+                        timeline.record(RequestTimeline.Kind.BODY_WRITTEN, null);
+                        finishTimeline(status);
+                    });
+                }
                 if (bodyFuture == fut && resp instanceof FullHttpResponse) {
                     // In the case of keep-alive connections (at least where no listeners
                     // flushing responses later are involved), let database connections, etc.
@@ -529,6 +798,63 @@ class PagesImpl2 {
         }
     }
 
+    static long contentLength(HttpResponse resp) {
+        if (resp instanceof FullHttpResponse) {
+            return ((FullHttpResponse) resp).content().readableBytes();
+        }
+        return HttpUtil.getContentLength(resp, -1L);
+    }
+
+    /**
+     * Callback for in-process dispatch, which completes a future with the
+     * merged response instead of writing it.
+     */
+    final class DispatchCB extends CB {
+
+        private final RequestID id;
+        private final HttpEvent event;
+        private final CompletableFuture<DispatchedResponse> result;
+
+        DispatchCB(RequestID id, HttpEvent event, Channel channel, Closables closables, CompletableFuture<DispatchedResponse> result) {
+            super(id, event, new CountDownLatch(1), channel, closables);
+            this.id = id;
+            this.event = event;
+            this.result = result;
+            if (timeline != null) {
+                result.whenComplete((res, thrown) -> finishTimeline(res == null
+                        ? HttpResponseStatus.INTERNAL_SERVER_ERROR.code() : res.status().code()));
+            }
+        }
+
+        @Override
+        public void receive(Acteur acteur, State state, ResponseImpl response) {
+            application.probe.onBeforeSendResponse(id, event, acteur, response.status, response.hasListener(), response.message());
+            record(RequestTimeline.Kind.RESPONSE_READY, acteur == null ? null : acteur.getClass());
+            if (response.isModified() && response.status != null) {
+                result.complete(new DispatchedResponse(response));
+            } else {
+                notFound();
+            }
+        }
+
+        @Override
+        void notFound() {
+            application.probe.onFallthrough(id, event);
+            ResponseImpl notFound = new ResponseImpl();
+            notFound.status(HttpResponseStatus.NOT_FOUND);
+            result.complete(new DispatchedResponse(notFound));
+        }
+
+        @Override
+        void onErrorRenderingFailed(Throwable thrwbl, Throwable ex) {
+            try {
+                result.completeExceptionally(thrwbl);
+            } finally {
+                application.internalOnError(ex);
+            }
+        }
+    }
+
     static class CancelOnClose implements ChannelFutureListener {
 
         private final ScheduledFuture future;
@@ -553,11 +879,13 @@ class PagesImpl2 {
         private final RequestID id;
         private final Event<?> event;
         private final Closables clos;
+        private final RequestDeadline deadline;
 
-        private ChainToPageConverter(RequestID id, Event<?> event, Closables clos) {
+        private ChainToPageConverter(RequestID id, Event<?> event, Closables clos, RequestDeadline deadline) {
             this.id = id;
             this.event = event;
             this.clos = clos;
+            this.deadline = deadline;
         }
 
         @Override
@@ -570,6 +898,9 @@ class PagesImpl2 {
                 Thread.currentThread().setName(id + " of " + r.getClass().getName());
             }
             application.probe.onBeforeRunPage(id, event, r);
+            if (deadline != null) {
+                deadline.pageStarted(r);
+            }
             PageChain result = new PageChain(application, application.getDependencies(), application.getRequestScope(), Acteur.class, r, r, id, event, clos);
             return result;
         }
@@ -607,6 +938,10 @@ class PagesImpl2 {
             this.app = app;
         }
 
+        int matchingActeurCount() {
+            return PagePools.matchingActeurCount(types);
+        }
+
         public <T> T findInContext(Class<T> type) {
             if (ctx != null) {
                 for (int i = ctx.length - 1; i >= 0; i--) {
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.mastfrog.acteur.preconditions.Deadline;
+import com.mastfrog.acteurbase.Cancellation;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tracks the deadline for one request, cancelling its chain and notifying
+ * the callback which will send a response if it expires first.
+ *
+ * @author Tim Boudreau
+ */
+final class RequestDeadline implements Runnable {
+
+    private final long start = System.nanoTime();
+    private final long defaultMillis;
+    private final long requestedMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Cancellation cancellation;
+    private final Consumer<Boolean> onExpired;
+    private volatile ScheduledFuture<?> future;
+    // The limit last passed to schedule(), so pages which don't change it
+    // don't reschedule
+    private long limitMillis;
+    private volatile boolean started;
+    private volatile boolean done;
+
+    /**
+     * Create a deadline.
+     *
+     * @param defaultMillis The server-wide deadline, or &lt;= 0 for none
+     * @param requestedMillis The deadline the client asked for, or &lt;= 0
+     * @param scheduler The scheduler
+     * @param cancellation The chain's cancellation
+     * @param onExpired Called with true if a page had begun processing the
+     * request when it expired
+     */
+    RequestDeadline(long defaultMillis, long requestedMillis, ScheduledExecutorService scheduler,
+            Cancellation cancellation, Consumer<Boolean> onExpired) {
+        this.defaultMillis = defaultMillis;
+        this.requestedMillis = requestedMillis;
+        this.scheduler = scheduler;
+        this.cancellation = cancellation;
+        this.onExpired = onExpired;
+        schedule(defaultMillis);
+    }
+
+    /**
+     * Parse a client-requested deadline from a header value.
+     *
+     * @param value A header value, possibly null
+     * @return The deadline in milliseconds, or -1
+     */
+    static long parse(String value) {
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException ex) {
+                // ignore - treat as absent
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Called as each page begins processing the request, to apply any
+     * &#064;Deadline annotation it has, or restore the server-wide deadline if
+     * it has none and an earlier page which rejected the request changed it.
+     *
+     * @param page The page
+     */
+    void pageStarted(Page page) {
+        started = true;
+        if (done) {
+            return;
+        }
+        Deadline anno = page.getClass().getAnnotation(Deadline.class);
+        long limit = anno == null ? defaultMillis : anno.unit().toMillis(anno.value());
+        synchronized (this) {
+            if (limit != this.limitMillis) {
+                schedule(limit);
+            }
+        }
+    }
+
+    private synchronized void schedule(long limitMillis) {
+        this.limitMillis = limitMillis;
+        // A client can shorten the deadline but never extend it
+        long millis = limitMillis <= 0 ? requestedMillis
+                : requestedMillis <= 0 ? limitMillis : Math.min(limitMillis, requestedMillis);
+        ScheduledFuture<?> old = future;
+        if (old != null) {
+            old.cancel(false);
+            future = null;
+        }
+        if (millis > 0 && !done) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            future = scheduler.schedule(this, Math.max(0, millis - elapsed), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Called when a response has been produced, so the deadline no longer
+     * applies.
+     */
+    void done() {
+        done = true;
+        ScheduledFuture<?> fut = future;
+        if (fut != null) {
+            fut.cancel(false);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (done) {
+            return;
+        }
+        cancellation.cancel();
+        onExpired.accept(started);
+    }
+
+    @Override
+    public String toString() {
+        return "RequestDeadline(" + (done ? "done" : started ? "started" : "queued") + ")";
+    }
+}
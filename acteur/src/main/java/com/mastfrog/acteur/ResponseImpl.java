@@ -35,6 +35,7 @@ import com.mastfrog.acteur.headers.HeaderValueType;
 import com.mastfrog.acteur.headers.Headers;
 import static com.mastfrog.acteur.headers.Headers.CONTENT_TYPE;
 import com.mastfrog.acteur.headers.Method;
+import com.mastfrog.acteur.server.EventLoopWatchdog;
 import com.mastfrog.acteur.server.ServerModule;
 import static com.mastfrog.acteur.server.ServerModule.X_INTERNAL_COMPRESS;
 import com.mastfrog.acteur.spi.ApplicationControl;
@@ -94,6 +95,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 /**
  * Aggregates the set of headers and a body writer which is used to respond to
@@ -139,6 +141,12 @@ final class ResponseImpl extends Response {
         return modified;
     }
 
+    void visitHeaders(BiConsumer<CharSequence, CharSequence> visitor) {
+        for (Entry<?> e : headers) {
+            visitor.accept(e.decorator.name(), e.stringValue());
+        }
+    }
+
     void modify() {
         this.modified = true;
     }
@@ -443,6 +451,7 @@ final class ResponseImpl extends Response {
         private final Event<?> evt;
         private final ExecutorService svc;
         private final ApplicationControl ctrl;
+        volatile EventLoopWatchdog.Attribution attribution;
 
         ResponseWriterListener(Event<?> evt, ResponseWriter writer, Charset charset,
                 ByteBufAllocator allocator, Codec mapper, boolean chunked,
@@ -510,7 +519,8 @@ final class ResponseImpl extends Response {
                     @Override
                     public Void call() throws Exception {
                         inOperationComplete = true;
-                        try {
+                        EventLoopWatchdog.Attribution att = attribution;
+                        try (EventLoopWatchdog.Scope scope = att == null ? null : att.enter()) {
                             ResponseWriterListener.this.future = future;
                             ResponseWriter.Status status = writer.write(evt, ResponseWriterListener.this, callCount++);
                             if (status.isCallback()) {
@@ -738,12 +748,16 @@ final class ResponseImpl extends Response {
         } else {
             if (chunked) {
                 if (!hasTransferEncoding) {
-                    System.out.println("chunked and to xfer - set transfer encoding to chunked");
+                    if (debug) {
+                        System.out.println("chunked and to xfer - set transfer encoding to chunked");
+                    }
                     hdrs.set(TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
                 }
             } else if (buf != null) {
                 hdrs.set(CONTENT_LENGTH, buf.readableBytes());
-                System.out.println("set content-length to " + buf.readableBytes());
+                if (debug) {
+                    System.out.println("set content-length to " + buf.readableBytes());
+                }
             }
         }
         HttpVersion version = HTTP_1_1;
@@ -755,7 +769,9 @@ final class ResponseImpl extends Response {
                 warn(evt);
                 version = HTTP_1_0;
             }
-            System.out.println("Set X-Internal-Compress");
+            if (debug) {
+                System.out.println("Set X-Internal-Compress");
+            }
             hdrs.set(X_INTERNAL_COMPRESS, true);
         }
         if (debug) {
@@ -830,6 +846,20 @@ final class ResponseImpl extends Response {
 
     }
 
+    /**
+     * If the event loop watchdog is enabled, make the listener identify itself
+     * and the page to it while it runs, so a stalled event loop can be
+     * attributed to it.
+     */
+    void attributeTo(EventLoopWatchdog watchdog, Page page) {
+        if (listener instanceof ResponseWriterListener) {
+            ResponseWriterListener rwl = (ResponseWriterListener) listener;
+            rwl.attribution = watchdog.attribution(page, rwl.writer);
+        } else if (listener != null && !(listener instanceof SendOneBuffer)) {
+            listener = watchdog.attribute(page, listener);
+        }
+    }
+
     ChannelFuture sendMessage(Event<?> evt, ChannelFuture future, HttpMessage resp, boolean trigger) throws Exception {
         if (listener != null) {
             if (trigger) {
@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.debug;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Binder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.Event;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.util.RequestID;
+import com.mastfrog.acteurbase.ActeurState;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.Set;
+
+/**
+ * Probe which passes everything to any number of other probes, so modules
+ * which each want to observe requests (such as <code>MetricsModule</code>
+ * and <code>JfrModule</code>) can be used together. Rather than binding
+ * Probe directly, modules call {@link #add(Binder, Class)}, which binds
+ * Probe to this class the first time it is called.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public final class CompositeProbe implements Probe {
+
+    static final String PROBES = "acteur.probes";
+    private final Probe[] probes;
+
+    @Inject
+    CompositeProbe(@Named(PROBES) Set<Probe> probes) {
+        this.probes = probes.toArray(new Probe[probes.size()]);
+    }
+
+    /**
+     * Add a probe to those the application's Probe passes events to, binding
+     * Probe to CompositeProbe if that has not already been done. Do not
+     * combine this with binding Probe to something else.
+     *
+     * @param binder The binder of the calling module
+     * @param probeType The probe type
+     */
+    public static void add(Binder binder, Class<? extends Probe> probeType) {
+        Multibinder.newSetBinder(binder, Probe.class, Names.named(PROBES))
+                .addBinding().to(probeType);
+        binder.install(new CompositeProbeModule());
+    }
+
+    @Override
+    public void onBeforeProcessRequest(RequestID id, Event<?> req) {
+        for (Probe p : probes) {
+            p.onBeforeProcessRequest(id, req);
+        }
+    }
+
+    @Override
+    public void onBeforeRunPage(RequestID id, Event<?> evt, Page page) {
+        for (Probe p : probes) {
+            p.onBeforeRunPage(id, evt, page);
+        }
+    }
+
+    @Override
+    public void onBeforeRunActeur(RequestID id, Event<?> evt, Page page) {
+        for (Probe p : probes) {
+            p.onBeforeRunActeur(id, evt, page);
+        }
+    }
+
+    @Override
+    public void onActeurWasRun(RequestID id, Event<?> evt, Page page, Acteur acteur, ActeurState result) {
+        for (Probe p : probes) {
+            p.onActeurWasRun(id, evt, page, acteur, result);
+        }
+    }
+
+    @Override
+    public void onDeferred(RequestID id, Event<?> evt) {
+        for (Probe p : probes) {
+            p.onDeferred(id, evt);
+        }
+    }
+
+    @Override
+    public void onResumed(RequestID id, Event<?> evt) {
+        for (Probe p : probes) {
+            p.onResumed(id, evt);
+        }
+    }
+
+    @Override
+    public void onFallthrough(RequestID id, Event<?> evt) {
+        for (Probe p : probes) {
+            p.onFallthrough(id, evt);
+        }
+    }
+
+    @Override
+    public void onInfo(String info, Object... objs) {
+        for (Probe p : probes) {
+            p.onInfo(info, objs);
+        }
+    }
+
+    @Override
+    public void onThrown(RequestID id, Event<?> evt, Throwable thrown) {
+        for (Probe p : probes) {
+            p.onThrown(id, evt, thrown);
+        }
+    }
+
+    @Override
+    public void onBeforeSendResponse(RequestID id, Event<?> event, Acteur acteur, HttpResponseStatus status, boolean hasListener, Object message) {
+        for (Probe p : probes) {
+            p.onBeforeSendResponse(id, event, acteur, status, hasListener, message);
+        }
+    }
+
+    @Override
+    public void onResponseSent(RequestID id, Event<?> event, Page page, HttpResponseStatus status, long contentLength) {
+        for (Probe p : probes) {
+            p.onResponseSent(id, event, page, status, contentLength);
+        }
+    }
+
+    @Override
+    public void onResponseBodyWritten(RequestID id, Event<?> event, boolean success) {
+        for (Probe p : probes) {
+            p.onResponseBodyWritten(id, event, success);
+        }
+    }
+
+    @Override
+    public void onResponseCompressed(String encoding, long uncompressedBytes, long compressedBytes, long nanos) {
+        for (Probe p : probes) {
+            if (p.isCompressionObserved()) {
+                p.onResponseCompressed(encoding, uncompressedBytes, compressedBytes, nanos);
+            }
+        }
+    }
+
+    @Override
+    public boolean isCompressionObserved() {
+        for (Probe p : probes) {
+            if (p.isCompressionObserved()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onPoolTaskQueued(String pool, int queueDepth) {
+        for (Probe p : probes) {
+            p.onPoolTaskQueued(pool, queueDepth);
+        }
+    }
+
+    @Override
+    public void onPoolTaskStarted(String pool, long waitNanos, int queueDepth) {
+        for (Probe p : probes) {
+            p.onPoolTaskStarted(pool, waitNanos, queueDepth);
+        }
+    }
+
+    @Override
+    public void onPoolTaskRejected(String pool, int queueDepth) {
+        for (Probe p : probes) {
+            p.onPoolTaskRejected(pool, queueDepth);
+        }
+    }
+
+    @Override
+    public void onPoolTaskSpilled(String pool) {
+        for (Probe p : probes) {
+            p.onPoolTaskSpilled(pool);
+        }
+    }
+
+    @Override
+    public void onEventLoopBlocked(String thread, long blockedNanos, StackTraceElement[] stack, Page page, Object source) {
+        for (Probe p : probes) {
+            p.onEventLoopBlocked(thread, blockedNanos, stack, page, source);
+        }
+    }
+
+    /**
+     * Equal to every other instance, so Guice installs it only once however
+     * many modules add probes.
+     */
+    private static final class CompositeProbeModule extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(Probe.class).to(CompositeProbe.class);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CompositeProbeModule;
+        }
+
+        @Override
+        public int hashCode() {
+            return CompositeProbeModule.class.hashCode();
+        }
+    }
+}
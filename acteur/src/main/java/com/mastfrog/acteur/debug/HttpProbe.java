@@ -53,6 +53,22 @@ public abstract class HttpProbe implements Provider<Probe> {
         // do nothing
     }
 
+    protected void onBeforeRunActeur(RequestID id, HttpEvent evt, Page page) {
+        // do nothing
+    }
+
+    protected void onDeferred(RequestID id, HttpEvent evt) {
+        // do nothing
+    }
+
+    protected void onResumed(RequestID id, HttpEvent evt) {
+        // do nothing
+    }
+
+    protected void onResponseCompressed(String encoding, long uncompressedBytes, long compressedBytes, long nanos) {
+        // do nothing
+    }
+
     protected void onFallthrough(RequestID id, HttpEvent evt) {
         // do nothing
     }
@@ -61,6 +77,14 @@ public abstract class HttpProbe implements Provider<Probe> {
         // do nothing
     }
 
+    protected void onResponseSent(RequestID id, HttpEvent event, Page page, HttpResponseStatus status, long contentLength) {
+        // do nothing
+    }
+
+    protected void onResponseBodyWritten(RequestID id, HttpEvent event, boolean success) {
+        // do nothing
+    }
+
     protected void onInfo(String info, Object... objs) {
         // do nothing
     }
@@ -69,6 +93,26 @@ public abstract class HttpProbe implements Provider<Probe> {
         // do nothing
     }
 
+    protected void onPoolTaskQueued(String pool, int queueDepth) {
+        // do nothing
+    }
+
+    protected void onPoolTaskStarted(String pool, long waitNanos, int queueDepth) {
+        // do nothing
+    }
+
+    protected void onPoolTaskRejected(String pool, int queueDepth) {
+        // do nothing
+    }
+
+    protected void onPoolTaskSpilled(String pool) {
+        // do nothing
+    }
+
+    protected void onEventLoopBlocked(String thread, long blockedNanos, StackTraceElement[] stack, Page page, Object source) {
+        // do nothing
+    }
+
     protected void setEnabled(boolean enabled) {
         this.enabled = enabled;
     }
@@ -105,6 +149,39 @@ public abstract class HttpProbe implements Provider<Probe> {
             }
         }
 
+        @Override
+        public void onBeforeRunActeur(RequestID id, Event<?> evt, Page page) {
+            if (evt instanceof HttpEvent && isEnabled()) {
+                HttpProbe.this.onBeforeRunActeur(id, (HttpEvent) evt, page);
+            }
+        }
+
+        @Override
+        public void onDeferred(RequestID id, Event<?> evt) {
+            if (evt instanceof HttpEvent && isEnabled()) {
+                HttpProbe.this.onDeferred(id, (HttpEvent) evt);
+            }
+        }
+
+        @Override
+        public void onResumed(RequestID id, Event<?> evt) {
+            if (evt instanceof HttpEvent && isEnabled()) {
+                HttpProbe.this.onResumed(id, (HttpEvent) evt);
+            }
+        }
+
+        @Override
+        public boolean isCompressionObserved() {
+            return isEnabled();
+        }
+
+        @Override
+        public void onResponseCompressed(String encoding, long uncompressedBytes, long compressedBytes, long nanos) {
+            if (isEnabled()) {
+                HttpProbe.this.onResponseCompressed(encoding, uncompressedBytes, compressedBytes, nanos);
+            }
+        }
+
         @Override
         public void onFallthrough(RequestID id, Event<?> evt) {
             if (evt instanceof HttpEvent && isEnabled()) {
@@ -119,6 +196,20 @@ public abstract class HttpProbe implements Provider<Probe> {
             }
         }
 
+        @Override
+        public void onResponseSent(RequestID id, Event<?> event, Page page, HttpResponseStatus status, long contentLength) {
+            if (event instanceof HttpEvent && isEnabled()) {
+                HttpProbe.this.onResponseSent(id, (HttpEvent) event, page, status, contentLength);
+            }
+        }
+
+        @Override
+        public void onResponseBodyWritten(RequestID id, Event<?> event, boolean success) {
+            if (event instanceof HttpEvent && isEnabled()) {
+                HttpProbe.this.onResponseBodyWritten(id, (HttpEvent) event, success);
+            }
+        }
+
         @Override
         public void onInfo(String info, Object... objs) {
             if (isEnabled()) {
@@ -132,5 +223,40 @@ public abstract class HttpProbe implements Provider<Probe> {
                 HttpProbe.this.onThrown(id, (HttpEvent) evt, thrown);
             }
         }
+
+        @Override
+        public void onPoolTaskQueued(String pool, int queueDepth) {
+            if (isEnabled()) {
+                HttpProbe.this.onPoolTaskQueued(pool, queueDepth);
+            }
+        }
+
+        @Override
+        public void onPoolTaskStarted(String pool, long waitNanos, int queueDepth) {
+            if (isEnabled()) {
+                HttpProbe.this.onPoolTaskStarted(pool, waitNanos, queueDepth);
+            }
+        }
+
+        @Override
+        public void onPoolTaskRejected(String pool, int queueDepth) {
+            if (isEnabled()) {
+                HttpProbe.this.onPoolTaskRejected(pool, queueDepth);
+            }
+        }
+
+        @Override
+        public void onPoolTaskSpilled(String pool) {
+            if (isEnabled()) {
+                HttpProbe.this.onPoolTaskSpilled(pool);
+            }
+        }
+
+        @Override
+        public void onEventLoopBlocked(String thread, long blockedNanos, StackTraceElement[] stack, Page page, Object source) {
+            if (isEnabled()) {
+                HttpProbe.this.onEventLoopBlocked(thread, blockedNanos, stack, page, source);
+            }
+        }
     }
 }
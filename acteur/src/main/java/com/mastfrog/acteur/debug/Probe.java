@@ -47,10 +47,44 @@ public interface Probe {
 
     }
 
+    /**
+     * Called before each acteur in a page is instantiated and run.
+     *
+     * @param id The request id
+     * @param evt The event
+     * @param page The page
+     * @since 2.5.0
+     */
+    default void onBeforeRunActeur(RequestID id, Event<?> evt, Page page) {
+
+    }
+
     default void onActeurWasRun(RequestID id, Event<?> evt, Page page, Acteur acteur, ActeurState result) {
 
     }
 
+    /**
+     * Called when an acteur defers the chain processing a request.
+     *
+     * @param id The request id
+     * @param evt The event
+     * @since 2.5.0
+     */
+    default void onDeferred(RequestID id, Event<?> evt) {
+
+    }
+
+    /**
+     * Called when a deferred chain is resumed.
+     *
+     * @param id The request id
+     * @param evt The event
+     * @since 2.5.0
+     */
+    default void onResumed(RequestID id, Event<?> evt) {
+
+    }
+
     default void onFallthrough(RequestID id, Event<?> evt) {
 
     }
@@ -66,4 +100,126 @@ public interface Probe {
     default void onBeforeSendResponse(RequestID id, Event<?> event, Acteur acteur, HttpResponseStatus status, boolean hasListener, Object message) {
 
     }
+
+    /**
+     * Called when the headers of an HTTP response have been handed to the
+     * channel to be written.
+     *
+     * @param id The request id
+     * @param event The event
+     * @param page The page which responded, if any
+     * @param status The response status
+     * @param contentLength The length of the response body, or -1 if it is
+     * streamed and the length is not known in advance
+     * @since 2.5.0
+     */
+    default void onResponseSent(RequestID id, Event<?> event, Page page, HttpResponseStatus status, long contentLength) {
+
+    }
+
+    /**
+     * Called when writing the body of an HTTP response has completed or
+     * failed - for a response whose body is written by a listener or
+     * ResponseWriter, when its first chunk has been written.
+     *
+     * @param id The request id
+     * @param event The event
+     * @param success False if the write failed, for example because the
+     * connection was closed
+     * @since 2.5.0
+     */
+    default void onResponseBodyWritten(RequestID id, Event<?> event, boolean success) {
+
+    }
+
+    /**
+     * Called when the HTTP compressor has finished compressing a response
+     * body.
+     *
+     * @param encoding The content encoding, e.g. <code>gzip</code>
+     * @param uncompressedBytes The size of the body before compression
+     * @param compressedBytes The size of the body after compression
+     * @param nanos The time spent compressing, in nanoseconds
+     * @since 2.5.0
+     */
+    default void onResponseCompressed(String encoding, long uncompressedBytes, long compressedBytes, long nanos) {
+
+    }
+
+    /**
+     * Determine if <code>onResponseCompressed()</code> should be called for
+     * responses being compressed now; if not, the compressor does not time
+     * or count compression at all. Probes which implement
+     * <code>onResponseCompressed()</code> must override this.
+     *
+     * @return true if compression should be measured
+     * @since 2.5.0
+     */
+    default boolean isCompressionObserved() {
+        return false;
+    }
+
+    /**
+     * Called when work is queued on a named pool pages can be assigned to with
+     * <code>&#064;Pool</code>.
+     *
+     * @param pool The pool name
+     * @param queueDepth The number of tasks waiting for a thread
+     */
+    default void onPoolTaskQueued(String pool, int queueDepth) {
+
+    }
+
+    /**
+     * Called when a thread in a named pool picks up a task.
+     *
+     * @param pool The pool name
+     * @param waitNanos How long the task waited in the queue
+     * @param queueDepth The number of tasks still waiting
+     */
+    default void onPoolTaskStarted(String pool, long waitNanos, int queueDepth) {
+
+    }
+
+    /**
+     * Called when a named pool's queue is full and work is rejected.
+     *
+     * @param pool The pool name
+     * @param queueDepth The number of tasks waiting for a thread
+     */
+    default void onPoolTaskRejected(String pool, int queueDepth) {
+
+    }
+
+    /**
+     * Called after <code>onPoolTaskRejected()</code> when the pool is
+     * configured to run work it has no room for on the shared executor rather
+     * than refuse it, and so is about to do that; such work is not reported
+     * to <code>onPoolTaskQueued()</code>.
+     *
+     * @param pool The pool name
+     * @since 2.5.0
+     */
+    default void onPoolTaskSpilled(String pool) {
+
+    }
+
+    /**
+     * Called by the event loop watchdog when an event loop thread has not
+     * run a scheduled probe task within the configured threshold - meaning
+     * something is doing blocking work on the event loop and every connection
+     * served by it is stalled.  Called from the watchdog's own thread, at most
+     * once per stall.
+     *
+     * @param thread The name of the blocked event loop thread
+     * @param blockedNanos How long the loop has been blocked so far
+     * @param stack The blocked thread's stack at the time it was detected
+     * @param page The page whose code was running on the loop, if known
+     * @param source The listener, response writer or chunk handler which was
+     * running on the loop, if known
+     * @since 2.5.0
+     */
+    default void onEventLoopBlocked(String thread, long blockedNanos, StackTraceElement[] stack, Page page, Object source) {
+
+    }
 }
@@ -0,0 +1,324 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.debug;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A compact record of what happened, and when, while processing one request:
+ * when it was received, when each page and acteur started and finished, when
+ * the chain was deferred and resumed, when the response was ready, and when
+ * its headers and body were written. Entries are recorded into fixed-size
+ * arrays without locking; entries past the capacity are dropped.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+public final class RequestTimeline {
+
+    /**
+     * Kinds of timeline entry.
+     */
+    public enum Kind {
+        RECEIVED,
+        PAGE_STARTED,
+        ACTEUR_STARTED,
+        ACTEUR_FINISHED,
+        DEFERRED,
+        RESUMED,
+        FAILED,
+        RESPONSE_READY,
+        HEADERS_FLUSHED,
+        BODY_WRITTEN
+    }
+
+    static final int CAPACITY = 64;
+    private final long[] nanos = new long[CAPACITY];
+    private final Kind[] kinds = new Kind[CAPACITY];
+    private final Object[] subjects = new Object[CAPACITY];
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final String id;
+    private final String request;
+    private final long startMillis = System.currentTimeMillis();
+    private volatile int status;
+    private volatile long durationNanos = -1;
+
+    RequestTimeline(String id, String request) {
+        this.id = id;
+        this.request = request;
+        record(Kind.RECEIVED, null);
+    }
+
+    /**
+     * Record an entry.
+     *
+     * @param kind The kind of entry
+     * @param subject The page or acteur class or other object it concerns, if
+     * any
+     */
+    public void record(Kind kind, Object subject) {
+        int ix = count.getAndIncrement();
+        if (ix < CAPACITY) {
+            nanos[ix] = System.nanoTime();
+            kinds[ix] = kind;
+            subjects[ix] = subject;
+        }
+    }
+
+    void status(int status) {
+        this.status = status;
+    }
+
+    boolean finish() {
+        if (finished.compareAndSet(false, true)) {
+            durationNanos = System.nanoTime() - nanos[0];
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The request id.
+     *
+     * @return The id
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * The request method and URI.
+     *
+     * @return A string
+     */
+    public String request() {
+        return request;
+    }
+
+    /**
+     * The response status, if one was sent.
+     *
+     * @return The status code or 0
+     */
+    public int status() {
+        return status;
+    }
+
+    /**
+     * When the request was received.
+     *
+     * @return Milliseconds since the epoch
+     */
+    public long startMillis() {
+        return startMillis;
+    }
+
+    /**
+     * The time from receipt to the response being written, or -1 if not yet
+     * finished.
+     *
+     * @return The duration in nanoseconds
+     */
+    public long durationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Get the entries recorded so far, in order.
+     *
+     * @return A list of entries
+     */
+    public List<Entry> entries() {
+        int max = Math.min(CAPACITY, count.get());
+        List<Entry> result = new ArrayList<>(max);
+        long start = nanos[0];
+        for (int i = 0; i < max; i++) {
+            if (kinds[i] == null) {
+                // Slot claimed but not yet written
+                continue;
+            }
+            result.add(new Entry(kinds[i], subjects[i], nanos[i] - start));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Summarize the entries recorded so far as the value of a
+     * <code>Server-Timing</code> response header: time queued before the
+     * first page ran, time in each acteur, total time deferred and total
+     * time so far. Acteur names are not included.
+     *
+     * @return A header value
+     */
+    public String serverTiming() {
+        return serverTiming(false);
+    }
+
+    /**
+     * Summarize the entries recorded so far as the value of a
+     * <code>Server-Timing</code> response header, optionally describing
+     * each acteur's entry with its class name. Since the header is sent to
+     * clients, names should only be included where exposing them is
+     * acceptable.
+     *
+     * @param describe Whether to include acteur names
+     * @return A header value
+     */
+    public String serverTiming(boolean describe) {
+        StringBuilder sb = new StringBuilder(128);
+        List<Entry> entries = entries();
+        long acteurStart = -1;
+        long deferredAt = -1;
+        long deferred = 0;
+        int acteurIndex = 0;
+        boolean queued = false;
+        for (Entry e : entries) {
+            switch (e.kind) {
+                case PAGE_STARTED:
+                    if (!queued) {
+                        queued = true;
+                        appendMetric("queue", null, e.offsetNanos, sb);
+                    }
+                    break;
+                case ACTEUR_STARTED:
+                    acteurStart = e.offsetNanos;
+                    break;
+                case ACTEUR_FINISHED:
+                    if (acteurStart >= 0) {
+                        appendMetric("a" + (++acteurIndex), describe ? e.subjectName() : null,
+                                e.offsetNanos - acteurStart, sb);
+                        acteurStart = -1;
+                    }
+                    break;
+                case DEFERRED:
+                    deferredAt = e.offsetNanos;
+                    break;
+                case RESUMED:
+                    if (deferredAt >= 0) {
+                        deferred += e.offsetNanos - deferredAt;
+                        deferredAt = -1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (deferred > 0) {
+            appendMetric("defer", null, deferred, sb);
+        }
+        appendMetric("total", null, System.nanoTime() - nanos[0], sb);
+        return sb.toString();
+    }
+
+    private static void appendMetric(String name, String desc, long nanos, StringBuilder into) {
+        if (into.length() > 0) {
+            into.append(", ");
+        }
+        into.append(name);
+        if (desc != null) {
+            into.append(";desc=\"").append(desc.replace('"', '\'')).append('"');
+        }
+        // Server-Timing durations are milliseconds, always with a '.'
+        into.append(";dur=").append(String.format(Locale.ROOT, "%.3f", nanos / 1000000D));
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", id);
+        result.put("request", request);
+        result.put("status", status);
+        result.put("start", startMillis);
+        result.put("durationMicros", TimeUnit.NANOSECONDS.toMicros(durationNanos));
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (Entry e : entries()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("at", TimeUnit.NANOSECONDS.toMicros(e.offsetNanos));
+            item.put("kind", e.kind.name());
+            String subject = e.subjectName();
+            if (subject != null) {
+                item.put("subject", subject);
+            }
+            items.add(item);
+        }
+        result.put("entries", items);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return id + " " + request + " " + status + " " + TimeUnit.NANOSECONDS.toMicros(durationNanos) + "us";
+    }
+
+    /**
+     * One entry in a timeline.
+     */
+    public static final class Entry {
+
+        /**
+         * What happened.
+         */
+        public final Kind kind;
+        /**
+         * The page or acteur class or other object concerned, or null.
+         */
+        public final Object subject;
+        /**
+         * Nanoseconds since the request was received.
+         */
+        public final long offsetNanos;
+
+        Entry(Kind kind, Object subject, long offsetNanos) {
+            this.kind = kind;
+            this.subject = subject;
+            this.offsetNanos = offsetNanos;
+        }
+
+        String subjectName() {
+            if (subject == null) {
+                return null;
+            }
+            if (subject instanceof Class<?>) {
+                Class<?> type = (Class<?>) subject;
+                // Anonymous classes have no simple name
+                return type.getSimpleName().isEmpty() ? type.getName() : type.getSimpleName();
+            }
+            return subject.toString();
+        }
+
+        @Override
+        public String toString() {
+            String name = subjectName();
+            return TimeUnit.NANOSECONDS.toMicros(offsetNanos) + "us " + kind + (name == null ? "" : " " + name);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.debug;
+
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.ActeurFactory;
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.Page;
+import static com.mastfrog.acteur.headers.Method.GET;
+import com.mastfrog.acteur.preconditions.Authenticated;
+import com.mastfrog.acteur.preconditions.Description;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.settings.Settings;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.inject.Inject;
+
+/**
+ * Serves recently recorded and slowest request timelines as JSON. Not
+ * installed by default - add it to an application with
+ * <code>add(TimelinePage.class)</code>, and enable timelines with the
+ * setting <code>acteur.timeline.sample</code>. Pass
+ * <code>?which=slowest</code> or <code>?which=recent</code> to get only one
+ * list.
+ * <p>
+ * Timelines include the method and full URI, query string included, of
+ * other users' requests, which may carry tokens or personal data, so this
+ * page requires authentication, and an <code>Authenticator</code> must be
+ * bound.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Authenticated
+@Description(category = "Info", value = "Recent and slowest request timelines")
+@Methods(GET)
+public final class TimelinePage extends Page {
+
+    /**
+     * Settings key for the regular expression the timeline page's path
+     * should match.
+     */
+    public static final String SETTINGS_KEY_TIMELINE_PATH = "timeline.path";
+    /**
+     * Default path for the timeline page.
+     */
+    public static final String DEFAULT_TIMELINE_PATH = "^_timelines$";
+
+    @Inject
+    TimelinePage(ActeurFactory af, Settings settings) {
+        add(af.matchPath(settings.getString(SETTINGS_KEY_TIMELINE_PATH, DEFAULT_TIMELINE_PATH)));
+        add(TimelineActeur.class);
+    }
+
+    static final class TimelineActeur extends Acteur {
+
+        @Inject
+        TimelineActeur(HttpEvent evt, Timelines timelines) {
+            if (!timelines.isEnabled()) {
+                reply(NOT_FOUND, "Timelines are not enabled");
+                return;
+            }
+            String which = evt.urlParameter("which");
+            Map<String, Object> result = new LinkedHashMap<>();
+            if (which == null || "recent".equals(which)) {
+                result.put("recent", toMaps(timelines.recent()));
+            }
+            if (which == null || "slowest".equals(which)) {
+                result.put("slowest", toMaps(timelines.slowest()));
+            }
+            ok(result);
+        }
+
+        private static List<Map<String, Object>> toMaps(List<RequestTimeline> timelines) {
+            List<Map<String, Object>> result = new ArrayList<>(timelines.size());
+            for (RequestTimeline t : timelines) {
+                result.add(t.toMap());
+            }
+            return result;
+        }
+    }
+}
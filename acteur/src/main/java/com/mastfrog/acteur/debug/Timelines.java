@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.debug;
+
+import com.mastfrog.acteur.Event;
+import com.mastfrog.acteur.HttpEvent;
+import static com.mastfrog.acteur.server.ServerModule.DEFAULT_TIMELINE_RING_SIZE;
+import static com.mastfrog.acteur.server.ServerModule.DEFAULT_TIMELINE_SLOWEST;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_SERVER_TIMING;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_SERVER_TIMING_DESCRIPTIONS;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_TIMELINE_RING_SIZE;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_TIMELINE_SAMPLE;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_TIMELINE_SLOWEST;
+import com.mastfrog.acteur.util.RequestID;
+import com.mastfrog.settings.Settings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Keeps sampled request timelines - the most recent in a fixed-size ring
+ * buffer, and the slowest seen since startup.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public final class Timelines {
+
+    private static final Comparator<RequestTimeline> SLOWEST_FIRST
+            = (a, b) -> Long.compare(b.durationNanos(), a.durationNanos());
+    private final int sample;
+    private final boolean serverTiming;
+    private final boolean serverTimingDescriptions;
+    private final AtomicReferenceArray<RequestTimeline> recent;
+    private final AtomicLong cursor = new AtomicLong();
+    private final RequestTimeline[] slowest;
+    private volatile long slowThreshold;
+    private int slowCount;
+
+    @Inject
+    Timelines(Settings settings) {
+        sample = settings.getInt(SETTINGS_KEY_TIMELINE_SAMPLE, 0);
+        serverTiming = settings.getBoolean(SETTINGS_KEY_SERVER_TIMING, false);
+        serverTimingDescriptions = settings.getBoolean(SETTINGS_KEY_SERVER_TIMING_DESCRIPTIONS, false);
+        recent = new AtomicReferenceArray<>(Math.max(1, settings.getInt(SETTINGS_KEY_TIMELINE_RING_SIZE, DEFAULT_TIMELINE_RING_SIZE)));
+        slowest = new RequestTimeline[Math.max(1, settings.getInt(SETTINGS_KEY_TIMELINE_SLOWEST, DEFAULT_TIMELINE_SLOWEST))];
+    }
+
+    /**
+     * Determine if timelines are being recorded at all.
+     *
+     * @return true if they are
+     */
+    public boolean isEnabled() {
+        return sample > 0;
+    }
+
+    /**
+     * Determine if a Server-Timing header should be added to responses for
+     * which a timeline is being recorded.
+     *
+     * @return true if so
+     */
+    public boolean isServerTimingEnabled() {
+        return serverTiming;
+    }
+
+    /**
+     * Determine if Server-Timing headers should name the acteurs timed.
+     *
+     * @return true if so
+     */
+    public boolean isServerTimingDescribed() {
+        return serverTimingDescriptions;
+    }
+
+    /**
+     * Begin a timeline for a request, if it is to be sampled.
+     *
+     * @param id The request id
+     * @param event The event
+     * @return A timeline, or null if this request is not to be recorded
+     */
+    public RequestTimeline start(RequestID id, Event<?> event) {
+        if (sample <= 0 || !(event instanceof HttpEvent) || (id.index % sample) != 0) {
+            return null;
+        }
+        HttpEvent evt = (HttpEvent) event;
+        return new RequestTimeline(id.stringValue(), evt.method() + " " + evt.request().uri());
+    }
+
+    /**
+     * Mark a timeline as complete and store it. Has no effect if called more
+     * than once for the same timeline.
+     *
+     * @param timeline The timeline, which may be null
+     * @param status The response status, or 0 if none was sent
+     */
+    public void finish(RequestTimeline timeline, int status) {
+        if (timeline == null) {
+            return;
+        }
+        timeline.status(status);
+        if (!timeline.finish()) {
+            return;
+        }
+        recent.set((int) (cursor.getAndIncrement() % recent.length()), timeline);
+        long duration = timeline.durationNanos();
+        if (duration > slowThreshold) {
+            addSlow(timeline);
+        }
+    }
+
+    private synchronized void addSlow(RequestTimeline timeline) {
+        if (slowCount < slowest.length) {
+            slowest[slowCount++] = timeline;
+            if (slowCount < slowest.length) {
+                return;
+            }
+        } else {
+            int fastest = 0;
+            for (int i = 1; i < slowest.length; i++) {
+                if (slowest[i].durationNanos() < slowest[fastest].durationNanos()) {
+                    fastest = i;
+                }
+            }
+            if (slowest[fastest].durationNanos() >= timeline.durationNanos()) {
+                return;
+            }
+            slowest[fastest] = timeline;
+        }
+        // Full - from now on only timelines slower than the fastest kept
+        // need take the lock
+        long min = Long.MAX_VALUE;
+        for (RequestTimeline t : slowest) {
+            min = Math.min(min, t.durationNanos());
+        }
+        slowThreshold = min;
+    }
+
+    /**
+     * Get the most recently completed timelines, newest first.
+     *
+     * @return A list
+     */
+    public List<RequestTimeline> recent() {
+        int len = recent.length();
+        long end = cursor.get();
+        List<RequestTimeline> result = new ArrayList<>(len);
+        for (long i = end - 1; i >= Math.max(0, end - len); i--) {
+            RequestTimeline t = recent.get((int) (i % len));
+            if (t != null) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the slowest timelines recorded, slowest first.
+     *
+     * @return A list
+     */
+    public synchronized List<RequestTimeline> slowest() {
+        List<RequestTimeline> result = new ArrayList<>(Arrays.asList(slowest).subList(0, slowCount));
+        Collections.sort(result, SLOWEST_FIRST);
+        return result;
+    }
+}
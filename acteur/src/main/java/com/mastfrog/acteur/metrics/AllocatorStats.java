@@ -0,0 +1,260 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.metrics;
+
+import com.google.inject.name.Named;
+import static com.mastfrog.acteur.server.ServerModule.DELAY_EXECUTOR;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_ALLOCATOR_STATS_LOG_SECONDS;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.settings.Settings;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PoolChunkListMetric;
+import io.netty.buffer.PoolChunkMetric;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Exposes the state of the server's ByteBuf allocator - memory in use and,
+ * for pooled allocators, per-arena allocation counts, chunk list occupancy
+ * and thread cache configuration - along with leak detector counts. Written
+ * by {@link MetricsPage} as Prometheus gauges, and logged periodically if
+ * <code>acteur.bytebuf.allocator.stats.log.seconds</code> is set, to give
+ * data for tuning the <code>custom.alloc.*</code> settings.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public final class AllocatorStats {
+
+    private static final Logger LOG = Logger.getLogger(AllocatorStats.class.getName());
+    private final ByteBufAllocator allocator;
+    private ScheduledFuture<?> logging;
+
+    @Inject
+    AllocatorStats(ByteBufAllocator allocator, Settings settings,
+            @Named(DELAY_EXECUTOR) ScheduledExecutorService scheduler, ShutdownHookRegistry reg) {
+        this.allocator = allocator;
+        long seconds = settings.getLong(SETTINGS_KEY_ALLOCATOR_STATS_LOG_SECONDS, 0);
+        if (seconds > 0) {
+            logging = scheduler.scheduleAtFixedRate(this::log, seconds, seconds, TimeUnit.SECONDS);
+            reg.add((Runnable) () -> logging.cancel(false));
+        }
+    }
+
+    private void log() {
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.log(Level.INFO, summary());
+        }
+    }
+
+    /**
+     * Get the allocator's metric, if it provides one.
+     *
+     * @return A metric or null
+     */
+    public ByteBufAllocatorMetric metric() {
+        return allocator instanceof ByteBufAllocatorMetricProvider
+                ? ((ByteBufAllocatorMetricProvider) allocator).metric() : null;
+    }
+
+    /**
+     * A one-line human-readable summary of allocator state.
+     *
+     * @return A summary
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder(256).append("ByteBuf allocator ")
+                .append(allocator.getClass().getSimpleName());
+        ByteBufAllocatorMetric metric = metric();
+        if (metric != null) {
+            sb.append(": direct ").append(metric.usedDirectMemory())
+                    .append(" bytes, heap ").append(metric.usedHeapMemory()).append(" bytes");
+        }
+        if (metric instanceof PooledByteBufAllocatorMetric) {
+            PooledByteBufAllocatorMetric pooled = (PooledByteBufAllocatorMetric) metric;
+            sb.append("; ").append(pooled.numThreadLocalCaches()).append(" thread caches (small ")
+                    .append(pooled.smallCacheSize()).append(", normal ").append(pooled.normalCacheSize())
+                    .append("), chunk size ").append(pooled.chunkSize());
+            summarize("direct", pooled.directArenas(), sb);
+            summarize("heap", pooled.heapArenas(), sb);
+        }
+        sb.append("; leaks ");
+        if (LeakCounts.isTracking()) {
+            sb.append(LeakCounts.traced()).append(" traced, ").append(LeakCounts.untraced()).append(" untraced");
+        } else {
+            sb.append("not tracked");
+        }
+        return sb.toString();
+    }
+
+    private static void summarize(String type, List<PoolArenaMetric> arenas, StringBuilder sb) {
+        if (arenas.isEmpty()) {
+            return;
+        }
+        long active = 0;
+        long activeBytes = 0;
+        long allocations = 0;
+        long huge = 0;
+        Map<String, Integer> chunksByUsage = new TreeMap<>();
+        for (PoolArenaMetric arena : arenas) {
+            active += arena.numActiveAllocations();
+            activeBytes += arena.numActiveBytes();
+            allocations += arena.numAllocations();
+            huge += arena.numHugeAllocations();
+            for (PoolChunkListMetric list : arena.chunkLists()) {
+                chunksByUsage.merge(usage(list), count(list), Integer::sum);
+            }
+        }
+        sb.append("; ").append(arenas.size()).append(' ').append(type).append(" arenas: ")
+                .append(active).append(" active allocations of ").append(activeBytes)
+                .append(" bytes, ").append(allocations).append(" allocations (")
+                .append(huge).append(" huge), chunks by usage ").append(chunksByUsage);
+    }
+
+    private static String usage(PoolChunkListMetric list) {
+        return list.minUsage() + "-" + list.maxUsage() + "%";
+    }
+
+    private static int count(PoolChunkListMetric list) {
+        int result = 0;
+        for (PoolChunkMetric chunk : list) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * Write allocator state as Prometheus gauges and counters.
+     *
+     * @param out Where to write
+     * @throws IOException If writing fails
+     */
+    public void writeTo(Appendable out) throws IOException {
+        ByteBufAllocatorMetric metric = metric();
+        if (metric != null) {
+            header("acteur_bytebuf_used_memory_bytes", "Memory used by the ByteBuf allocator", "gauge", out);
+            sample("acteur_bytebuf_used_memory_bytes", metric.usedDirectMemory(), out, "type", "direct");
+            sample("acteur_bytebuf_used_memory_bytes", metric.usedHeapMemory(), out, "type", "heap");
+        }
+        if (metric instanceof PooledByteBufAllocatorMetric) {
+            writePooled((PooledByteBufAllocatorMetric) metric, out);
+        }
+        if (LeakCounts.isTracking()) {
+            header("acteur_bytebuf_leaks_total", "ByteBuf leaks reported by the leak detector", "counter", out);
+            sample("acteur_bytebuf_leaks_total", LeakCounts.traced(), out, "traced", "true");
+            sample("acteur_bytebuf_leaks_total", LeakCounts.untraced(), out, "traced", "false");
+        }
+    }
+
+    private void writePooled(PooledByteBufAllocatorMetric pooled, Appendable out) throws IOException {
+        header("acteur_bytebuf_thread_local_caches", "Thread local caches in use by the pooled allocator", "gauge", out);
+        sample("acteur_bytebuf_thread_local_caches", pooled.numThreadLocalCaches(), out);
+        header("acteur_bytebuf_cache_size", "Configured size of each thread local cache", "gauge", out);
+        sample("acteur_bytebuf_cache_size", pooled.smallCacheSize(), out, "cache", "small");
+        sample("acteur_bytebuf_cache_size", pooled.normalCacheSize(), out, "cache", "normal");
+        header("acteur_bytebuf_chunk_size_bytes", "Chunk size of the pooled allocator", "gauge", out);
+        sample("acteur_bytebuf_chunk_size_bytes", pooled.chunkSize(), out);
+
+        header("acteur_bytebuf_arena_active_allocations", "Allocations currently held, per arena", "gauge", out);
+        arenas(pooled, (arena, type, index) -> sample("acteur_bytebuf_arena_active_allocations",
+                arena.numActiveAllocations(), out, "type", type, "arena", index));
+        header("acteur_bytebuf_arena_active_bytes", "Bytes currently allocated, per arena", "gauge", out);
+        arenas(pooled, (arena, type, index) -> sample("acteur_bytebuf_arena_active_bytes",
+                arena.numActiveBytes(), out, "type", type, "arena", index));
+        header("acteur_bytebuf_arena_allocations_total", "Allocations by size class, per arena", "counter", out);
+        arenas(pooled, (arena, type, index) -> {
+            sample("acteur_bytebuf_arena_allocations_total", arena.numSmallAllocations(), out,
+                    "type", type, "arena", index, "size", "small");
+            sample("acteur_bytebuf_arena_allocations_total", arena.numNormalAllocations(), out,
+                    "type", type, "arena", index, "size", "normal");
+            sample("acteur_bytebuf_arena_allocations_total", arena.numHugeAllocations(), out,
+                    "type", type, "arena", index, "size", "huge");
+        });
+        header("acteur_bytebuf_arena_deallocations_total", "Deallocations, per arena", "counter", out);
+        arenas(pooled, (arena, type, index) -> sample("acteur_bytebuf_arena_deallocations_total",
+                arena.numDeallocations(), out, "type", type, "arena", index));
+        header("acteur_bytebuf_arena_thread_caches", "Thread caches backed by each arena", "gauge", out);
+        arenas(pooled, (arena, type, index) -> sample("acteur_bytebuf_arena_thread_caches",
+                arena.numThreadCaches(), out, "type", type, "arena", index));
+        header("acteur_bytebuf_arena_chunks", "Chunks in each arena's chunk lists, by usage range", "gauge", out);
+        arenas(pooled, (arena, type, index) -> {
+            for (PoolChunkListMetric list : arena.chunkLists()) {
+                sample("acteur_bytebuf_arena_chunks", count(list), out,
+                        "type", type, "arena", index, "usage", usage(list));
+            }
+        });
+    }
+
+    private interface ArenaWriter {
+
+        void write(PoolArenaMetric arena, String type, String index) throws IOException;
+    }
+
+    private static void arenas(PooledByteBufAllocatorMetric pooled, ArenaWriter writer) throws IOException {
+        List<PoolArenaMetric> direct = pooled.directArenas();
+        for (int i = 0; i < direct.size(); i++) {
+            writer.write(direct.get(i), "direct", Integer.toString(i));
+        }
+        List<PoolArenaMetric> heap = pooled.heapArenas();
+        for (int i = 0; i < heap.size(); i++) {
+            writer.write(heap.get(i), "heap", Integer.toString(i));
+        }
+    }
+
+    private static void header(String name, String help, String type, Appendable out) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(String name, long value, Appendable out, String... labels) throws IOException {
+        out.append(name);
+        if (labels.length > 0) {
+            out.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                // Label values here are fixed strings and numbers, never
+                // anything which needs escaping
+                out.append(labels[i]).append("=\"").append(labels[i + 1]).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ').append(Long.toString(value)).append('\n');
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts leaks reported by Netty's resource leak detector. Netty creates the
+ * detector for ByteBufs once, when the first buffer class is initialized, so
+ * the counting factory must be installed before then - ServerModule does so
+ * when it is constructed. If something initialized buffers earlier,
+ * {@link #isTracking()} returns false and counts stay at zero.
+ * <p>
+ * Leaks are only reported (and so only counted) when the detector is enabled
+ * and Netty's logger for it is enabled at the error level.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+public final class LeakCounts {
+
+    private static final AtomicBoolean INSTALLED = new AtomicBoolean();
+    private static final LongAdder TRACED = new LongAdder();
+    private static final LongAdder UNTRACED = new LongAdder();
+    private static volatile boolean tracking;
+
+    private LeakCounts() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Install the counting leak detector factory, if not already installed
+     * and no custom leak detector has been configured with Netty's
+     * <code>io.netty.customResourceLeakDetector</code> system property.
+     */
+    public static void install() {
+        if (System.getProperty("io.netty.customResourceLeakDetector") != null) {
+            return;
+        }
+        if (INSTALLED.compareAndSet(false, true)) {
+            ResourceLeakDetectorFactory.setResourceLeakDetectorFactory(new CountingFactory());
+        }
+    }
+
+    /**
+     * Determine whether ByteBuf leaks are being counted.
+     *
+     * @return true if the ByteBuf leak detector was created by the counting
+     * factory
+     */
+    public static boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * The number of leaks reported with a record of where the buffer was
+     * accessed.
+     *
+     * @return A count
+     */
+    public static long traced() {
+        return TRACED.sum();
+    }
+
+    /**
+     * The number of leaks reported without access records (because the
+     * leak detection level is too low to record them).
+     *
+     * @return A count
+     */
+    public static long untraced() {
+        return UNTRACED.sum();
+    }
+
+    static final class CountingFactory extends ResourceLeakDetectorFactory {
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public <T> ResourceLeakDetector<T> newResourceLeakDetector(Class<T> resource, int samplingInterval, long maxActive) {
+            if (resource == ByteBuf.class) {
+                tracking = true;
+            }
+            return new CountingDetector<>(resource, samplingInterval);
+        }
+    }
+
+    static final class CountingDetector<T> extends ResourceLeakDetector<T> {
+
+        CountingDetector(Class<?> resourceType, int samplingInterval) {
+            super(resourceType, samplingInterval);
+        }
+
+        @Override
+        protected void reportTracedLeak(String resourceType, String records) {
+            TRACED.increment();
+            super.reportTracedLeak(resourceType, records);
+        }
+
+        @Override
+        protected void reportUntracedLeak(String resourceType) {
+            UNTRACED.increment();
+            super.reportUntracedLeak(resourceType);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.inject.Singleton;
+
+/**
+ * Registry of named families of histograms, which can be written out in the
+ * Prometheus text exposition format (as summaries with quantiles, sum and
+ * count). {@link MetricsProbe} records request metrics here; applications
+ * may add families of their own.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public final class Metrics {
+
+    /**
+     * Scale for families whose values are recorded in nanoseconds and
+     * reported in seconds.
+     */
+    public static final double NANOS_TO_SECONDS = 1D / 1000000000D;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * Get or create a family of histograms.
+     *
+     * @param name The metric name, e.g.
+     * <code>myapp_query_duration_seconds</code>
+     * @param help A description of the metric
+     * @param scale Multiplier applied to recorded values when they are
+     * reported (e.g. {@link #NANOS_TO_SECONDS}, or 1)
+     * @param labelNames The names of the labels which distinguish members of
+     * the family
+     * @return A family
+     * @throws IllegalArgumentException if a family with the same name but
+     * different labels already exists
+     */
+    public Family family(String name, String help, double scale, String... labelNames) {
+        Family result = families.computeIfAbsent(name, nm -> new Family(nm, help, scale, labelNames));
+        if (!Arrays.equals(labelNames, result.labelNames)) {
+            throw new IllegalArgumentException(name + " already exists with labels "
+                    + Arrays.toString(result.labelNames));
+        }
+        return result;
+    }
+
+    /**
+     * Write all families in the Prometheus text format, version 0.0.4.
+     *
+     * @param out Where to write
+     * @throws IOException If writing fails
+     */
+    public void writeTo(Appendable out) throws IOException {
+        List<String> names = new ArrayList<>(families.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            families.get(name).writeTo(out);
+        }
+    }
+
+    /**
+     * A set of histograms sharing a name and label names, differing by label
+     * values.
+     */
+    public static final class Family {
+
+        private final String name;
+        private final String help;
+        private final double scale;
+        private final String[] labelNames;
+        private final Map<List<String>, Histogram> members = new ConcurrentHashMap<>();
+
+        Family(String name, String help, double scale, String[] labelNames) {
+            this.name = name;
+            this.help = help;
+            this.scale = scale;
+            this.labelNames = labelNames.clone();
+        }
+
+        /**
+         * Get or create the histogram for a set of label values. Callers on
+         * hot paths should cache the result.
+         *
+         * @param labelValues Values, one per label name
+         * @return A histogram
+         */
+        public Histogram histogram(String... labelValues) {
+            if (labelValues.length != labelNames.length) {
+                throw new IllegalArgumentException("Expected values for " + Arrays.toString(labelNames)
+                        + " but got " + Arrays.toString(labelValues));
+            }
+            return members.computeIfAbsent(Arrays.asList(labelValues.clone()), ignored -> new Histogram());
+        }
+
+        void writeTo(Appendable out) throws IOException {
+            out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (Map.Entry<List<String>, Histogram> e : members.entrySet()) {
+                Histogram.Snapshot snap = e.getValue().snapshot();
+                for (double q : QUANTILES) {
+                    out.append(name);
+                    writeLabels(e.getKey(), Double.toString(q), out);
+                    out.append(' ').append(format(snap.valueAt(q) * scale)).append('\n');
+                }
+                out.append(name).append("_sum");
+                writeLabels(e.getKey(), null, out);
+                out.append(' ').append(format(snap.sum() * scale)).append('\n');
+                out.append(name).append("_count");
+                writeLabels(e.getKey(), null, out);
+                out.append(' ').append(Long.toString(snap.count())).append('\n');
+            }
+        }
+
+        private void writeLabels(List<String> values, String quantile, Appendable out) throws IOException {
+            if (values.isEmpty() && quantile == null) {
+                return;
+            }
+            out.append('{');
+            for (int i = 0; i < labelNames.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(labelNames[i]).append("=\"");
+                escape(values.get(i), out);
+                out.append('"');
+            }
+            if (quantile != null) {
+                if (labelNames.length > 0) {
+                    out.append(',');
+                }
+                out.append("quantile=\"").append(quantile).append('"');
+            }
+            out.append('}');
+        }
+
+        private static void escape(String value, Appendable out) throws IOException {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\':
+                        out.append("\\\\");
+                        break;
+                    case '"':
+                        out.append("\\\"");
+                        break;
+                    case '\n':
+                        out.append("\\n");
+                        break;
+                    default:
+                        out.append(c);
+                }
+            }
+        }
+
+        private static String format(double value) {
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                return Long.toString((long) value);
+            }
+            return Double.toString(value);
+        }
+    }
+}
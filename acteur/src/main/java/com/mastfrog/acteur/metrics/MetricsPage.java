@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.metrics;
+
+import com.google.common.net.MediaType;
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.ActeurFactory;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.headers.Headers;
+import static com.mastfrog.acteur.headers.Method.GET;
+import com.mastfrog.acteur.preconditions.Authenticated;
+import com.mastfrog.acteur.preconditions.Description;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.acteur.util.CacheControl;
+import com.mastfrog.acteur.util.CacheControlTypes;
+import com.mastfrog.settings.Settings;
+import javax.inject.Inject;
+
+/**
+ * Serves a snapshot of {@link Metrics}, and the ByteBuf allocator's
+ * {@link AllocatorStats}, in the Prometheus text format. Not
+ * installed by default - add it to an application with
+ * <code>add(MetricsPage.class)</code>, alongside {@link MetricsModule}.
+ * <p>
+ * The metrics name every page of the application and reveal its traffic and
+ * memory use, so this page requires authentication (configure the scraper
+ * with basic auth credentials), and an <code>Authenticator</code> must be
+ * bound.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Authenticated
+@Description(category = "Info", value = "Request latency histograms in Prometheus text format")
+@Methods(GET)
+public final class MetricsPage extends Page {
+
+    /**
+     * Settings key for the regular expression the metrics page's path should
+     * match.
+     */
+    public static final String SETTINGS_KEY_METRICS_PATH = "metrics.path";
+    /**
+     * Default path for the metrics page.
+     */
+    public static final String DEFAULT_METRICS_PATH = "^_metrics$";
+    static final MediaType PROMETHEUS_TEXT = MediaType.PLAIN_TEXT_UTF_8.withParameter("version", "0.0.4");
+
+    @Inject
+    MetricsPage(ActeurFactory af, Settings settings) {
+        add(af.matchPath(settings.getString(SETTINGS_KEY_METRICS_PATH, DEFAULT_METRICS_PATH)));
+        add(MetricsActeur.class);
+    }
+
+    static final class MetricsActeur extends Acteur {
+
+        @Inject
+        MetricsActeur(Metrics metrics, AllocatorStats allocator) throws Exception {
+            StringBuilder sb = new StringBuilder(4096);
+            metrics.writeTo(sb);
+            allocator.writeTo(sb);
+            add(Headers.CONTENT_TYPE, PROMETHEUS_TEXT);
+            add(Headers.CACHE_CONTROL, new CacheControl(CacheControlTypes.no_cache, CacheControlTypes.no_store));
+            ok(sb.toString());
+        }
+    }
+}
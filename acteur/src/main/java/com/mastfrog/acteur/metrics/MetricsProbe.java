@@ -0,0 +1,219 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.metrics;
+
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.Event;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.debug.Probe;
+import com.mastfrog.acteur.util.RequestID;
+import com.mastfrog.acteurbase.ActeurState;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Probe which records request latency by page and status, time per acteur,
+ * time requests spend queued before their first page runs versus running,
+ * time spent waiting in named pools, and response sizes, into histograms in
+ * {@link Metrics}. Installed by {@link MetricsModule}.
+ * <p>
+ * Acteur times are wall-clock times from the previous acteur (or the page
+ * starting) to the acteur's state being available, so they include time
+ * spent deferred.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public class MetricsProbe implements Probe {
+
+    private static final long ABANDONED_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int SWEEP_INTERVAL = 4096;
+    private static final String NO_PAGE = "none";
+    private final Map<RequestID, Timing> inFlight = new ConcurrentHashMap<>();
+    private final Metrics.Family requests;
+    private final Metrics.Family running;
+    private final Metrics.Family sizes;
+    private final Metrics.Family acteurs;
+    private final Metrics.Family pools;
+    private final Histogram queued;
+    private final ClassValue<PageMetrics> pageMetrics = new ClassValue<PageMetrics>() {
+        @Override
+        protected PageMetrics computeValue(Class<?> type) {
+            return new PageMetrics(type.getName());
+        }
+    };
+    private final ClassValue<Histogram> acteurMetrics = new ClassValue<Histogram>() {
+        @Override
+        protected Histogram computeValue(Class<?> type) {
+            return acteurs.histogram(type.getName());
+        }
+    };
+    private final Map<String, Histogram> poolMetrics = new ConcurrentHashMap<>();
+    private final PageMetrics noPage;
+
+    @Inject
+    public MetricsProbe(Metrics metrics) {
+        requests = metrics.family("acteur_request_duration_seconds",
+                "Time from receiving a request to its response being ready",
+                Metrics.NANOS_TO_SECONDS, "page", "status");
+        running = metrics.family("acteur_request_running_seconds",
+                "Time from the first page starting to run to the response being ready",
+                Metrics.NANOS_TO_SECONDS, "page");
+        sizes = metrics.family("acteur_response_size_bytes",
+                "Response body sizes, where known in advance", 1, "page");
+        acteurs = metrics.family("acteur_acteur_duration_seconds",
+                "Time taken by individual acteurs, including deferral",
+                Metrics.NANOS_TO_SECONDS, "acteur");
+        pools = metrics.family("acteur_pool_wait_seconds",
+                "Time tasks spend queued in named pools before running",
+                Metrics.NANOS_TO_SECONDS, "pool");
+        queued = metrics.family("acteur_request_queued_seconds",
+                "Time from receiving a request to the first page starting to run",
+                Metrics.NANOS_TO_SECONDS).histogram();
+        noPage = new PageMetrics(NO_PAGE);
+    }
+
+    @Override
+    public void onBeforeProcessRequest(RequestID id, Event<?> req) {
+        long now = System.nanoTime();
+        inFlight.put(id, new Timing(now));
+        if ((id.index % SWEEP_INTERVAL) == 0) {
+            sweep(now);
+        }
+    }
+
+    @Override
+    public void onBeforeRunPage(RequestID id, Event<?> evt, Page page) {
+        Timing timing = inFlight.get(id);
+        if (timing != null) {
+            long now = System.nanoTime();
+            if (timing.pageStart == 0) {
+                timing.pageStart = now;
+                queued.record(now - timing.start);
+            }
+            timing.page = page;
+            timing.last = now;
+        }
+    }
+
+    @Override
+    public void onActeurWasRun(RequestID id, Event<?> evt, Page page, Acteur acteur, ActeurState result) {
+        Timing timing = inFlight.get(id);
+        if (timing != null && acteur != null) {
+            long now = System.nanoTime();
+            acteurMetrics.get(acteur.getClass()).record(now - timing.last);
+            timing.last = now;
+        }
+    }
+
+    @Override
+    public void onBeforeSendResponse(RequestID id, Event<?> event, Acteur acteur, HttpResponseStatus status, boolean hasListener, Object message) {
+        Timing timing = inFlight.remove(id);
+        if (timing != null && status != null) {
+            long now = System.nanoTime();
+            PageMetrics pm = timing.page == null ? noPage : pageMetrics.get(timing.page.getClass());
+            pm.latency(status.code()).record(now - timing.start);
+            if (timing.pageStart != 0) {
+                pm.running.record(now - timing.pageStart);
+            }
+        }
+    }
+
+    @Override
+    public void onResponseSent(RequestID id, Event<?> event, Page page, HttpResponseStatus status, long contentLength) {
+        if (contentLength >= 0) {
+            PageMetrics pm = page == null ? noPage : pageMetrics.get(page.getClass());
+            pm.sizes.record(contentLength);
+        }
+    }
+
+    @Override
+    public void onFallthrough(RequestID id, Event<?> evt) {
+        Timing timing = inFlight.remove(id);
+        if (timing != null) {
+            noPage.latency(HttpResponseStatus.NOT_FOUND.code()).record(System.nanoTime() - timing.start);
+        }
+    }
+
+    @Override
+    public void onPoolTaskStarted(String pool, long waitNanos, int queueDepth) {
+        poolMetrics.computeIfAbsent(pool, pools::histogram).record(waitNanos);
+    }
+
+    private void sweep(long now) {
+        // Requests whose connection closed before any response was attempted
+        // never reach onBeforeSendResponse
+        for (Iterator<Timing> it = inFlight.values().iterator(); it.hasNext();) {
+            if (now - it.next().start > ABANDONED_NANOS) {
+                it.remove();
+            }
+        }
+    }
+
+    private static final class Timing {
+
+        final long start;
+        volatile long pageStart;
+        volatile long last;
+        volatile Page page;
+
+        Timing(long start) {
+            this.start = start;
+            this.last = start;
+        }
+    }
+
+    private final class PageMetrics {
+
+        private final String name;
+        private final AtomicReferenceArray<Histogram> byStatus = new AtomicReferenceArray<>(600);
+        final Histogram running;
+        final Histogram sizes;
+
+        PageMetrics(String name) {
+            this.name = name;
+            running = MetricsProbe.this.running.histogram(name);
+            sizes = MetricsProbe.this.sizes.histogram(name);
+        }
+
+        Histogram latency(int status) {
+            if (status < 0 || status >= byStatus.length()) {
+                return requests.histogram(name, Integer.toString(status));
+            }
+            Histogram result = byStatus.get(status);
+            if (result == null) {
+                result = requests.histogram(name, Integer.toString(status));
+                byStatus.lazySet(status, result);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.preconditions;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation which can be set on Page classes to run their acteurs in a
+ * named, bounded thread pool of their own, rather than the shared background
+ * pool, so that a slow endpoint cannot starve the rest of the application.
+ * The pool's size, queue length and what happens when its queue is full are
+ * configured in settings - see <code>ServerModule.SETTINGS_KEY_POOL_PREFIX</code>.
+ * Pages can also be assigned to pools in settings, without this annotation.
+ * <p>
+ * Any path and method matching acteurs at the head of the page (from
+ * &#064;Path, &#064;Methods and similar) still run on the shared pool; the
+ * request only moves into the page's pool once they have accepted it, so
+ * requests for other pages are never queued behind, or refused by, it.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Description("Runs in a dedicated thread pool")
+public @interface Pool {
+
+    String value();
+}
@@ -0,0 +1,331 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.net.MediaType;
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.ActeurFactory;
+import com.mastfrog.acteur.DispatchedResponse;
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.headers.Headers;
+import static com.mastfrog.acteur.headers.Method.POST;
+import com.mastfrog.acteur.preconditions.Description;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.settings.Settings;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaderNames.EXPECT;
+import static io.netty.handler.codec.http.HttpHeaderNames.TRANSFER_ENCODING;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+import static io.netty.util.CharsetUtil.UTF_8;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import javax.inject.Inject;
+
+/**
+ * Optional page which runs a batch of requests, passed as a JSON array, in
+ * parallel and in-process, and replies with a JSON array of their responses
+ * in the same order. Not installed by default - add it to an application
+ * with <code>add(BatchPage.class)</code>.
+ * <p>
+ * Each element of the request body is an object with the properties
+ * <code>method</code> (defaults to GET), <code>uri</code> (required,
+ * including any query string), <code>headers</code> (an object, optional) and
+ * <code>body</code> (any JSON, optional - strings are sent as-is, anything
+ * else as JSON). Of the batch request's own headers, only those listed in
+ * the setting <code>batch.inherited.headers</code> (by default
+ * <code>Authorization</code> and <code>Cookie</code>) are passed on to each
+ * sub-request, unless the element overrides them.
+ * <p>
+ * Each element of the response has <code>status</code>, <code>headers</code>
+ * (an object whose values are arrays, since a header may occur more than
+ * once) and, if there was one, <code>body</code>. An element whose
+ * <code>method</code> is not a valid HTTP method gets status 400 and an
+ * <code>error</code> without affecting the rest. Bodies which are JSON are
+ * embedded as JSON; other text is embedded as a string. Responses whose body
+ * is streamed by a ResponseWriter are not captured, and are marked
+ * <code>"streamed" : true</code>.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Description(category = "Info", value = "Runs a JSON array of requests "
+        + "in parallel, replying with a JSON array of their responses")
+@Methods(POST)
+public final class BatchPage extends Page {
+
+    /**
+     * Settings key for the regular expression the batch page's path should
+     * match.
+     */
+    public static final String SETTINGS_KEY_BATCH_PATH = "batch.path";
+    /**
+     * Default path for the batch page.
+     */
+    public static final String DEFAULT_BATCH_PATH = "^_batch$";
+    /**
+     * Settings key for the maximum number of requests one batch may contain.
+     */
+    public static final String SETTINGS_KEY_BATCH_MAX_REQUESTS = "batch.max.requests";
+    /**
+     * Default maximum number of requests in a batch.
+     */
+    public static final int DEFAULT_BATCH_MAX_REQUESTS = 32;
+    /**
+     * Settings key for a comma-delimited list of the names of headers of the
+     * batch request which are copied to each sub-request. Headers describing
+     * the batch request's body are never copied.
+     */
+    public static final String SETTINGS_KEY_BATCH_INHERITED_HEADERS = "batch.inherited.headers";
+    /**
+     * Default headers copied to sub-requests - the caller's credentials.
+     */
+    public static final String DEFAULT_BATCH_INHERITED_HEADERS = "Authorization,Cookie";
+
+    static final AsciiString X_BATCH_REQUEST = AsciiString.of("X-Batch-Request");
+
+    @Inject
+    BatchPage(ActeurFactory af, Settings settings) {
+        add(af.matchPath(settings.getString(SETTINGS_KEY_BATCH_PATH, DEFAULT_BATCH_PATH)));
+        add(BatchActeur.class);
+    }
+
+    static final class Item {
+
+        public String method = "GET";
+        public String uri;
+        public Map<String, String> headers;
+        public JsonNode body;
+    }
+
+    static final class InvalidBatchElementException extends IllegalArgumentException {
+
+        InvalidBatchElementException(String msg) {
+            super(msg);
+        }
+    }
+
+    static final class BatchActeur extends Acteur {
+
+        private final ObjectMapper mapper;
+        private final List<String> inheritedHeaders = new ArrayList<>();
+
+        @Inject
+        BatchActeur(HttpEvent evt, SubRequests subRequests, ObjectMapper mapper, Settings settings) throws Exception {
+            this.mapper = mapper;
+            for (String name : settings.getString(SETTINGS_KEY_BATCH_INHERITED_HEADERS,
+                    DEFAULT_BATCH_INHERITED_HEADERS).split(",")) {
+                name = name.trim();
+                if (!name.isEmpty() && !isBodyHeader(name)) {
+                    inheritedHeaders.add(name);
+                }
+            }
+            if (evt.header(X_BATCH_REQUEST) != null) {
+                badRequest("Batches cannot be nested");
+                return;
+            }
+            Item[] items = evt.jsonContent(Item[].class);
+            if (items == null || items.length == 0) {
+                badRequest("Empty batch");
+                return;
+            }
+            int max = settings.getInt(SETTINGS_KEY_BATCH_MAX_REQUESTS, DEFAULT_BATCH_MAX_REQUESTS);
+            if (items.length > max) {
+                badRequest("Too many requests in batch: " + items.length + " > " + max);
+                return;
+            }
+            List<FullHttpRequest> requests = new ArrayList<>(items.length);
+            for (int i = 0; i < items.length; i++) {
+                Item item = items[i];
+                if (item == null || item.uri == null || item.uri.isEmpty() || item.uri.charAt(0) != '/') {
+                    requests.forEach(ReferenceCountUtil::release);
+                    badRequest("Missing or relative uri in batch element " + i);
+                    return;
+                }
+                HttpMethod method = methodOf(item);
+                // A null entry is reported as a 400 for that element only
+                requests.add(method == null ? null : toRequest(item, method, evt.request().headers()));
+            }
+            List<CompletableFuture<DispatchedResponse>> futures = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                FullHttpRequest req = requests.get(i);
+                if (req == null) {
+                    CompletableFuture<DispatchedResponse> invalid = new CompletableFuture<>();
+                    invalid.completeExceptionally(new InvalidBatchElementException(
+                            "Invalid method in batch element " + i + ": " + items[i].method));
+                    futures.add(invalid);
+                } else {
+                    futures.add(subRequests.dispatch(req, evt));
+                }
+            }
+            CompletableFuture<List<Map<String, Object>>> all = CompletableFuture
+                    .allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                    .handle((ignored, thrown) -> {
+                        // Individual failures are reported per-element
+                        List<Map<String, Object>> result = new ArrayList<>(futures.size());
+                        for (CompletableFuture<DispatchedResponse> f : futures) {
+                            result.add(toResult(f));
+                        }
+                        return result;
+                    });
+            all.whenComplete((ignored, thrown) -> requests.forEach(ReferenceCountUtil::release));
+            then(all);
+        }
+
+        private static HttpMethod methodOf(Item item) {
+            String name = item.method == null ? "GET" : item.method.trim().toUpperCase(Locale.ROOT);
+            try {
+                return HttpMethod.valueOf(name);
+            } catch (IllegalArgumentException ex) {
+                // Empty, or contains whitespace or control characters
+                return null;
+            }
+        }
+
+        private FullHttpRequest toRequest(Item item, HttpMethod method, HttpHeaders parentHeaders) throws Exception {
+            ByteBuf content;
+            CharSequence contentType = null;
+            if (item.body == null || item.body.isNull()) {
+                content = Unpooled.EMPTY_BUFFER;
+            } else if (item.body.isTextual()) {
+                content = Unpooled.wrappedBuffer(item.body.textValue().getBytes(UTF_8));
+                contentType = MediaType.PLAIN_TEXT_UTF_8.toString();
+            } else {
+                content = Unpooled.wrappedBuffer(mapper.writeValueAsBytes(item.body));
+                contentType = MediaType.JSON_UTF_8.toString();
+            }
+            FullHttpRequest req = new DefaultFullHttpRequest(HTTP_1_1, method, item.uri, content);
+            HttpHeaders headers = req.headers();
+            for (String name : inheritedHeaders) {
+                for (String value : parentHeaders.getAll(name)) {
+                    headers.add(name, value);
+                }
+            }
+            if (item.headers != null) {
+                for (Map.Entry<String, String> e : item.headers.entrySet()) {
+                    if (e.getKey() != null && e.getValue() != null) {
+                        headers.set(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            if (contentType != null && !headers.contains(CONTENT_TYPE)) {
+                headers.set(CONTENT_TYPE, contentType);
+            }
+            headers.set(CONTENT_LENGTH, content.readableBytes());
+            headers.set(X_BATCH_REQUEST, "true");
+            return req;
+        }
+
+        private static boolean isBodyHeader(CharSequence name) {
+            return CONTENT_LENGTH.contentEqualsIgnoreCase(name)
+                    || CONTENT_TYPE.contentEqualsIgnoreCase(name)
+                    || CONTENT_ENCODING.contentEqualsIgnoreCase(name)
+                    || TRANSFER_ENCODING.contentEqualsIgnoreCase(name)
+                    || EXPECT.contentEqualsIgnoreCase(name);
+        }
+
+        private Map<String, Object> toResult(CompletableFuture<DispatchedResponse> f) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            DispatchedResponse resp;
+            try {
+                resp = f.join();
+            } catch (CompletionException | CancellationException ex) {
+                Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                result.put("status", cause instanceof InvalidBatchElementException ? 400 : 500);
+                result.put("error", cause.getMessage() == null
+                        ? cause.getClass().getSimpleName() : cause.getMessage());
+                return result;
+            }
+            result.put("status", resp.status().code());
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            resp.headers().forEach((k, vals) -> {
+                List<String> strings = new ArrayList<>(vals.size());
+                vals.forEach(v -> strings.add(v.toString()));
+                headers.put(k.toString(), strings);
+            });
+            result.put("headers", headers);
+            if (resp.isStreamed()) {
+                result.put("streamed", true);
+            }
+            Object body = toBody(resp);
+            if (body != null) {
+                result.put("body", body);
+            }
+            return result;
+        }
+
+        private Object toBody(DispatchedResponse resp) {
+            Object msg = resp.message();
+            if (msg == null) {
+                return null;
+            }
+            MediaType type = resp.header(Headers.CONTENT_TYPE);
+            Charset charset = type != null && type.charset().isPresent() ? type.charset().get() : UTF_8;
+            String text;
+            if (msg instanceof ByteBuf) {
+                ByteBuf buf = (ByteBuf) msg;
+                try {
+                    text = buf.toString(charset);
+                } finally {
+                    // Would have been released when written
+                    ReferenceCountUtil.release(buf);
+                }
+            } else if (msg instanceof byte[]) {
+                text = new String((byte[]) msg, charset);
+            } else if (msg instanceof CharSequence) {
+                text = msg.toString();
+            } else {
+                // An object which would have been encoded as JSON
+                return msg;
+            }
+            if (type != null && type.is(MediaType.ANY_APPLICATION_TYPE) && type.subtype().endsWith("json")) {
+                try {
+                    return mapper.readTree(text);
+                } catch (Exception ex) {
+                    // Not actually JSON - fall through
+                }
+            }
+            return text;
+        }
+    }
+}
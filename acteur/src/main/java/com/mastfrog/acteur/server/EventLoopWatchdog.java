@@ -0,0 +1,304 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.server;
+
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.debug.Probe;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_EVENT_LOOP_WATCHDOG_INTERVAL_MILLIS;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_EVENT_LOOP_WATCHDOG_THRESHOLD_MILLIS;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.settings.Settings;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Detects event loops which are blocked - typically by a ChannelFutureListener,
+ * ResponseWriter or &#064;Early ChunkHandler doing I/O or waiting on a lock,
+ * which stalls every connection served by that loop. If enabled by setting
+ * <code>acteur.eventloop.watchdog.threshold.millis</code>, a daemon thread
+ * periodically submits a trivial task to each event loop; if one has not run
+ * within the threshold, the loop thread's stack is captured and passed to
+ * <code>Probe.onEventLoopBlocked()</code>, along with the page and listener
+ * which were running on the loop at the time, where known.
+ * <p>
+ * Attribution is done by framework code entering a scope around the code it
+ * calls on the event loop; when the watchdog is disabled, this costs nothing.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public final class EventLoopWatchdog {
+
+    private final Provider<EventLoopFactory> loops;
+    private final Probe probe;
+    private final long thresholdNanos;
+    private final long intervalMillis;
+    private final ThreadLocal<LoopState> current = new ThreadLocal<>();
+    private final List<LoopState> states = new ArrayList<>();
+    private Thread thread;
+    private volatile boolean stopped;
+
+    @Inject
+    EventLoopWatchdog(Provider<EventLoopFactory> loops, Probe probe, Settings settings, ShutdownHookRegistry reg) {
+        this.loops = loops;
+        this.probe = probe;
+        long threshold = settings.getLong(SETTINGS_KEY_EVENT_LOOP_WATCHDOG_THRESHOLD_MILLIS, 0);
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, threshold));
+        this.intervalMillis = Math.max(1, settings.getLong(SETTINGS_KEY_EVENT_LOOP_WATCHDOG_INTERVAL_MILLIS,
+                Math.max(10, threshold / 4)));
+        if (threshold > 0) {
+            reg.add((Runnable) this::stop);
+        }
+    }
+
+    /**
+     * Determine if the watchdog is enabled by settings.
+     *
+     * @return true if it is enabled
+     */
+    public boolean isEnabled() {
+        return thresholdNanos > 0;
+    }
+
+    /**
+     * Start monitoring the event loops, if enabled and not already started.
+     * Called by the server once it has bound its port.
+     */
+    public synchronized void start() {
+        if (!isEnabled() || thread != null || stopped) {
+            return;
+        }
+        EventLoopFactory factory = loops.get();
+        addLoops(factory.getEventGroup());
+        if (factory.getWorkerGroup() != factory.getEventGroup()) {
+            addLoops(factory.getWorkerGroup());
+        }
+        thread = new Thread(this::watch, "acteur-eventloop-watchdog");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    private void addLoops(EventLoopGroup group) {
+        for (EventExecutor loop : group) {
+            states.add(new LoopState(loop));
+        }
+    }
+
+    /**
+     * Stop monitoring.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            stopped = true;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    private void watch() {
+        LoopState[] all;
+        synchronized (this) {
+            all = states.toArray(new LoopState[states.size()]);
+        }
+        while (!stopped) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (LoopState state : all) {
+                state.check(now);
+            }
+        }
+    }
+
+    /**
+     * Create an attribution which can be entered around code which runs on
+     * the event loop, so that if that code blocks the loop, the report says
+     * what was running.
+     *
+     * @param page The page, if any
+     * @param source The listener, writer or handler about to be run
+     * @return An attribution, or null if the watchdog is not enabled
+     */
+    public Attribution attribution(Page page, Object source) {
+        return isEnabled() ? new Attribution(page, source) : null;
+    }
+
+    /**
+     * Wrap a listener so that while it runs, the watchdog attributes any
+     * stall of the event loop to it and the passed page. Returns the
+     * original listener if the watchdog is not enabled.
+     *
+     * @param page The page
+     * @param listener The listener
+     * @return A listener
+     */
+    public ChannelFutureListener attribute(Page page, ChannelFutureListener listener) {
+        if (!isEnabled() || listener == null) {
+            return listener;
+        }
+        Attribution attribution = new Attribution(page, listener);
+        return new AttributedListener(attribution, listener);
+    }
+
+    private static final class AttributedListener implements ChannelFutureListener {
+
+        private final Attribution attribution;
+        private final ChannelFutureListener delegate;
+
+        AttributedListener(Attribution attribution, ChannelFutureListener delegate) {
+            this.attribution = attribution;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture f) throws Exception {
+            try (Scope scope = attribution.enter()) {
+                delegate.operationComplete(f);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+    /**
+     * A page and object which may be running on an event loop.
+     */
+    public final class Attribution {
+
+        final Page page;
+        final Object source;
+
+        Attribution(Page page, Object source) {
+            this.page = page;
+            this.source = source;
+        }
+
+        /**
+         * Mark this attribution as running on the current thread, if it is an
+         * event loop thread which is being monitored.
+         *
+         * @return A scope which must be closed when the code exits
+         */
+        public Scope enter() {
+            LoopState state = current.get();
+            if (state == null) {
+                return Scope.NONE;
+            }
+            Attribution prev = state.running;
+            state.running = this;
+            return new Scope(state, prev);
+        }
+    }
+
+    /**
+     * Scope returned by entering an attribution; closing it restores
+     * whatever was running before.
+     */
+    public static class Scope implements AutoCloseable {
+
+        static final Scope NONE = new Scope(null, null);
+        private final LoopState state;
+        private final Attribution prev;
+
+        Scope(LoopState state, Attribution prev) {
+            this.state = state;
+            this.prev = prev;
+        }
+
+        @Override
+        public void close() {
+            if (state != null) {
+                state.running = prev;
+            }
+        }
+    }
+
+    final class LoopState implements Runnable {
+
+        private final EventExecutor loop;
+        private volatile Thread loopThread;
+        private volatile long submittedAt;
+        private volatile boolean reported;
+        volatile Attribution running;
+
+        LoopState(EventExecutor loop) {
+            this.loop = loop;
+        }
+
+        @Override
+        public void run() {
+            if (loopThread == null) {
+                loopThread = Thread.currentThread();
+                current.set(this);
+            }
+            submittedAt = 0;
+            reported = false;
+        }
+
+        void check(long now) {
+            long submitted = submittedAt;
+            if (submitted == 0) {
+                if (loop.isShuttingDown()) {
+                    return;
+                }
+                submittedAt = now;
+                try {
+                    loop.execute(this);
+                } catch (RejectedExecutionException ex) {
+                    // shutting down
+                    submittedAt = 0;
+                }
+            } else if (!reported && now - submitted > thresholdNanos) {
+                reported = true;
+                Thread t = loopThread;
+                Attribution att = running;
+                StackTraceElement[] stack = t == null ? new StackTraceElement[0] : t.getStackTrace();
+                String name = t == null ? loop.toString() : t.getName();
+                probe.onEventLoopBlocked(name, now - submitted, stack,
+                        att == null ? null : att.page, att == null ? null : att.source);
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ package com.mastfrog.acteur.server;
 
 import com.google.inject.Provider;
 import com.mastfrog.acteur.Application;
+import com.mastfrog.acteur.debug.Probe;
 import static com.mastfrog.acteur.server.ServerModule.DEFAULT_COMPRESSION_LEVEL;
 import static com.mastfrog.acteur.server.ServerModule.DEFAULT_COMPRESSION_MEMORY_LEVEL;
 import static com.mastfrog.acteur.server.ServerModule.DEFAULT_COMPRESSION_THRESHOLD;
@@ -53,6 +54,7 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpContentCompressor;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
@@ -63,6 +65,7 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.util.AsciiString;
 import io.netty.util.AttributeKey;
 import java.util.List;
@@ -95,14 +98,16 @@ class PipelineFactoryImpl extends ChannelInitializer<SocketChannel> {
     private final int compressionThreshold;
     private final boolean compressionCheckContentType;
     private final boolean compressionDebug;
+    private final Probe probe;
     
     @Inject
     PipelineFactoryImpl(Provider<ChannelHandler> handler,
             Provider<ApplicationControl> app, Settings settings,
             PipelineDecorator decorator, ActeurSslConfig sslConfigProvider,
             EarlyPagesPipelineDecorator earlyPages,
-            Application application) {
+            Application application, Probe probe) {
         this.decorator = decorator;
+        this.probe = probe;
         this.handler = handler;
         this.app = app;
         this.sslConfigProvider = sslConfigProvider;
@@ -167,7 +172,7 @@ class PipelineFactoryImpl extends ChannelInitializer<SocketChannel> {
         if (httpCompression) {
             ChannelHandler compressor = new SelectiveCompressor(compressionLevel, compressionWindowBits,
                     compressionMemLevel, compressionThreshold, compressionCheckContentType,
-                    compressionDebug);
+                    compressionDebug, probe);
             pipeline.addLast(PipelineDecorator.COMPRESSOR, compressor);
         }
         pipeline.addLast(PipelineDecorator.HANDLER, handler.get());
@@ -196,13 +201,21 @@ class PipelineFactoryImpl extends ChannelInitializer<SocketChannel> {
         private final int compressionThreshold;
         private final boolean compressionCheckContentType;
         private final boolean debug;
+        private final Probe probe;
+        // Per-channel, so only touched by its event loop; reset after each
+        // response
+        private String encoding;
+        private long uncompressedBytes;
+        private long compressedBytes;
+        private long compressionNanos;
 
         SelectiveCompressor(int compressionLevel, int windowBits, int memLevel, int compressionThreshold,
-                boolean compressionCheckContentType, boolean compressionDebug) {
+                boolean compressionCheckContentType, boolean compressionDebug, Probe probe) {
             super(compressionLevel, windowBits, memLevel);
             this.compressionThreshold = compressionThreshold;
             this.compressionCheckContentType = compressionCheckContentType;
             this.debug = compressionDebug;
+            this.probe = probe;
         }
 
         @Override
@@ -223,7 +236,33 @@ class PipelineFactoryImpl extends ChannelInitializer<SocketChannel> {
             if (debug) {
                 System.out.println("Encode " + msg);
             }
-            super.encode(ctx, msg, out); //To change body of generated methods, choose Tools | Templates.
+            // Only measure if the probe wants it; beginEncode() only sets
+            // encoding if it does
+            if (!(msg instanceof HttpContent) || (encoding == null
+                    && !(msg instanceof HttpResponse && probe.isCompressionObserved()))) {
+                super.encode(ctx, msg, out);
+                return;
+            }
+            int inputBytes = ((HttpContent) msg).content().readableBytes();
+            int firstOutput = out.size();
+            long start = System.nanoTime();
+            super.encode(ctx, msg, out);
+            // beginEncode() will have been called by now for full responses
+            if (encoding != null) {
+                compressionNanos += System.nanoTime() - start;
+                uncompressedBytes += inputBytes;
+                for (int i = firstOutput; i < out.size(); i++) {
+                    Object o = out.get(i);
+                    if (o instanceof HttpContent) {
+                        compressedBytes += ((HttpContent) o).content().readableBytes();
+                    }
+                }
+                if (msg instanceof LastHttpContent) {
+                    probe.onResponseCompressed(encoding, uncompressedBytes, compressedBytes, compressionNanos);
+                    encoding = null;
+                    uncompressedBytes = compressedBytes = compressionNanos = 0;
+                }
+            }
         }
 
         @Override
@@ -271,6 +310,9 @@ class PipelineFactoryImpl extends ChannelInitializer<SocketChannel> {
 
             Result result = super.beginEncode(headers, acceptEncoding);
             if (result != null) {
+                if (probe.isCompressionObserved()) {
+                    encoding = result.targetContentEncoding();
+                }
                 if (ACTEUR_DEBUG) {
                     // Ensures responses indicate if they were compressed by this compressor, even if
                     // they are received by a decoder that transparently decompresses them
@@ -0,0 +1,291 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.server;
+
+import com.google.inject.name.Named;
+import com.mastfrog.acteur.debug.Probe;
+import static com.mastfrog.acteur.server.ServerModule.BACKGROUND_THREAD_POOL_NAME;
+import static com.mastfrog.acteur.server.ServerModule.DELAY_EXECUTOR;
+import static com.mastfrog.acteur.server.ServerModule.DEFAULT_BACKPRESSURE_RECHECK_MILLIS;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_BACKPRESSURE_INFLIGHT_HIGH;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_BACKPRESSURE_INFLIGHT_LOW;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_BACKPRESSURE_QUEUE_HIGH;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_BACKPRESSURE_QUEUE_LOW;
+import static com.mastfrog.acteur.server.ServerModule.SETTINGS_KEY_BACKPRESSURE_RECHECK_MILLIS;
+import com.mastfrog.settings.Settings;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Admission control for inbound requests: when too many requests are being
+ * processed, or too many tasks are waiting in the background thread pool,
+ * connections which deliver another request have <code>autoRead</code> turned
+ * off, so further requests wait in the kernel's socket buffers and TCP flow
+ * control pushes back on clients, rather than being decoded and aggregated
+ * into memory. Reads resume on all paused connections once both numbers
+ * drop to their low watermarks - checked as each request finishes, and
+ * periodically while saturated, since the queue can drain without any
+ * request finishing.
+ * <p>
+ * Disabled unless <code>acteur.backpressure.inflight.high</code> or
+ * <code>acteur.backpressure.queue.high</code> is set.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public final class ReadBackpressure {
+
+    private static final Logger LOG = Logger.getLogger(ReadBackpressure.class.getName());
+
+    private final int inFlightHigh;
+    private final int inFlightLow;
+    private final int queueHigh;
+    private final int queueLow;
+    private final long recheckMillis;
+    private final ScheduledExecutorService scheduler;
+    private volatile ExecutorService background;
+    private final Probe probe;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Set<Channel> paused = ConcurrentHashMap.newKeySet();
+    // So a connection closed while paused is not retained until reads resume
+    private final ChannelFutureListener removeOnClose = f -> paused.remove(f.channel());
+    private final AtomicBoolean recheckScheduled = new AtomicBoolean();
+    private volatile boolean saturated;
+
+    @Inject
+    ReadBackpressure(Settings settings, @Named(BACKGROUND_THREAD_POOL_NAME) ExecutorService background,
+            @Named(DELAY_EXECUTOR) ScheduledExecutorService scheduler, Probe probe) {
+        this.inFlightHigh = Math.max(0, settings.getInt(SETTINGS_KEY_BACKPRESSURE_INFLIGHT_HIGH, 0));
+        this.inFlightLow = Math.min(inFlightHigh, settings.getInt(SETTINGS_KEY_BACKPRESSURE_INFLIGHT_LOW, inFlightHigh / 2));
+        this.queueHigh = Math.max(0, settings.getInt(SETTINGS_KEY_BACKPRESSURE_QUEUE_HIGH, 0));
+        this.queueLow = Math.min(queueHigh, settings.getInt(SETTINGS_KEY_BACKPRESSURE_QUEUE_LOW, queueHigh / 2));
+        this.recheckMillis = Math.max(1, settings.getLong(SETTINGS_KEY_BACKPRESSURE_RECHECK_MILLIS,
+                DEFAULT_BACKPRESSURE_RECHECK_MILLIS));
+        this.background = background;
+        this.scheduler = scheduler;
+        this.probe = probe;
+    }
+
+    /**
+     * Set the executor whose queue depth is compared with the queue
+     * watermarks - the one acteur chains are actually run on, if that is not
+     * the background thread pool (for example, an adaptive pool, or virtual
+     * threads, which have no queue to measure). Bounded pools pages are
+     * isolated in are deliberately not counted: they refuse work when full
+     * rather than holding up the rest of the server.
+     *
+     * @param executor The executor
+     */
+    public void setMonitoredExecutor(ExecutorService executor) {
+        this.background = executor;
+        if (queueHigh > 0 && !(executor instanceof ThreadPoolExecutor) && !(executor instanceof ForkJoinPool)) {
+            log(Level.WARNING, "{0} is set, but the queue depth of {1} cannot be measured; only in-flight "
+                    + "requests will pause reads", SETTINGS_KEY_BACKPRESSURE_QUEUE_HIGH, executor);
+        }
+    }
+
+    /**
+     * Determine if backpressure is enabled by settings.
+     *
+     * @return true if it is enabled
+     */
+    public boolean isEnabled() {
+        return inFlightHigh > 0 || queueHigh > 0;
+    }
+
+    /**
+     * The number of requests currently being processed.
+     *
+     * @return The number of requests
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    int pausedChannels() {
+        return paused.size();
+    }
+
+    /**
+     * Determine if reads are currently being paused.
+     *
+     * @return true if the high watermark has been crossed and the low one
+     * not yet reached
+     */
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    /**
+     * Create the latch which is counted down when processing of a request
+     * finishes, counting the request as in-flight until it is (or until the
+     * channel is closed, whichever comes first).
+     *
+     * @param channel The channel
+     * @return A latch
+     */
+    public CountDownLatch admit(Channel channel) {
+        if (!isEnabled()) {
+            return new CountDownLatch(1);
+        }
+        InFlightLatch result = new InFlightLatch(channel);
+        int count = inFlight.incrementAndGet();
+        if (!saturated && overHighWatermark(count)) {
+            saturated = true;
+            log(Level.INFO, "Pausing reads with {0} requests in flight and {1} queued", count, queueDepth());
+            scheduleRecheck();
+        }
+        channel.closeFuture().addListener(result);
+        return result;
+    }
+
+    /**
+     * Called after a request has been read from a channel and handed off; if
+     * the server is saturated, stops reading from that channel until it is
+     * not.
+     *
+     * @param channel The channel
+     */
+    void afterRead(Channel channel) {
+        if (saturated && channel.config().isAutoRead()) {
+            if (paused.add(channel)) {
+                channel.closeFuture().addListener(removeOnClose);
+            }
+            channel.config().setAutoRead(false);
+            // In case the last request completed while we were pausing
+            if (!saturated) {
+                resumeAll();
+            }
+        }
+    }
+
+    private void log(Level level, String msg, Object... args) {
+        probe.onInfo(msg, args);
+        LOG.log(level, msg, args);
+    }
+
+    private boolean overHighWatermark(int count) {
+        return (inFlightHigh > 0 && count >= inFlightHigh)
+                || (queueHigh > 0 && queueDepth() >= queueHigh);
+    }
+
+    private boolean underLowWatermark(int count) {
+        return (inFlightHigh <= 0 || count <= inFlightLow)
+                && (queueHigh <= 0 || queueDepth() <= queueLow);
+    }
+
+    private int queueDepth() {
+        ExecutorService background = this.background;
+        if (background instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) background).getQueue().size();
+        } else if (background instanceof ForkJoinPool) {
+            return (int) Math.min(Integer.MAX_VALUE, ((ForkJoinPool) background).getQueuedSubmissionCount());
+        }
+        return 0;
+    }
+
+    private void finished() {
+        resumeIfBelowLowWatermark(inFlight.decrementAndGet());
+    }
+
+    private void resumeIfBelowLowWatermark(int count) {
+        if (saturated && underLowWatermark(count)) {
+            saturated = false;
+            log(Level.INFO, "Resuming reads with {0} requests in flight", count);
+            resumeAll();
+        }
+    }
+
+    private void scheduleRecheck() {
+        if (recheckScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(this::recheck, recheckMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                // Shutting down
+                recheckScheduled.set(false);
+            }
+        }
+    }
+
+    private void recheck() {
+        recheckScheduled.set(false);
+        resumeIfBelowLowWatermark(inFlight.get());
+        if (saturated) {
+            scheduleRecheck();
+        }
+    }
+
+    private void resumeAll() {
+        for (Channel channel : paused) {
+            paused.remove(channel);
+            channel.closeFuture().removeListener(removeOnClose);
+            if (channel.isOpen()) {
+                channel.config().setAutoRead(true);
+            }
+        }
+    }
+
+    private final class InFlightLatch extends CountDownLatch implements ChannelFutureListener {
+
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final Channel channel;
+
+        InFlightLatch(Channel channel) {
+            super(1);
+            this.channel = channel;
+        }
+
+        @Override
+        public void countDown() {
+            super.countDown();
+            if (done.compareAndSet(false, true)) {
+                // Don't accumulate listeners on long-lived keep-alive connections
+                channel.closeFuture().removeListener(this);
+                finished();
+            }
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture f) throws Exception {
+            countDown();
+        }
+    }
+}
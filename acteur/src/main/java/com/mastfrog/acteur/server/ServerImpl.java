@@ -63,6 +63,7 @@ final class ServerImpl implements Server {
     private final ChannelInitializer<SocketChannel> pipelineFactory;
     private int port = DEFAULT_PORT;
     private final Provider<EventLoopFactory> loopFactory;
+    private final EventLoopWatchdog watchdog;
     private final String applicationName;
     private final ShutdownHookRegistry registry;
     private final Provider<ServerBootstrap> bootstrapProvider;
@@ -79,7 +80,8 @@ final class ServerImpl implements Server {
             ShutdownHookRegistry registry,
             Provider<ApplicationControl> app,
             Settings settings,
-            ServerLifecycleHook.Registry hooks) {
+            ServerLifecycleHook.Registry hooks,
+            EventLoopWatchdog watchdog) {
         this.port = settings.getInt(ServerModule.PORT, DEFAULT_PORT);
         this.pipelineFactory = pipelineFactory;
         this.loopFactory = loopFactory;
@@ -89,6 +91,7 @@ final class ServerImpl implements Server {
         this.app = app;
         this.settings = settings;
         this.hooks = hooks;
+        this.watchdog = watchdog;
     }
 
     @Override
@@ -135,7 +138,9 @@ final class ServerImpl implements Server {
                 app.get().enableDefaultCorsHandling();
             }
             afterStart.await();
-            return result.throwIfFailure(null);
+            ServerControl ctrl = result.throwIfFailure(null);
+            watchdog.start();
+            return ctrl;
         } catch (InterruptedException ex) {
             app.get().internalOnError(ex);
             afterStart.countDown();
@@ -49,6 +49,8 @@ import com.mastfrog.acteur.headers.Headers;
 import static com.mastfrog.acteur.headers.Headers.COOKIE_B;
 import static com.mastfrog.acteur.headers.Headers.X_FORWARDED_PROTO;
 import com.mastfrog.acteur.headers.Method;
+import com.mastfrog.acteur.metrics.AllocatorStats;
+import com.mastfrog.acteur.metrics.LeakCounts;
 import com.mastfrog.acteur.spi.ApplicationControl;
 import com.mastfrog.giulius.thread.ConventionalThreadSupplier;
 import com.mastfrog.giulius.thread.ThreadModule;
@@ -281,6 +283,13 @@ public class ServerModule<A extends Application> extends AbstractModule {
      * direct, pooled).
      */
     public static final String BYTEBUF_ALLOCATOR_SETTINGS_KEY = "acteur.bytebuf.allocator";
+    /**
+     * If greater than zero, log a summary of the ByteBuf allocator's state -
+     * memory used and, for pooled allocators, arena, chunk and thread cache
+     * statistics - at this interval in seconds, for tuning the
+     * <code>custom.alloc.*</code> settings. Default 0 (disabled).
+     */
+    public static final String SETTINGS_KEY_ALLOCATOR_STATS_LOG_SECONDS = "acteur.bytebuf.allocator.stats.log.seconds";
     /**
      * Property value for telling the server to use the direct byte buffer
      * allocator (non-heap).
@@ -499,6 +508,193 @@ public class ServerModule<A extends Application> extends AbstractModule {
 
     public static final boolean DEFAULT_WEBSOCKET_ENABLED = false;
 
+    /**
+     * Deadline in milliseconds for responding to a request. If it expires
+     * before a response has been produced, the chain is cancelled, the
+     * request's Closables are closed, and the client is sent a 503 if no page
+     * had begun processing the request, or a 504 if one had. Zero or less
+     * (the default) means no deadline. Individual pages can override it with
+     * the &#064;Deadline annotation.
+     */
+    public static final String SETTINGS_KEY_REQUEST_DEADLINE_MILLIS = "acteur.request.deadline.millis";
+    /**
+     * Name of a request header, such as <code>X-Request-Timeout</code>, in
+     * which clients may pass a deadline in milliseconds for their request.
+     * Unset by default, meaning no header is consulted. A deadline from a
+     * header can shorten, but never extend, the one configured for the page
+     * or server.
+     */
+    public static final String SETTINGS_KEY_REQUEST_DEADLINE_HEADER = "acteur.request.deadline.header";
+
+    /**
+     * Prefix for settings which configure the named thread pools pages can be
+     * isolated in with the &#064;Pool annotation. For a pool named
+     * <code>reports</code>, <code>acteur.pool.reports.threads</code> sets the
+     * number of threads (default 4), <code>acteur.pool.reports.queue</code>
+     * the number of chains which may wait for a thread (default 128), and
+     * <code>acteur.pool.reports.rejection</code> what happens when the queue
+     * is full: <code>reject</code> (the default) answers with a 503, and
+     * <code>shared</code> runs the work in the shared background pool instead.
+     * <code>acteur.pool.reports.pages</code> may list page class names (fully
+     * qualified or simple) to assign to the pool without annotating them.
+     */
+    public static final String SETTINGS_KEY_POOL_PREFIX = "acteur.pool.";
+    /**
+     * Comma-delimited names of pools configured in settings, so their
+     * <code>pages</code> mappings can be found; pools only referenced by
+     * &#064;Pool annotations need not be listed.
+     */
+    public static final String SETTINGS_KEY_POOLS = "acteur.pools";
+    /**
+     * Default number of threads in a named pool.
+     */
+    public static final int DEFAULT_POOL_THREADS = 4;
+    /**
+     * Default queue length for a named pool.
+     */
+    public static final int DEFAULT_POOL_QUEUE = 128;
+
+    /**
+     * If true, and the JVM supports virtual threads (JDK 21 or later), each
+     * step of an acteur chain runs on its own virtual thread, rather than on
+     * the background thread pool, so acteurs which do blocking I/O (JDBC,
+     * files) can simply block rather than using a Deferral. ReentrantScope
+     * contents, and the current Page and response, are set up on whichever
+     * thread runs each step, exactly as with the thread pool. Pages bound to
+     * a named pool via <code>&#064;Pool</code> continue to run in that pool.
+     * If virtual threads are not supported, the setting is ignored and the
+     * background pool, or the adaptive pool if enabled, is used. Default
+     * false.
+     * <p>
+     * Note that blocking inside a <code>synchronized</code> block (as some
+     * JDBC drivers do) pins the carrier thread on JDKs before 24.
+     */
+    public static final String SETTINGS_KEY_VIRTUAL_THREADS = "acteur.virtual.threads";
+    /**
+     * If true, acteur chains run in a thread pool which sizes itself between
+     * <code>acteur.adaptive.pool.min</code> and
+     * <code>acteur.adaptive.pool.max</code> threads, growing while chains
+     * wait longer than <code>acteur.adaptive.pool.target.wait.millis</code>
+     * for a thread and the CPU is not saturated, and shrinking when threads
+     * sit idle. Its decisions are reported to the Probe's
+     * <code>onInfo()</code>. Ignored, with a message to the Probe, if
+     * virtual threads are enabled and supported. Default false.
+     */
+    public static final String SETTINGS_KEY_ADAPTIVE_POOL = "acteur.adaptive.pool";
+    /**
+     * Minimum threads in the adaptive pool; defaults to the number of
+     * processors.
+     */
+    public static final String SETTINGS_KEY_ADAPTIVE_POOL_MIN = "acteur.adaptive.pool.min";
+    /**
+     * Maximum threads in the adaptive pool; defaults to sixteen times the
+     * number of processors.
+     */
+    public static final String SETTINGS_KEY_ADAPTIVE_POOL_MAX = "acteur.adaptive.pool.max";
+    /**
+     * Average time in milliseconds chains may wait for an adaptive pool
+     * thread before it grows. Default 10.
+     */
+    public static final String SETTINGS_KEY_ADAPTIVE_POOL_TARGET_WAIT_MILLIS = "acteur.adaptive.pool.target.wait.millis";
+    /**
+     * System CPU utilization, as a percentage, above which the adaptive pool
+     * will not grow, since more threads would only contend. Default 90.
+     */
+    public static final String SETTINGS_KEY_ADAPTIVE_POOL_MAX_CPU_PERCENT = "acteur.adaptive.pool.max.cpu.percent";
+    /**
+     * How often, in milliseconds, the adaptive pool re-evaluates its size.
+     * Default 1000.
+     */
+    public static final String SETTINGS_KEY_ADAPTIVE_POOL_INTERVAL_MILLIS = "acteur.adaptive.pool.interval.millis";
+
+    /**
+     * Record a timeline (see RequestTimeline) for one in every <i>n</i> HTTP
+     * requests, where <i>n</i> is the value of this setting; the most recent
+     * are kept in a ring buffer, along with the slowest seen, and can be
+     * viewed by adding TimelinePage to the application. Zero or less (the
+     * default) disables timelines.
+     */
+    public static final String SETTINGS_KEY_TIMELINE_SAMPLE = "acteur.timeline.sample";
+    /**
+     * Number of recent request timelines to keep, if timelines are enabled.
+     */
+    public static final String SETTINGS_KEY_TIMELINE_RING_SIZE = "acteur.timeline.ring.size";
+    /**
+     * Default number of recent request timelines to keep.
+     */
+    public static final int DEFAULT_TIMELINE_RING_SIZE = 256;
+    /**
+     * Number of slowest request timelines to keep, if timelines are enabled.
+     */
+    public static final String SETTINGS_KEY_TIMELINE_SLOWEST = "acteur.timeline.slowest";
+    /**
+     * Default number of slowest request timelines to keep.
+     */
+    public static final int DEFAULT_TIMELINE_SLOWEST = 16;
+    /**
+     * If true, and a timeline is being recorded for a request, add a
+     * <code>Server-Timing</code> header summarizing it to the response.
+     * Default false.
+     */
+    public static final String SETTINGS_KEY_SERVER_TIMING = "acteur.server.timing";
+    /**
+     * If true, the <code>Server-Timing</code> header added when
+     * SETTINGS_KEY_SERVER_TIMING is set describes each acteur's entry with
+     * its class name. Since that reveals application internals to clients,
+     * the default is false.
+     */
+    public static final String SETTINGS_KEY_SERVER_TIMING_DESCRIPTIONS = "acteur.server.timing.descriptions";
+    /**
+     * If greater than zero, start a watchdog which periodically schedules a
+     * trivial task on every event loop, and reports any loop which has not
+     * run it within this many milliseconds to the Probe, with a stack trace
+     * of the loop thread. Default 0 (disabled).
+     */
+    public static final String SETTINGS_KEY_EVENT_LOOP_WATCHDOG_THRESHOLD_MILLIS = "acteur.eventloop.watchdog.threshold.millis";
+    /**
+     * How often, in milliseconds, the event loop watchdog checks each loop,
+     * if it is enabled. Defaults to one quarter of the threshold, with a
+     * minimum of 10.
+     */
+    public static final String SETTINGS_KEY_EVENT_LOOP_WATCHDOG_INTERVAL_MILLIS = "acteur.eventloop.watchdog.interval.millis";
+    /**
+     * If greater than zero, once this many HTTP requests are being processed
+     * at once, stop reading from connections which send further requests
+     * (turning off <code>autoRead</code>) until the number drops to the low
+     * watermark, so overload is pushed back onto TCP rather than buffered in
+     * memory. Only connections whose requests are aggregated are paused.
+     * Default 0 (disabled).
+     */
+    public static final String SETTINGS_KEY_BACKPRESSURE_INFLIGHT_HIGH = "acteur.backpressure.inflight.high";
+    /**
+     * The number of in-flight requests below which reads are resumed, if
+     * in-flight backpressure is enabled. Defaults to half the high watermark.
+     */
+    public static final String SETTINGS_KEY_BACKPRESSURE_INFLIGHT_LOW = "acteur.backpressure.inflight.low";
+    /**
+     * If greater than zero, stop reading from connections while more than
+     * this many tasks are waiting in the queue of the thread pool acteur
+     * chains run on (the background pool, or the adaptive pool if enabled).
+     * Only effective if that pool exposes its queue (a ThreadPoolExecutor or
+     * ForkJoinPool), so not with virtual threads. Default 0 (disabled).
+     */
+    public static final String SETTINGS_KEY_BACKPRESSURE_QUEUE_HIGH = "acteur.backpressure.queue.high";
+    /**
+     * The background pool queue depth below which reads are resumed, if queue
+     * backpressure is enabled. Defaults to half the high watermark.
+     */
+    public static final String SETTINGS_KEY_BACKPRESSURE_QUEUE_LOW = "acteur.backpressure.queue.low";
+    /**
+     * How often, in milliseconds, to re-check the watermarks while reads are
+     * paused, so that reads resume once the thread pool's queue drains even
+     * if no request finishes in the meantime. Default 100.
+     */
+    public static final String SETTINGS_KEY_BACKPRESSURE_RECHECK_MILLIS = "acteur.backpressure.recheck.millis";
+    /**
+     * Default for SETTINGS_KEY_BACKPRESSURE_RECHECK_MILLIS.
+     */
+    public static final long DEFAULT_BACKPRESSURE_RECHECK_MILLIS = 100;
+
     /**
      * Fine tuning for using customized pooled byte buf allocator. Only relevant
      * if you set BYTEBUF_ALLOCATOR_SETTINGS_KEY=CUSTOMIZED_POOLED_ALLOCATOR in
@@ -637,6 +833,9 @@ public class ServerModule<A extends Application> extends AbstractModule {
         if (!Application.class.isAssignableFrom(appType)) {
             throw new ClassCastException(appType.getName() + " is not a subclass of " + Application.class.getName());
         }
+        // Must happen before any ByteBuf class is initialized to be able to
+        // count leaks
+        LeakCounts.install();
         this.appType = appType;
         this.workerThreads = workerThreadCount;
         this.eventThreads = eventThreadCount;
@@ -746,6 +945,7 @@ public class ServerModule<A extends Application> extends AbstractModule {
         }
         bind(Charset.class).toProvider(CharsetProvider.class);
         bind(ByteBufAllocator.class).toProvider(ByteBufAllocatorProvider.class);
+        bind(AllocatorStats.class).asEagerSingleton();
         bind(new ETL()).toProvider(EventProvider.class).in(scope);
         bind(Codec.class).to(CodecImpl.class);
         bind(ApplicationControl.class).toProvider(ApplicationControlProvider.class).in(Scopes.SINGLETON);
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.server;
+
+import com.google.inject.Singleton;
+import com.mastfrog.acteur.ContentConverter;
+import com.mastfrog.acteur.DispatchedResponse;
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.spi.ApplicationControl;
+import com.mastfrog.util.preconditions.Checks;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpRequest;
+import java.util.concurrent.CompletableFuture;
+import javax.inject.Inject;
+
+/**
+ * Dispatches requests through the application in-process, with no socket
+ * involved and nothing encoded or decoded - the response comes back as the
+ * unencoded message and headers the acteurs set. Useful for composing
+ * responses out of other endpoints of the same application, and used by
+ * {@link BatchPage}.
+ * <p>
+ * When dispatched on behalf of a parent request, the sub-request shares the
+ * parent's channel (nothing is written to it), remote address and SSL status,
+ * and is cancelled if the parent's connection is closed. Since the chain runs
+ * in the request scope, objects in the parent's scope which the sub-request's
+ * own context does not shadow remain visible to its acteurs.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public final class SubRequests {
+
+    private final ApplicationControl application;
+    private final PathFactory paths;
+    private final ContentConverter converter;
+
+    @Inject
+    SubRequests(ApplicationControl application, PathFactory paths, ContentConverter converter) {
+        this.application = application;
+        this.paths = paths;
+        this.converter = converter;
+    }
+
+    /**
+     * Dispatch a request on behalf of some request currently being processed.
+     * If the request has a body, it should be a
+     * <code>FullHttpRequest</code>.
+     *
+     * @param request The request
+     * @param parent The request being processed
+     * @return A future
+     */
+    public CompletableFuture<DispatchedResponse> dispatch(HttpRequest request, HttpEvent parent) {
+        Checks.notNull("request", request);
+        Checks.notNull("parent", parent);
+        EventImpl evt = new EventImpl(request, parent.remoteAddress(), parent.ctx(),
+                paths, converter, parent.isSsl());
+        return application.dispatch(evt);
+    }
+
+    /**
+     * Dispatch a request which is not associated with any inbound connection,
+     * such as from a background task or a test.
+     *
+     * @param request The request
+     * @return A future
+     */
+    public CompletableFuture<DispatchedResponse> dispatch(HttpRequest request) {
+        Checks.notNull("request", request);
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        EventImpl evt = new EventImpl(request, channel.remoteAddress(), ctx,
+                paths, converter, false);
+        CompletableFuture<DispatchedResponse> result = application.dispatch(evt);
+        result.whenComplete((ignored, thrown) -> channel.close());
+        return result;
+    }
+}
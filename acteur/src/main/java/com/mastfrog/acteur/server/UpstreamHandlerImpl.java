@@ -33,6 +33,7 @@ import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import static io.netty.handler.codec.http.HttpResponseStatus.CONTINUE;
@@ -66,10 +67,13 @@ final class UpstreamHandlerImpl extends ChannelInboundHandlerAdapter {
     private final boolean decodeRealIP;
     private final ContentConverter converter;
     private final boolean ssl;
+    private final ReadBackpressure backpressure;
 
     @Inject
-    UpstreamHandlerImpl(ApplicationControl application, PathFactory paths, Codec mapper, Settings settings, ContentConverter converter) {
+    UpstreamHandlerImpl(ApplicationControl application, PathFactory paths, Codec mapper, Settings settings, ContentConverter converter,
+            ReadBackpressure backpressure) {
         this.application = application;
+        this.backpressure = backpressure;
         this.paths = paths;
         this.mapper = mapper;
         this.converter = converter;
@@ -104,6 +108,11 @@ final class UpstreamHandlerImpl extends ChannelInboundHandlerAdapter {
         }
         evt.setNeverKeepAlive(neverKeepAlive);
         application.onEvent(evt, ctx.channel());
+        // Only pause once the body has been aggregated - otherwise we would
+        // stop reading content the request we just admitted is waiting for
+        if (backpressure.isEnabled() && request instanceof FullHttpRequest) {
+            backpressure.afterRead(ctx.channel());
+        }
     }
 
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
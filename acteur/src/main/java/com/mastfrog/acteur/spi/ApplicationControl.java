@@ -23,12 +23,15 @@
  */
 package com.mastfrog.acteur.spi;
 
+import com.mastfrog.acteur.DispatchedResponse;
 import com.mastfrog.acteur.Event;
+import com.mastfrog.acteur.HttpEvent;
 import com.mastfrog.acteur.errors.ResponseException;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CountDownLatch;
@@ -47,6 +50,20 @@ public interface ApplicationControl {
 
     void internalOnError(Throwable err);
 
+    /**
+     * Run an event through the application in-process, as if it had arrived
+     * over the event's channel, but without anything being written to that
+     * channel - the merged response is returned unencoded instead.  The
+     * returned future is cancelled if the channel is closed before the
+     * response is complete.  Use <code>SubRequests</code> to create a
+     * suitable event from an <code>HttpRequest</code>.
+     *
+     * @param event A synthetic event
+     * @return A future which will be completed with the response
+     * @since 2.5.0
+     */
+    CompletableFuture<DispatchedResponse> dispatch(HttpEvent event);
+
     default void logErrors(CompletionStage<?> stage) {
         stage.whenComplete((ignored, thrown) -> {
             if (thrown != null) {
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.mastfrog.acteur.debug.Probe;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class AdaptivePoolTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final InfoProbe probe = new InfoProbe();
+    private AdaptivePool pool;
+
+    @Before
+    public void setUp() {
+        pool = new AdaptivePool(probe, 2, 8, 10, 90, null, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testGrowsWithHysteresisAndShrinks() throws Exception {
+        int tasks = 7;
+        CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            pool.execute(() -> {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    // done
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertEquals("Should not grow on the first saturated evaluation", 2, pool.evaluate(0.1));
+        assertEquals(3, pool.evaluate(0.1));
+        assertEquals(3, pool.getCorePoolSize());
+        assertEquals(3, pool.getMaximumPoolSize());
+
+        assertEquals("Should not grow when the cpu is saturated", 3, pool.evaluate(0.95));
+        assertEquals(3, pool.evaluate(0.95));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        while (pool.getActiveCount() > 0) {
+            Thread.sleep(10);
+        }
+        // Discard the waits of the tasks which queued while blocked
+        assertEquals(3, pool.evaluate(0.95));
+        for (int i = 1; i < AdaptivePool.SHRINK_AFTER; i++) {
+            assertEquals(3, pool.evaluate(0.1));
+        }
+        assertEquals(2, pool.evaluate(0.1));
+        for (int i = 0; i < AdaptivePool.SHRINK_AFTER * 2; i++) {
+            assertEquals("Should never shrink below the minimum", 2, pool.evaluate(0.1));
+        }
+        assertTrue(probe.infos.toString(), probe.infos.size() >= 2);
+    }
+
+    static final class InfoProbe implements Probe {
+
+        final List<String> infos = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onInfo(String info, Object... objs) {
+            infos.add(info);
+        }
+    }
+}
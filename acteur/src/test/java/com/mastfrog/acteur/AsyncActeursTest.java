@@ -132,6 +132,33 @@ public class AsyncActeursTest {
         CallResult res = harn.get("/p7").addQueryPair("fail", "true").setTimeout(TIMEOUT).go().await();
         res.assertStatus(PAYMENT_REQUIRED);
         res.assertContent("Hey");
+
+        Thing t8 = get("/p8").assertStatus(OK).content(Thing.class);
+        assertEquals(Thing.last("p8a1"), t8);
+
+        Thing t8done = harn.get("/p8").addQueryPair("done", "true").setTimeout(TIMEOUT).go()
+                .await().assertStatus(OK).content(Thing.class);
+        assertEquals(Thing.last("p8a1"), t8done);
+
+        harn.get("/p8").addQueryPair("fail", "true").setTimeout(TIMEOUT).go().await()
+                .assertStatus(PAYMENT_REQUIRED).assertContent("Hoo");
+
+        harn.get("/p8").addQueryPair("fail", "true").addQueryPair("done", "true")
+                .setTimeout(TIMEOUT).go().await()
+                .assertStatus(PAYMENT_REQUIRED).assertContent("Hoo");
+
+        Map<String, Object> m9 = get("/p9").assertStatus(OK).content(StringObjectMap.class);
+        assertEquals("p9a1", m9.get("txt"));
+        assertTrue(m9.get("thing") instanceof Map<?, ?>);
+        assertEquals("p9a2", ((Map<?, ?>) m9.get("thing")).get("name"));
+
+        // A failing member of a concurrent group fails the request without
+        // having inserted anything into the chain
+        harn.get("/p9").addQueryPair("fail", "later").setTimeout(TIMEOUT).go().await()
+                .assertStatus(PAYMENT_REQUIRED).assertContent("p9later");
+
+        harn.get("/p9").addQueryPair("fail", "now").setTimeout(TIMEOUT).go().await()
+                .assertStatus(PAYMENT_REQUIRED).assertContent("p9now");
     }
 
     static class ErrorMessage {
@@ -167,7 +194,7 @@ public class AsyncActeursTest {
     static class AATApp extends Application {
 
         AATApp() {
-            super(P1.class, P2.class, P3.class, P4.class, P5.class, P6.class, P7.class);
+            super(P1.class, P2.class, P3.class, P4.class, P5.class, P6.class, P7.class, P8.class, P9.class);
         }
     }
 
@@ -339,6 +366,108 @@ public class AsyncActeursTest {
         }
     }
 
+    @Methods(GET)
+    @Path("/p8")
+    static class P8 extends Page {
+
+        P8() {
+            add(P8A1.class);
+            add(P8A2.class);
+        }
+
+        static class P8A1 extends AsyncActeur<Thing> {
+
+            private final ExecutorService svc;
+            private final boolean fail;
+            private final boolean done;
+
+            @Inject
+            P8A1(HttpEvent evt, ExecutorService svc) {
+                this.svc = svc;
+                fail = evt.urlParameter("fail") != null;
+                done = evt.urlParameter("done") != null;
+            }
+
+            @Override
+            protected CompletableFuture<Thing> compute() throws Exception {
+                if (done) {
+                    CompletableFuture<Thing> result = new CompletableFuture<>();
+                    if (fail) {
+                        result.completeExceptionally(new FooException("Hoo"));
+                    } else {
+                        result.complete(Thing.of("p8a1"));
+                    }
+                    return result;
+                }
+                return CompletableFuture.supplyAsync(() -> {
+                    if (fail) {
+                        throw new FooException("Hoo");
+                    }
+                    return Thing.of("p8a1");
+                }, svc);
+            }
+        }
+
+        static class P8A2 extends Acteur {
+
+            @Inject
+            P8A2(Thing thing) {
+                reply(OK, thing);
+            }
+        }
+    }
+
+    @Methods(GET)
+    @Path("/p9")
+    static class P9 extends Page {
+
+        P9() {
+            addConcurrently(P9A1.class, P9A2.class);
+            add(P9A3.class);
+        }
+
+        static class P9A1 extends Acteur {
+
+            P9A1() {
+                next(new StringBuilder("p9a1"));
+            }
+        }
+
+        static class P9A2 extends AsyncActeur<Thing> {
+
+            private final ExecutorService svc;
+            private final String fail;
+
+            @Inject
+            P9A2(HttpEvent evt, ExecutorService svc) {
+                this.svc = svc;
+                fail = evt.urlParameter("fail");
+            }
+
+            @Override
+            protected CompletableFuture<Thing> compute() throws Exception {
+                if ("now".equals(fail)) {
+                    CompletableFuture<Thing> result = new CompletableFuture<>();
+                    result.completeExceptionally(new FooException("p9now"));
+                    return result;
+                } else if (fail != null) {
+                    return CompletableFuture.supplyAsync(() -> {
+                        throw new FooException("p9later");
+                    }, svc);
+                }
+                return CompletableFuture.supplyAsync(() -> Thing.of("p9a2"), svc);
+            }
+        }
+
+        static class P9A3 extends Acteur {
+
+            @Inject
+            P9A3(StringBuilder sb, Thing thing) {
+                reply(OK, map("txt").to(sb.toString()).map("thing").to(thing).build());
+            }
+        }
+    }
+
     static class FooException extends RuntimeException {
 
         FooException(String msg) {
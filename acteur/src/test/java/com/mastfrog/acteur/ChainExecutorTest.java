@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.mastfrog.acteur.debug.Probe;
+import com.mastfrog.acteur.server.ServerModule;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.settings.Settings;
+import com.mastfrog.settings.SettingsBuilder;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the choice of executor for chains, with a platform thread pool
+ * standing in for virtual threads so it runs on any JDK.
+ *
+ * @author Tim Boudreau
+ */
+public class ChainExecutorTest {
+
+    private final ExecutorService background = Executors.newSingleThreadExecutor();
+    private final ExecutorService virtual = Executors.newCachedThreadPool();
+    private final Hooks hooks = new Hooks();
+    private final InfoProbe probe = new InfoProbe();
+
+    @After
+    public void tearDown() {
+        hooks.close();
+        background.shutdownNow();
+        virtual.shutdownNow();
+    }
+
+    private ExecutorService chainExecutor(boolean virtualThreadsSupported, String... settings) {
+        SettingsBuilder sb = new SettingsBuilder();
+        for (String key : settings) {
+            sb.add(key, "true");
+        }
+        Settings s = sb.build();
+        return PagesImpl2.chainExecutor(s, background, probe, hooks, null,
+                virtualThreadsSupported ? () -> virtual : null);
+    }
+
+    @Test
+    public void testBackgroundPoolByDefault() {
+        assertSame(background, chainExecutor(true));
+        assertTrue(probe.infos.toString(), probe.infos.isEmpty());
+    }
+
+    @Test
+    public void testVirtualThreads() {
+        assertSame(virtual, chainExecutor(true, ServerModule.SETTINGS_KEY_VIRTUAL_THREADS));
+        assertTrue(probe.infos.toString(), probe.infos.isEmpty());
+    }
+
+    @Test
+    public void testFallsBackToBackgroundPoolIfUnsupported() {
+        assertSame(background, chainExecutor(false, ServerModule.SETTINGS_KEY_VIRTUAL_THREADS));
+        assertEquals(probe.infos.toString(), 1, probe.infos.size());
+        assertTrue(probe.infos.get(0), probe.infos.get(0).contains("background"));
+    }
+
+    @Test
+    public void testFallsBackToAdaptivePoolIfUnsupported() {
+        ExecutorService result = chainExecutor(false, ServerModule.SETTINGS_KEY_VIRTUAL_THREADS,
+                ServerModule.SETTINGS_KEY_ADAPTIVE_POOL);
+        assertTrue(String.valueOf(result), result instanceof AdaptivePool);
+        assertEquals(probe.infos.toString(), 1, probe.infos.size());
+        assertTrue(probe.infos.get(0), probe.infos.get(0).contains("adaptive"));
+    }
+
+    @Test
+    public void testAdaptivePoolIgnoredWithVirtualThreads() {
+        assertSame(virtual, chainExecutor(true, ServerModule.SETTINGS_KEY_VIRTUAL_THREADS,
+                ServerModule.SETTINGS_KEY_ADAPTIVE_POOL));
+        assertEquals(probe.infos.toString(), 1, probe.infos.size());
+        assertTrue(probe.infos.get(0), probe.infos.get(0).contains(ServerModule.SETTINGS_KEY_ADAPTIVE_POOL + " is ignored"));
+    }
+
+    static final class InfoProbe implements Probe {
+
+        final List<String> infos = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onInfo(String info, Object... objs) {
+            infos.add(MessageFormat.format(info, objs));
+        }
+    }
+
+    static final class Hooks extends ShutdownHookRegistry implements AutoCloseable {
+
+        @Override
+        public void close() {
+            runShutdownHooks();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import static com.mastfrog.acteur.headers.Method.GET;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.acteur.preconditions.Path;
+import com.mastfrog.acteur.server.ServerModule;
+import com.mastfrog.acteurbase.Deferral.Resumer;
+import com.mastfrog.giulius.annotations.Defaults;
+import com.mastfrog.giulius.scope.ReentrantScope;
+import com.mastfrog.giulius.tests.GuiceRunner;
+import com.mastfrog.giulius.tests.TestWith;
+import com.mastfrog.netty.http.test.harness.TestHarness;
+import com.mastfrog.netty.http.test.harness.TestHarnessModule;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import java.time.Duration;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that each acteur sees its own page as the current one, whichever
+ * thread runs it - after a deferral resumes on another thread, and after
+ * another page rejected the request. Runs with virtual threads enabled, so on
+ * JDK 21 and up each step runs on a new virtual thread; on older JDKs the
+ * setting falls back to the background pool.
+ *
+ * @author Tim Boudreau
+ */
+@RunWith(GuiceRunner.class)
+@TestWith({TestHarnessModule.class, CurrentPageTest.Module.class, SilentRequestLogger.class})
+@Defaults(ServerModule.SETTINGS_KEY_VIRTUAL_THREADS + "=true")
+public class CurrentPageTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Test(timeout = 60000)
+    public void testCurrentPageOnEachThread(TestHarness harn) throws Throwable {
+        for (int i = 0; i < 10; i++) {
+            harn.get("/page").setTimeout(TIMEOUT).go().await().assertStatus(OK).assertContent("AnsweringPage");
+        }
+    }
+
+    static class CurrentPageApp extends Application {
+
+        CurrentPageApp() {
+            super(RejectingPage.class, AnsweringPage.class);
+        }
+    }
+
+    static void checkCurrentPage(Class<? extends Page> expected) {
+        Page page = Page.get();
+        if (page == null || page.getClass() != expected) {
+            throw new AssertionError("Expected " + expected.getSimpleName() + " on "
+                    + Thread.currentThread() + " but was " + page);
+        }
+    }
+
+    @Methods(GET)
+    @Path("/page")
+    static class RejectingPage extends Page {
+
+        RejectingPage() {
+            add(RejectingActeur.class);
+        }
+    }
+
+    static class RejectingActeur extends Acteur {
+
+        RejectingActeur() {
+            checkCurrentPage(RejectingPage.class);
+            reject();
+        }
+    }
+
+    @Methods(GET)
+    @Path("/page")
+    static class AnsweringPage extends Page {
+
+        AnsweringPage() {
+            add(DeferringActeur.class);
+            add(AnsweringActeur.class);
+        }
+    }
+
+    static class DeferringActeur extends Acteur {
+
+        DeferringActeur() {
+            checkCurrentPage(AnsweringPage.class);
+            // Resume from some other thread
+            then((Resumer r) -> {
+                ForkJoinPool.commonPool().execute(() -> r.resume());
+            });
+        }
+    }
+
+    static class AnsweringActeur extends Acteur {
+
+        AnsweringActeur() {
+            checkCurrentPage(AnsweringPage.class);
+            ok(Page.get().getClass().getSimpleName());
+        }
+    }
+
+    static class Module extends ServerModule<CurrentPageApp> {
+
+        public Module() {
+            super(new ReentrantScope(), CurrentPageApp.class, 4, 2, 2);
+        }
+    }
+}
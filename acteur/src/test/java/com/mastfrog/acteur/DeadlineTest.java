@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.google.inject.Inject;
+import com.mastfrog.acteur.headers.HeaderValueType;
+import com.mastfrog.acteur.headers.Headers;
+import static com.mastfrog.acteur.headers.Method.GET;
+import com.mastfrog.acteur.preconditions.Deadline;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.acteur.preconditions.Path;
+import com.mastfrog.acteur.server.ServerModule;
+import com.mastfrog.giulius.annotations.Defaults;
+import com.mastfrog.giulius.scope.ReentrantScope;
+import com.mastfrog.giulius.tests.GuiceRunner;
+import com.mastfrog.giulius.tests.TestWith;
+import com.mastfrog.netty.http.test.harness.TestHarness;
+import com.mastfrog.netty.http.test.harness.TestHarnessModule;
+import static io.netty.handler.codec.http.HttpResponseStatus.GATEWAY_TIMEOUT;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import io.netty.util.AsciiString;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+@RunWith(GuiceRunner.class)
+@TestWith({TestHarnessModule.class, DeadlineTest.Module.class, SilentRequestLogger.class})
+@Defaults("acteur.request.deadline.header=X-Request-Timeout")
+public class DeadlineTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final HeaderValueType<CharSequence> X_REQUEST_TIMEOUT
+            = Headers.header(new AsciiString("X-Request-Timeout"));
+    static volatile CompletableFuture<String> lastFuture;
+
+    @Test(timeout = 60000)
+    public void testDeadlines(TestHarness harn) throws Throwable {
+        harn.get("/fast").setTimeout(TIMEOUT).go().await().assertStatus(OK).assertContent("fast");
+
+        harn.get("/slow").setTimeout(TIMEOUT).go().await().assertStatus(GATEWAY_TIMEOUT);
+        assertNotNull(lastFuture);
+        assertTrue("Pending work not cancelled", lastFuture.isCancelled());
+        lastFuture = null;
+
+        harn.get("/hang").addHeader(X_REQUEST_TIMEOUT, "200").setTimeout(TIMEOUT).go()
+                .await().assertStatus(GATEWAY_TIMEOUT);
+        assertNotNull(lastFuture);
+        assertTrue("Pending work not cancelled", lastFuture.isCancelled());
+    }
+
+    @Test(timeout = 60000)
+    public void testDeadlineOfRejectingPageDoesNotApplyToNext(TestHarness harn) throws Throwable {
+        // ShortDeadlinePage's 200ms deadline must not carry over to the page
+        // which actually handles the request, which has none
+        harn.get("/handoff").setTimeout(TIMEOUT).go().await().assertStatus(OK);
+    }
+
+    static class DeadlineApp extends Application {
+
+        DeadlineApp() {
+            super(FastPage.class, SlowPage.class, HangPage.class, ShortDeadlinePage.class, NoDeadlinePage.class);
+        }
+    }
+
+    @Methods(GET)
+    @Path("/fast")
+    @Deadline(5000)
+    static class FastPage extends Page {
+
+        FastPage() {
+            add(FastActeur.class);
+        }
+    }
+
+    static class FastActeur extends Acteur {
+
+        FastActeur() {
+            ok("fast");
+        }
+    }
+
+    @Methods(GET)
+    @Path("/slow")
+    @Deadline(300)
+    static class SlowPage extends Page {
+
+        SlowPage() {
+            add(NeverActeur.class);
+        }
+    }
+
+    @Methods(GET)
+    @Path("/hang")
+    static class HangPage extends Page {
+
+        HangPage() {
+            add(NeverActeur.class);
+        }
+    }
+
+    @Methods(GET)
+    @Path("/handoff")
+    @Deadline(200)
+    static class ShortDeadlinePage extends Page {
+
+        ShortDeadlinePage() {
+            add(RejectingActeur.class);
+        }
+    }
+
+    static class RejectingActeur extends Acteur {
+
+        RejectingActeur() {
+            reject();
+        }
+    }
+
+    @Methods(GET)
+    @Path("/handoff")
+    static class NoDeadlinePage extends Page {
+
+        NoDeadlinePage() {
+            add(DelayedActeur.class);
+        }
+    }
+
+    static class DelayedActeur extends Acteur {
+
+        DelayedActeur() {
+            then(CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(600);
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                return "delayed";
+            }));
+        }
+    }
+
+    static class NeverActeur extends Acteur {
+
+        @Inject
+        NeverActeur() {
+            CompletableFuture<String> never = new CompletableFuture<>();
+            lastFuture = never;
+            then(never);
+        }
+    }
+
+    static class Module extends ServerModule<DeadlineApp> {
+
+        public Module() {
+            super(new ReentrantScope(), DeadlineApp.class, 4, 2, 2);
+        }
+    }
+}
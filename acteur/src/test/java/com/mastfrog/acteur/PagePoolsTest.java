@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur;
+
+import com.mastfrog.acteur.debug.Probe;
+import com.mastfrog.acteur.headers.Method;
+import com.mastfrog.acteur.preconditions.Pool;
+import com.mastfrog.giulius.Dependencies;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.settings.SettingsBuilder;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class PagePoolsTest {
+
+    private Dependencies deps;
+    private ExecutorService shared;
+    private final CountingProbe probe = new CountingProbe();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        deps = new Dependencies();
+        shared = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        shared.shutdownNow();
+        deps.shutdown();
+    }
+
+    private PagePools pools(SettingsBuilder sb) throws Exception {
+        return new PagePools(sb.build(), probe, shared, deps.getInstance(ShutdownHookRegistry.class));
+    }
+
+    @Test
+    public void testPoolAssignment() throws Exception {
+        PagePools pools = pools(new SettingsBuilder()
+                .add("acteur.pools", "mapped")
+                .add("acteur.pool.mapped.pages", "MappedPage"));
+        ExecutorService a = pools.executorFor(new AnnotatedPage());
+        assertNotNull(a);
+        assertSame(a, pools.executorFor(new AnnotatedPage()));
+        assertSame(a, pools.executorFor(new OtherAnnotatedPage()));
+        ExecutorService m = pools.executorFor(new MappedPage());
+        assertNotNull(m);
+        assertTrue(a != m);
+        assertNull(pools.executorFor(new PlainPage()));
+    }
+
+    @Test
+    public void testRejection() throws Exception {
+        PagePools pools = pools(new SettingsBuilder()
+                .add("acteur.pool.slow.threads", 1)
+                .add("acteur.pool.slow.queue", 1));
+        ExecutorService exe = pools.executorFor(new AnnotatedPage());
+        exe.submit(this::block);
+        exe.submit(this::block);
+        try {
+            exe.submit(this::block);
+            fail("Third task should have been rejected");
+        } catch (RejectedExecutionException ex) {
+            // ok
+        }
+        assertEquals(1, probe.rejected.get());
+        assertEquals("Rejected task reported as queued", 2, probe.queued.get());
+        assertEquals(0, probe.spilled.get());
+        release.countDown();
+        exe.submit(() -> null).get(10, TimeUnit.SECONDS);
+        assertTrue(probe.started.get() >= 3);
+    }
+
+    @Test
+    public void testRunShared() throws Exception {
+        PagePools pools = pools(new SettingsBuilder()
+                .add("acteur.pool.slow.threads", 1)
+                .add("acteur.pool.slow.queue", 1)
+                .add("acteur.pool.slow.rejection", "shared"));
+        ExecutorService exe = pools.executorFor(new AnnotatedPage());
+        exe.submit(this::block);
+        exe.submit(this::block);
+        CountDownLatch ranShared = new CountDownLatch(1);
+        exe.submit(ranShared::countDown);
+        assertTrue(ranShared.await(10, TimeUnit.SECONDS));
+        assertEquals(1, probe.rejected.get());
+        assertEquals(1, probe.spilled.get());
+        assertEquals("Task run on the shared pool reported as queued", 2, probe.queued.get());
+    }
+
+    @Test
+    public void testMatchingActeurCount() {
+        Acteur path = new ActeurFactory.ExactMatchPath(null, "/foo", false);
+        Acteur methods = new ActeurFactory.MatchMethods(null, false, UTF_8, Method.GET, Method.HEAD);
+        assertEquals(0, PagePools.matchingActeurCount(Arrays.asList(OtherActeur.class, path)));
+        assertEquals(2, PagePools.matchingActeurCount(Arrays.asList(path, methods, OtherActeur.class, path)));
+        // Default CORS handling is skipped over when the page adds its own
+        // matchers after it, but not moved past if it is the last thing
+        assertEquals(3, PagePools.matchingActeurCount(Arrays.asList(methods, CORSResource.CorsHeaders.class, path, OtherActeur.class)));
+        assertEquals(1, PagePools.matchingActeurCount(Arrays.asList(methods, CORSResource.CorsHeaders.class, OtherActeur.class)));
+    }
+
+    private Void block() throws InterruptedException {
+        release.await(10, TimeUnit.SECONDS);
+        return null;
+    }
+
+    @Pool("slow")
+    static class AnnotatedPage extends Page {
+    }
+
+    @Pool("slow")
+    static class OtherAnnotatedPage extends Page {
+    }
+
+    static class MappedPage extends Page {
+    }
+
+    static class PlainPage extends Page {
+    }
+
+    static class OtherActeur extends Acteur {
+    }
+
+    static class CountingProbe implements Probe {
+
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicInteger spilled = new AtomicInteger();
+
+        @Override
+        public void onPoolTaskQueued(String pool, int queueDepth) {
+            queued.incrementAndGet();
+        }
+
+        @Override
+        public void onPoolTaskSpilled(String pool) {
+            spilled.incrementAndGet();
+        }
+
+        @Override
+        public void onPoolTaskStarted(String pool, long waitNanos, int queueDepth) {
+            started.incrementAndGet();
+        }
+
+        @Override
+        public void onPoolTaskRejected(String pool, int queueDepth) {
+            rejected.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.debug;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Singleton;
+import com.mastfrog.acteur.Event;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.util.RequestID;
+import com.mastfrog.giulius.Dependencies;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class CompositeProbeTest {
+
+    @Test
+    public void testModulesAddingProbesCombine() {
+        Dependencies deps = new Dependencies(new FirstModule(), new SecondModule());
+        try {
+            Probe probe = deps.getInstance(Probe.class);
+            assertTrue(String.valueOf(probe), probe instanceof CompositeProbe);
+            assertSame(probe, deps.getInstance(Probe.class));
+            FirstProbe first = deps.getInstance(FirstProbe.class);
+            SecondProbe second = deps.getInstance(SecondProbe.class);
+
+            RequestID id = new RequestID.Factory().next();
+            probe.onBeforeProcessRequest(id, null);
+            probe.onResponseSent(id, null, null, OK, 10);
+            probe.onInfo("hello {0}", "world");
+            assertEquals("[request, sent 10, hello]", first.calls.toString());
+            assertEquals(first.calls, second.calls);
+
+            assertFalse(probe.isCompressionObserved());
+            second.observeCompression = true;
+            assertTrue(probe.isCompressionObserved());
+            probe.onResponseCompressed("gzip", 100, 10, 1000);
+            assertFalse(first.calls.toString(), first.calls.contains("compressed gzip"));
+            assertTrue(second.calls.toString(), second.calls.contains("compressed gzip"));
+        } finally {
+            deps.shutdown();
+        }
+    }
+
+    static class FirstModule extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            CompositeProbe.add(binder(), FirstProbe.class);
+        }
+    }
+
+    static class SecondModule extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            CompositeProbe.add(binder(), SecondProbe.class);
+        }
+    }
+
+    @Singleton
+    static class FirstProbe implements Probe {
+
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        volatile boolean observeCompression;
+
+        @Override
+        public void onBeforeProcessRequest(RequestID id, Event<?> req) {
+            calls.add("request");
+        }
+
+        @Override
+        public void onResponseSent(RequestID id, Event<?> event, Page page, HttpResponseStatus status, long contentLength) {
+            calls.add("sent " + contentLength);
+        }
+
+        @Override
+        public void onInfo(String info, Object... objs) {
+            calls.add("hello");
+        }
+
+        @Override
+        public boolean isCompressionObserved() {
+            return observeCompression;
+        }
+
+        @Override
+        public void onResponseCompressed(String encoding, long uncompressedBytes, long compressedBytes, long nanos) {
+            calls.add("compressed " + encoding);
+        }
+    }
+
+    @Singleton
+    static class SecondProbe extends FirstProbe {
+    }
+}
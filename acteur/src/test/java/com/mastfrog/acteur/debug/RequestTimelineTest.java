@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.debug;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class RequestTimelineTest {
+
+    private static final Pattern METRIC = Pattern.compile("^[a-z0-9]+(;desc=\"[^\"]*\")?;dur=\\d+\\.\\d{3}$");
+
+    private static RequestTimeline timeline() {
+        RequestTimeline timeline = new RequestTimeline("1", "GET /foo");
+        timeline.record(RequestTimeline.Kind.PAGE_STARTED, RequestTimelineTest.class);
+        timeline.record(RequestTimeline.Kind.ACTEUR_STARTED, RequestTimelineTest.class);
+        timeline.record(RequestTimeline.Kind.ACTEUR_FINISHED, RequestTimelineTest.class);
+        timeline.record(RequestTimeline.Kind.DEFERRED, null);
+        timeline.record(RequestTimeline.Kind.RESUMED, null);
+        return timeline;
+    }
+
+    private static void assertWellFormed(String header) {
+        String[] metrics = header.split(", ");
+        // defer is omitted if no time passed while deferred
+        assertTrue(header, metrics.length >= 3);
+        for (String metric : metrics) {
+            Matcher m = METRIC.matcher(metric);
+            assertTrue("Bad metric '" + metric + "' in " + header, m.matches());
+        }
+    }
+
+    @Test
+    public void testServerTimingIgnoresLocale() {
+        Locale old = Locale.getDefault();
+        try {
+            for (Locale locale : new Locale[]{Locale.GERMANY, Locale.FRANCE, Locale.US}) {
+                Locale.setDefault(locale);
+                if (locale != Locale.US) {
+                    // Make sure the test means something
+                    assertEquals("1,5", String.format("%.1f", 1.5D));
+                }
+                assertWellFormed(timeline().serverTiming());
+                assertWellFormed(timeline().serverTiming(true));
+            }
+        } finally {
+            Locale.setDefault(old);
+        }
+    }
+
+    @Test
+    public void testActeurNamesOnlyWhenRequested() {
+        String plain = timeline().serverTiming();
+        assertFalse(plain, plain.contains("desc="));
+        assertFalse(plain, plain.contains("RequestTimelineTest"));
+        String described = timeline().serverTiming(true);
+        assertTrue(described, described.contains("a1;desc=\"RequestTimelineTest\";dur="));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.debug;
+
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.Application;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.SilentRequestLogger;
+import com.mastfrog.acteur.headers.HeaderValueType;
+import com.mastfrog.acteur.headers.Headers;
+import static com.mastfrog.acteur.headers.Method.GET;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.acteur.preconditions.Path;
+import com.mastfrog.acteur.server.ServerModule;
+import com.mastfrog.acteur.util.BasicCredentials;
+import com.mastfrog.acteur.util.Realm;
+import com.mastfrog.acteur.util.RotatingRealmProvider;
+import com.mastfrog.acteurbase.Deferral.Resumer;
+import com.mastfrog.giulius.annotations.Defaults;
+import com.mastfrog.giulius.scope.ReentrantScope;
+import com.mastfrog.giulius.tests.GuiceRunner;
+import com.mastfrog.giulius.tests.TestWith;
+import com.mastfrog.netty.http.test.harness.TestHarness;
+import com.mastfrog.netty.http.test.harness.TestHarnessModule;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.UNAUTHORIZED;
+import io.netty.util.AsciiString;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+@RunWith(GuiceRunner.class)
+@TestWith({TestHarnessModule.class, TimelineTest.Module.class, SilentRequestLogger.class})
+@Defaults({"acteur.timeline.sample=1", "acteur.server.timing=true", "acteur.server.timing.descriptions=true"})
+public class TimelineTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final HeaderValueType<CharSequence> SERVER_TIMING
+            = Headers.header(new AsciiString("Server-Timing"));
+
+    @Test(timeout = 60000)
+    @SuppressWarnings("unchecked")
+    public void testTimelines(TestHarness harn) throws Throwable {
+        String timing = harn.get("/slow").setTimeout(TIMEOUT).go().await()
+                .assertStatus(OK).assertContent("done").getHeader(SERVER_TIMING).toString();
+        assertTrue(timing, timing.contains("queue;dur="));
+        assertTrue(timing, timing.contains("desc=\"SlowActeur\""));
+        assertTrue(timing, timing.contains("defer;dur="));
+        assertTrue(timing, timing.contains("total;dur="));
+
+        harn.get("/_timelines").setTimeout(TIMEOUT).go().await().assertStatus(UNAUTHORIZED);
+        Map<String, Object> result = harn.get("/_timelines").addQueryPair("which", "slowest")
+                .addHeader(Headers.AUTHORIZATION, new BasicCredentials("timelines", "password"))
+                .setTimeout(TIMEOUT).go().await().assertStatus(OK).content(Map.class);
+        List<Map<String, Object>> slowest = (List<Map<String, Object>>) result.get("slowest");
+        assertNotNull(result.toString(), slowest);
+        Map<String, Object> slow = null;
+        for (Map<String, Object> t : slowest) {
+            if ("GET /slow".equals(t.get("request"))) {
+                slow = t;
+            }
+        }
+        assertNotNull("No timeline for /slow in " + slowest, slow);
+        List<String> kinds = new ArrayList<>();
+        for (Map<String, Object> entry : (List<Map<String, Object>>) slow.get("entries")) {
+            kinds.add((String) entry.get("kind"));
+        }
+        for (RequestTimeline.Kind k : new RequestTimeline.Kind[]{RequestTimeline.Kind.RECEIVED,
+            RequestTimeline.Kind.PAGE_STARTED, RequestTimeline.Kind.DEFERRED, RequestTimeline.Kind.RESUMED,
+            RequestTimeline.Kind.RESPONSE_READY, RequestTimeline.Kind.BODY_WRITTEN}) {
+            assertTrue("No " + k + " in " + kinds, kinds.contains(k.name()));
+        }
+        assertTrue(kinds.toString(), kinds.indexOf("DEFERRED") < kinds.indexOf("RESUMED"));
+    }
+
+    static class TimelineApp extends Application {
+
+        TimelineApp() {
+            super(SlowPage.class, TimelinePage.class);
+        }
+    }
+
+    @Methods(GET)
+    @Path("/slow")
+    static class SlowPage extends Page {
+
+        SlowPage() {
+            add(SlowActeur.class);
+            add(DoneActeur.class);
+        }
+    }
+
+    static class SlowActeur extends Acteur {
+
+        SlowActeur() {
+            then((Resumer resumer) -> {
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(50);
+                    } catch (InterruptedException ex) {
+                        // ignore
+                    }
+                    resumer.resume();
+                });
+            });
+        }
+    }
+
+    static class DoneActeur extends Acteur {
+
+        DoneActeur() {
+            ok("done");
+        }
+    }
+
+    static class Module extends ServerModule<TimelineApp> {
+
+        public Module() {
+            super(new ReentrantScope(), TimelineApp.class, 4, 2, 2);
+        }
+
+        @Override
+        protected void configure() {
+            super.configure();
+            bind(Realm.class).toProvider(RotatingRealmProvider.class);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.metrics;
+
+import com.mastfrog.settings.SettingsBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class AllocatorStatsTest {
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testPooledStats() throws Exception {
+        PooledByteBufAllocator alloc = new PooledByteBufAllocator(true, 1, 1, 8192, 11, 0, 64, 32, true);
+        AllocatorStats stats = new AllocatorStats(alloc, new SettingsBuilder().build(), null, null);
+        ByteBuf buf = alloc.directBuffer(1024);
+        try {
+            StringBuilder sb = new StringBuilder();
+            stats.writeTo(sb);
+            String text = sb.toString();
+            assertContains(text, "# TYPE acteur_bytebuf_used_memory_bytes gauge");
+            assertContains(text, "acteur_bytebuf_arena_active_allocations{type=\"direct\",arena=\"0\"} 1");
+            assertContains(text, "acteur_bytebuf_arena_allocations_total{type=\"direct\",arena=\"0\",size=\"small\"} 1");
+            assertContains(text, "acteur_bytebuf_arena_chunks{type=\"direct\",arena=\"0\",usage=\"");
+            assertContains(text, "acteur_bytebuf_chunk_size_bytes " + alloc.metric().chunkSize());
+            assertContains(text, "acteur_bytebuf_arena_active_allocations{type=\"heap\",arena=\"0\"} 0");
+            String summary = stats.summary();
+            assertContains(summary, "1 direct arenas: 1 active allocations");
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void assertContains(String text, String expected) {
+        assertTrue("Missing '" + expected + "' in\n" + text, text.contains(expected));
+    }
+}
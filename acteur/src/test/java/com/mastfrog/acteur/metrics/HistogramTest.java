@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.metrics;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class HistogramTest {
+
+    @Test
+    public void testBucketsAreContiguous() {
+        long lastHigh = -1;
+        for (int i = 0; i < 960; i++) {
+            long high = Histogram.highestValueIn(i);
+            assertTrue("Bucket " + i + " high " + high + " not above " + lastHigh, high > lastHigh);
+            assertEquals("Bucket " + i, i, Histogram.indexOf(high));
+            assertEquals("Bucket " + i, i, Histogram.indexOf(lastHigh + 1));
+            lastHigh = high;
+        }
+        assertEquals(Long.MAX_VALUE, lastHigh);
+    }
+
+    @Test
+    public void testQuantiles() {
+        Histogram h = new Histogram();
+        for (long i = 1; i <= 100000; i++) {
+            h.record(i);
+        }
+        Histogram.Snapshot snap = h.snapshot();
+        assertEquals(100000, snap.count());
+        assertEquals(100000, snap.max());
+        assertEquals(5000050000L, snap.sum());
+        assertWithin(50000, snap.valueAt(0.5));
+        assertWithin(99000, snap.valueAt(0.99));
+        assertWithin(99900, snap.valueAt(0.999));
+        assertEquals(100000, snap.valueAt(1));
+        assertEquals(0, new Histogram().snapshot().valueAt(0.5));
+    }
+
+    @Test
+    public void testRecordingOverhead() {
+        // Budget: recording must stay well under a microsecond
+        Histogram h = new Histogram();
+        Random rnd = new Random(1);
+        long[] values = new long[1 << 18];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.abs(rnd.nextGaussian() * 1000000D);
+        }
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            for (long v : values) {
+                h.record(v);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double perRecord = (double) best / values.length;
+        assertTrue("Recording took " + perRecord + "ns", perRecord < 1000);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        double error = Math.abs(actual - expected) / (double) expected;
+        assertTrue("Expected " + expected + " +/-7% but got " + actual, error < 0.07);
+    }
+}
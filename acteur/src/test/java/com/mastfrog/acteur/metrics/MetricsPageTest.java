@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.metrics;
+
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.Application;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.headers.Headers;
+import static com.mastfrog.acteur.headers.Method.GET;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.acteur.preconditions.Path;
+import com.mastfrog.acteur.server.ServerModule;
+import com.mastfrog.acteur.SilentRequestLogger;
+import com.mastfrog.acteur.util.BasicCredentials;
+import com.mastfrog.acteur.util.Realm;
+import com.mastfrog.acteur.util.RotatingRealmProvider;
+import com.mastfrog.giulius.scope.ReentrantScope;
+import com.mastfrog.giulius.tests.GuiceRunner;
+import com.mastfrog.giulius.tests.TestWith;
+import com.mastfrog.netty.http.test.harness.TestHarness;
+import com.mastfrog.netty.http.test.harness.TestHarnessModule;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.UNAUTHORIZED;
+import java.time.Duration;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+@RunWith(GuiceRunner.class)
+@TestWith({TestHarnessModule.class, MetricsPageTest.Module.class, MetricsModule.class, SilentRequestLogger.class})
+public class MetricsPageTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Test(timeout = 60000)
+    public void testMetrics(TestHarness harn) throws Throwable {
+        for (int i = 0; i < 5; i++) {
+            harn.get("/hello").setTimeout(TIMEOUT).go().await().assertStatus(OK).assertContent("hello");
+        }
+        harn.get("/nothing/here").setTimeout(TIMEOUT).go().await().assertStatus(NOT_FOUND);
+        harn.get("/_metrics").setTimeout(TIMEOUT).go().await().assertStatus(UNAUTHORIZED);
+        String metrics = harn.get("/_metrics").addHeader(Headers.AUTHORIZATION, new BasicCredentials("metrics", "password"))
+                .setTimeout(TIMEOUT).go().await().assertStatus(OK).content();
+        assertContains(metrics, "# TYPE acteur_request_duration_seconds summary");
+        assertContains(metrics, "acteur_request_duration_seconds_count{page=\""
+                + HelloPage.class.getName() + "\",status=\"200\"} 5");
+        assertContains(metrics, "acteur_acteur_duration_seconds_count{acteur=\""
+                + HelloActeur.class.getName() + "\"} 5");
+        assertContains(metrics, "acteur_request_duration_seconds_count{page=\"none\",status=\"404\"}");
+        assertContains(metrics, "acteur_response_size_bytes_sum{page=\"" + HelloPage.class.getName() + "\"} 25");
+        assertContains(metrics, "acteur_request_queued_seconds{quantile=\"0.99\"}");
+        assertContains(metrics, "# TYPE acteur_bytebuf_used_memory_bytes gauge");
+        assertContains(metrics, "acteur_bytebuf_used_memory_bytes{type=\"direct\"}");
+    }
+
+    private static void assertContains(String text, String expected) {
+        assertTrue("Missing '" + expected + "' in\n" + text, text.contains(expected));
+    }
+
+    static class MetricsApp extends Application {
+
+        MetricsApp() {
+            super(HelloPage.class, MetricsPage.class);
+        }
+    }
+
+    @Methods(GET)
+    @Path("/hello")
+    static class HelloPage extends Page {
+
+        HelloPage() {
+            add(HelloActeur.class);
+        }
+    }
+
+    static class HelloActeur extends Acteur {
+
+        HelloActeur() {
+            ok("hello");
+        }
+    }
+
+    static class Module extends ServerModule<MetricsApp> {
+
+        public Module() {
+            super(new ReentrantScope(), MetricsApp.class, 4, 2, 2);
+        }
+
+        @Override
+        protected void configure() {
+            super.configure();
+            bind(Realm.class).toProvider(RotatingRealmProvider.class);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.server;
+
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.debug.Probe;
+import com.mastfrog.giulius.Dependencies;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.settings.SettingsBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class EventLoopWatchdogTest {
+
+    private Dependencies deps;
+    private NioEventLoopGroup group;
+    private final BlockedProbe probe = new BlockedProbe();
+
+    @Before
+    public void setUp() {
+        deps = new Dependencies();
+        group = new NioEventLoopGroup(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).await(10, TimeUnit.SECONDS);
+        deps.shutdown();
+    }
+
+    private EventLoopWatchdog watchdog(int threshold) throws Exception {
+        return new EventLoopWatchdog(() -> new SingleGroupFactory(group), probe, new SettingsBuilder()
+                .add(ServerModule.SETTINGS_KEY_EVENT_LOOP_WATCHDOG_THRESHOLD_MILLIS, threshold)
+                .add(ServerModule.SETTINGS_KEY_EVENT_LOOP_WATCHDOG_INTERVAL_MILLIS, 10)
+                .build(), deps.getInstance(ShutdownHookRegistry.class));
+    }
+
+    @Test
+    public void testBlockedLoopIsReported() throws Exception {
+        EventLoopWatchdog watchdog = watchdog(50);
+        assertTrue(watchdog.isEnabled());
+        watchdog.start();
+        try {
+            // Let the first probe task run, so the watchdog knows the thread
+            Thread.sleep(100);
+            Page page = new BlockingPage();
+            EventLoopWatchdog.Attribution att = watchdog.attribution(page, this);
+            CountDownLatch release = new CountDownLatch(1);
+            group.next().execute(() -> {
+                try (EventLoopWatchdog.Scope scope = att.enter()) {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    // done
+                }
+            });
+            assertTrue("Not reported", probe.reported.await(10, TimeUnit.SECONDS));
+            release.countDown();
+            assertTrue(probe.blockedNanos >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertNotNull(probe.thread);
+            assertSame(page, probe.page);
+            assertSame(this, probe.source);
+            boolean found = false;
+            for (StackTraceElement el : probe.stack) {
+                if (el.getClassName().startsWith(EventLoopWatchdogTest.class.getName())) {
+                    found = true;
+                    break;
+                }
+            }
+            assertTrue("Blocking code not in stack", found);
+        } finally {
+            watchdog.stop();
+        }
+        assertEquals(1, probe.count);
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        EventLoopWatchdog watchdog = watchdog(0);
+        assertFalse(watchdog.isEnabled());
+        assertNull(watchdog.attribution(new BlockingPage(), this));
+        watchdog.start();
+        watchdog.stop();
+    }
+
+    static class BlockingPage extends Page {
+    }
+
+    static final class SingleGroupFactory extends EventLoopFactory {
+
+        private final EventLoopGroup group;
+
+        SingleGroupFactory(EventLoopGroup group) {
+            this.group = group;
+        }
+
+        @Override
+        public EventLoopGroup getEventGroup() {
+            return group;
+        }
+
+        @Override
+        public EventLoopGroup getWorkerGroup() {
+            return group;
+        }
+    }
+
+    static final class BlockedProbe implements Probe {
+
+        final CountDownLatch reported = new CountDownLatch(1);
+        volatile String thread;
+        volatile long blockedNanos;
+        volatile StackTraceElement[] stack;
+        volatile Page page;
+        volatile Object source;
+        volatile int count;
+
+        @Override
+        public void onEventLoopBlocked(String thread, long blockedNanos, StackTraceElement[] stack, Page page, Object source) {
+            this.thread = thread;
+            this.blockedNanos = blockedNanos;
+            this.stack = stack;
+            this.page = page;
+            this.source = source;
+            count++;
+            reported.countDown();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.server;
+
+import com.mastfrog.acteur.debug.Probe;
+import com.mastfrog.settings.SettingsBuilder;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ReadBackpressureTest {
+
+    private ExecutorService background;
+    private ThreadPoolExecutor chains;
+    private ScheduledExecutorService scheduler;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        background = Executors.newSingleThreadExecutor();
+        chains = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        background.shutdownNow();
+        chains.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private ReadBackpressure backpressure(int high, int low) throws Exception {
+        return new ReadBackpressure(new SettingsBuilder()
+                .add(ServerModule.SETTINGS_KEY_BACKPRESSURE_INFLIGHT_HIGH, high)
+                .add(ServerModule.SETTINGS_KEY_BACKPRESSURE_INFLIGHT_LOW, low)
+                .build(), background, scheduler, new Probe() {
+        });
+    }
+
+    private ReadBackpressure queueBackpressure(int high, int low) throws Exception {
+        return new ReadBackpressure(new SettingsBuilder()
+                .add(ServerModule.SETTINGS_KEY_BACKPRESSURE_QUEUE_HIGH, high)
+                .add(ServerModule.SETTINGS_KEY_BACKPRESSURE_QUEUE_LOW, low)
+                .add(ServerModule.SETTINGS_KEY_BACKPRESSURE_RECHECK_MILLIS, 20)
+                .build(), background, scheduler, new Probe() {
+        });
+    }
+
+    private void fillChainQueue(int queued) {
+        for (int i = 0; i < queued + 1; i++) {
+            chains.submit(() -> {
+                release.await(10, TimeUnit.SECONDS);
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void testPauseAndResume() throws Exception {
+        ReadBackpressure bp = backpressure(3, 1);
+        assertTrue(bp.isEnabled());
+        EmbeddedChannel a = new EmbeddedChannel();
+        EmbeddedChannel b = new EmbeddedChannel();
+        CountDownLatch first = bp.admit(a);
+        bp.afterRead(a);
+        CountDownLatch second = bp.admit(b);
+        bp.afterRead(b);
+        assertFalse(bp.isSaturated());
+        assertTrue(a.config().isAutoRead());
+
+        CountDownLatch third = bp.admit(a);
+        bp.afterRead(a);
+        assertTrue(bp.isSaturated());
+        assertFalse("Should have stopped reading", a.config().isAutoRead());
+        assertTrue("Only the channel which read is paused", b.config().isAutoRead());
+        assertEquals(3, bp.inFlight());
+
+        third.countDown();
+        // counting down twice must not count twice
+        third.countDown();
+        assertEquals(2, bp.inFlight());
+        assertTrue("Not yet at low watermark", bp.isSaturated());
+        assertFalse(a.config().isAutoRead());
+
+        second.countDown();
+        assertEquals(1, bp.inFlight());
+        assertFalse(bp.isSaturated());
+        assertTrue("Should have resumed reading", a.config().isAutoRead());
+        first.countDown();
+        assertEquals(0, bp.inFlight());
+    }
+
+    @Test(timeout = 10000)
+    public void testQueueDrainingResumesWithoutRequestsFinishing() throws Exception {
+        ReadBackpressure bp = queueBackpressure(2, 0);
+        bp.setMonitoredExecutor(chains);
+        fillChainQueue(2);
+        EmbeddedChannel a = new EmbeddedChannel();
+        CountDownLatch latch = bp.admit(a);
+        bp.afterRead(a);
+        assertTrue(bp.isSaturated());
+        assertFalse("Should have stopped reading", a.config().isAutoRead());
+        Thread.sleep(100);
+        assertTrue("Resumed while queue still full", bp.isSaturated());
+        assertFalse(a.config().isAutoRead());
+
+        // Let the queue drain while the admitted request is still in flight
+        release.countDown();
+        while (bp.isSaturated() || !a.config().isAutoRead()) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, bp.inFlight());
+        latch.countDown();
+        assertEquals(0, bp.inFlight());
+    }
+
+    @Test(timeout = 10000)
+    public void testMeasuresMonitoredExecutor() throws Exception {
+        ReadBackpressure bp = queueBackpressure(2, 0);
+        fillChainQueue(2);
+        EmbeddedChannel a = new EmbeddedChannel();
+        CountDownLatch first = bp.admit(a);
+        assertFalse("Background pool is idle", bp.isSaturated());
+        first.countDown();
+
+        bp.setMonitoredExecutor(chains);
+        CountDownLatch second = bp.admit(a);
+        assertTrue("Executor chains run on is backed up", bp.isSaturated());
+        bp.afterRead(a);
+        assertFalse(a.config().isAutoRead());
+        release.countDown();
+        while (!a.config().isAutoRead()) {
+            Thread.sleep(10);
+        }
+        second.countDown();
+    }
+
+    @Test
+    public void testClosedChannelReleases() throws Exception {
+        ReadBackpressure bp = backpressure(1, 0);
+        EmbeddedChannel a = new EmbeddedChannel();
+        CountDownLatch latch = bp.admit(a);
+        assertEquals(1, bp.inFlight());
+        assertTrue(bp.isSaturated());
+        a.close().sync();
+        assertEquals(0, bp.inFlight());
+        assertEquals(0, latch.getCount());
+        assertFalse(bp.isSaturated());
+    }
+
+    @Test
+    public void testClosedPausedChannelIsForgotten() throws Exception {
+        ReadBackpressure bp = backpressure(1, 0);
+        EmbeddedChannel a = new EmbeddedChannel();
+        EmbeddedChannel b = new EmbeddedChannel();
+        CountDownLatch latch = bp.admit(a);
+        bp.afterRead(a);
+        bp.afterRead(b);
+        assertEquals(2, bp.pausedChannels());
+        b.close().sync();
+        assertEquals("Closed channel still retained", 1, bp.pausedChannels());
+        assertTrue(bp.isSaturated());
+        latch.countDown();
+        assertEquals(0, bp.pausedChannels());
+        assertTrue(a.config().isAutoRead());
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        ReadBackpressure bp = backpressure(0, 0);
+        assertFalse(bp.isEnabled());
+        EmbeddedChannel a = new EmbeddedChannel();
+        bp.admit(a);
+        assertEquals(0, bp.inFlight());
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.server;
+
+import com.google.common.net.MediaType;
+import com.google.inject.Inject;
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.Application;
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.Page;
+import com.mastfrog.acteur.SilentRequestLogger;
+import com.mastfrog.acteur.headers.Headers;
+import static com.mastfrog.acteur.headers.Method.GET;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.acteur.preconditions.Path;
+import com.mastfrog.giulius.scope.ReentrantScope;
+import com.mastfrog.giulius.tests.GuiceRunner;
+import com.mastfrog.giulius.tests.TestWith;
+import com.mastfrog.netty.http.test.harness.TestHarness;
+import com.mastfrog.netty.http.test.harness.TestHarnessModule;
+import static com.mastfrog.util.collections.CollectionUtils.map;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.cookie.DefaultCookie;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import io.netty.util.AsciiString;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+@RunWith(GuiceRunner.class)
+@TestWith({TestHarnessModule.class, SubRequestsTest.Module.class, SilentRequestLogger.class})
+public class SubRequestsTest {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final long DUR = 60000;
+
+    @Test(timeout = DUR)
+    public void testSubRequests(TestHarness harn) throws Throwable {
+        harn.get("/compose").addQueryPair("name", "world").setTimeout(TIMEOUT).go()
+                .await().assertStatus(OK).assertContent("composed hello world");
+
+        List<Map<String, Object>> batch = Arrays.asList(
+                map("uri").to("/hello?name=batch").build(),
+                map("uri").to("/thing").build(),
+                map("uri").to("/nothing").build());
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> result = harn.post("/_batch").setBody(batch, MediaType.JSON_UTF_8)
+                .setTimeout(TIMEOUT).go().await().assertStatus(OK).content(List.class);
+
+        assertEquals(3, result.size());
+        assertEquals(200, result.get(0).get("status"));
+        assertEquals("hello batch", result.get(0).get("body"));
+        assertEquals(200, result.get(1).get("status"));
+        assertTrue(result.get(1).get("body") instanceof Map<?, ?>);
+        assertEquals("thing", ((Map<?, ?>) result.get(1).get("body")).get("name"));
+        assertEquals(404, result.get(2).get("status"));
+    }
+
+    @Test(timeout = DUR)
+    public void testBatchPassesOnOnlyCredentials(TestHarness harn) throws Throwable {
+        List<Map<String, Object>> batch = Arrays.asList(
+                map("uri").to("/headers").build(),
+                map("uri").to("/headers").map("headers").to(map("X-Other").to("mine").build()).build());
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> result = harn.post("/_batch").setBody(batch, MediaType.JSON_UTF_8)
+                .addHeader(Headers.header(AsciiString.of("Authorization")), "Bearer abc")
+                .addHeader(Headers.header(AsciiString.of("Cookie")), "session=123")
+                .addHeader(Headers.header(AsciiString.of("X-Other")), "batch")
+                .setTimeout(TIMEOUT).go().await().assertStatus(OK).content(List.class);
+
+        assertEquals(2, result.size());
+        assertEquals("Bearer abc|session=123|null", result.get(0).get("body"));
+        assertEquals("Bearer abc|session=123|mine", result.get(1).get("body"));
+    }
+
+    @Test(timeout = DUR)
+    public void testBatchRepeatedHeadersAndInvalidMethod(TestHarness harn) throws Throwable {
+        List<Map<String, Object>> batch = Arrays.asList(
+                map("uri").to("/cookies").map("method").to("get").build(),
+                map("uri").to("/hello?name=x").map("method").to("GE T").build());
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> result = harn.post("/_batch").setBody(batch, MediaType.JSON_UTF_8)
+                .setTimeout(TIMEOUT).go().await().assertStatus(OK).content(List.class);
+
+        assertEquals(2, result.size());
+        assertEquals(200, result.get(0).get("status"));
+        Map<?, ?> headers = (Map<?, ?>) result.get(0).get("headers");
+        Object cookies = headers.get(Headers.SET_COOKIE_B.name().toString());
+        assertTrue(String.valueOf(headers), cookies instanceof List<?>);
+        assertEquals(String.valueOf(cookies), 2, ((List<?>) cookies).size());
+        assertEquals(400, result.get(1).get("status"));
+        assertTrue(String.valueOf(result.get(1).get("error")).contains("GE T"));
+    }
+
+    static class SRApp extends Application {
+
+        SRApp() {
+            super(HelloPage.class, ThingPage.class, ComposePage.class, HeadersPage.class,
+                    CookiesPage.class, BatchPage.class);
+        }
+    }
+
+    @Methods(GET)
+    @Path("/cookies")
+    static class CookiesPage extends Page {
+
+        CookiesPage() {
+            add(CookiesActeur.class);
+        }
+    }
+
+    static class CookiesActeur extends Acteur {
+
+        CookiesActeur() {
+            add(Headers.SET_COOKIE_B, new DefaultCookie("a", "1"));
+            add(Headers.SET_COOKIE_B, new DefaultCookie("b", "2"));
+            ok("cookies");
+        }
+    }
+
+    @Methods(GET)
+    @Path("/hello")
+    static class HelloPage extends Page {
+
+        HelloPage() {
+            add(HelloActeur.class);
+        }
+    }
+
+    static class HelloActeur extends Acteur {
+
+        @Inject
+        HelloActeur(HttpEvent evt) {
+            ok("hello " + evt.urlParameter("name"));
+        }
+    }
+
+    @Methods(GET)
+    @Path("/thing")
+    static class ThingPage extends Page {
+
+        ThingPage() {
+            add(ThingActeur.class);
+        }
+    }
+
+    static class ThingActeur extends Acteur {
+
+        ThingActeur() {
+            ok(map("name").to("thing").build());
+        }
+    }
+
+    @Methods(GET)
+    @Path("/headers")
+    static class HeadersPage extends Page {
+
+        HeadersPage() {
+            add(HeadersActeur.class);
+        }
+    }
+
+    static class HeadersActeur extends Acteur {
+
+        @Inject
+        HeadersActeur(HttpEvent evt) {
+            ok(evt.header("Authorization") + "|" + evt.header("Cookie") + "|" + evt.header("X-Other"));
+        }
+    }
+
+    @Methods(GET)
+    @Path("/compose")
+    static class ComposePage extends Page {
+
+        ComposePage() {
+            add(ComposeActeur.class);
+        }
+    }
+
+    static class ComposeActeur extends Acteur {
+
+        @Inject
+        ComposeActeur(HttpEvent evt, SubRequests subs) {
+            then(subs.dispatch(new DefaultFullHttpRequest(HTTP_1_1, HttpMethod.GET,
+                    "/hello?name=" + evt.urlParameter("name")), evt)
+                    .thenApply(resp -> "composed " + resp.message()));
+        }
+    }
+
+    static class Module extends ServerModule<SRApp> {
+
+        public Module() {
+            super(new ReentrantScope(), SRApp.class, 4, 2, 2);
+        }
+    }
+}
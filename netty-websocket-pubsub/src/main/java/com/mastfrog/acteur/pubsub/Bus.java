@@ -25,6 +25,7 @@ package com.mastfrog.acteur.pubsub;
 
 import com.mastfrog.giulius.ShutdownHookRegistry;
 import com.mastfrog.marshallers.netty.NettyContentMarshallers;
+import com.mastfrog.settings.Settings;
 import com.mastfrog.util.preconditions.Checks;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
@@ -32,14 +33,21 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -57,15 +65,66 @@ class Bus implements PubSubBus {
     private final ByteBufAllocator alloc;
     private final ExecutorService threadPool;
     private final BusListener.Registry listeners;
+    private final BusTransport transport;
+    private final boolean remote;
+    private final int maxPending;
+    private final OverflowPolicy overflowPolicy;
+    private final TopicTrie topics = new TopicTrie();
+    // Stands in as the origin of messages from other nodes
+    private final Channel remoteOrigin = new EmbeddedChannel();
+
+    Bus(ShutdownHookRegistry shutdown, NettyContentMarshallers marshallers, ByteBufAllocator alloc, ExecutorService threadPool,
+            BusListener.Registry listeners) {
+        this(shutdown, marshallers, alloc, threadPool, listeners, new LocalOnlyTransport());
+    }
+
+    Bus(ShutdownHookRegistry shutdown, NettyContentMarshallers marshallers, ByteBufAllocator alloc, ExecutorService threadPool,
+            BusListener.Registry listeners, BusTransport transport) {
+        this(shutdown, marshallers, alloc, threadPool, listeners, transport, DEFAULT_SUBSCRIBER_MAX_PENDING,
+                OverflowPolicy.DROP_OLDEST);
+    }
 
     @Inject
     Bus(ShutdownHookRegistry shutdown, NettyContentMarshallers marshallers, ByteBufAllocator alloc, @Named("bus") ExecutorService threadPool,
-            BusListener.Registry listeners) {
-        this.reg = new ChannelRegistry<>(shutdown);
+            BusListener.Registry listeners, BusTransport transport, Settings settings) {
+        this(shutdown, marshallers, alloc, threadPool, listeners, transport,
+                settings.getInt(SETTINGS_KEY_SUBSCRIBER_MAX_PENDING, DEFAULT_SUBSCRIBER_MAX_PENDING),
+                OverflowPolicy.parse(settings.getString(SETTINGS_KEY_OVERFLOW_POLICY)));
+    }
+
+    Bus(ShutdownHookRegistry shutdown, NettyContentMarshallers marshallers, ByteBufAllocator alloc, ExecutorService threadPool,
+            BusListener.Registry listeners, BusTransport transport, int maxPending, OverflowPolicy overflowPolicy) {
+        this.maxPending = maxPending;
+        this.overflowPolicy = overflowPolicy;
+        this.reg = new ChannelRegistry<>(shutdown, (id, subscribed) -> {
+            if (id.isWildcard()) {
+                if (subscribed) {
+                    topics.add(id);
+                } else {
+                    topics.remove(id);
+                }
+            }
+            transport.interest(id, subscribed);
+        });
         this.marshallers = marshallers;
         this.alloc = alloc;
         this.threadPool = threadPool;
         this.listeners = listeners;
+        this.transport = transport;
+        this.remote = !(transport instanceof LocalOnlyTransport);
+        transport.start(this::onRemoteMessage);
+    }
+
+    private void onRemoteMessage(Set<ChannelId> to, ByteBuf payload) {
+        long start = System.nanoTime();
+        List<Set<Channel>> targets = to == null
+                ? Collections.singletonList(reg.allChannels())
+                : targets(to);
+        // Not forwarded again - every node is connected to every other
+        BinaryWebSocketFrame frame = new BinaryWebSocketFrame(payload.retain());
+        threadPool.submit(() -> {
+            fanOut(targets, null, frame, remoteOrigin.newPromise(), to, start);
+        });
     }
 
     @Override
@@ -84,28 +143,52 @@ class Bus implements PubSubBus {
     }
 
     public boolean hasSubscribers(ChannelId id) {
-        return !reg.channels(id).isEmpty();
+        if (!reg.channels(id).isEmpty()) {
+            return true;
+        }
+        for (ChannelId pattern : topics.match(id)) {
+            if (!reg.channels(pattern).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collect the subscribers to each id, and to each pattern which matches
+     * it.
+     */
+    private List<Set<Channel>> targets(Set<ChannelId> to) {
+        List<Set<Channel>> result = new ArrayList<>(to.size());
+        for (ChannelId id : to) {
+            result.add(reg.channels(id));
+            for (ChannelId pattern : topics.match(id)) {
+                result.add(reg.channels(pattern));
+            }
+        }
+        return result;
     }
 
     @Override
     public <T> ChannelPromise publish(T obj, Channel origin, Set<ChannelId> to) throws Exception {
         Checks.notEmpty("to", to);
-        ByteBuf buf = alloc.buffer();
-        marshallers.write(obj, buf);
-        final BinaryWebSocketFrame frame = new BinaryWebSocketFrame(buf);
-        Set<Channel> channels = new HashSet<>(50);
         for (ChannelId id : to) {
-            channels.addAll(reg.channels(id));
+            if (id.isWildcard()) {
+                throw new IllegalArgumentException("Cannot publish to a pattern: " + id);
+            }
         }
-        channels.remove(origin);
+        long start = System.nanoTime();
         ChannelPromise p = origin.newPromise();
-        if (!channels.isEmpty()) {
-            threadPool.submit(() -> {
-                new CHF(channels.iterator(), frame, p).operationComplete(null);
-            });
-        } else {
-            p.setSuccess();
+        List<Set<Channel>> targets = targets(to);
+        ByteBuf buf = alloc.buffer();
+        marshallers.write(obj, buf);
+        if (remote) {
+            transport.forward(to, buf);
         }
+        final BinaryWebSocketFrame frame = new BinaryWebSocketFrame(buf);
+        threadPool.submit(() -> {
+            fanOut(targets, origin, frame, p, to, start);
+        });
         listeners.onPublish(obj, to, origin);
         return p;
     }
@@ -117,61 +200,135 @@ class Bus implements PubSubBus {
 
     @Override
     public <T> ChannelPromise broadcast(T obj, Channel origin) throws Exception {
+        long start = System.nanoTime();
         ChannelPromise p = origin.newPromise();
-        Set<Channel> all = new HashSet<>(reg.allChannels());
-        all.remove(origin);
-        if (all.isEmpty()) {
+        Set<Channel> all = reg.allChannels();
+        boolean local = !all.isEmpty() && !(all.size() == 1 && all.contains(origin));
+        if (!local && !remote) {
             return p.setSuccess();
         }
         ByteBuf buf = alloc.buffer();
         marshallers.write(obj, buf);
+        if (remote) {
+            transport.forward(null, buf);
+        }
+        if (!local) {
+            buf.release();
+            return p.setSuccess();
+        }
         final BinaryWebSocketFrame frame = new BinaryWebSocketFrame(buf);
         threadPool.submit(() -> {
-            new CHF(all.iterator(), frame, p).operationComplete(null);
+            fanOut(Collections.singletonList(all), origin, frame, p, null, start);
         });
         return p;
     }
 
-    static class CHF implements ChannelFutureListener {
+    /**
+     * Group the target channels by event loop, and hand each loop a single
+     * task which writes the frame to all of its channels and flushes once,
+     * so the loops write in parallel rather than one channel at a time.
+     */
+    private void fanOut(List<Set<Channel>> targets, Channel origin, WebSocketFrame frame,
+            ChannelPromise p, Set<ChannelId> to, long start) {
+        try {
+            Map<EventLoop, Set<Channel>> byLoop = new IdentityHashMap<>();
+            int count = 0;
+            for (Set<Channel> set : targets) {
+                for (Channel ch : set) {
+                    if (ch != origin && byLoop.computeIfAbsent(ch.eventLoop(), el -> new HashSet<>()).add(ch)) {
+                        count++;
+                    }
+                }
+            }
+            if (count == 0) {
+                listeners.onFanOut(to, 0, System.nanoTime() - start);
+                p.trySuccess();
+                return;
+            }
+            FanOut fanOut = new FanOut(count, p, to, start);
+            for (Map.Entry<EventLoop, Set<Channel>> e : byLoop.entrySet()) {
+                fanOut.dispatch(e.getKey(), e.getValue(), frame.retainedDuplicate());
+            }
+        } catch (Exception | Error e) {
+            p.tryFailure(e);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Aggregates the writes of one publish into its promise.
+     */
+    final class FanOut implements ChannelFutureListener {
 
-        private final Iterator<Channel> channels;
-        private final WebSocketFrame frame;
+        private final AtomicInteger remaining;
         private final ChannelPromise prom;
+        private final Set<ChannelId> to;
+        private final long start;
+        private final int count;
+        private volatile Throwable failure;
 
-        CHF(Iterator<Channel> channels, WebSocketFrame frame, ChannelPromise prom) {
-            this.channels = channels;
-            this.frame = frame;
+        FanOut(int count, ChannelPromise prom, Set<ChannelId> to, long start) {
+            this.count = count;
+            this.remaining = new AtomicInteger(count);
             this.prom = prom;
+            this.to = to;
+            this.start = start;
         }
 
-        @Override
-        public void operationComplete(ChannelFuture future) {
-            if (future != null) {
-                if (!future.isSuccess()) {
-                    prom.setFailure(future.cause());
-                    return;
+        void dispatch(EventLoop loop, Set<Channel> channels, WebSocketFrame frame) {
+            Runnable task = () -> {
+                try {
+                    for (Channel ch : channels) {
+                        // Queued or dropped frames count as done; a slow
+                        // subscriber should not hold up the publisher
+                        ChannelFuture f = Outbox.get(ch, maxPending, overflowPolicy, listeners)
+                                .offer(frame.retainedDuplicate());
+                        if (f != null) {
+                            f.addListener(this);
+                        } else {
+                            done(null);
+                        }
+                    }
+                    for (Channel ch : channels) {
+                        ch.flush();
+                    }
+                } finally {
+                    frame.release();
                 }
-            }
-            if (!channels.hasNext() && !prom.isDone()) {
-                prom.setSuccess();
-                return;
-            }
-            Channel ch = null;
-            while (channels.hasNext()) {
-                ch = channels.next();
-                if (ch.isWritable()) {
-                    break;
+            };
+            try {
+                if (loop.inEventLoop()) {
+                    task.run();
+                } else {
+                    loop.execute(task);
                 }
-            }
-            if (ch != null) {
-                WebSocketFrame fr = frame.retainedDuplicate();
-                future = ch.writeAndFlush(fr).addListener(this);
-                if (channels.hasNext()) {
-                    future.addListener(this);
+            } catch (RejectedExecutionException ex) {
+                frame.release();
+                for (int i = 0; i < channels.size(); i++) {
+                    done(ex);
                 }
             }
-            if (!channels.hasNext() && !prom.isDone()) {
-                prom.setSuccess();
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            done(future.isSuccess() ? null : future.cause());
+        }
+
+        private void done(Throwable thrown) {
+            if (thrown != null && failure == null) {
+                failure = thrown;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                // Notify first, so anyone waiting on the promise sees it
+                listeners.onFanOut(to, count, System.nanoTime() - start);
+                Throwable f = failure;
+                if (f != null) {
+                    prom.tryFailure(f);
+                } else {
+                    prom.trySuccess();
+                }
             }
         }
     }
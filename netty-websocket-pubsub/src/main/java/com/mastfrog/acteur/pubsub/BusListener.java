@@ -51,6 +51,47 @@ public abstract class BusListener {
         // do nothing
     }
 
+    /**
+     * Called when all of the writes for one publish or broadcast have
+     * completed (successfully or not).
+     *
+     * @param to The channel ids published to, or null for a broadcast
+     * @param channels The number of channels the message was sent to
+     * @param elapsedNanos Nanoseconds from the call to publish or broadcast
+     * until the last write completed
+     */
+    protected void onFanOut(Set<ChannelId> to, int channels, long elapsedNanos) {
+        // do nothing
+    }
+
+    /**
+     * Called when a message has been forwarded to another node by a
+     * {@link BusTransport} which reports it, such as PeerMeshTransport.
+     *
+     * @param peer The id of the node it was sent to
+     * @param bytes The bytes written, including framing
+     * @param elapsedNanos Nanoseconds from handing the message to the
+     * transport until it was written to the peer's socket
+     */
+    protected void onForward(String peer, int bytes, long elapsedNanos) {
+        // do nothing
+    }
+
+    /**
+     * Called on a subscriber's event loop when messages are queued for or
+     * dropped from a subscriber whose channel is not writable, and after a
+     * batch of queued messages has been written to it.
+     *
+     * @param subscriber The subscriber's channel
+     * @param pending The number of messages now waiting
+     * @param dropped The total number of messages dropped for this
+     * subscriber
+     * @since 2.5.0
+     */
+    protected void onSubscriberBacklog(Channel subscriber, int pending, long dropped) {
+        // do nothing
+    }
+
     @Singleton
     public static class Registry {
 
@@ -77,5 +118,23 @@ public abstract class BusListener {
                 l.onUnsubscribe(to, origin);
             }
         }
+
+        void onFanOut(Set<ChannelId> to, int channels, long elapsedNanos) {
+            for (BusListener l : listeners) {
+                l.onFanOut(to, channels, elapsedNanos);
+            }
+        }
+
+        void onForward(String peer, int bytes, long elapsedNanos) {
+            for (BusListener l : listeners) {
+                l.onForward(peer, bytes, elapsedNanos);
+            }
+        }
+
+        void onSubscriberBacklog(Channel subscriber, int pending, long dropped) {
+            for (BusListener l : listeners) {
+                l.onSubscriberBacklog(subscriber, pending, dropped);
+            }
+        }
     }
 }
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.pubsub;
+
+import com.google.inject.ImplementedBy;
+import io.netty.buffer.ByteBuf;
+import java.util.Set;
+
+/**
+ * Carries messages published on the bus to other nodes, so that channels
+ * connected to different servers can subscribe to the same ids. The default
+ * implementation does nothing; bind this to {@link PeerMeshTransport} (or
+ * your own implementation) to connect nodes.
+ * <p>
+ * The bus tells the transport which ids it has local subscribers for, so
+ * implementations can forward a message only to nodes that want it.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@ImplementedBy(LocalOnlyTransport.class)
+public interface BusTransport {
+
+    /**
+     * Called once by the bus, before any other method.
+     *
+     * @param receiver Receives messages from other nodes
+     */
+    void start(Receiver receiver);
+
+    /**
+     * Called when the first local channel subscribes to an id, and when the
+     * last one unsubscribes. Calls for the same id are made in order.
+     *
+     * @param id The id
+     * @param subscribed Whether there are now local subscribers
+     */
+    void interest(ChannelId id, boolean subscribed);
+
+    /**
+     * Forward an encoded message to other nodes. The caller keeps ownership
+     * of the buffer; retain it if it is needed after this method returns.
+     *
+     * @param to The ids published to, or null for a broadcast
+     * @param payload The encoded message
+     */
+    void forward(Set<ChannelId> to, ByteBuf payload);
+
+    /**
+     * Receives messages forwarded by other nodes.
+     */
+    interface Receiver {
+
+        /**
+         * Deliver a message from another node to local subscribers. The
+         * buffer is only valid for the duration of the call unless retained.
+         *
+         * @param to The ids published to, or null for a broadcast
+         * @param payload The encoded message
+         */
+        void onRemoteMessage(Set<ChannelId> to, ByteBuf payload);
+    }
+}
@@ -27,15 +27,80 @@ package com.mastfrog.acteur.pubsub;
  * An ad-hoc name for a pub-sub channel, which multiple netty channels
  * may be subscribed to.  The channels subscribed must have a handler that
  * knows what to do with a WebSocketFrame.
+ * <p>
+ * Names may be hierarchical, with levels separated by <code>/</code>, such
+ * as <code>prices/eu/gold</code>. A channel may subscribe to a pattern in
+ * which a level is <code>*</code>, matching any one level
+ * (<code>prices/&#42;/gold</code>), or whose last level is <code>**</code>,
+ * matching any number of levels including none (<code>prices/**</code>
+ * matches <code>prices</code> and <code>prices/eu/gold</code>). Messages are
+ * published to concrete names, never to patterns.
  *
  * @author Tim Boudreau
  */
 public final class ChannelId {
 
+    /**
+     * Separates the levels of a hierarchical name.
+     *
+     * @since 2.5.0
+     */
+    public static final char SEPARATOR = '/';
+    /**
+     * A pattern level which matches exactly one level.
+     *
+     * @since 2.5.0
+     */
+    public static final String WILDCARD = "*";
+    /**
+     * A pattern's last level, which matches any number of remaining levels.
+     *
+     * @since 2.5.0
+     */
+    public static final String MULTI_LEVEL_WILDCARD = "**";
+
     private final String name;
+    private final boolean wildcard;
 
     public ChannelId(String name) {
         this.name = name;
+        this.wildcard = name.indexOf('*') >= 0 && checkPattern(name);
+    }
+
+    private static boolean checkPattern(String name) {
+        String[] levels = levels(name);
+        boolean result = false;
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (MULTI_LEVEL_WILDCARD.equals(level)) {
+                if (i != levels.length - 1) {
+                    throw new IllegalArgumentException(MULTI_LEVEL_WILDCARD
+                            + " may only be the last level of a pattern: " + name);
+                }
+                result = true;
+            } else if (WILDCARD.equals(level)) {
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    static String[] levels(String name) {
+        return name.split(String.valueOf(SEPARATOR), -1);
+    }
+
+    String[] levels() {
+        return levels(name);
+    }
+
+    /**
+     * Determine if this id is a pattern containing wildcard levels.
+     *
+     * @return true if it is a pattern
+     * @since 2.5.0
+     */
+    public boolean isWildcard() {
+        return wildcard;
     }
 
     public boolean equals(Object o) {
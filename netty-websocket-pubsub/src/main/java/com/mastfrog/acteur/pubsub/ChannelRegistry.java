@@ -25,19 +25,13 @@ package com.mastfrog.acteur.pubsub;
 
 import com.mastfrog.giulius.ShutdownHookRegistry;
 import com.mastfrog.util.preconditions.Exceptions;
-import com.mastfrog.util.collections.CollectionUtils;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -46,28 +40,39 @@ import javax.inject.Singleton;
  * Bi-directionally maps sets of channels to sets of identifiers (such as a
  * subscriber or channel id). The one requirement is that the identifier objects
  * be immutable and implement equals/hashCode() correctly. Strings will do.
+ * <p>
+ * Every change to the mapping is made inside a <code>compute()</code> on the
+ * channel's entry, which in turn computes the identifier's entry - so the two
+ * sides are updated atomically with respect to each other, contention is
+ * limited to callers touching the same channel or identifier, and an entry
+ * whose set becomes empty is removed in the same step. The sets handed out
+ * for publishing are the live, weakly consistent sets rather than copies.
  *
  * @author Tim Boudreau
  */
 @Singleton
 final class ChannelRegistry<Identifier> {
 
-    private final Map<Identifier, Set<Channel>> channelsForId
-            = CollectionUtils.concurrentSupplierMap(() -> ConcurrentHashMap.newKeySet(50));
+    private final ConcurrentHashMap<Identifier, Set<Channel>> channelsForId
+            = new ConcurrentHashMap<>();
 
-    private final Map<Channel, Set<Identifier>> idsForChannel
-            = CollectionUtils.concurrentSupplierMap(() -> ConcurrentHashMap.newKeySet(50));
+    private final ConcurrentHashMap<Channel, Set<Identifier>> idsForChannel
+            = new ConcurrentHashMap<>();
 
     private final ChannelFutureListener remover = new ClosureRemover();
-    private final ExecutorService mutationThread;
+    private final InterestListener<? super Identifier> interest;
+    private volatile boolean shutdown;
 
     @Inject
     ChannelRegistry(ShutdownHookRegistry reg) {
-        // Though we are using concurrent data structures, they are not atomic
-        // when used in combination as we are here.  So confine mutations to
-        // a single thread to avoid out-of-order surprises.
-        mutationThread = Executors.newFixedThreadPool(1);
+        this(reg, (id, subscribed) -> {
+        });
+    }
+
+    ChannelRegistry(ShutdownHookRegistry reg, InterestListener<? super Identifier> interest) {
+        this.interest = interest;
         reg.add(() -> {
+            shutdown = true;
             idsForChannel.keySet().forEach((channel) -> {
                 try {
                     channel.close().sync();
@@ -79,105 +84,119 @@ final class ChannelRegistry<Identifier> {
             idsForChannel.clear();
             return null;
         });
-        reg.add(mutationThread);
     }
 
     public Future<Boolean> register(Identifier id, Channel channel) {
-        Set<Identifier> ids = idsForChannel.get(channel);
-        if (ids.contains(id)) {
-            CompletableFuture<Boolean> result = new CompletableFuture<>();
-            result.complete(true);
-            return result;
-        }
-        return mutationThread.submit(() -> {
-            Set<Channel> channels = channelsForId.get(id);
-            boolean result = channels.add(channel);
-            if (result) {
-                idsForChannel.get(channel).add(id);
-                channelsForId.get(id).add(channel);
-                channel.closeFuture().addListener(remover);
+        // [0] - added, [1] - first subscription for this channel
+        boolean[] added = new boolean[2];
+        // Lock order is always channel entry, then identifier entry
+        idsForChannel.compute(channel, (ch, ids) -> {
+            if (shutdown || !ch.isOpen()) {
+                return ids;
+            }
+            if (ids == null) {
+                ids = ConcurrentHashMap.newKeySet(4);
+                added[1] = true;
             }
-            return result;
+            if (ids.add(id)) {
+                added[0] = true;
+                channelsForId.compute(id, (i, channels) -> {
+                    if (channels == null) {
+                        channels = ConcurrentHashMap.newKeySet();
+                        interest.onInterest(i, true);
+                    }
+                    channels.add(ch);
+                    return channels;
+                });
+            }
+            return ids;
         });
+        if (added[1]) {
+            // Outside compute(), since if the channel has closed in the
+            // meantime the listener runs immediately and removes the entry
+            channel.closeFuture().addListener(remover);
+        }
+        return CompletableFuture.completedFuture(added[0]);
     }
 
+    /**
+     * Get the channels subscribed to an identifier. The result is the live
+     * set, not a copy; it must not be modified, and iterating it reflects
+     * concurrent changes in the way of ConcurrentHashMap's iterators.
+     *
+     * @param id An identifier
+     * @return A set of channels
+     */
     public Set<Channel> channels(Identifier id) {
-        return new HashSet<>(channelsForId.get(id));
+        Set<Channel> result = channelsForId.get(id);
+        return result == null ? Collections.emptySet() : result;
     }
 
     public Set<Identifier> idsForChannel(Channel channel) {
-        return new HashSet<>(idsForChannel.get(channel));
+        Set<Identifier> result = idsForChannel.get(channel);
+        return result == null ? Collections.emptySet() : Collections.unmodifiableSet(result);
     }
 
+    /**
+     * Get a live, unmodifiable view of all channels with any subscriptions.
+     *
+     * @return A set of channels
+     */
     public Set<Channel> allChannels() {
-        return Collections.unmodifiableSet(new HashSet<>(idsForChannel.keySet()));
+        return Collections.unmodifiableSet(idsForChannel.keySet());
     }
 
     public Set<Identifier> allIds() {
-        return Collections.unmodifiableSet(new HashSet<>(channelsForId.keySet()));
+        return Collections.unmodifiableSet(channelsForId.keySet());
     }
 
     public Future<Boolean> unsubscribe(Identifier from, Channel channel) {
-        return mutationThread.submit(() -> {
-            Set<Channel> channelsFor = channelsForId.get(from);
-            boolean result = channelsFor.remove(channel);
-            if (channelsFor.isEmpty()) {
-                channelsForId.remove(from);
+        boolean[] removed = new boolean[1];
+        idsForChannel.computeIfPresent(channel, (ch, ids) -> {
+            if (ids.remove(from)) {
+                removed[0] = true;
+                removeFrom(from, ch);
             }
-            Set<Identifier> idsFor = idsForChannel.get(channel);
-            result |= idsFor.remove(from);
-            if (idsFor.isEmpty()) {
-                idsForChannel.remove(channel);
+            if (ids.isEmpty()) {
+                ch.closeFuture().removeListener(remover);
+                return null;
             }
-            return result;
+            return ids;
         });
+        return CompletableFuture.completedFuture(removed[0]);
     }
 
     public void unregister(Channel channel) {
-        if (mutationThread.isShutdown()) {
-            return;
-        }
-        mutationThread.submit(() -> {
-            Map<Identifier, Set<Channel>> alsoRemove = new HashMap<>();
-            Set<Identifier> ids = idsForChannel.get(channel);
-            if (ids != null) {
-                ids.forEach((id) -> {
-                    Set<Channel> channels = channelsForId.get(id);
-                    channels.remove(channel);
-                    if (channels.isEmpty()) {
-                        alsoRemove.put(id, channels);
-                    }
-                });
+        idsForChannel.computeIfPresent(channel, (ch, ids) -> {
+            for (Identifier id : ids) {
+                removeFrom(id, ch);
             }
-            idsForChannel.remove(channel);
-            alsoRemove.entrySet().stream().filter((e) -> (e.getValue().isEmpty())).forEachOrdered((e) -> {
-                channelsForId.remove(e.getKey());
-            });
-            channel.closeFuture().removeListener(remover);
+            ch.closeFuture().removeListener(remover);
+            return null;
         });
     }
 
-    void gc() {
-        // Because we are using SupplierMap, we can wind up populating maps
-        // with unused lists
-        mutationThread.submit(() -> {
-            Set<Identifier> idsToRemove = new HashSet<>();
-            Set<Channel> channelsToRemove = new HashSet<>();
-            channelsForId.entrySet().stream().filter((e) -> (e.getValue().isEmpty())).forEachOrdered((e) -> {
-                idsToRemove.add(e.getKey());
-            });
-            idsForChannel.entrySet().stream().filter((e) -> (e.getValue().isEmpty())).forEachOrdered((e) -> {
-                channelsToRemove.add(e.getKey());
-            });
-            for (Identifier i : idsToRemove) {
-                channelsForId.remove(i);
-            }
-            for (Channel c : channelsToRemove) {
-                idsForChannel.remove(c);
+    private void removeFrom(Identifier id, Channel channel) {
+        channelsForId.computeIfPresent(id, (i, channels) -> {
+            channels.remove(channel);
+            if (channels.isEmpty()) {
+                interest.onInterest(i, false);
+                return null;
             }
+            return channels;
         });
     }
 
+    /**
+     * Notified, in order for any one identifier, when it gains its first
+     * channel or loses its last one. Called while that identifier's entry is
+     * being updated, so must not call back into the registry.
+     */
+    interface InterestListener<Identifier> {
+
+        void onInterest(Identifier id, boolean subscribed);
+    }
+
     private final class ClosureRemover implements ChannelFutureListener {
 
         @Override
@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.pubsub;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+import java.util.ArrayDeque;
+
+/**
+ * Per-subscriber queue of messages waiting for a channel to become writable.
+ * Only touched from the channel's event loop. Messages are written straight
+ * through while the channel is writable and nothing is waiting; otherwise
+ * they are queued, up to a limit, and written in one batch with a single
+ * flush when the channel's writability returns.
+ *
+ * @author Tim Boudreau
+ */
+final class Outbox extends ChannelInboundHandlerAdapter implements ChannelFutureListener {
+
+    private static final AttributeKey<Outbox> KEY = AttributeKey.valueOf(Outbox.class, "outbox");
+    private final Channel channel;
+    private final int maxPending;
+    private final OverflowPolicy policy;
+    private final BusListener.Registry listeners;
+    private final ArrayDeque<WebSocketFrame> pending = new ArrayDeque<>();
+    private long dropped;
+    private boolean closed;
+
+    private Outbox(Channel channel, int maxPending, OverflowPolicy policy, BusListener.Registry listeners) {
+        this.channel = channel;
+        this.maxPending = maxPending;
+        this.policy = policy;
+        this.listeners = listeners;
+    }
+
+    /**
+     * Get or create the outbox for a channel; must be called on the
+     * channel's event loop.
+     */
+    static Outbox get(Channel channel, int maxPending, OverflowPolicy policy, BusListener.Registry listeners) {
+        Outbox result = channel.attr(KEY).get();
+        if (result == null) {
+            result = new Outbox(channel, maxPending, policy, listeners);
+            channel.attr(KEY).set(result);
+            channel.pipeline().addFirst(result);
+            channel.closeFuture().addListener(result);
+        }
+        return result;
+    }
+
+    /**
+     * Write or queue a frame, taking ownership of it. Returns a future if
+     * the frame was written, or null if it was queued or dropped.
+     */
+    ChannelFuture offer(WebSocketFrame frame) {
+        if (closed) {
+            frame.release();
+            return null;
+        }
+        if (pending.isEmpty() && channel.isWritable()) {
+            return channel.write(frame);
+        }
+        if (pending.size() >= maxPending) {
+            dropped++;
+            switch (policy) {
+                case DROP_NEWEST:
+                    frame.release();
+                    listeners.onSubscriberBacklog(channel, pending.size(), dropped);
+                    return null;
+                case DISCONNECT:
+                    frame.release();
+                    listeners.onSubscriberBacklog(channel, pending.size(), dropped);
+                    channel.close();
+                    return null;
+                default:
+                    pending.poll().release();
+            }
+        }
+        pending.add(frame);
+        listeners.onSubscriberBacklog(channel, pending.size(), dropped);
+        return null;
+    }
+
+    /**
+     * Write as much of the backlog as the channel will take, and flush once.
+     */
+    private void drain() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        while (!pending.isEmpty() && channel.isWritable()) {
+            channel.write(pending.poll());
+        }
+        channel.flush();
+        listeners.onSubscriberBacklog(channel, pending.size(), dropped);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            drain();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void operationComplete(ChannelFuture future) {
+        // Channel closed - closeFuture listeners run on the event loop
+        closed = true;
+        WebSocketFrame frame;
+        while ((frame = pending.poll()) != null) {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.pubsub;
+
+import com.mastfrog.util.preconditions.ConfigurationError;
+import java.util.Locale;
+
+/**
+ * What the bus does with messages for a subscriber whose channel is not
+ * writable (its outbound buffer is over the high watermark) once that
+ * subscriber's queue of waiting messages is full.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+public enum OverflowPolicy {
+    /**
+     * Discard the oldest waiting message to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the new message, keeping those already waiting.
+     */
+    DROP_NEWEST,
+    /**
+     * Close the subscriber's channel; clients are expected to reconnect.
+     */
+    DISCONNECT;
+
+    static OverflowPolicy parse(String value) {
+        if (value == null) {
+            return DROP_OLDEST;
+        }
+        String name = value.trim().toUpperCase(Locale.ROOT).replace('-', '_').replace('.', '_');
+        for (OverflowPolicy policy : values()) {
+            if (policy.name().equals(name)) {
+                return policy;
+            }
+        }
+        StringBuilder valid = new StringBuilder();
+        for (OverflowPolicy policy : values()) {
+            if (valid.length() > 0) {
+                valid.append(", ");
+            }
+            valid.append(policy.name().toLowerCase(Locale.ROOT).replace('_', '-'));
+        }
+        throw new ConfigurationError("Unknown value for " + PubSubBus.SETTINGS_KEY_OVERFLOW_POLICY
+                + " '" + value + "'; valid values are " + valid);
+    }
+}
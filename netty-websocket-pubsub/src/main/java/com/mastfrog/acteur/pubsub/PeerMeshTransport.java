@@ -0,0 +1,630 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.pubsub;
+
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.settings.Settings;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * A BusTransport which connects nodes directly to each other over TCP. Each
+ * node listens on a port and connects to the peers it is configured with;
+ * connections are used in both directions, so it is enough for one of any two
+ * nodes to list the other. Whenever a node gains its first local subscriber
+ * for an id or pattern, or loses its last, it tells its peers, and a message
+ * published to an id is only sent to the peers which have subscribers for it
+ * or for a pattern matching it.
+ * <p>
+ * Messages received from a peer are delivered locally and not passed on, so
+ * every node must be connected to every other node. If two nodes connect to
+ * each other at the same time, the connection opened by the node with the
+ * lower node id is kept.
+ * <p>
+ * Forwarded bytes and the time taken to write them to each peer are reported
+ * to {@link BusListener#onForward}.
+ * <p>
+ * To use, bind BusTransport to this class and set
+ * <code>pubsub.mesh.port</code> and <code>pubsub.mesh.peers</code>.
+ * <p>
+ * <b>Exposure:</b> by default the transport only listens on the loopback
+ * address. Anything which can connect to the mesh port can publish to every
+ * subscriber on the node and learn which ids are subscribed to, so before
+ * setting <code>pubsub.mesh.host</code> to an address other machines can
+ * reach, set <code>pubsub.mesh.secret</code> to the same value on every node;
+ * peers then have to prove they know it before anything they send is
+ * accepted. The secret is never sent, but traffic is not encrypted - on
+ * untrusted networks, run the mesh over a private network or tunnel.
+ *
+ * @author Tim Boudreau
+ * @since 2.5.0
+ */
+@Singleton
+public final class PeerMeshTransport implements BusTransport {
+
+    /**
+     * Settings key for the port to accept connections from peers on. If
+     * unset, this node only connects out to its configured peers.
+     */
+    public static final String SETTINGS_KEY_MESH_PORT = "pubsub.mesh.port";
+    /**
+     * Settings key for the address to listen on; by default the loopback
+     * address. Set to <code>0.0.0.0</code> to listen on all interfaces.
+     */
+    public static final String SETTINGS_KEY_MESH_HOST = "pubsub.mesh.host";
+    /**
+     * Settings key for a secret shared by all nodes in the mesh. If set, a
+     * peer is only admitted once it has answered a challenge with an
+     * HMAC-SHA256 of it, and nodes without it (or with a different one) are
+     * disconnected.
+     */
+    public static final String SETTINGS_KEY_MESH_SECRET = "pubsub.mesh.secret";
+    /**
+     * Settings key for a comma-delimited list of <code>host:port</code>
+     * peers to connect to. It is harmless for the list to include this node.
+     */
+    public static final String SETTINGS_KEY_MESH_PEERS = "pubsub.mesh.peers";
+    /**
+     * Settings key for this node's id, which must be unique across the mesh;
+     * by default a random UUID.
+     */
+    public static final String SETTINGS_KEY_MESH_NODE_ID = "pubsub.mesh.node.id";
+    /**
+     * Settings key for the delay before reconnecting to a peer.
+     */
+    public static final String SETTINGS_KEY_MESH_RECONNECT_MILLIS = "pubsub.mesh.reconnect.millis";
+    /**
+     * Default reconnect delay.
+     */
+    public static final long DEFAULT_MESH_RECONNECT_MILLIS = 1000;
+
+    static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    /**
+     * The longest node or channel id, in UTF-8 bytes, which can be sent to a
+     * peer.
+     */
+    static final int MAX_STRING_BYTES = 65535;
+    private static final int NONCE_BYTES = 16;
+    private static final String HMAC = "HmacSHA256";
+    private static final byte HELLO = 1;
+    private static final byte INTEREST = 2;
+    private static final byte NO_INTEREST = 3;
+    private static final byte PUBLISH = 4;
+    private static final byte BROADCAST = 5;
+    private static final byte AUTH = 6;
+
+    private final String nodeId;
+    private final Integer port;
+    private final String host;
+    private final long reconnectMillis;
+    private final SecretKeySpec secret;
+    private final SecureRandom random = new SecureRandom();
+    private final BusListener.Registry listeners;
+    private final EventLoopGroup group;
+    private final List<InetSocketAddress> configuredPeers = new ArrayList<>();
+    private final Set<ChannelId> localInterest = ConcurrentHashMap.newKeySet();
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private final List<Dialer> dialers = new CopyOnWriteArrayList<>();
+    private volatile Receiver receiver;
+    private volatile Channel server;
+    private volatile boolean shutdown;
+
+    @Inject
+    PeerMeshTransport(Settings settings, ShutdownHookRegistry reg, BusListener.Registry listeners) {
+        String id = settings.getString(SETTINGS_KEY_MESH_NODE_ID);
+        this.nodeId = id == null ? UUID.randomUUID().toString() : id;
+        if (nodeId.getBytes(CharsetUtil.UTF_8).length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException(SETTINGS_KEY_MESH_NODE_ID + " is longer than "
+                    + MAX_STRING_BYTES + " bytes");
+        }
+        this.port = settings.getInt(SETTINGS_KEY_MESH_PORT);
+        this.host = settings.getString(SETTINGS_KEY_MESH_HOST);
+        this.reconnectMillis = settings.getLong(SETTINGS_KEY_MESH_RECONNECT_MILLIS, DEFAULT_MESH_RECONNECT_MILLIS);
+        String sharedSecret = settings.getString(SETTINGS_KEY_MESH_SECRET);
+        this.secret = sharedSecret == null || sharedSecret.isEmpty() ? null
+                : new SecretKeySpec(sharedSecret.getBytes(CharsetUtil.UTF_8), HMAC);
+        this.listeners = listeners;
+        String peerList = settings.getString(SETTINGS_KEY_MESH_PEERS);
+        if (peerList != null) {
+            for (String peer : peerList.split(",")) {
+                peer = peer.trim();
+                int ix = peer.lastIndexOf(':');
+                if (ix <= 0) {
+                    throw new IllegalArgumentException("Bad peer address '" + peer + "' in "
+                            + SETTINGS_KEY_MESH_PEERS + " - should be host:port");
+                }
+                configuredPeers.add(InetSocketAddress.createUnresolved(peer.substring(0, ix),
+                        Integer.parseInt(peer.substring(ix + 1))));
+            }
+        }
+        group = new NioEventLoopGroup(2, new DefaultThreadFactory("pubsub-mesh", true));
+        reg.add((Runnable) this::shutdown);
+    }
+
+    /**
+     * Get this node's id.
+     *
+     * @return The id
+     */
+    public String nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Get the address this node accepts peer connections on.
+     *
+     * @return An address, or null if not listening
+     */
+    public InetSocketAddress localAddress() {
+        Channel ch = server;
+        return ch == null ? null : (InetSocketAddress) ch.localAddress();
+    }
+
+    /**
+     * Get the ids of the nodes this one is currently connected to.
+     *
+     * @return A set of node ids
+     */
+    public Set<String> connectedPeers() {
+        return new HashSet<>(peers.keySet());
+    }
+
+    /**
+     * Connect to a peer in addition to those in settings.
+     *
+     * @param address The peer's address
+     */
+    public void addPeer(InetSocketAddress address) {
+        Dialer dialer = new Dialer(address);
+        dialers.add(dialer);
+        dialer.connect();
+    }
+
+    boolean isPeerInterested(String peer, ChannelId id) {
+        Peer p = peers.get(peer);
+        return p != null && p.wants(id);
+    }
+
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        if (port != null) {
+            InetSocketAddress addr = host == null
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                    : new InetSocketAddress(host, port);
+            server = new ServerBootstrap().group(group)
+                    .channel(NioServerSocketChannel.class)
+                    .childHandler(new Init(null))
+                    .bind(addr).syncUninterruptibly().channel();
+        }
+        for (InetSocketAddress peer : configuredPeers) {
+            addPeer(new InetSocketAddress(peer.getHostString(), peer.getPort()));
+        }
+    }
+
+    @Override
+    public void interest(ChannelId id, boolean subscribed) {
+        if (subscribed ? localInterest.add(id) : localInterest.remove(id)) {
+            for (Peer peer : peers.values()) {
+                peer.sendInterest(id);
+            }
+        }
+    }
+
+    @Override
+    public void forward(Set<ChannelId> to, ByteBuf payload) {
+        long start = System.nanoTime();
+        for (Peer peer : peers.values()) {
+            if (to == null) {
+                peer.send(BROADCAST, null, payload, start);
+                continue;
+            }
+            List<ChannelId> wanted = null;
+            for (ChannelId id : to) {
+                if (peer.wants(id)) {
+                    if (wanted == null) {
+                        wanted = new ArrayList<>(to.size());
+                    }
+                    wanted.add(id);
+                }
+            }
+            if (wanted != null) {
+                peer.send(PUBLISH, wanted, payload, start);
+            }
+        }
+    }
+
+    void shutdown() {
+        shutdown = true;
+        Channel srv = server;
+        if (srv != null) {
+            srv.close();
+        }
+        for (Peer peer : peers.values()) {
+            peer.channel.close();
+        }
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    private void wake(String peerId) {
+        for (Dialer dialer : dialers) {
+            dialer.wake(peerId);
+        }
+    }
+
+    static void writeString(String s, ByteBuf into) {
+        byte[] bytes = s.getBytes(CharsetUtil.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Cannot send an id of " + bytes.length
+                    + " bytes to peers; the limit is " + MAX_STRING_BYTES + ": "
+                    + s.substring(0, 40) + "...");
+        }
+        into.writeShort(bytes.length).writeBytes(bytes);
+    }
+
+    private byte[] sign(byte[] nonce, String id) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(secret);
+            mac.update(nonce);
+            return mac.doFinal(id.getBytes(CharsetUtil.UTF_8));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static String readString(ByteBuf from) {
+        int length = from.readUnsignedShort();
+        String result = from.toString(from.readerIndex(), length, CharsetUtil.UTF_8);
+        from.skipBytes(length);
+        return result;
+    }
+
+    private final class Init extends ChannelInitializer<Channel> {
+
+        private final Dialer dialer;
+
+        Init(Dialer dialer) {
+            this.dialer = dialer;
+        }
+
+        @Override
+        protected void initChannel(Channel ch) throws Exception {
+            ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(MAX_FRAME_BYTES, 0, 4, 0, 4),
+                    new LengthFieldPrepender(4), new Peer(dialer));
+        }
+    }
+
+    /**
+     * One connection to another node.
+     */
+    private final class Peer extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private final Dialer dialer;
+        private final Set<ChannelId> interest = ConcurrentHashMap.newKeySet();
+        private final TopicTrie patterns = new TopicTrie();
+        private volatile Channel channel;
+        private volatile String remoteId;
+        private volatile boolean admitted;
+        // Sent in our HELLO; the peer must return it signed with the secret
+        private final byte[] nonce = new byte[NONCE_BYTES];
+
+        Peer(Dialer dialer) {
+            this.dialer = dialer;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            channel = ctx.channel();
+            random.nextBytes(nonce);
+            ByteBuf hello = ctx.alloc().buffer();
+            hello.writeByte(HELLO);
+            writeString(nodeId, hello);
+            hello.writeBytes(nonce);
+            ctx.writeAndFlush(hello);
+            super.channelActive(ctx);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+            byte type = msg.readByte();
+            if (type == HELLO) {
+                if (remoteId != null) {
+                    return;
+                }
+                String id = readString(msg);
+                if (secret == null) {
+                    onHello(id);
+                } else {
+                    // Prove we know the secret, and wait for the peer to
+                    // do the same before admitting it
+                    remoteId = id;
+                    byte[] theirNonce = new byte[NONCE_BYTES];
+                    msg.readBytes(theirNonce);
+                    ByteBuf auth = ctx.alloc().buffer();
+                    auth.writeByte(AUTH);
+                    auth.writeBytes(sign(theirNonce, nodeId));
+                    ctx.writeAndFlush(auth);
+                }
+                return;
+            }
+            if (type == AUTH && secret != null && remoteId != null && !admitted) {
+                byte[] proof = new byte[msg.readableBytes()];
+                msg.readBytes(proof);
+                if (MessageDigest.isEqual(proof, sign(nonce, remoteId))) {
+                    onHello(remoteId);
+                } else {
+                    ctx.close();
+                }
+                return;
+            }
+            if (!admitted) {
+                return;
+            }
+            Receiver r = receiver;
+            switch (type) {
+                case INTEREST:
+                    ChannelId added = new ChannelId(readString(msg));
+                    if (added.isWildcard()) {
+                        patterns.add(added);
+                    } else {
+                        interest.add(added);
+                    }
+                    break;
+                case NO_INTEREST:
+                    ChannelId removed = new ChannelId(readString(msg));
+                    if (removed.isWildcard()) {
+                        patterns.remove(removed);
+                    } else {
+                        interest.remove(removed);
+                    }
+                    break;
+                case PUBLISH:
+                    int count = msg.readUnsignedShort();
+                    Set<ChannelId> ids = new HashSet<>(count * 2);
+                    for (int i = 0; i < count; i++) {
+                        ids.add(new ChannelId(readString(msg)));
+                    }
+                    if (r != null) {
+                        r.onRemoteMessage(ids, msg);
+                    }
+                    break;
+                case BROADCAST:
+                    if (r != null) {
+                        r.onRemoteMessage(null, msg);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown message type " + type + " from " + remoteId);
+            }
+        }
+
+        private void onHello(String id) {
+            remoteId = id;
+            if (nodeId.equals(id)) {
+                // Connected to ourselves
+                retire();
+                return;
+            }
+            Peer loser;
+            synchronized (peers) {
+                Peer existing = peers.get(id);
+                if (existing == null) {
+                    loser = null;
+                } else {
+                    // Both ends make the same choice: keep the connection
+                    // opened by the node with the lower id
+                    boolean keepOutbound = nodeId.compareTo(id) < 0;
+                    boolean preferThis = (dialer != null) == keepOutbound
+                            && (existing.dialer != null) != keepOutbound;
+                    loser = preferThis ? existing : this;
+                }
+                if (loser != this) {
+                    peers.put(id, this);
+                    admitted = true;
+                }
+            }
+            if (loser != null) {
+                loser.retire();
+            }
+            if (admitted) {
+                for (ChannelId interested : localInterest) {
+                    sendInterest(interested);
+                }
+            }
+        }
+
+        boolean wants(ChannelId id) {
+            return interest.contains(id) || !patterns.match(id).isEmpty();
+        }
+
+        private void retire() {
+            admitted = false;
+            if (dialer != null) {
+                // Don't reconnect while the surviving connection is up
+                dialer.park(remoteId);
+            }
+            channel.close();
+        }
+
+        void sendInterest(ChannelId id) {
+            // Writes are ordered on the channel's event loop, and each sends
+            // the interest as it is when it is written, not as it was when
+            // it changed - so a change racing with another, or with the
+            // snapshot sent on hello, cannot leave the peer holding a stale
+            // state by arriving after it
+            EventLoop loop = channel.eventLoop();
+            if (loop.inEventLoop()) {
+                writeInterest(id);
+            } else {
+                loop.execute(() -> writeInterest(id));
+            }
+        }
+
+        private void writeInterest(ChannelId id) {
+            if (!channel.isActive()) {
+                return;
+            }
+            boolean subscribed = localInterest.contains(id);
+            ByteBuf buf = channel.alloc().buffer();
+            try {
+                buf.writeByte(subscribed ? INTEREST : NO_INTEREST);
+                writeString(id.toString(), buf);
+            } catch (RuntimeException ex) {
+                buf.release();
+                throw ex;
+            }
+            channel.writeAndFlush(buf);
+        }
+
+        void send(byte type, Collection<ChannelId> ids, ByteBuf payload, long start) {
+            ByteBuf header = channel.alloc().buffer();
+            try {
+                header.writeByte(type);
+                if (ids != null) {
+                    header.writeShort(ids.size());
+                    for (ChannelId id : ids) {
+                        writeString(id.toString(), header);
+                    }
+                }
+            } catch (RuntimeException ex) {
+                header.release();
+                throw ex;
+            }
+            CompositeByteBuf msg = channel.alloc().compositeBuffer(2);
+            msg.addComponents(true, header, payload.retainedDuplicate());
+            // Includes the length prefix
+            int bytes = msg.readableBytes() + 4;
+            String peer = remoteId;
+            channel.writeAndFlush(msg).addListener((ChannelFuture f) -> {
+                if (f.isSuccess()) {
+                    listeners.onForward(peer, bytes, System.nanoTime() - start);
+                }
+            });
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            String id = remoteId;
+            if (id != null && peers.remove(id, this)) {
+                wake(id);
+            }
+            if (dialer != null) {
+                dialer.retry();
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            ctx.close();
+        }
+    }
+
+    /**
+     * Maintains an outbound connection to a configured peer.
+     */
+    private final class Dialer {
+
+        private final InetSocketAddress address;
+        private final Bootstrap bootstrap;
+        private volatile String parkedOn;
+
+        Dialer(InetSocketAddress address) {
+            this.address = address;
+            this.bootstrap = new Bootstrap().group(group)
+                    .channel(NioSocketChannel.class)
+                    .handler(new Init(this));
+        }
+
+        void connect() {
+            if (shutdown) {
+                return;
+            }
+            bootstrap.connect(address).addListener((ChannelFuture f) -> {
+                if (!f.isSuccess()) {
+                    retry();
+                }
+            });
+        }
+
+        void retry() {
+            if (shutdown || parkedOn != null) {
+                return;
+            }
+            try {
+                group.schedule(this::connect, reconnectMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                // shutting down
+            }
+        }
+
+        void park(String peerId) {
+            parkedOn = peerId;
+        }
+
+        void wake(String peerId) {
+            if (peerId.equals(parkedOn)) {
+                parkedOn = null;
+                retry();
+            }
+        }
+    }
+}
@@ -39,6 +39,29 @@ import java.util.concurrent.Future;
 @ImplementedBy(Bus.class)
 public interface PubSubBus {
 
+    /**
+     * Settings key for the number of messages which may wait for a
+     * subscriber whose channel is not writable, before the overflow policy
+     * is applied.
+     *
+     * @since 2.5.0
+     */
+    public static final String SETTINGS_KEY_SUBSCRIBER_MAX_PENDING = "pubsub.subscriber.max.pending";
+    /**
+     * Default maximum number of waiting messages per subscriber.
+     *
+     * @since 2.5.0
+     */
+    public static final int DEFAULT_SUBSCRIBER_MAX_PENDING = 256;
+    /**
+     * Settings key for the {@link OverflowPolicy} applied when a subscriber's
+     * queue is full - one of drop-oldest (the default), drop-newest or
+     * disconnect.
+     *
+     * @since 2.5.0
+     */
+    public static final String SETTINGS_KEY_OVERFLOW_POLICY = "pubsub.overflow.policy";
+
     /**
      * Broadcast a message to all channels known to this bus.
      *
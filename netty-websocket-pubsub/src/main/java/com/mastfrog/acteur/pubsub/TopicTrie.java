@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.pubsub;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Matches concrete channel ids against the wildcard patterns channels are
+ * subscribed to. Patterns are stored in a trie keyed by level, so matching a
+ * topic visits only the branches that can match it rather than every
+ * pattern; and the patterns matching each concrete topic are cached until
+ * the set of patterns changes.
+ * <p>
+ * Only patterns go in the trie; subscribers to concrete ids are found by a
+ * plain lookup. Mutations are serialized; matching is lock-free.
+ *
+ * @author Tim Boudreau
+ */
+final class TopicTrie {
+
+    static final int MAX_CACHED_TOPICS = 4096;
+    private final Node root = new Node();
+    private volatile int patternCount;
+    private volatile ConcurrentHashMap<ChannelId, List<ChannelId>> cache = new ConcurrentHashMap<>();
+
+    synchronized boolean add(ChannelId pattern) {
+        String[] levels = pattern.levels();
+        Node node = root;
+        int last = levels.length - 1;
+        for (int i = 0; i < last; i++) {
+            node = node.children.computeIfAbsent(levels[i], l -> new Node());
+        }
+        boolean added;
+        if (ChannelId.MULTI_LEVEL_WILDCARD.equals(levels[last])) {
+            added = node.rest == null;
+            node.rest = pattern;
+        } else {
+            node = node.children.computeIfAbsent(levels[last], l -> new Node());
+            added = node.exact == null;
+            node.exact = pattern;
+        }
+        if (added) {
+            patternCount++;
+            invalidate();
+        }
+        return added;
+    }
+
+    synchronized boolean remove(ChannelId pattern) {
+        boolean removed = remove(root, pattern.levels(), 0);
+        if (removed) {
+            patternCount--;
+            invalidate();
+        }
+        return removed;
+    }
+
+    private boolean remove(Node node, String[] levels, int ix) {
+        if (ix == levels.length - 1 && ChannelId.MULTI_LEVEL_WILDCARD.equals(levels[ix])) {
+            boolean result = node.rest != null;
+            node.rest = null;
+            return result;
+        }
+        if (ix == levels.length) {
+            boolean result = node.exact != null;
+            node.exact = null;
+            return result;
+        }
+        Node child = node.children.get(levels[ix]);
+        if (child == null) {
+            return false;
+        }
+        boolean result = remove(child, levels, ix + 1);
+        if (child.isEmpty()) {
+            node.children.remove(levels[ix], child);
+        }
+        return result;
+    }
+
+    private void invalidate() {
+        // Replace rather than clear, so a lookup racing with this change
+        // caches its possibly stale result in a map nobody will read
+        cache = new ConcurrentHashMap<>();
+    }
+
+    boolean isEmpty() {
+        return patternCount == 0;
+    }
+
+    /**
+     * Get the patterns which match a concrete topic.
+     *
+     * @param topic A topic
+     * @return The matching patterns, which may be empty
+     */
+    List<ChannelId> match(ChannelId topic) {
+        if (patternCount == 0) {
+            return Collections.emptyList();
+        }
+        ConcurrentHashMap<ChannelId, List<ChannelId>> cache = this.cache;
+        List<ChannelId> result = cache.get(topic);
+        if (result == null) {
+            List<ChannelId> found = new ArrayList<>(2);
+            collect(root, topic.levels(), 0, found);
+            result = found.isEmpty() ? Collections.emptyList() : found;
+            if (cache.size() >= MAX_CACHED_TOPICS) {
+                cache.clear();
+            }
+            cache.put(topic, result);
+        }
+        return result;
+    }
+
+    private void collect(Node node, String[] levels, int ix, List<ChannelId> into) {
+        ChannelId rest = node.rest;
+        if (rest != null) {
+            into.add(rest);
+        }
+        if (ix == levels.length) {
+            ChannelId exact = node.exact;
+            if (exact != null) {
+                into.add(exact);
+            }
+            return;
+        }
+        Node child = node.children.get(levels[ix]);
+        if (child != null) {
+            collect(child, levels, ix + 1, into);
+        }
+        Node any = node.children.get(ChannelId.WILDCARD);
+        if (any != null && any != child) {
+            collect(any, levels, ix + 1, into);
+        }
+    }
+
+    private static final class Node {
+
+        final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>(4);
+        // The pattern ending at this node, if any
+        volatile ChannelId exact;
+        // The pattern ending in ** below this node, if any
+        volatile ChannelId rest;
+
+        boolean isEmpty() {
+            return exact == null && rest == null && children.isEmpty();
+        }
+    }
+}
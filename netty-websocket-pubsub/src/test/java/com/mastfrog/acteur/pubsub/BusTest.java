@@ -26,7 +26,9 @@ package com.mastfrog.acteur.pubsub;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mastfrog.giulius.ShutdownHookRegistry;
 import com.mastfrog.marshallers.netty.NettyContentMarshallers;
+import com.mastfrog.util.preconditions.ConfigurationError;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
@@ -36,8 +38,10 @@ import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.util.CharsetUtil;
 import io.netty.util.concurrent.Future;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -45,6 +49,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 /**
@@ -63,6 +68,20 @@ public class BusTest {
         latch.await(12, TimeUnit.SECONDS);
     }
 
+    @Test
+    public void testParseOverflowPolicy() {
+        assertEquals(OverflowPolicy.DROP_OLDEST, OverflowPolicy.parse(null));
+        assertEquals(OverflowPolicy.DROP_NEWEST, OverflowPolicy.parse(" drop-newest "));
+        assertEquals(OverflowPolicy.DISCONNECT, OverflowPolicy.parse("Disconnect"));
+        try {
+            OverflowPolicy.parse("drop-everything");
+            fail("Should not have parsed");
+        } catch (ConfigurationError e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(PubSubBus.SETTINGS_KEY_OVERFLOW_POLICY));
+            assertTrue(e.getMessage(), e.getMessage().contains("drop-oldest, drop-newest, disconnect"));
+        }
+    }
+
     @Test(timeout = 20000)
     public void testPubSub() throws Throwable {
         CH ch0 = new CH("zeroth");
@@ -85,7 +104,9 @@ public class BusTest {
         ChannelId first = new ChannelId("first");
         ChannelId second = new ChannelId("second");
         try (X x = new X()) {
-            Bus bus = new Bus(x, NettyContentMarshallers.getDefault(new ObjectMapper()), ByteBufAllocator.DEFAULT, Executors.newCachedThreadPool(), new BusListener.Registry());
+            BusListener.Registry registry = new BusListener.Registry();
+            FanOutListener fanOuts = new FanOutListener(registry);
+            Bus bus = new Bus(x, NettyContentMarshallers.getDefault(new ObjectMapper()), ByteBufAllocator.DEFAULT, Executors.newCachedThreadPool(), registry);
             assertTrue(bus.subscribe(c0, first).get());
             bus.subscribe(c1, first).get();
             bus.subscribe(c2, first).get();
@@ -98,6 +119,9 @@ public class BusTest {
 
             ChannelPromise prom = bus.publish("hello", c0, first);
             await(prom);
+            assertTrue(prom.isSuccess());
+            assertEquals("Should have written to three channels", 3, fanOuts.lastCount);
+            assertTrue(fanOuts.lastNanos > 0);
             Thread.sleep(1000);
             ch1.assertLastMessageIs("hello");
             ch2.assertLastMessageIs("hello");
@@ -149,6 +173,111 @@ public class BusTest {
         }
     }
 
+    @Test(timeout = 20000)
+    public void testUnwritableSubscriberIsQueuedAndDrained() throws Throwable {
+        CH ch = new CH("slow");
+        EmbeddedChannel c = new EmbeddedChannel(new Xid(ch.name));
+        c.pipeline().addLast(ch, ch.out);
+        EmbeddedChannel origin = new EmbeddedChannel();
+        ChannelId first = new ChannelId("first");
+        try (X x = new X()) {
+            BusListener.Registry registry = new BusListener.Registry();
+            BacklogListener backlog = new BacklogListener(registry);
+            Bus bus = new Bus(x, NettyContentMarshallers.getDefault(new ObjectMapper()), ByteBufAllocator.DEFAULT,
+                    Executors.newCachedThreadPool(), registry, new LocalOnlyTransport(), 2, OverflowPolicy.DROP_OLDEST);
+            bus.subscribe(c, first).get();
+            c.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+            for (String msg : new String[]{"a", "b", "c"}) {
+                ChannelPromise prom = bus.publish(msg, origin, first);
+                await(prom);
+                assertTrue(prom.isSuccess());
+            }
+            ch.assertNoMessages();
+            assertEquals(2, backlog.pending);
+            assertEquals(1L, backlog.dropped);
+            c.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+            assertEquals(Arrays.asList("b", "c"), ch.msgs);
+            assertEquals(0, backlog.pending);
+
+            ChannelPromise prom = bus.publish("d", origin, first);
+            await(prom);
+            ch.assertLastMessageIs("d");
+        }
+        if (thrown != null) {
+            throw thrown;
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testUnwritableSubscriberIsDisconnected() throws Throwable {
+        CH ch = new CH("slow");
+        EmbeddedChannel c = new EmbeddedChannel(new Xid(ch.name));
+        c.pipeline().addLast(ch, ch.out);
+        EmbeddedChannel origin = new EmbeddedChannel();
+        ChannelId first = new ChannelId("first");
+        try (X x = new X()) {
+            BusListener.Registry registry = new BusListener.Registry();
+            Bus bus = new Bus(x, NettyContentMarshallers.getDefault(new ObjectMapper()), ByteBufAllocator.DEFAULT,
+                    Executors.newCachedThreadPool(), registry, new LocalOnlyTransport(), 1, OverflowPolicy.DISCONNECT);
+            bus.subscribe(c, first).get();
+            c.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+            await(bus.publish("a", origin, first));
+            assertTrue(c.isOpen());
+            await(bus.publish("b", origin, first));
+            assertFalse(c.isOpen());
+            assertFalse(bus.hasSubscribers(first));
+            ch.assertNoMessages();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testWildcardSubscriptions() throws Throwable {
+        CH all = new CH("all");
+        EmbeddedChannel c0 = new EmbeddedChannel(new Xid(all.name));
+        c0.pipeline().addLast(all, all.out);
+        CH gold = new CH("gold");
+        EmbeddedChannel c1 = new EmbeddedChannel(new Xid(gold.name));
+        c1.pipeline().addLast(gold, gold.out);
+        EmbeddedChannel origin = new EmbeddedChannel();
+        ChannelId prices = new ChannelId("prices/**");
+        ChannelId anyGold = new ChannelId("prices/*/gold");
+        try (X x = new X()) {
+            Bus bus = new Bus(x, NettyContentMarshallers.getDefault(new ObjectMapper()), ByteBufAllocator.DEFAULT,
+                    Executors.newCachedThreadPool(), new BusListener.Registry());
+            bus.subscribe(c0, prices).get();
+            bus.subscribe(c1, anyGold).get();
+            bus.subscribe(c1, new ChannelId("prices/eu/gold")).get();
+            assertTrue(bus.hasSubscribers(new ChannelId("prices/us/gold")));
+            assertFalse(bus.hasSubscribers(new ChannelId("rates/us")));
+
+            await(bus.publish("silver", origin, new ChannelId("prices/eu/silver")));
+            all.assertLastMessageIs("silver");
+            gold.assertNoMessages();
+
+            // Subscribed both to the id and a matching pattern; gets it once
+            await(bus.publish("gold", origin, new ChannelId("prices/eu/gold")));
+            all.assertLastMessageIs("gold");
+            assertEquals(Arrays.asList("gold"), gold.msgs);
+
+            bus.unsubscribe(c0, prices).get();
+            await(bus.publish("gold2", origin, new ChannelId("prices/us/gold")));
+            all.assertLastMessageIs("gold");
+            gold.assertLastMessageIs("gold2");
+        }
+        if (thrown != null) {
+            throw thrown;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCannotPublishToPattern() throws Throwable {
+        try (X x = new X()) {
+            Bus bus = new Bus(x, NettyContentMarshallers.getDefault(new ObjectMapper()), ByteBufAllocator.DEFAULT,
+                    Executors.newCachedThreadPool(), new BusListener.Registry());
+            bus.publish("x", new EmbeddedChannel(), new ChannelId("prices/*"));
+        }
+    }
+
     static class CH extends SimpleChannelInboundHandler<Object> {
 
         List<String> msgs = new ArrayList<>();
@@ -212,6 +341,48 @@ public class BusTest {
         }
     }
 
+    static final class FanOutListener extends BusListener {
+
+        volatile int lastCount = -1;
+        volatile long lastNanos;
+
+        FanOutListener(Registry reg) {
+            super(reg);
+        }
+
+        @Override
+        protected <T> void onPublish(T obj, Set<ChannelId> to, Channel origin) {
+            // do nothing
+        }
+
+        @Override
+        protected void onFanOut(Set<ChannelId> to, int channels, long elapsedNanos) {
+            lastCount = channels;
+            lastNanos = elapsedNanos;
+        }
+    }
+
+    static final class BacklogListener extends BusListener {
+
+        volatile int pending = -1;
+        volatile long dropped;
+
+        BacklogListener(Registry reg) {
+            super(reg);
+        }
+
+        @Override
+        protected <T> void onPublish(T obj, Set<ChannelId> to, Channel origin) {
+            // do nothing
+        }
+
+        @Override
+        protected void onSubscriberBacklog(Channel subscriber, int pending, long dropped) {
+            this.pending = pending;
+            this.dropped = dropped;
+        }
+    }
+
     private final class X extends ShutdownHookRegistry implements AutoCloseable {
 
         @Override
@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.pubsub;
+
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ChannelRegistryTest {
+
+    @Test(timeout = 20000)
+    public void testConcurrentChurnLeavesConsistentMapping() throws Throwable {
+        try (Hooks hooks = new Hooks()) {
+            ChannelRegistry<String> reg = new ChannelRegistry<>(hooks);
+            Channel[] channels = new Channel[50];
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = new EmbeddedChannel();
+            }
+            String[] ids = {"a", "b", "c", "d", "e"};
+            ExecutorService svc = Executors.newFixedThreadPool(4);
+            List<Throwable> thrown = new ArrayList<>();
+            CountDownLatch done = new CountDownLatch(4);
+            for (int t = 0; t < 4; t++) {
+                svc.submit(() -> {
+                    try {
+                        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                        for (int i = 0; i < 20000; i++) {
+                            Channel ch = channels[rnd.nextInt(channels.length)];
+                            String id = ids[rnd.nextInt(ids.length)];
+                            if (rnd.nextBoolean()) {
+                                reg.register(id, ch).get();
+                            } else {
+                                reg.unsubscribe(id, ch).get();
+                            }
+                        }
+                    } catch (Throwable ex) {
+                        synchronized (thrown) {
+                            thrown.add(ex);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(15, TimeUnit.SECONDS));
+            svc.shutdown();
+            if (!thrown.isEmpty()) {
+                throw thrown.get(0);
+            }
+            // Both directions of the mapping must agree
+            for (String id : reg.allIds()) {
+                assertFalse("Empty set left for " + id, reg.channels(id).isEmpty());
+                for (Channel ch : reg.channels(id)) {
+                    assertTrue(reg.idsForChannel(ch).contains(id));
+                }
+            }
+            for (Channel ch : reg.allChannels()) {
+                assertFalse(reg.idsForChannel(ch).isEmpty());
+                for (String id : reg.idsForChannel(ch)) {
+                    assertTrue(reg.channels(id).contains(ch));
+                }
+            }
+            // Closing a channel removes it everywhere
+            Channel first = channels[0];
+            reg.register("a", first).get();
+            first.close().sync();
+            assertFalse(reg.allChannels().contains(first));
+            assertFalse(reg.channels("a").contains(first));
+            assertFalse(reg.register("b", first).get());
+            for (Channel ch : channels) {
+                ch.close().sync();
+            }
+            assertEquals(0, reg.allChannels().size());
+            assertEquals(0, reg.allIds().size());
+        }
+    }
+
+    private static final class Hooks extends ShutdownHookRegistry implements AutoCloseable {
+
+        @Override
+        public void close() {
+            super.runShutdownHooks();
+        }
+    }
+}
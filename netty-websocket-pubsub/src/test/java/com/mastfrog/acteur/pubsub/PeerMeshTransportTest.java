@@ -0,0 +1,284 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.pubsub;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mastfrog.acteur.pubsub.BusTest.CH;
+import com.mastfrog.giulius.ShutdownHookRegistry;
+import com.mastfrog.marshallers.netty.NettyContentMarshallers;
+import com.mastfrog.settings.SettingsBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class PeerMeshTransportTest {
+
+    @Test(timeout = 30000)
+    public void testMessagesReachSubscribedPeersOnly() throws Throwable {
+        try (X x = new X()) {
+            Node a = new Node(x, "a");
+            Node b = new Node(x, "b");
+            Node c = new Node(x, "c");
+            assertNotNull(a.transport.localAddress());
+            // b and c dial a, c dials b; a dials b as well to exercise
+            // duplicate connection resolution
+            b.transport.addPeer(a.transport.localAddress());
+            c.transport.addPeer(a.transport.localAddress());
+            c.transport.addPeer(b.transport.localAddress());
+            a.transport.addPeer(b.transport.localAddress());
+            awaitTrue("mesh not connected", () -> a.transport.connectedPeers().size() == 2
+                    && b.transport.connectedPeers().size() == 2
+                    && c.transport.connectedPeers().size() == 2);
+
+            ChannelId x1 = new ChannelId("x");
+            ChannelId y1 = new ChannelId("y");
+            CH onB = new CH("onB");
+            EmbeddedChannel chB = new EmbeddedChannel(onB, onB.out);
+            CH onC = new CH("onC");
+            EmbeddedChannel chC = new EmbeddedChannel(onC, onC.out);
+            b.bus.subscribe(chB, x1).get();
+            c.bus.subscribe(chC, y1).get();
+            awaitTrue("a never learned of b's interest", () -> a.transport.isPeerInterested("b", x1));
+            awaitTrue("a never learned of c's interest", () -> a.transport.isPeerInterested("c", y1));
+            assertFalse(a.transport.isPeerInterested("c", x1));
+
+            EmbeddedChannel origin = new EmbeddedChannel();
+            a.bus.publish("hello", origin, x1);
+            awaitTrue("b never received message", () -> !onB.msgs.isEmpty());
+            onB.assertLastMessageIs("hello");
+            awaitTrue("forward not reported", () -> a.forwards.bytes("b") > 0);
+            Thread.sleep(200);
+            onC.assertNoMessages();
+            assertEquals(0L, a.forwards.bytes("c"));
+
+            c.bus.broadcast("everyone", origin);
+            awaitTrue("b never received broadcast", () -> onB.msgs.size() == 2);
+            onB.assertLastMessageIs("everyone");
+            // the broadcasting node's own subscribers are not its origin
+            awaitTrue("c never received broadcast", () -> onC.msgs.size() == 1);
+
+            b.bus.unsubscribe(chB, x1).get();
+            awaitTrue("a never learned b lost interest", () -> !a.transport.isPeerInterested("b", x1));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentInterestChangesConverge() throws Throwable {
+        try (X x = new X()) {
+            Node a = new Node(x, "a");
+            Node b = new Node(x, "b");
+            ChannelId id = new ChannelId("churn");
+            ExecutorService threads = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    futures.add(threads.submit(() -> {
+                        for (int j = 0; j < 500; j++) {
+                            b.transport.interest(id, true);
+                            b.transport.interest(id, false);
+                        }
+                    }));
+                    if (i == 1) {
+                        // Connect while interest is changing, so the snapshot
+                        // sent on hello races with the changes
+                        b.transport.addPeer(a.transport.localAddress());
+                    }
+                }
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            } finally {
+                threads.shutdown();
+            }
+            awaitTrue("mesh not connected", () -> a.transport.connectedPeers().contains("b"));
+            b.transport.interest(id, true);
+            awaitTrue("a never learned of b's interest", () -> a.transport.isPeerInterested("b", id));
+            b.transport.interest(id, false);
+            awaitTrue("a never learned b lost interest", () -> !a.transport.isPeerInterested("b", id));
+            Thread.sleep(200);
+            assertFalse("Stale interest arrived late", a.transport.isPeerInterested("b", id));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testConnectionToSelfIsDropped() throws Throwable {
+        try (X x = new X()) {
+            Node a = new Node(x, "a");
+            a.transport.addPeer(a.transport.localAddress());
+            Thread.sleep(500);
+            assertTrue(a.transport.connectedPeers().isEmpty());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testListensOnLoopbackByDefault() throws Throwable {
+        try (X x = new X()) {
+            Node a = new Node(x, "a", null, null);
+            assertTrue(a.transport.localAddress().getAddress().isLoopbackAddress());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testSecretRequired() throws Throwable {
+        try (X x = new X()) {
+            Node a = new Node(x, "a", "127.0.0.1", "sesame");
+            Node b = new Node(x, "b", "127.0.0.1", "sesame");
+            Node wrong = new Node(x, "wrong", "127.0.0.1", "open sesame");
+            Node none = new Node(x, "none", "127.0.0.1", null);
+            b.transport.addPeer(a.transport.localAddress());
+            wrong.transport.addPeer(a.transport.localAddress());
+            none.transport.addPeer(a.transport.localAddress());
+            awaitTrue("b not admitted", () -> a.transport.connectedPeers().contains("b")
+                    && b.transport.connectedPeers().contains("a"));
+            Thread.sleep(500);
+            assertEquals(Collections.singleton("b"), a.transport.connectedPeers());
+
+            ChannelId id = new ChannelId("x");
+            CH onA = new CH("onA");
+            EmbeddedChannel chA = new EmbeddedChannel(onA, onA.out);
+            a.bus.subscribe(chA, id).get();
+            awaitTrue("b never learned of a's interest", () -> b.transport.isPeerInterested("a", id));
+            assertFalse(none.transport.isPeerInterested("a", id));
+            none.bus.broadcast("intruder", new EmbeddedChannel());
+            b.bus.publish("friend", new EmbeddedChannel(), id);
+            awaitTrue("a never received message", () -> !onA.msgs.isEmpty());
+            Thread.sleep(200);
+            assertEquals(1, onA.msgs.size());
+            onA.assertLastMessageIs("friend");
+        }
+    }
+
+    @Test
+    public void testOverlongIdsRejected() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() <= PeerMeshTransport.MAX_STRING_BYTES) {
+            sb.append("abcdefghij");
+        }
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            PeerMeshTransport.writeString(sb.toString(), buf);
+            fail("Should not have silently truncated an id of " + sb.length() + " bytes");
+        } catch (IllegalArgumentException ex) {
+            // ok
+        }
+        assertEquals(0, buf.writerIndex());
+        String max = sb.substring(0, PeerMeshTransport.MAX_STRING_BYTES);
+        PeerMeshTransport.writeString(max, buf);
+        assertEquals(max, PeerMeshTransport.readString(buf));
+    }
+
+    static void awaitTrue(String msg, BooleanSupplier test) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if (test.getAsBoolean()) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        fail(msg);
+    }
+
+    static final class Node {
+
+        final PeerMeshTransport transport;
+        final Bus bus;
+        final ForwardListener forwards;
+
+        Node(ShutdownHookRegistry x, String id) throws Exception {
+            this(x, id, "127.0.0.1", null);
+        }
+
+        Node(ShutdownHookRegistry x, String id, String host, String secret) throws Exception {
+            BusListener.Registry registry = new BusListener.Registry();
+            forwards = new ForwardListener(registry);
+            SettingsBuilder sb = new SettingsBuilder()
+                    .add(PeerMeshTransport.SETTINGS_KEY_MESH_NODE_ID, id)
+                    .add(PeerMeshTransport.SETTINGS_KEY_MESH_PORT, 0)
+                    .add(PeerMeshTransport.SETTINGS_KEY_MESH_RECONNECT_MILLIS, 50);
+            if (host != null) {
+                sb.add(PeerMeshTransport.SETTINGS_KEY_MESH_HOST, host);
+            }
+            if (secret != null) {
+                sb.add(PeerMeshTransport.SETTINGS_KEY_MESH_SECRET, secret);
+            }
+            transport = new PeerMeshTransport(sb.build(), x, registry);
+            bus = new Bus(x, NettyContentMarshallers.getDefault(new ObjectMapper()), ByteBufAllocator.DEFAULT,
+                    Executors.newCachedThreadPool(), registry, transport);
+        }
+    }
+
+    static final class ForwardListener extends BusListener {
+
+        private final Map<String, AtomicLong> bytes = new ConcurrentHashMap<>();
+
+        ForwardListener(Registry reg) {
+            super(reg);
+        }
+
+        long bytes(String peer) {
+            AtomicLong result = bytes.get(peer);
+            return result == null ? 0 : result.get();
+        }
+
+        @Override
+        protected <T> void onPublish(T obj, Set<ChannelId> to, Channel origin) {
+            // do nothing
+        }
+
+        @Override
+        protected void onForward(String peer, int count, long elapsedNanos) {
+            bytes.computeIfAbsent(peer, p -> new AtomicLong()).addAndGet(count);
+        }
+    }
+
+    private static final class X extends ShutdownHookRegistry implements AutoCloseable {
+
+        @Override
+        public void close() {
+            super.runShutdownHooks();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.acteur.pubsub;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class TopicTrieTest {
+
+    private static ChannelId id(String name) {
+        return new ChannelId(name);
+    }
+
+    private static void assertMatches(TopicTrie trie, String topic, String... patterns) {
+        assertEquals(topic, new HashSet<>(Arrays.asList(patterns)),
+                new HashSet<>(Arrays.asList(trie.match(id(topic)).stream().map(ChannelId::toString).toArray())));
+    }
+
+    @Test
+    public void testWildcardDetection() {
+        assertFalse(id("prices/eu/gold").isWildcard());
+        assertFalse(id("prices*").isWildcard());
+        assertTrue(id("prices/*").isWildcard());
+        assertTrue(id("prices/*/gold").isWildcard());
+        assertTrue(id("prices/**").isWildcard());
+        assertTrue(id("**").isWildcard());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMultiLevelWildcardMustBeLast() {
+        id("prices/**/gold");
+    }
+
+    @Test
+    public void testMatching() {
+        TopicTrie trie = new TopicTrie();
+        assertTrue(trie.isEmpty());
+        assertTrue(trie.add(id("prices/*")));
+        assertTrue(trie.add(id("prices/*/gold")));
+        assertTrue(trie.add(id("prices/**")));
+        assertTrue(trie.add(id("*/eu/*")));
+        assertFalse(trie.add(id("prices/*")));
+
+        assertMatches(trie, "prices", "prices/**");
+        assertMatches(trie, "prices/eu", "prices/*", "prices/**");
+        assertMatches(trie, "prices/eu/gold", "prices/*/gold", "prices/**", "*/eu/*");
+        assertMatches(trie, "prices/eu/silver", "prices/**", "*/eu/*");
+        assertMatches(trie, "rates/eu/gold", "*/eu/*");
+        assertMatches(trie, "rates/us/gold");
+        assertMatches(trie, "rates");
+    }
+
+    @Test
+    public void testCacheInvalidatedWhenPatternsChange() {
+        TopicTrie trie = new TopicTrie();
+        trie.add(id("prices/*"));
+        List<ChannelId> first = trie.match(id("prices/gold"));
+        assertEquals(Collections.singletonList(id("prices/*")), first);
+        assertSame(first, trie.match(id("prices/gold")));
+
+        trie.add(id("**"));
+        assertMatches(trie, "prices/gold", "prices/*", "**");
+        assertTrue(trie.remove(id("prices/*")));
+        assertFalse(trie.remove(id("prices/*")));
+        assertMatches(trie, "prices/gold", "**");
+        assertTrue(trie.remove(id("**")));
+        assertTrue(trie.isEmpty());
+        assertMatches(trie, "prices/gold");
+    }
+}